@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.automl.demo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Repacks the planes of a YUV_420_888 image into an NV21 buffer.
+ *
+ * <p>Planes are read one row at a time with bulk {@link ByteBuffer#get(byte[], int, int)} calls
+ * that honor the row and pixel strides, so padded rows and both planar and semi-planar chroma
+ * layouts are handled without per-byte buffer access. Output buffers are pooled by frame size and
+ * reused, so repacking allocates nothing once the pool is warm.
+ *
+ * <p>Not thread safe. A buffer returned by {@link #repack} is overwritten by a later call for a
+ * frame of the same size.
+ */
+public final class Yuv420ToNv21Repacker {
+
+  // Number of distinct frame sizes kept in the pool.
+  private static final int POOL_SIZE = 4;
+
+  private final int[] pooledWidths = new int[POOL_SIZE];
+  private final int[] pooledHeights = new int[POOL_SIZE];
+  private final ByteBuffer[] pooledBuffers = new ByteBuffer[POOL_SIZE];
+  private final long[] pooledLastUse = new long[POOL_SIZE];
+  private long useCount;
+
+  // One row of a chroma plane, including its pixel stride.
+  private byte[] uRow = new byte[0];
+  private byte[] vRow = new byte[0];
+
+  /** Returns the size of an NV21 frame of the given dimensions. */
+  public static int getNv21Size(int width, int height) {
+    return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+  }
+
+  /**
+   * Returns a pooled buffer large enough for a {@code width x height} NV21 frame, backed by an
+   * array and rewound.
+   */
+  public ByteBuffer acquireBuffer(int width, int height) {
+    useCount++;
+    int leastRecentlyUsed = 0;
+    for (int i = 0; i < POOL_SIZE; i++) {
+      if (pooledBuffers[i] != null && pooledWidths[i] == width && pooledHeights[i] == height) {
+        pooledLastUse[i] = useCount;
+        pooledBuffers[i].clear();
+        return pooledBuffers[i];
+      }
+      if (pooledLastUse[i] < pooledLastUse[leastRecentlyUsed]) {
+        leastRecentlyUsed = i;
+      }
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[getNv21Size(width, height)]);
+    pooledWidths[leastRecentlyUsed] = width;
+    pooledHeights[leastRecentlyUsed] = height;
+    pooledBuffers[leastRecentlyUsed] = buffer;
+    pooledLastUse[leastRecentlyUsed] = useCount;
+    return buffer;
+  }
+
+  /**
+   * Repacks a YUV_420_888 image into a pooled NV21 buffer and returns it rewound.
+   *
+   * @param yRowStride row stride of the Y plane, whose pixel stride is always 1
+   * @param uvRowStride row stride of the U and V planes
+   * @param uvPixelStride pixel stride of the U and V planes, 1 for planar and 2 for semi-planar
+   */
+  public ByteBuffer repack(
+      ByteBuffer yPlane,
+      int yRowStride,
+      ByteBuffer uPlane,
+      ByteBuffer vPlane,
+      int uvRowStride,
+      int uvPixelStride,
+      int width,
+      int height) {
+    ByteBuffer buffer = acquireBuffer(width, height);
+    byte[] out = buffer.array();
+
+    // Y: one bulk copy if the rows are not padded, otherwise one per row.
+    if (yRowStride == width) {
+      yPlane.position(0);
+      yPlane.get(out, 0, width * height);
+    } else {
+      for (int row = 0; row < height; row++) {
+        yPlane.position(row * yRowStride);
+        yPlane.get(out, row * width, width);
+      }
+    }
+    yPlane.rewind();
+
+    // VU: NV21 interleaves the chroma planes as V, U pairs.
+    int chromaWidth = (width + 1) / 2;
+    int chromaHeight = (height + 1) / 2;
+    int rowLength = (chromaWidth - 1) * uvPixelStride + 1;
+    if (uRow.length < rowLength) {
+      uRow = new byte[rowLength];
+    }
+    int outIndex = width * height;
+    for (int row = 0; row < chromaHeight; row++, outIndex += 2 * chromaWidth) {
+      uPlane.position(row * uvRowStride);
+      uPlane.get(uRow, 0, rowLength);
+      vPlane.position(row * uvRowStride);
+      if (uvPixelStride == 2) {
+        // Semi-planar: the V row already has V at every even offset, so copy it in place and
+        // then overwrite the odd offsets with U. Whatever the V row has there is not trusted,
+        // since it depends on whether the planes share memory as VU or UV.
+        vPlane.get(out, outIndex, rowLength);
+        for (int i = 0; i < rowLength; i += 2) {
+          out[outIndex + i + 1] = uRow[i];
+        }
+      } else {
+        if (vRow.length < rowLength) {
+          vRow = new byte[rowLength];
+        }
+        vPlane.get(vRow, 0, rowLength);
+        if (uvPixelStride == 1) {
+          for (int i = 0; i < chromaWidth; i++) {
+            out[outIndex + 2 * i] = vRow[i];
+            out[outIndex + 2 * i + 1] = uRow[i];
+          }
+        } else {
+          for (int i = 0, o = outIndex; i < rowLength; i += uvPixelStride, o += 2) {
+            out[o] = vRow[i];
+            out[o + 1] = uRow[i];
+          }
+        }
+      }
+    }
+    uPlane.rewind();
+    vPlane.rewind();
+    return buffer;
+  }
+}
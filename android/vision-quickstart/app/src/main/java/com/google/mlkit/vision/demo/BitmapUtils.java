@@ -18,23 +18,18 @@ package com.google.mlkit.vision.demo;
 
 import android.content.ContentResolver;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
 import android.graphics.Matrix;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
-import android.media.Image;
 import android.media.Image.Plane;
 import android.net.Uri;
 import android.os.Build.VERSION_CODES;
 import android.provider.MediaStore;
 import android.util.Log;
+import androidx.annotation.GuardedBy;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.camera.core.ExperimentalGetImage;
 import androidx.camera.core.ImageProxy;
 import androidx.exifinterface.media.ExifInterface;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -43,27 +38,64 @@ import java.nio.ByteBuffer;
 public class BitmapUtils {
   private static final String TAG = "BitmapUtils";
 
-  /** Converts NV21 format byte buffer to bitmap. */
+  // Guards the NV21 buffers of the repacker, which are reused across frames.
+  private static final Object conversionLock = new Object();
+
+  @GuardedBy("conversionLock")
+  private static final Yuv420ToNv21Repacker nv21Repacker = new Yuv420ToNv21Repacker();
+
+  /**
+   * Converts NV21 format byte buffer to bitmap, rotated upright. The bitmap and the scratch arrays
+   * come from {@link FrameBufferPool}; callers that are done with the bitmap should release it
+   * there, as {@link CameraImageGraphic} does.
+   */
   @Nullable
   public static Bitmap getBitmap(ByteBuffer data, FrameMetadata metadata) {
-    data.rewind();
-    byte[] imageInBuffer = new byte[data.limit()];
-    data.get(imageInBuffer, 0, imageInBuffer.length);
+    FrameTracer tracer = FrameTracer.getInstance();
+    long startNanos = tracer.begin(FrameTracer.STAGE_BITMAP_BUILD);
     try {
-      YuvImage image =
-          new YuvImage(
-              imageInBuffer, ImageFormat.NV21, metadata.getWidth(), metadata.getHeight(), null);
-      ByteArrayOutputStream stream = new ByteArrayOutputStream();
-      image.compressToJpeg(new Rect(0, 0, metadata.getWidth(), metadata.getHeight()), 80, stream);
+      return convertToBitmap(data, metadata);
+    } finally {
+      tracer.end(FrameTracer.STAGE_BITMAP_BUILD, startNanos);
+    }
+  }
 
-      Bitmap bmp = BitmapFactory.decodeByteArray(stream.toByteArray(), 0, stream.size());
+  @Nullable
+  private static Bitmap convertToBitmap(ByteBuffer data, FrameMetadata metadata) {
+    int width = metadata.getWidth();
+    int height = metadata.getHeight();
+    int rotation = metadata.getRotation();
+    int outputWidth = Nv21ToArgbConverter.getOutputWidth(width, height, rotation);
+    int outputHeight = Nv21ToArgbConverter.getOutputHeight(width, height, rotation);
+    FrameBufferPool pool = FrameBufferPool.getInstance();
+
+    byte[] nv21;
+    byte[] nv21Copy = null;
+    if (data.hasArray() && data.arrayOffset() == 0) {
+      nv21 = data.array();
+    } else {
+      data.rewind();
+      nv21Copy = pool.acquireByteArray(data.limit());
+      data.get(nv21Copy, 0, data.limit());
+      nv21 = nv21Copy;
+    }
+    if (nv21.length < width * height * 3 / 2) {
+      Log.e(TAG, "NV21 buffer too small for a " + width + "x" + height + " frame");
+      if (nv21Copy != null) {
+        pool.releaseByteArray(nv21Copy);
+      }
+      return null;
+    }
 
-      stream.close();
-      return rotateBitmap(bmp, metadata.getRotation(), false, false);
-    } catch (Exception e) {
-      Log.e("VisionProcessorBase", "Error: " + e.getMessage());
+    int[] argb = pool.acquireIntArray(width * height);
+    Nv21ToArgbConverter.convert(nv21, width, height, rotation, /* mirror= */ false, argb);
+    Bitmap bitmap = pool.acquireBitmap(outputWidth, outputHeight, Bitmap.Config.ARGB_8888);
+    bitmap.setPixels(argb, 0, outputWidth, 0, 0, outputWidth, outputHeight);
+    pool.releaseIntArray(argb);
+    if (nv21Copy != null) {
+      pool.releaseByteArray(nv21Copy);
     }
-    return null;
+    return bitmap;
   }
 
   /** Converts a YUV_420_888 image from CameraX API to a bitmap. */
@@ -78,9 +110,12 @@ public class BitmapUtils {
             .setRotation(image.getImageInfo().getRotationDegrees())
             .build();
 
-    ByteBuffer nv21Buffer =
-        yuv420ThreePlanesToNV21(image.getImage().getPlanes(), image.getWidth(), image.getHeight());
-    return getBitmap(nv21Buffer, frameMetadata);
+    synchronized (conversionLock) {
+      ByteBuffer nv21Buffer =
+          yuv420ThreePlanesToNV21(
+              image.getImage().getPlanes(), image.getWidth(), image.getHeight());
+      return getBitmap(nv21Buffer, frameMetadata);
+    }
   }
 
   /** Rotates a bitmap if it is converted from a bytebuffer. */
@@ -183,100 +218,26 @@ public class BitmapUtils {
    * dimensions, so there are S/4 U values and S/4 V values. In summary, the NV21 array will contain
    * S Y values followed by S/4 VU values: YYYYYYYYYYYYYY(...)YVUVUVUVU(...)VU
    *
-   * <p>YUV_420_888 is a generic format that can describe any YUV image where U and V are subsampled
-   * by a factor of 2 in both dimensions. {@link Image#getPlanes} returns an array with the Y, U and
-   * V planes. The Y plane is guaranteed not to be interleaved, so we can just copy its values into
-   * the first part of the NV21 array. The U and V planes may already have the representation in the
-   * NV21 format. This happens if the planes share the same buffer, the V buffer is one position
-   * before the U buffer and the planes have a pixelStride of 2. If this is case, we can just copy
-   * them to the NV21 array.
+   * <p>The returned buffer is pooled and overwritten by the next frame of the same size, so it
+   * must be used before the conversion lock is released.
    */
+  @GuardedBy("conversionLock")
   private static ByteBuffer yuv420ThreePlanesToNV21(
       Plane[] yuv420888planes, int width, int height) {
-    int imageSize = width * height;
-    byte[] out = new byte[imageSize + 2 * (imageSize / 4)];
-
-    if (areUVPlanesNV21(yuv420888planes, width, height)) {
-      // Copy the Y values.
-      yuv420888planes[0].getBuffer().get(out, 0, imageSize);
-
-      ByteBuffer uBuffer = yuv420888planes[1].getBuffer();
-      ByteBuffer vBuffer = yuv420888planes[2].getBuffer();
-      // Get the first V value from the V buffer, since the U buffer does not contain it.
-      vBuffer.get(out, imageSize, 1);
-      // Copy the first U value and the remaining VU values from the U buffer.
-      uBuffer.get(out, imageSize + 1, 2 * imageSize / 4 - 1);
-    } else {
-      // Fallback to copying the UV values one by one, which is slower but also works.
-      // Unpack Y.
-      unpackPlane(yuv420888planes[0], width, height, out, 0, 1);
-      // Unpack U.
-      unpackPlane(yuv420888planes[1], width, height, out, imageSize + 1, 2);
-      // Unpack V.
-      unpackPlane(yuv420888planes[2], width, height, out, imageSize, 2);
-    }
-
-    return ByteBuffer.wrap(out);
-  }
-
-  /** Checks if the UV plane buffers of a YUV_420_888 image are in the NV21 format. */
-  private static boolean areUVPlanesNV21(Plane[] planes, int width, int height) {
-    int imageSize = width * height;
-
-    ByteBuffer uBuffer = planes[1].getBuffer();
-    ByteBuffer vBuffer = planes[2].getBuffer();
-
-    // Backup buffer properties.
-    int vBufferPosition = vBuffer.position();
-    int uBufferLimit = uBuffer.limit();
-
-    // Advance the V buffer by 1 byte, since the U buffer will not contain the first V value.
-    vBuffer.position(vBufferPosition + 1);
-    // Chop off the last byte of the U buffer, since the V buffer will not contain the last U value.
-    uBuffer.limit(uBufferLimit - 1);
-
-    // Check that the buffers are equal and have the expected number of elements.
-    boolean areNV21 =
-        (vBuffer.remaining() == (2 * imageSize / 4 - 2)) && (vBuffer.compareTo(uBuffer) == 0);
-
-    // Restore buffers to their initial state.
-    vBuffer.position(vBufferPosition);
-    uBuffer.limit(uBufferLimit);
-
-    return areNV21;
-  }
-
-  /**
-   * Unpack an image plane into a byte array.
-   *
-   * <p>The input plane data will be copied in 'out', starting at 'offset' and every pixel will be
-   * spaced by 'pixelStride'. Note that there is no row padding on the output.
-   */
-  private static void unpackPlane(
-      Plane plane, int width, int height, byte[] out, int offset, int pixelStride) {
-    ByteBuffer buffer = plane.getBuffer();
-    buffer.rewind();
-
-    // Compute the size of the current plane.
-    // We assume that it has the aspect ratio as the original image.
-    int numRow = (buffer.limit() + plane.getRowStride() - 1) / plane.getRowStride();
-    if (numRow == 0) {
-      return;
-    }
-    int scaleFactor = height / numRow;
-    int numCol = width / scaleFactor;
-
-    // Extract the data in the output buffer.
-    int outputPos = offset;
-    int rowStart = 0;
-    for (int row = 0; row < numRow; row++) {
-      int inputPos = rowStart;
-      for (int col = 0; col < numCol; col++) {
-        out[outputPos] = buffer.get(inputPos);
-        outputPos += pixelStride;
-        inputPos += plane.getPixelStride();
-      }
-      rowStart += plane.getRowStride();
+    FrameTracer tracer = FrameTracer.getInstance();
+    long startNanos = tracer.begin(FrameTracer.STAGE_YUV_REPACK);
+    try {
+      return nv21Repacker.repack(
+          yuv420888planes[0].getBuffer(),
+          yuv420888planes[0].getRowStride(),
+          yuv420888planes[1].getBuffer(),
+          yuv420888planes[2].getBuffer(),
+          yuv420888planes[1].getRowStride(),
+          yuv420888planes[1].getPixelStride(),
+          width,
+          height);
+    } finally {
+      tracer.end(FrameTracer.STAGE_YUV_REPACK, startNanos);
     }
   }
 }
@@ -20,7 +20,10 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import com.google.mlkit.vision.demo.GraphicOverlay.Graphic;
 
-/** Draw camera image to background. */
+/**
+ * Draw camera image to background. The bitmap is returned to {@link FrameBufferPool} once the
+ * overlay no longer draws it.
+ */
 public class CameraImageGraphic extends Graphic {
 
   private final Bitmap bitmap;
@@ -34,4 +37,9 @@ public class CameraImageGraphic extends Graphic {
   public void draw(Canvas canvas) {
     canvas.drawBitmap(bitmap, getTransformationMatrix(), null);
   }
+
+  @Override
+  protected void release() {
+    FrameBufferPool.getInstance().releaseBitmap(bitmap);
+  }
 }
@@ -25,6 +25,7 @@ import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
 import android.hardware.Camera.Parameters;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
@@ -34,10 +35,10 @@ import androidx.annotation.RequiresPermission;
 import com.google.android.gms.common.images.Size;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Manages the camera and allows UI updates on top of it (e.g. overlaying extra Graphics or
@@ -55,6 +56,10 @@ public class CameraSource {
   public static final int DEFAULT_REQUESTED_CAMERA_PREVIEW_WIDTH = 480;
   public static final int DEFAULT_REQUESTED_CAMERA_PREVIEW_HEIGHT = 360;
 
+  /** Number of preview buffers used unless {@link #setPreviewBufferCount} is called. */
+  public static final int DEFAULT_PREVIEW_BUFFER_COUNT = 4;
+
+
   private static final String TAG = "MIDemoApp:CameraSource";
 
   /**
@@ -102,16 +107,18 @@ public class CameraSource {
 
   private VisionImageProcessor frameProcessor;
 
+  private int previewBufferCount = DEFAULT_PREVIEW_BUFFER_COUNT;
+
   /**
-   * Map to convert between a byte array, received from the camera, and its associated byte buffer.
-   * We use byte buffers internally because this is a more efficient way to call into native code
-   * later (avoids a potential copy).
-   *
-   * <p><b>Note:</b> uses IdentityHashMap here instead of HashMap because the behavior of an array's
-   * equals, hashCode and toString methods is both useless and unexpected. IdentityHashMap enforces
-   * identity ('==') check on the keys.
+   * Preview buffers shared between the camera and the processing thread. We use byte buffers
+   * internally because this is a more efficient way to call into native code later (avoids a
+   * potential copy).
    */
-  private final IdentityHashMap<byte[], ByteBuffer> bytesToByteBuffer = new IdentityHashMap<>();
+  @Nullable private volatile FrameRingBuffer frameRing;
+
+  // Guards handing buffers back to the camera from detection callbacks against the camera being
+  // released.
+  private final Object callbackBufferLock = new Object();
 
   public CameraSource(Activity activity, GraphicOverlay overlay) {
     this.activity = activity;
@@ -215,12 +222,55 @@ public class CameraSource {
       } catch (Exception e) {
         Log.e(TAG, "Failed to clear camera preview: " + e);
       }
-      camera.release();
-      camera = null;
     }
 
-    // Release the reference to any image buffers, since these will no longer be in use.
-    bytesToByteBuffer.clear();
+    FrameRingBuffer ring = frameRing;
+    synchronized (callbackBufferLock) {
+      // Frames still being detected are no longer handed back to the camera once it is released.
+      frameRing = null;
+      if (camera != null) {
+        camera.release();
+        camera = null;
+      }
+    }
+    if (ring != null) {
+      Log.d(
+          TAG,
+          "Preview frames published: "
+              + ring.getPublishedCount()
+              + ", overwritten: "
+              + ring.getOverwrittenCount()
+              + ", dropped: "
+              + ring.getDroppedCount());
+    }
+  }
+
+  /**
+   * Returns how many preview buffers are needed when up to {@code maxFramesInFlight} frames are
+   * detected at once: one for each frame in flight, one waiting in the processor for a detection to
+   * finish, one pending in the ring and at least one for the camera to fill.
+   */
+  public static int getMinPreviewBufferCount(int maxFramesInFlight) {
+    return maxFramesInFlight + 3;
+  }
+
+  /**
+   * Sets how many preview buffers are shared with the camera, at least {@link
+   * #getMinPreviewBufferCount} of the frames in flight configured on the processor. Devices whose
+   * camera runs out of buffers while detection runs need more. Takes effect the next time the
+   * camera starts.
+   */
+  public synchronized void setPreviewBufferCount(int count) {
+    if (count < getMinPreviewBufferCount(1)) {
+      throw new IllegalArgumentException("Invalid preview buffer count: " + count);
+    }
+    previewBufferCount = count;
+  }
+
+  /** Returns the ring of preview buffers in use, or {@code null} if the camera is stopped. */
+  @Nullable
+  public FrameRingBuffer getFrameRing() {
+    return frameRing;
   }
 
   /** Changes the facing of the camera. */
@@ -347,22 +397,25 @@ public class CameraSource {
 
     camera.setParameters(parameters);
 
-    // Four frame buffers are needed for working with the camera:
+    // By default four frame buffers are used for working with the camera, with one frame in
+    // flight:
     //
     //   one for the frame that is currently being executed upon in doing detection
-    //   one for the next pending frame to process immediately upon completing detection
-    //   two for the frames that the camera uses to populate future preview images
+    //   one for the frame waiting in the processor for that detection to complete
+    //   one for the next pending frame in the ring
+    //   one for the frame that the camera uses to populate future preview images
     //
-    // Through trial and error it appears that two free buffers, in addition to the two buffers
-    // used in this code, are needed for the camera to work properly.  Perhaps the camera has
-    // one thread for acquiring images, and another thread for calling into user code.  If only
-    // three buffers are used, then the camera will spew thousands of warning messages when
-    // detection takes a non-trivial amount of time.
+    // Each further frame in flight holds one more buffer until its detection completes, see
+    // getMinPreviewBufferCount. If the camera runs out of free buffers it will spew thousands of
+    // warning messages when detection takes a non-trivial amount of time, so some devices need
+    // more, see setPreviewBufferCount.
+    FrameRingBuffer ring =
+        new FrameRingBuffer(previewBufferCount, getPreviewBufferSize(previewSize));
+    frameRing = ring;
     camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
+    for (int i = 0; i < ring.getCapacity(); i++) {
+      camera.addCallbackBuffer(ring.getArray(i));
+    }
 
     return camera;
   }
@@ -567,29 +620,14 @@ public class CameraSource {
   }
 
   /**
-   * Creates one buffer for the camera preview callback. The size of the buffer is based off of the
-   * camera preview size and the format of the camera image.
-   *
-   * @return a new preview buffer of the appropriate size for the current camera settings
+   * Returns the size of one buffer for the camera preview callback, based off of the camera
+   * preview size and the format of the camera image.
    */
   @SuppressLint("InlinedApi")
-  private byte[] createPreviewBuffer(Size previewSize) {
+  private static int getPreviewBufferSize(Size previewSize) {
     int bitsPerPixel = ImageFormat.getBitsPerPixel(IMAGE_FORMAT);
     long sizeInBits = (long) previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
-    int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
-
-    // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
-    // should guarantee that there will be an array to work with.
-    byte[] byteArray = new byte[bufferSize];
-    ByteBuffer buffer = ByteBuffer.wrap(byteArray);
-    if (!buffer.hasArray() || (buffer.array() != byteArray)) {
-      // I don't think that this will ever happen.  But if it does, then we wouldn't be
-      // passing the preview content to the underlying detector later.
-      throw new IllegalStateException("Failed to create valid buffer for camera source.");
-    }
-
-    bytesToByteBuffer.put(byteArray, buffer);
-    return byteArray;
+    return (int) Math.ceil(sizeInBits / 8.0d) + 1;
   }
 
   // ==============================================================================================
@@ -600,7 +638,10 @@ public class CameraSource {
   private class CameraPreviewCallback implements Camera.PreviewCallback {
     @Override
     public void onPreviewFrame(byte[] data, Camera camera) {
+      FrameTracer tracer = FrameTracer.getInstance();
+      long startNanos = tracer.begin(FrameTracer.STAGE_CAMERA_CALLBACK);
       processingRunnable.setNextFrame(data, camera);
+      tracer.end(FrameTracer.STAGE_CAMERA_CALLBACK, startNanos);
     }
   }
 
@@ -620,61 +661,61 @@ public class CameraSource {
    * (i.e., without unnecessary context switching or waiting on the next frame).
    *
    * <p>While detection is running on a frame, new frames may be received from the camera. As these
-   * frames come in, the most recent frame is held onto as pending. As soon as detection and its
-   * associated processing is done for the previous frame, detection on the mostly recently received
-   * frame will immediately start on the same thread.
+   * frames come in, the most recent frame is held onto as pending in the {@link FrameRingBuffer}.
+   * As soon as detection and its associated processing is done for the previous frame, detection
+   * on the mostly recently received frame will immediately start on the same thread.
+   *
+   * <p>The camera callback thread and the processing thread never block each other: frames are
+   * handed over through the ring, and the processing thread parks when it has nothing to do.
    */
   private class FrameProcessingRunnable implements Runnable {
 
-    // This lock guards all of the member variables below.
-    private final Object lock = new Object();
-    private boolean active = true;
+    private volatile boolean active = true;
 
-    // These pending variables hold the state associated with the new frame awaiting processing.
-    private ByteBuffer pendingFrameData;
+    // The thread running this runnable, unparked when a frame is published.
+    @Nullable private volatile Thread consumerThread;
 
     FrameProcessingRunnable() {}
 
-    /** Marks the runnable as active/not active. Signals any blocked threads to continue. */
+    /** Marks the runnable as active/not active. Wakes up the processing thread if it is parked. */
     void setActive(boolean active) {
-      synchronized (lock) {
-        this.active = active;
-        lock.notifyAll();
+      this.active = active;
+      Thread thread = consumerThread;
+      if (thread != null) {
+        LockSupport.unpark(thread);
       }
     }
 
     /**
      * Sets the frame data received from the camera. This adds the previous unused frame buffer (if
-     * present) back to the camera, and keeps a pending reference to the frame data for future use.
+     * present) back to the camera, and publishes the frame data for the processing thread.
      */
-    @SuppressWarnings("ByteBufferBackingArray")
     void setNextFrame(byte[] data, Camera camera) {
-      synchronized (lock) {
-        if (pendingFrameData != null) {
-          camera.addCallbackBuffer(pendingFrameData.array());
-          pendingFrameData = null;
-        }
-
-        if (!bytesToByteBuffer.containsKey(data)) {
-          Log.d(
-              TAG,
-              "Skipping frame. Could not find ByteBuffer associated with the image "
-                  + "data from the camera.");
-          return;
-        }
-
-        pendingFrameData = bytesToByteBuffer.get(data);
+      FrameRingBuffer ring = frameRing;
+      if (ring == null) {
+        return;
+      }
+      byte[] recycled = ring.publish(data, SystemClock.elapsedRealtimeNanos());
+      if (recycled != null) {
+        camera.addCallbackBuffer(recycled);
+      }
+      if (recycled == data) {
+        Log.d(TAG, "Skipping frame. The image data from the camera is not a preview buffer.");
+        return;
+      }
 
-        // Notify the processor thread if it is waiting on the next frame (see below).
-        lock.notifyAll();
+      // Wake up the processor thread if it is waiting on the next frame (see below).
+      Thread thread = consumerThread;
+      if (thread != null) {
+        LockSupport.unpark(thread);
       }
     }
 
     /**
      * As long as the processing thread is active, this executes detection on frames continuously.
      * The next pending frame is either immediately available or hasn't been received yet. Once it
-     * is available, we transfer the frame info to local variables and run detection on that frame.
-     * It immediately loops back for the next frame without pausing.
+     * is available, we claim its buffer from the ring and run detection on that frame. It
+     * immediately loops back for the next frame without pausing.
      *
      * <p>If detection takes longer than the time in between new frames from the camera, this will
      * mean that this loop will run without ever waiting on a frame, avoiding any context switching
@@ -684,58 +725,90 @@ public class CameraSource {
      * FPS setting above to allow for some idle time in between frames.
      */
     @SuppressLint("InlinedApi")
-    @SuppressWarnings({"GuardedBy", "ByteBufferBackingArray"})
     @Override
     public void run() {
-      ByteBuffer data;
+      consumerThread = Thread.currentThread();
+      try {
+        processFrames();
+      } finally {
+        consumerThread = null;
+      }
+    }
+
+    private void processFrames() {
+      // The ring and camera are replaced only while this thread is not running.
+      FrameRingBuffer ring = frameRing;
+      Camera camera = CameraSource.this.camera;
 
       while (true) {
-        synchronized (lock) {
-          while (active && (pendingFrameData == null)) {
-            try {
-              // Wait for the next frame to be received from the camera, since we
-              // don't have it yet.
-              lock.wait();
-            } catch (InterruptedException e) {
-              Log.d(TAG, "Frame processing loop terminated.", e);
-              return;
+        int slot = ring.take();
+        if (slot == FrameRingBuffer.NO_SLOT) {
+          if (!active) {
+            // Exit the loop once this camera source is stopped or released, returning any frame
+            // that was published in the meantime.
+            byte[] pending = ring.discardPending();
+            if (pending != null) {
+              camera.addCallbackBuffer(pending);
             }
+            return;
           }
-
-          if (!active) {
-            // Exit the loop once this camera source is stopped or released.  We check
-            // this here, immediately after the wait() above, to handle the case where
-            // setActive(false) had been called, triggering the termination of this
-            // loop.
+          // Wait for the next frame to be received from the camera, since we don't have it yet.
+          // Spurious wake-ups simply loop back here.
+          LockSupport.park(this);
+          if (Thread.interrupted()) {
+            Log.d(TAG, "Frame processing loop terminated.");
             return;
           }
-
-          // Hold onto the frame data locally, so that we can use this for detection
-          // below.  We need to clear pendingFrameData to ensure that this buffer isn't
-          // recycled back to the camera before we are done using that data.
-          data = pendingFrameData;
-          pendingFrameData = null;
+          continue;
         }
 
-        // The code below needs to run outside of synchronization, because this will allow
-        // the camera to add pending frame(s) while we are running detection on the current
-        // frame.
+        if (!active) {
+          camera.addCallbackBuffer(ring.release(slot));
+          continue;
+        }
 
+        // The code below runs while the camera keeps publishing frames into the ring, which
+        // never touches the slot we claimed until the processor releases it, once no detection
+        // reads the frame any more.
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable onReleased =
+            () -> {
+              if (released.compareAndSet(false, true)) {
+                returnToCamera(ring, camera, ring.release(slot));
+              }
+            };
         try {
           synchronized (processorLock) {
             frameProcessor.processByteBuffer(
-                data,
+                ring.getFrame(slot),
                 new FrameMetadata.Builder()
                     .setWidth(previewSize.getWidth())
                     .setHeight(previewSize.getHeight())
                     .setRotation(rotationDegrees)
+                    .setTimestampNanos(ring.getTimestampNanos(slot))
+                    .setSequenceId(ring.getSequenceId(slot))
                     .build(),
-                graphicOverlay);
+                graphicOverlay,
+                onReleased);
           }
         } catch (Exception t) {
           Log.e(TAG, "Exception thrown from receiver.", t);
-        } finally {
-          camera.addCallbackBuffer(data.array());
+          onReleased.run();
+        }
+      }
+    }
+
+    /**
+     * Hands a released buffer back to {@code camera}, unless the camera was released since {@code
+     * ring} was set up. Called from whichever thread completed the frame's detection.
+     */
+    private void returnToCamera(FrameRingBuffer ring, Camera camera, @Nullable byte[] buffer) {
+      if (buffer == null) {
+        return;
+      }
+      synchronized (callbackBufferLock) {
+        if (frameRing == ring) {
+          camera.addCallbackBuffer(buffer);
         }
       }
     }
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.android.gms.tasks.Task;
+import com.google.mlkit.vision.common.InputImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares ML Kit detector clients between processors, so that switching from one detector to
+ * another and back does not load its model and pay its first inference again.
+ *
+ * <p>Clients are created on first {@link #acquire} of their key, usually their options, and
+ * counted as in use until as many {@link #release} calls. Clients no longer in use stay open until
+ * the idle ones take more than the memory budget, and are then closed least recently used first,
+ * or when the system runs low on memory. Their memory is estimated from the growth of the native
+ * heap while they were created and warmed up, a rough figure, and at least {@link
+ * #MIN_COST_BYTES}.
+ *
+ * <p>Clients load their model lazily, on their first image, so the time a client took to create
+ * plus that of its first detection, started through {@link #detect} or {@link #warmUp}, is
+ * recorded as a cold initialization. Acquisitions of open clients are recorded as warm ones.
+ * Clients are created outside of the registry's lock, so that creating one does not hold up the
+ * release or acquisition of others. Thread safe.
+ */
+public final class DetectorRegistry {
+
+  /** Memory idle clients may take before the least recently used ones are closed. */
+  public static final long DEFAULT_IDLE_BUDGET_BYTES = 64L << 20;
+
+  /** Memory counted for a client, whatever the native heap growth its creation caused. */
+  public static final long MIN_COST_BYTES = 4L << 20;
+
+  // Size of the blank frame clients are warmed up with, about that of a camera preview.
+  private static final int WARM_UP_WIDTH = 640;
+  private static final int WARM_UP_HEIGHT = 480;
+
+  private static final String TAG = "DetectorRegistry";
+
+  private static final DetectorRegistry instance = new DetectorRegistry();
+
+  /** Creates a client when its key is not in the registry. */
+  public interface Factory<D extends Closeable> {
+    D create();
+  }
+
+  /** Runs an image through a client, e.g. by calling its {@code process} method. */
+  public interface Processor<D extends Closeable> {
+    Task<?> process(D detector, InputImage image);
+  }
+
+  /** Starts a detection, e.g. by calling the {@code process} method of a client. */
+  public interface Detection<R> {
+    Task<R> start();
+  }
+
+  private final Object lock = new Object();
+
+  // Entries in least recently used order.
+  @GuardedBy("lock")
+  private final LinkedHashMap<Object, Entry> entries =
+      new LinkedHashMap<>(
+          /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true);
+
+  @GuardedBy("lock")
+  private final Map<Closeable, Entry> entriesByDetector = new IdentityHashMap<>();
+
+  @GuardedBy("lock")
+  private long idleBudgetBytes = DEFAULT_IDLE_BUDGET_BYTES;
+
+  @GuardedBy("lock")
+  private boolean memoryCallbacksRegistered;
+
+  private final LatencyHistogram coldInitLatency = new LatencyHistogram("detector cold init");
+  private final LatencyHistogram warmInitLatency = new LatencyHistogram("detector warm init");
+  private final LatencyHistogram warmUpLatency = new LatencyHistogram("detector warm-up");
+
+  private DetectorRegistry() {}
+
+  /** Returns the registry shared by all processors. */
+  public static DetectorRegistry getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns the client registered under {@code key}, created by {@code factory} if there is none,
+   * and counts it as in use until it is given to {@link #release}. The key must tell clients of
+   * different kinds apart, as options classes do, and be equal for equivalent clients. Callers
+   * acquiring a key another thread is creating a client for wait until it is created.
+   */
+  @SuppressWarnings("unchecked") // Keys are only ever used with clients of one type.
+  public <D extends Closeable> D acquire(Object key, Factory<D> factory) {
+    long startNanos = SystemClock.elapsedRealtimeNanos();
+    Entry entry;
+    synchronized (lock) {
+      entry = entries.get(key);
+      boolean interrupted = false;
+      while (entry != null && entry.detector == null) {
+        // Another thread is creating the client.
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+        entry = entries.get(key);
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (entry != null) {
+        entry.references++;
+        warmInitLatency.recordNanos(SystemClock.elapsedRealtimeNanos() - startNanos);
+        return (D) entry.detector;
+      }
+      // Holds the key, and a reference so that it is not closed, while the client is created.
+      entry = new Entry(key);
+      entry.references = 1;
+      entries.put(key, entry);
+    }
+    long nativeHeapBytes = Debug.getNativeHeapAllocatedSize();
+    D detector;
+    try {
+      detector = factory.create();
+    } catch (RuntimeException e) {
+      synchronized (lock) {
+        entries.remove(key);
+        lock.notifyAll();
+      }
+      throw e;
+    }
+    long createNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+    synchronized (lock) {
+      entry.detector = detector;
+      entry.createNanos = createNanos;
+      entry.costBytes =
+          Math.max(MIN_COST_BYTES, Debug.getNativeHeapAllocatedSize() - nativeHeapBytes);
+      entriesByDetector.put(detector, entry);
+      lock.notifyAll();
+    }
+    Log.d(TAG, "Created " + key + " in " + createNanos / 1_000_000 + " ms");
+    return detector;
+  }
+
+  /** Stops counting a client from {@link #acquire} as in use by the caller. */
+  public void release(Closeable detector) {
+    synchronized (lock) {
+      Entry entry = entriesByDetector.get(detector);
+      if (entry == null || entry.references == 0) {
+        throw new IllegalArgumentException("Detector not acquired from the registry: " + detector);
+      }
+      entry.references--;
+      if (entry.references == 0) {
+        closeIdleEntries(idleBudgetBytes);
+      }
+    }
+  }
+
+  /**
+   * Acquires the client registered under {@code key} and runs a blank frame through it with
+   * {@code processor}, so that its model is loaded and its first, slowest inference is done before
+   * it is needed. The client is released once the frame is processed, and stays open while the
+   * memory budget allows.
+   */
+  public <D extends Closeable> void warmUp(Object key, Factory<D> factory, Processor<D> processor) {
+    D detector = acquire(key, factory);
+    long nativeHeapBytes = Debug.getNativeHeapAllocatedSize();
+    long startNanos = SystemClock.elapsedRealtimeNanos();
+    boolean firstDetection = startFirstDetection(detector);
+    InputImage image =
+        InputImage.fromByteBuffer(
+            ByteBuffer.allocate(WARM_UP_WIDTH * WARM_UP_HEIGHT * 3 / 2),
+            WARM_UP_WIDTH,
+            WARM_UP_HEIGHT,
+            /* rotationDegrees= */ 0,
+            InputImage.IMAGE_FORMAT_NV21);
+    Task<?> task = processor.process(detector, image);
+    if (firstDetection) {
+      recordColdInit(detector, startNanos, task);
+    }
+    task.addOnCompleteListener(
+        Runnable::run,
+        completedTask -> {
+          long warmUpNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+          warmUpLatency.recordNanos(warmUpNanos);
+          addWarmUpCost(detector, Debug.getNativeHeapAllocatedSize() - nativeHeapBytes);
+          Log.d(TAG, "Warmed up " + key + " in " + warmUpNanos / 1_000_000 + " ms");
+          release(detector);
+        });
+  }
+
+  /**
+   * Starts a detection on a client from {@link #acquire} and returns its task. The first detection
+   * of each client is timed into its cold initialization, as that is when its model is loaded.
+   */
+  public <R> Task<R> detect(Closeable detector, Detection<R> detection) {
+    long startNanos = SystemClock.elapsedRealtimeNanos();
+    boolean firstDetection = startFirstDetection(detector);
+    Task<R> task = detection.start();
+    if (firstDetection) {
+      recordColdInit(detector, startNanos, task);
+    }
+    return task;
+  }
+
+  /** Returns whether no detection was started on a client from the registry before this one. */
+  private boolean startFirstDetection(Closeable detector) {
+    synchronized (lock) {
+      Entry entry = entriesByDetector.get(detector);
+      if (entry == null || entry.detectionStarted) {
+        return false;
+      }
+      entry.detectionStarted = true;
+      return true;
+    }
+  }
+
+  /** Records the creation of a client and its first detection as a cold initialization. */
+  private void recordColdInit(Closeable detector, long startNanos, Task<?> task) {
+    long createNanos;
+    Object key;
+    synchronized (lock) {
+      Entry entry = entriesByDetector.get(detector);
+      if (entry == null) {
+        return;
+      }
+      createNanos = entry.createNanos;
+      key = entry.key;
+    }
+    task.addOnCompleteListener(
+        Runnable::run,
+        completedTask -> {
+          long coldInitNanos = createNanos + SystemClock.elapsedRealtimeNanos() - startNanos;
+          coldInitLatency.recordNanos(coldInitNanos);
+          Log.d(TAG, "First detection of " + key + " after " + coldInitNanos / 1_000_000 + " ms");
+        });
+  }
+
+  /** Adds the memory a client's first warm-up took to its cost. */
+  private void addWarmUpCost(Closeable detector, long bytes) {
+    synchronized (lock) {
+      Entry entry = entriesByDetector.get(detector);
+      if (entry != null && !entry.warmedUp) {
+        entry.warmedUp = true;
+        entry.costBytes += Math.max(0, bytes);
+      }
+    }
+  }
+
+  /** Sets how much memory idle clients may take, closing the ones over it. */
+  public void setIdleBudgetBytes(long idleBudgetBytes) {
+    synchronized (lock) {
+      this.idleBudgetBytes = idleBudgetBytes;
+      closeIdleEntries(idleBudgetBytes);
+    }
+  }
+
+  /** Closes all the clients not in use. */
+  public void closeIdle() {
+    synchronized (lock) {
+      closeIdleEntries(/* budgetBytes= */ 0);
+    }
+  }
+
+  /** Makes the registry close idle clients when the system asks the app to free memory. */
+  public void registerMemoryCallbacks(Context context) {
+    synchronized (lock) {
+      if (memoryCallbacksRegistered) {
+        return;
+      }
+      memoryCallbacksRegistered = true;
+    }
+    context
+        .getApplicationContext()
+        .registerComponentCallbacks(
+            new ComponentCallbacks2() {
+              @Override
+              public void onTrimMemory(int level) {
+                if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                  closeIdle();
+                }
+              }
+
+              @Override
+              public void onConfigurationChanged(@NonNull Configuration newConfig) {}
+
+              @Override
+              public void onLowMemory() {
+                closeIdle();
+              }
+            });
+  }
+
+  @GuardedBy("lock")
+  private void closeIdleEntries(long budgetBytes) {
+    long idleBytes = 0;
+    for (Entry entry : entries.values()) {
+      if (entry.references == 0) {
+        idleBytes += entry.costBytes;
+      }
+    }
+    List<Entry> closed = new ArrayList<>();
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (idleBytes > budgetBytes && iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if (entry.references == 0) {
+        iterator.remove();
+        entriesByDetector.remove(entry.detector);
+        idleBytes -= entry.costBytes;
+        closed.add(entry);
+      }
+    }
+    for (Entry entry : closed) {
+      try {
+        entry.detector.close();
+        Log.d(TAG, "Closed idle " + entry.key);
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to close " + entry.key, e);
+      }
+    }
+  }
+
+  /** Returns how long clients took to create and to run their first detection. */
+  public LatencyHistogram getColdInitLatency() {
+    return coldInitLatency;
+  }
+
+  /** Returns how long acquiring clients that were already open took. */
+  public LatencyHistogram getWarmInitLatency() {
+    return warmInitLatency;
+  }
+
+  /** Returns how long clients took to process their warm-up frame. */
+  public LatencyHistogram getWarmUpLatency() {
+    return warmUpLatency;
+  }
+
+  private static final class Entry {
+    final Object key;
+
+    // Null while the client is created.
+    @Nullable Closeable detector;
+
+    int references;
+    long costBytes;
+    long createNanos;
+    boolean detectionStarted;
+    boolean warmedUp;
+
+    Entry(Object key) {
+      this.key = key;
+    }
+  }
+}
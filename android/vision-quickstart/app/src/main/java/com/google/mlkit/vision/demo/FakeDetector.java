@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import androidx.annotation.GuardedBy;
+import java.io.Closeable;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stands in for an ML Kit detector when benchmarking the pipeline: it takes a latency drawn from a
+ * configurable distribution on every image, and finds nothing.
+ *
+ * <p>Like ML Kit detectors, it runs one image at a time on a thread of its own, so images submitted
+ * while it is busy queue up. It does not depend on ML Kit or Android, so that it can also be run
+ * off the device; {@code FakeDetectorProcessor} adapts it to ML Kit tasks.
+ */
+public final class FakeDetector implements Closeable {
+
+  /** Receives the outcome of a detection, on the detector's thread. */
+  public interface Callback {
+    /** Called once the detection took its latency, in nanoseconds. */
+    void onDetected(long latencyNanos);
+
+    /** Called if the detector was closed before the detection could complete. */
+    void onFailed(Exception e);
+  }
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final double medianNanos;
+  private final double sigma;
+  private final long minNanos;
+  private final long maxNanos;
+
+  @GuardedBy("random")
+  private final Random random;
+
+  private FakeDetector(double medianNanos, double sigma, long minNanos, long maxNanos, long seed) {
+    this.medianNanos = medianNanos;
+    this.sigma = sigma;
+    this.minNanos = minNanos;
+    this.maxNanos = maxNanos;
+    random = new Random(seed);
+  }
+
+  /** Returns a detector that takes {@code latencyMs} on every image. */
+  public static FakeDetector fixed(double latencyMs) {
+    long nanos = toNanos(latencyMs);
+    return new FakeDetector(nanos, /* sigma= */ 0, nanos, nanos, /* seed= */ 0);
+  }
+
+  /**
+   * Returns a detector whose latency follows a log-normal distribution, the usual shape of
+   * inference latencies: most images take about {@code medianMs}, with a long tail that grows with
+   * {@code sigma}. Latencies are clamped to {@code [minMs, maxMs]}.
+   */
+  public static FakeDetector logNormal(
+      double medianMs, double sigma, double minMs, double maxMs, long seed) {
+    if (medianMs <= 0 || sigma < 0 || minMs > maxMs) {
+      throw new IllegalArgumentException(
+          "Invalid latency distribution: " + medianMs + ", " + sigma + ", " + minMs + ", " + maxMs);
+    }
+    return new FakeDetector(toNanos(medianMs), sigma, toNanos(minMs), toNanos(maxMs), seed);
+  }
+
+  private static long toNanos(double ms) {
+    return (long) (ms * 1_000_000);
+  }
+
+  /** Draws the latency of the next image. */
+  public long nextLatencyNanos() {
+    double gaussian;
+    synchronized (random) {
+      gaussian = random.nextGaussian();
+    }
+    long nanos = (long) (medianNanos * Math.exp(sigma * gaussian));
+    return Math.min(Math.max(nanos, minNanos), maxNanos);
+  }
+
+  /** Pretends to detect objects in an image, and reports to {@code callback} when done. */
+  public void detect(Callback callback) {
+    Detection detection = new Detection(nextLatencyNanos(), callback);
+    try {
+      executor.execute(detection);
+    } catch (RejectedExecutionException e) {
+      callback.onFailed(e);
+    }
+  }
+
+  /** Stops the detector, failing the images still queued or being detected. */
+  @Override
+  public void close() {
+    for (Runnable queued : executor.shutdownNow()) {
+      ((Detection) queued).callback.onFailed(new IllegalStateException("Detector closed"));
+    }
+  }
+
+  private static final class Detection implements Runnable {
+    final long latencyNanos;
+    final Callback callback;
+
+    Detection(long latencyNanos, Callback callback) {
+      this.latencyNanos = latencyNanos;
+      this.callback = callback;
+    }
+
+    @Override
+    public void run() {
+      try {
+        TimeUnit.NANOSECONDS.sleep(latencyNanos);
+      } catch (InterruptedException e) {
+        callback.onFailed(e);
+        return;
+      }
+      callback.onDetected(latencyNanos);
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.graphics.Bitmap;
+import androidx.annotation.GuardedBy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded pool of the bitmaps and pixel arrays the live preview pipeline needs for every frame.
+ *
+ * <p>Bitmaps are matched by width, height and config, arrays by length. When a kind of buffer is
+ * released while its pool is full, the least recently released one is dropped. Hit and miss
+ * counters tell whether the capacity suits the device; see {@link #setCapacity}.
+ *
+ * <p>Thread safe: buffers are typically acquired on the camera thread and released on the main
+ * thread once {@link GraphicOverlay} no longer draws them.
+ */
+public final class FrameBufferPool {
+
+  /** Bitmaps kept by default: one being drawn, one waiting to be drawn and one being filled. */
+  public static final int DEFAULT_MAX_BITMAPS = 3;
+
+  /** Arrays of each type kept by default. */
+  public static final int DEFAULT_MAX_ARRAYS = 2;
+
+  private static final FrameBufferPool instance = new FrameBufferPool();
+
+  private final Object lock = new Object();
+
+  @GuardedBy("lock")
+  private final List<Bitmap> bitmaps = new ArrayList<>();
+
+  @GuardedBy("lock")
+  private final List<int[]> intArrays = new ArrayList<>();
+
+  @GuardedBy("lock")
+  private final List<byte[]> byteArrays = new ArrayList<>();
+
+  @GuardedBy("lock")
+  private int maxBitmaps = DEFAULT_MAX_BITMAPS;
+
+  @GuardedBy("lock")
+  private int maxArrays = DEFAULT_MAX_ARRAYS;
+
+  @GuardedBy("lock")
+  private long hits;
+
+  @GuardedBy("lock")
+  private long misses;
+
+  @GuardedBy("lock")
+  private long evictions;
+
+  private FrameBufferPool() {}
+
+  /** Returns the pool shared by the live preview pipeline. */
+  public static FrameBufferPool getInstance() {
+    return instance;
+  }
+
+  /** Sets how many bitmaps, and how many arrays of each type, are kept for reuse. */
+  public void setCapacity(int maxBitmaps, int maxArrays) {
+    synchronized (lock) {
+      this.maxBitmaps = maxBitmaps;
+      this.maxArrays = maxArrays;
+      trim(bitmaps, maxBitmaps);
+      trim(intArrays, maxArrays);
+      trim(byteArrays, maxArrays);
+    }
+  }
+
+  /** Returns a mutable bitmap of the given size and config, reused if one is available. */
+  public Bitmap acquireBitmap(int width, int height, Bitmap.Config config) {
+    synchronized (lock) {
+      for (int i = bitmaps.size() - 1; i >= 0; i--) {
+        Bitmap bitmap = bitmaps.get(i);
+        if (bitmap.getWidth() == width
+            && bitmap.getHeight() == height
+            && bitmap.getConfig() == config) {
+          bitmaps.remove(i);
+          hits++;
+          return bitmap;
+        }
+      }
+      misses++;
+    }
+    return Bitmap.createBitmap(width, height, config);
+  }
+
+  /**
+   * Returns a bitmap to the pool. The caller must not use it afterwards, and must make sure that
+   * nothing else still draws it.
+   */
+  public void releaseBitmap(Bitmap bitmap) {
+    if (bitmap.isRecycled() || !bitmap.isMutable()) {
+      return;
+    }
+    synchronized (lock) {
+      bitmaps.add(bitmap);
+      trim(bitmaps, maxBitmaps);
+    }
+  }
+
+  /** Returns an {@code int[]} of exactly {@code length} elements, with undefined content. */
+  public int[] acquireIntArray(int length) {
+    synchronized (lock) {
+      for (int i = intArrays.size() - 1; i >= 0; i--) {
+        if (intArrays.get(i).length == length) {
+          hits++;
+          return intArrays.remove(i);
+        }
+      }
+      misses++;
+    }
+    return new int[length];
+  }
+
+  /** Returns an array obtained from {@link #acquireIntArray} to the pool. */
+  public void releaseIntArray(int[] array) {
+    synchronized (lock) {
+      intArrays.add(array);
+      trim(intArrays, maxArrays);
+    }
+  }
+
+  /** Returns a {@code byte[]} of exactly {@code length} elements, with undefined content. */
+  public byte[] acquireByteArray(int length) {
+    synchronized (lock) {
+      for (int i = byteArrays.size() - 1; i >= 0; i--) {
+        if (byteArrays.get(i).length == length) {
+          hits++;
+          return byteArrays.remove(i);
+        }
+      }
+      misses++;
+    }
+    return new byte[length];
+  }
+
+  /** Returns an array obtained from {@link #acquireByteArray} to the pool. */
+  public void releaseByteArray(byte[] array) {
+    synchronized (lock) {
+      byteArrays.add(array);
+      trim(byteArrays, maxArrays);
+    }
+  }
+
+  /** Returns how many acquisitions were served from the pool. */
+  public long getHitCount() {
+    synchronized (lock) {
+      return hits;
+    }
+  }
+
+  /** Returns how many acquisitions had to allocate. */
+  public long getMissCount() {
+    synchronized (lock) {
+      return misses;
+    }
+  }
+
+  /** Returns how many released buffers were dropped because the pool was full. */
+  public long getEvictionCount() {
+    synchronized (lock) {
+      return evictions;
+    }
+  }
+
+  /** Drops every pooled buffer. */
+  public void clear() {
+    synchronized (lock) {
+      trim(bitmaps, 0);
+      trim(intArrays, 0);
+      trim(byteArrays, 0);
+    }
+  }
+
+  @GuardedBy("lock")
+  private <T> void trim(List<T> buffers, int maxSize) {
+    while (buffers.size() > maxSize) {
+      // Evicted bitmaps are not recycled, the render thread may still draw them; once it is done
+      // they are collected like any other object.
+      buffers.remove(0);
+      evictions++;
+    }
+  }
+}
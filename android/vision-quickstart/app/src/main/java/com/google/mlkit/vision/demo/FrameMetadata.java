@@ -19,9 +19,14 @@ package com.google.mlkit.vision.demo;
 /** Describing a frame info. */
 public class FrameMetadata {
 
+  /** Sequence id of frames that were not numbered by their source. */
+  public static final long UNKNOWN_SEQUENCE_ID = -1;
+
   private final int width;
   private final int height;
   private final int rotation;
+  private final long timestampNanos;
+  private final long sequenceId;
 
   public int getWidth() {
     return width;
@@ -35,10 +40,29 @@ public class FrameMetadata {
     return rotation;
   }
 
-  private FrameMetadata(int width, int height, int rotation) {
+  /**
+   * Returns when the frame was captured, in the {@code SystemClock.elapsedRealtimeNanos()} time
+   * base, or in the {@link System#nanoTime()} one for frames played back by {@link
+   * FrameReplaySource}, or 0 if unknown.
+   */
+  public long getTimestampNanos() {
+    return timestampNanos;
+  }
+
+  /**
+   * Returns the position of the frame among those captured by its source, or {@link
+   * #UNKNOWN_SEQUENCE_ID}. A gap between two frames means the ones in between were skipped.
+   */
+  public long getSequenceId() {
+    return sequenceId;
+  }
+
+  private FrameMetadata(int width, int height, int rotation, long timestampNanos, long sequenceId) {
     this.width = width;
     this.height = height;
     this.rotation = rotation;
+    this.timestampNanos = timestampNanos;
+    this.sequenceId = sequenceId;
   }
 
   /** Builder of {@link FrameMetadata}. */
@@ -47,6 +71,8 @@ public class FrameMetadata {
     private int width;
     private int height;
     private int rotation;
+    private long timestampNanos;
+    private long sequenceId = UNKNOWN_SEQUENCE_ID;
 
     public Builder setWidth(int width) {
       this.width = width;
@@ -63,8 +89,18 @@ public class FrameMetadata {
       return this;
     }
 
+    public Builder setTimestampNanos(long timestampNanos) {
+      this.timestampNanos = timestampNanos;
+      return this;
+    }
+
+    public Builder setSequenceId(long sequenceId) {
+      this.sequenceId = sequenceId;
+      return this;
+    }
+
     public FrameMetadata build() {
-      return new FrameMetadata(width, height, rotation);
+      return new FrameMetadata(width, height, rotation, timestampNanos, sequenceId);
     }
   }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records NV21 frames and their {@link FrameMetadata} to a file, to be played back by {@link
+ * FrameReplaySource}.
+ *
+ * <p>The file is written through memory-mapped regions, so recording a frame is a copy into the
+ * page cache. Frames are only ever appended: the file holds a header followed by one record per
+ * frame, each a fixed-size header and the frame bytes. Regions that were mapped but not filled are
+ * cut off when the recorder is closed; a reader also stops at the first zero record length, so a
+ * recording that was not closed is still readable.
+ *
+ * <p>A recording stops taking frames once it would grow past its size limit, by default the
+ * largest file {@link FrameReplaySource} can map. Thread safe.
+ */
+public final class FrameRecorder implements Closeable {
+
+  /** Largest recording that can be played back, and the default size limit. */
+  public static final long MAX_SIZE_BYTES = Integer.MAX_VALUE;
+
+  /** First bytes of a recording, "NV21". */
+  static final int MAGIC = 0x4E563231;
+
+  static final int VERSION = 1;
+
+  static final int FILE_HEADER_SIZE = 8;
+
+  // Length of the frame, width, height, rotation, timestamp and sequence id.
+  static final int RECORD_HEADER_SIZE = 4 * 4 + 2 * 8;
+
+  // Size of the regions mapped at a time, unless a frame needs a larger one.
+  private static final int REGION_SIZE = 16 * 1024 * 1024;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long maxSizeBytes;
+
+  @GuardedBy("this")
+  @Nullable
+  private MappedByteBuffer region;
+
+  // Position of the current region in the file.
+  @GuardedBy("this")
+  private long regionStart;
+
+  @GuardedBy("this")
+  private long frameCount;
+
+  // Frames left out as the recording was full.
+  @GuardedBy("this")
+  private long droppedFrameCount;
+
+  @GuardedBy("this")
+  private boolean closed;
+
+  /** Starts a recording in {@code file}, replacing whatever it held. */
+  public FrameRecorder(File file) throws IOException {
+    this(file, MAX_SIZE_BYTES);
+  }
+
+  /**
+   * Starts a recording in {@code file}, replacing whatever it held, which takes no more frames
+   * once it would grow past {@code maxSizeBytes}, at most {@link #MAX_SIZE_BYTES}.
+   */
+  public FrameRecorder(File file, long maxSizeBytes) throws IOException {
+    if (maxSizeBytes < FILE_HEADER_SIZE || maxSizeBytes > MAX_SIZE_BYTES) {
+      throw new IllegalArgumentException("Invalid size limit: " + maxSizeBytes);
+    }
+    this.maxSizeBytes = maxSizeBytes;
+    this.file = new RandomAccessFile(file, "rw");
+    channel = this.file.getChannel();
+    channel.truncate(0);
+    mapRegion(0, FILE_HEADER_SIZE);
+    region.putInt(MAGIC).putInt(VERSION);
+  }
+
+  /**
+   * Appends a frame, unless the recording is full. {@code data} is read from its position to its
+   * limit, which is left unchanged.
+   *
+   * @return whether the frame was recorded
+   */
+  public synchronized boolean record(ByteBuffer data, FrameMetadata metadata) throws IOException {
+    if (closed) {
+      throw new IOException("Recorder is closed");
+    }
+    ByteBuffer frame = data.duplicate();
+    int recordSize = RECORD_HEADER_SIZE + frame.remaining();
+    long end = regionStart + region.position();
+    if (end + recordSize > maxSizeBytes) {
+      droppedFrameCount++;
+      return false;
+    }
+    if (region.remaining() < recordSize) {
+      mapRegion(end, recordSize);
+    }
+    region
+        .putInt(frame.remaining())
+        .putInt(metadata.getWidth())
+        .putInt(metadata.getHeight())
+        .putInt(metadata.getRotation())
+        .putLong(metadata.getTimestampNanos())
+        .putLong(metadata.getSequenceId())
+        .put(frame);
+    frameCount++;
+    return true;
+  }
+
+  /** Returns how many frames were recorded. */
+  public synchronized long getFrameCount() {
+    return frameCount;
+  }
+
+  /** Returns how many frames were left out as the recording was full. */
+  public synchronized long getDroppedFrameCount() {
+    return droppedFrameCount;
+  }
+
+  /** Maps a region of at least {@code minSize} bytes, which must fit within the size limit. */
+  @GuardedBy("this")
+  private void mapRegion(long start, int minSize) throws IOException {
+    regionStart = start;
+    long size = Math.min(Math.max(REGION_SIZE, minSize), maxSizeBytes - start);
+    region = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+  }
+
+  /** Flushes the recording and cuts off the part of the file that was mapped but not written. */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      long size = regionStart + region.position();
+      region.force();
+      region = null;
+      channel.truncate(size);
+    } finally {
+      file.close();
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays back a recording made by {@link FrameRecorder} the way {@link CameraSource} feeds camera
+ * frames to a {@link VisionImageProcessor}, so the pipeline can be run without a camera, e.g.
+ *
+ * <pre>{@code
+ * source.replay(
+ *     (frame, metadata) -> processor.processByteBuffer(frame, metadata, graphicOverlay), 30, 1);
+ * }</pre>
+ *
+ * <p>Frames are copied from the mapped recording into a few reused preview-sized buffers, as the
+ * camera does, and are stamped with the {@link System#nanoTime()} they are handed over at and with
+ * consecutive sequence ids, so the latencies and skipped frames reported by the processor refer to
+ * the replay. Only plain Java is used, so recordings can also be played back off the device.
+ */
+public final class FrameReplaySource {
+
+  /** Receives the frames of a replay, e.g. by handing them to a {@link VisionImageProcessor}. */
+  public interface FrameSink<E extends Exception> {
+    /** Takes a frame, which is only valid until the buffer is reused a few frames later. */
+    void onFrame(ByteBuffer frame, FrameMetadata metadata) throws E;
+  }
+
+  private final MappedByteBuffer recording;
+  private final List<Integer> frameOffsets = new ArrayList<>();
+  private final ByteBuffer[] buffers;
+
+  private volatile boolean stopped;
+
+  /** Opens a recording, to be played back through {@link CameraSource}'s default buffer count. */
+  public FrameReplaySource(File file) throws IOException {
+    this(file, CameraSource.DEFAULT_PREVIEW_BUFFER_COUNT);
+  }
+
+  /** Opens a recording, to be played back through {@code bufferCount} reused buffers. */
+  public FrameReplaySource(File file, int bufferCount) throws IOException {
+    if (bufferCount < 1) {
+      throw new IllegalArgumentException("Invalid buffer count: " + bufferCount);
+    }
+    try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+      if (input.length() > Integer.MAX_VALUE) {
+        throw new IOException("Recording is too large to be mapped: " + file);
+      }
+      recording = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+    }
+    if (recording.remaining() < FrameRecorder.FILE_HEADER_SIZE
+        || recording.getInt() != FrameRecorder.MAGIC
+        || recording.getInt() != FrameRecorder.VERSION) {
+      throw new IOException("Not a frame recording: " + file);
+    }
+    int maxFrameSize = indexFrames();
+    buffers = new ByteBuffer[bufferCount];
+    for (int i = 0; i < bufferCount; i++) {
+      buffers[i] = ByteBuffer.wrap(new byte[maxFrameSize]);
+    }
+  }
+
+  /** Finds the start of each record, stopping at the end of what was written. */
+  private int indexFrames() {
+    int maxFrameSize = 0;
+    int offset = recording.position();
+    while (recording.limit() - offset >= FrameRecorder.RECORD_HEADER_SIZE) {
+      int frameSize = recording.getInt(offset);
+      if (frameSize <= 0
+          || frameSize > recording.limit() - offset - FrameRecorder.RECORD_HEADER_SIZE) {
+        break;
+      }
+      frameOffsets.add(offset);
+      maxFrameSize = Math.max(maxFrameSize, frameSize);
+      offset += FrameRecorder.RECORD_HEADER_SIZE + frameSize;
+    }
+    return maxFrameSize;
+  }
+
+  /** Returns how many frames the recording holds. */
+  public int getFrameCount() {
+    return frameOffsets.size();
+  }
+
+  /**
+   * Feeds the recording {@code loops} times into {@code sink} on the calling thread, at {@code
+   * framesPerSecond}, or as fast as the sink accepts frames if it is not positive. Frames are handed
+   * over on schedule even while earlier ones are being detected, as they would be by the camera.
+   *
+   * @return how many frames were handed over, fewer than recorded if {@link #stop} was called
+   */
+  public <E extends Exception> long replay(FrameSink<E> sink, double framesPerSecond, int loops)
+      throws E {
+    long intervalNanos = framesPerSecond > 0 ? (long) (1_000_000_000 / framesPerSecond) : 0;
+    long startNanos = System.nanoTime();
+    long sequenceId = 0;
+    for (int loop = 0; loop < loops; loop++) {
+      for (int offset : frameOffsets) {
+        if (stopped) {
+          return sequenceId;
+        }
+        if (intervalNanos > 0) {
+          // Scheduled from the start, so that time spent handing frames over does not add up.
+          long delayNanos =
+              startNanos + sequenceId * intervalNanos - System.nanoTime();
+          if (delayNanos > 0) {
+            LockSupport.parkNanos(delayNanos);
+          }
+        }
+        ByteBuffer buffer = buffers[(int) (sequenceId % buffers.length)];
+        FrameMetadata metadata = readFrame(offset, buffer, sequenceId);
+        sink.onFrame(buffer, metadata);
+        sequenceId++;
+      }
+    }
+    return sequenceId;
+  }
+
+  private FrameMetadata readFrame(int offset, ByteBuffer buffer, long sequenceId) {
+    ByteBuffer record = recording.duplicate();
+    record.position(offset);
+    int frameSize = record.getInt();
+    FrameMetadata metadata =
+        new FrameMetadata.Builder()
+            .setWidth(record.getInt())
+            .setHeight(record.getInt())
+            .setRotation(record.getInt())
+            .setTimestampNanos(System.nanoTime())
+            .setSequenceId(sequenceId)
+            .build();
+    // Skips the recorded timestamp and sequence id.
+    record.position(offset + FrameRecorder.RECORD_HEADER_SIZE);
+    record.limit(record.position() + frameSize);
+    buffer.clear();
+    buffer.put(record);
+    buffer.flip();
+    return metadata;
+  }
+
+  /** Makes a running {@link #replay} return before its next frame, and later ones right away. */
+  public void stop() {
+    stopped = true;
+  }
+}
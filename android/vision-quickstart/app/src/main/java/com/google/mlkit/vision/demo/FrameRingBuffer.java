@@ -0,0 +1,216 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed ring of preview buffers handed from a single producer, the camera callback thread, to a
+ * single consumer, the frame processing thread, without locks.
+ *
+ * <p>Each slot owns one buffer and is in one of three states: {@link #STATE_CAMERA} while the
+ * camera may fill it, {@link #STATE_PENDING} once it holds the most recent frame, and {@link
+ * #STATE_PROCESSING} from the moment the consumer takes it until {@link #release} is called, once
+ * neither the consumer nor any detection it started reads the frame any more. Several slots may be
+ * processing at once, while detections overlap. At most one slot is pending at a time: it is
+ * published through an atomic latest-frame slot, so when the producer publishes a newer frame
+ * before the consumer took the previous one, the previous one is overwritten and its buffer goes
+ * straight back to the camera.
+ *
+ * <p>Buffers are matched to slots by identity, starting from the slot after the last published one
+ * since the camera returns buffers in the order it was given them.
+ */
+public final class FrameRingBuffer {
+
+  /** The buffer belongs to the camera, which fills it with a future frame. */
+  public static final int STATE_CAMERA = 0;
+
+  /** The buffer holds the latest frame, waiting for the consumer. */
+  public static final int STATE_PENDING = 1;
+
+  /** The buffer is being read by the consumer or by detections it started. */
+  public static final int STATE_PROCESSING = 2;
+
+  /** Returned by {@link #take} when no frame is pending. */
+  public static final int NO_SLOT = -1;
+
+  private final byte[][] arrays;
+  private final ByteBuffer[] buffers;
+  private final AtomicIntegerArray states;
+  // Capture time and sequence id of the frame in each slot, written before it is published.
+  private final long[] timestampsNanos;
+  private final long[] sequenceIds;
+  private final AtomicInteger latestSlot = new AtomicInteger(NO_SLOT);
+
+  // Only touched by the producer.
+  private int nextSlot;
+
+  private final AtomicLong publishedCount = new AtomicLong();
+  private final AtomicLong overwrittenCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+
+  /** Creates a ring of {@code capacity} buffers of {@code bufferSize} bytes each. */
+  public FrameRingBuffer(int capacity, int bufferSize) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    arrays = new byte[capacity][];
+    buffers = new ByteBuffer[capacity];
+    states = new AtomicIntegerArray(capacity);
+    timestampsNanos = new long[capacity];
+    sequenceIds = new long[capacity];
+    for (int i = 0; i < capacity; i++) {
+      // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
+      // guarantees that there will be an array to hand back to the camera.
+      arrays[i] = new byte[bufferSize];
+      buffers[i] = ByteBuffer.wrap(arrays[i]);
+    }
+  }
+
+  /** Returns the number of slots. */
+  public int getCapacity() {
+    return arrays.length;
+  }
+
+  /** Returns the buffer of {@code slot}, to hand to the camera when it starts. */
+  public byte[] getArray(int slot) {
+    return arrays[slot];
+  }
+
+  /** Returns the state of {@code slot}, one of the {@code STATE_} constants. */
+  public int getState(int slot) {
+    return states.get(slot);
+  }
+
+  /**
+   * Publishes a frame the camera wrote into {@code data} at {@code timestampNanos} as the latest
+   * one, numbered with the count of frames published before it. Producer only.
+   *
+   * @return the buffer to hand back to the camera right away: the overwritten pending frame, or
+   *     {@code data} itself if it does not belong to this ring; {@code null} otherwise
+   */
+  @Nullable
+  public byte[] publish(byte[] data, long timestampNanos) {
+    int slot = findSlot(data);
+    if (slot == NO_SLOT) {
+      droppedCount.incrementAndGet();
+      return data;
+    }
+    nextSlot = slot + 1 == arrays.length ? 0 : slot + 1;
+    timestampsNanos[slot] = timestampNanos;
+    sequenceIds[slot] = publishedCount.getAndIncrement();
+    // The volatile writes below make the two above visible to the consumer that takes the slot.
+    states.set(slot, STATE_PENDING);
+    int previous = latestSlot.getAndSet(slot);
+    if (previous == NO_SLOT) {
+      return null;
+    }
+    // The consumer can only claim a slot through latestSlot, so this one is still ours.
+    states.set(previous, STATE_CAMERA);
+    overwrittenCount.incrementAndGet();
+    return arrays[previous];
+  }
+
+  private int findSlot(byte[] data) {
+    for (int i = 0, slot = nextSlot; i < arrays.length; i++) {
+      if (arrays[slot] == data) {
+        return states.get(slot) == STATE_CAMERA ? slot : NO_SLOT;
+      }
+      slot = slot + 1 == arrays.length ? 0 : slot + 1;
+    }
+    return NO_SLOT;
+  }
+
+  /**
+   * Claims the latest frame and marks its slot {@link #STATE_PROCESSING}. Consumer only.
+   *
+   * @return the claimed slot, or {@link #NO_SLOT} if no frame is pending
+   */
+  public int take() {
+    int slot = latestSlot.getAndSet(NO_SLOT);
+    if (slot != NO_SLOT) {
+      states.set(slot, STATE_PROCESSING);
+    }
+    return slot;
+  }
+
+  /** Returns the frame of a slot claimed by {@link #take}, rewound. */
+  public ByteBuffer getFrame(int slot) {
+    ByteBuffer buffer = buffers[slot];
+    buffer.clear();
+    return buffer;
+  }
+
+  /** Returns the capture time of the frame in a slot claimed by {@link #take}. */
+  public long getTimestampNanos(int slot) {
+    return timestampsNanos[slot];
+  }
+
+  /** Returns the sequence id of the frame in a slot claimed by {@link #take}. */
+  public long getSequenceId(int slot) {
+    return sequenceIds[slot];
+  }
+
+  /**
+   * Ends the processing of a slot claimed by {@link #take}, once its frame is no longer read. May
+   * be called from any thread; only the first call for a claimed slot has an effect.
+   *
+   * @return the buffer to hand back to the camera, or {@code null} if the slot was not processing
+   */
+  @Nullable
+  public byte[] release(int slot) {
+    return states.compareAndSet(slot, STATE_PROCESSING, STATE_CAMERA) ? arrays[slot] : null;
+  }
+
+  /**
+   * Drops the pending frame, if any, counting it as dropped. Call once the producer has stopped.
+   *
+   * @return the buffer of the dropped frame, or {@code null}
+   */
+  @Nullable
+  public byte[] discardPending() {
+    int slot = latestSlot.getAndSet(NO_SLOT);
+    if (slot == NO_SLOT) {
+      return null;
+    }
+    states.set(slot, STATE_CAMERA);
+    droppedCount.incrementAndGet();
+    return arrays[slot];
+  }
+
+  /** Returns how many frames were published. */
+  public long getPublishedCount() {
+    return publishedCount.get();
+  }
+
+  /** Returns how many pending frames were replaced by a newer one before being processed. */
+  public long getOverwrittenCount() {
+    return overwrittenCount.get();
+  }
+
+  /**
+   * Returns how many frames were dropped without being published or processed: frames in buffers
+   * the ring does not own or did not hand to the camera, and frames still pending on shutdown.
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+}
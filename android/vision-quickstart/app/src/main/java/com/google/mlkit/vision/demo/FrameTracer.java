@@ -0,0 +1,241 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.SystemClock;
+import android.os.Trace;
+import androidx.annotation.GuardedBy;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Marks the stages of the frame pipeline as {@link Trace} sections, visible in systrace and
+ * Perfetto, and optionally records them in memory to be dumped as a Chrome trace.
+ *
+ * <p>Synchronous stages are bracketed by {@link #begin} and {@link #end} on the same thread.
+ * Detection runs on detector threads, so it is bracketed by {@link #beginAsync} and {@link
+ * #endAsync} instead, and shows up on a track of its own.
+ *
+ * <p>The recorder is a fixed-size ring of primitive records that keeps the latest spans, so
+ * recording never allocates. Thread safe.
+ */
+public final class FrameTracer {
+
+  public static final int STAGE_CAMERA_CALLBACK = 0;
+  public static final int STAGE_YUV_REPACK = 1;
+  public static final int STAGE_BITMAP_BUILD = 2;
+  public static final int STAGE_DETECTOR_SUBMIT = 3;
+  public static final int STAGE_DETECTOR = 4;
+  public static final int STAGE_ON_SUCCESS = 5;
+  public static final int STAGE_OVERLAY_DRAW = 6;
+
+  private static final String[] STAGE_NAMES = {
+    "camera callback",
+    "yuv repack",
+    "bitmap build",
+    "detector submit",
+    "detector",
+    "onSuccess",
+    "overlay draw",
+  };
+
+  /** Spans kept by a recorder started with {@link #startRecording()}. */
+  public static final int DEFAULT_CAPACITY = 8192;
+
+  // Thread id of the track that async spans are drawn on.
+  private static final long ASYNC_TRACK_ID = 0;
+  private static final String ASYNC_TRACK_NAME = "detection (async)";
+
+  private static final FrameTracer instance = new FrameTracer();
+
+  private final Object lock = new Object();
+
+  private volatile boolean recording;
+
+  @GuardedBy("lock")
+  private int[] stages = new int[0];
+
+  @GuardedBy("lock")
+  private long[] threadIds = new long[0];
+
+  @GuardedBy("lock")
+  private String[] threadNames = new String[0];
+
+  @GuardedBy("lock")
+  private long[] startNanos = new long[0];
+
+  @GuardedBy("lock")
+  private long[] durationNanos = new long[0];
+
+  // Total number of spans recorded; the latest ones are at (count - 1) % capacity and before.
+  @GuardedBy("lock")
+  private long count;
+
+  private FrameTracer() {}
+
+  /** Returns the tracer shared by the frame pipeline. */
+  public static FrameTracer getInstance() {
+    return instance;
+  }
+
+  /** Starts recording the latest {@link #DEFAULT_CAPACITY} spans in memory. */
+  public void startRecording() {
+    startRecording(DEFAULT_CAPACITY);
+  }
+
+  /** Starts recording the latest {@code capacity} spans, dropping whatever was recorded. */
+  public void startRecording(int capacity) {
+    synchronized (lock) {
+      stages = new int[capacity];
+      threadIds = new long[capacity];
+      threadNames = new String[capacity];
+      startNanos = new long[capacity];
+      durationNanos = new long[capacity];
+      count = 0;
+      recording = true;
+    }
+  }
+
+  /** Stops recording. What was recorded is kept until recording starts again. */
+  public void stopRecording() {
+    recording = false;
+  }
+
+  public boolean isRecording() {
+    return recording;
+  }
+
+  /**
+   * Starts a synchronous stage on the calling thread.
+   *
+   * @return the start time, to pass to {@link #end}
+   */
+  public long begin(int stage) {
+    Trace.beginSection(STAGE_NAMES[stage]);
+    return SystemClock.elapsedRealtimeNanos();
+  }
+
+  /** Ends the stage started by the matching {@link #begin} on the calling thread. */
+  public void end(int stage, long startNanos) {
+    Trace.endSection();
+    if (recording) {
+      Thread thread = Thread.currentThread();
+      record(stage, thread.getId(), thread.getName(), startNanos);
+    }
+  }
+
+  /**
+   * Starts a stage that ends on another thread. {@code cookie} identifies it among the stages of
+   * the same kind that overlap.
+   *
+   * @return the start time, to pass to {@link #endAsync}
+   */
+  public long beginAsync(int stage, int cookie) {
+    if (VERSION.SDK_INT >= VERSION_CODES.Q) {
+      Trace.beginAsyncSection(STAGE_NAMES[stage], cookie);
+    }
+    return SystemClock.elapsedRealtimeNanos();
+  }
+
+  /** Ends the stage started by the matching {@link #beginAsync}, on any thread. */
+  public void endAsync(int stage, int cookie, long startNanos) {
+    if (VERSION.SDK_INT >= VERSION_CODES.Q) {
+      Trace.endAsyncSection(STAGE_NAMES[stage], cookie);
+    }
+    if (recording) {
+      record(stage, ASYNC_TRACK_ID, ASYNC_TRACK_NAME, startNanos);
+    }
+  }
+
+  private void record(int stage, long threadId, String threadName, long start) {
+    long duration = SystemClock.elapsedRealtimeNanos() - start;
+    synchronized (lock) {
+      if (!recording || stages.length == 0) {
+        return;
+      }
+      int index = (int) (count % stages.length);
+      stages[index] = stage;
+      threadIds[index] = threadId;
+      threadNames[index] = threadName;
+      startNanos[index] = start;
+      durationNanos[index] = duration;
+      count++;
+    }
+  }
+
+  /**
+   * Writes the recorded spans as Chrome trace JSON, which chrome://tracing and the Perfetto UI
+   * open.
+   */
+  public void writeChromeTrace(Writer writer) throws IOException {
+    synchronized (lock) {
+      int size = (int) Math.min(count, stages.length);
+      long first = count - size;
+      Map<Long, String> threads = new LinkedHashMap<>();
+      writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+      for (long i = first; i < count; i++) {
+        int index = (int) (i % stages.length);
+        threads.put(threadIds[index], threadNames[index]);
+        if (i > first) {
+          writer.write(',');
+        }
+        writer.write("\n{\"name\":\"");
+        writer.write(STAGE_NAMES[stages[index]]);
+        writer.write("\",\"ph\":\"X\",\"pid\":1,\"tid\":");
+        writer.write(Long.toString(threadIds[index]));
+        writer.write(",\"ts\":");
+        writer.write(toMicros(startNanos[index]));
+        writer.write(",\"dur\":");
+        writer.write(toMicros(durationNanos[index]));
+        writer.write('}');
+      }
+      for (Map.Entry<Long, String> thread : threads.entrySet()) {
+        if (size > 0) {
+          writer.write(',');
+        }
+        writer.write("\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":");
+        writer.write(Long.toString(thread.getKey()));
+        writer.write(",\"args\":{\"name\":\"");
+        writer.write(thread.getValue().replace("\\", "\\\\").replace("\"", "\\\""));
+        writer.write("\"}}");
+      }
+      writer.write("\n]}\n");
+    }
+    writer.flush();
+  }
+
+  /** Writes the recorded spans to {@code file} with {@link #writeChromeTrace(Writer)}. */
+  public void writeChromeTrace(File file) throws IOException {
+    try (Writer writer =
+        new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+      writeChromeTrace(writer);
+    }
+  }
+
+  private static String toMicros(long nanos) {
+    return nanos / 1000 + "." + String.format(Locale.US, "%03d", nanos % 1000);
+  }
+}
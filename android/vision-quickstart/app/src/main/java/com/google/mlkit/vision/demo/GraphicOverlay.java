@@ -23,8 +23,11 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.view.View;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
 import com.google.common.base.Preconditions;
 import com.google.common.primitives.Ints;
 import com.google.mlkit.vision.facemesh.FaceMesh;
@@ -65,6 +68,19 @@ public class GraphicOverlay extends View {
 
   private final Object lock = new Object();
   private final List<Graphic> graphics = new ArrayList<>();
+  // Removed graphics that may still be drawn. With hardware acceleration the render thread may
+  // still be drawing the frame recorded by the last draw, and reads the bitmaps of that frame's
+  // graphics, so a removed graphic is only released once the draw after its last one is done.
+  // Graphics that were never drawn, or not drawn by the last two draws, are released right away,
+  // so this only ever holds graphics of the last two draws.
+  @GuardedBy("lock")
+  private final List<Graphic> removedGraphics = new ArrayList<>();
+  // Number of draws so far, and whether the view is attached to a window, which draws need.
+  @GuardedBy("lock")
+  private long drawCount;
+
+  @GuardedBy("lock")
+  private boolean attached;
   // Matrix for transforming from image coordinates to overlay view coordinates.
   private final Matrix transformationMatrix = new Matrix();
 
@@ -81,6 +97,22 @@ public class GraphicOverlay extends View {
   private float postScaleHeightOffset;
   private boolean isImageFlipped;
   private boolean needUpdateTransformation = true;
+  // Where the time spent drawing the graphics is recorded, if anywhere.
+  @Nullable private volatile LatencyHistogram drawLatency;
+  // Position in the image of the crop that graphic coordinates are relative to, if detectors were
+  // given a crop of the image.
+  private volatile int imageOffsetX;
+  private volatile int imageOffsetY;
+  // Image pixels per pixel of graphic coordinates, if detectors were given a downscaled image.
+  private volatile float imageScale = 1;
+  // Capture time of the frame whose graphics are drawn next, and where the time from that capture
+  // to their display is recorded, until the next draw.
+  @GuardedBy("lock")
+  private long frameCaptureNanos;
+
+  @GuardedBy("lock")
+  @Nullable
+  private LatencyHistogram captureToDisplayLatency;
 
   /**
    * Base class for a custom graphics object to be rendered within the graphic overlay. Subclass
@@ -90,6 +122,12 @@ public class GraphicOverlay extends View {
   public abstract static class Graphic {
     private GraphicOverlay overlay;
 
+    // Guarded by the overlay's lock: the draw that last drew this graphic, whether it is on the
+    // overlay, and whether it is in the overlay's removed graphics.
+    private long lastDraw = Long.MIN_VALUE;
+    private boolean onOverlay;
+    private boolean awaitingRelease;
+
     public Graphic(GraphicOverlay overlay) {
       this.overlay = overlay;
     }
@@ -120,7 +158,7 @@ public class GraphicOverlay extends View {
 
     /** Adjusts the supplied value from the image scale to the view scale. */
     public float scale(float imagePixel) {
-      return imagePixel * overlay.scaleFactor;
+      return imagePixel * overlay.imageScale * overlay.scaleFactor;
     }
 
     /** Returns the application context of the app. */
@@ -136,10 +174,11 @@ public class GraphicOverlay extends View {
      * Adjusts the x coordinate from the image's coordinate system to the view coordinate system.
      */
     public float translateX(float x) {
+      float viewX = (x * overlay.imageScale + overlay.imageOffsetX) * overlay.scaleFactor;
       if (overlay.isImageFlipped) {
-        return overlay.getWidth() - (scale(x) - overlay.postScaleWidthOffset);
+        return overlay.getWidth() - (viewX - overlay.postScaleWidthOffset);
       } else {
-        return scale(x) - overlay.postScaleWidthOffset;
+        return viewX - overlay.postScaleWidthOffset;
       }
     }
 
@@ -147,7 +186,8 @@ public class GraphicOverlay extends View {
      * Adjusts the y coordinate from the image's coordinate system to the view coordinate system.
      */
     public float translateY(float y) {
-      return scale(y) - overlay.postScaleHeightOffset;
+      float viewY = (y * overlay.imageScale + overlay.imageOffsetY) * overlay.scaleFactor;
+      return viewY - overlay.postScaleHeightOffset;
     }
 
     /**
@@ -161,6 +201,12 @@ public class GraphicOverlay extends View {
       overlay.postInvalidate();
     }
 
+    /**
+     * Called on the main thread once the graphic has been removed from the overlay and will not
+     * be drawn again. Override to return pooled resources.
+     */
+    protected void release() {}
+
     /**
      * Given the {@code zInImagePixel}, update the color for the passed in {@code paint}. The color will be
      * more red if the {@code zInImagePixel} is smaller, or more blue ish vice versa. This is
@@ -229,25 +275,88 @@ public class GraphicOverlay extends View {
             needUpdateTransformation = true);
   }
 
+  /** Sets the histogram that records how long each draw of the overlay takes. */
+  public void setDrawLatencyHistogram(@Nullable LatencyHistogram drawLatency) {
+    this.drawLatency = drawLatency;
+  }
+
+  /**
+   * Sets the capture time, in the {@link SystemClock#elapsedRealtimeNanos()} time base, of the
+   * frame whose graphics were just added. The next draw records the time from that capture to its
+   * display in {@code captureToDisplayLatency}.
+   */
+  public void setFrameCaptureTime(
+      long frameCaptureNanos, LatencyHistogram captureToDisplayLatency) {
+    synchronized (lock) {
+      this.frameCaptureNanos = frameCaptureNanos;
+      this.captureToDisplayLatency = captureToDisplayLatency;
+    }
+  }
+
+  /**
+   * Sets the position in the image of the crop that detectors were given, so that {@link
+   * Graphic#translateX} and {@link Graphic#translateY} map coordinates in the crop to the view. The
+   * transformation matrix is left mapping the full image.
+   */
+  public void setImageOffset(int imageOffsetX, int imageOffsetY) {
+    this.imageOffsetX = imageOffsetX;
+    this.imageOffsetY = imageOffsetY;
+  }
+
+  /**
+   * Sets how many image pixels each pixel of the image that detectors were given covers, so that
+   * graphics of a downscaled image are drawn over the full one. Applies before the offset.
+   */
+  public void setImageScale(float imageScale) {
+    this.imageScale = imageScale;
+  }
+
   /** Removes all graphics from the overlay. */
   public void clear() {
     synchronized (lock) {
+      for (int i = 0; i < graphics.size(); i++) {
+        retire(graphics.get(i));
+      }
       graphics.clear();
     }
     postInvalidate();
   }
 
-  /** Adds a graphic to the overlay. */
+  /**
+   * Adds a graphic to the overlay. A graphic removed since the last draws may be added back, and is
+   * then only released once it is removed again.
+   */
   public void add(Graphic graphic) {
     synchronized (lock) {
       graphics.add(graphic);
+      graphic.onOverlay = true;
+    }
+  }
+
+  /** Returns the number of graphics on the overlay. */
+  public int getGraphicCount() {
+    synchronized (lock) {
+      return graphics.size();
+    }
+  }
+
+  /**
+   * Replaces the content of {@code out} with the graphics from position {@code from} on, in the
+   * order they are drawn.
+   */
+  public void getGraphics(int from, List<Graphic> out) {
+    synchronized (lock) {
+      out.clear();
+      out.addAll(graphics.subList(from, graphics.size()));
     }
   }
 
   /** Removes a graphic from the overlay. */
   public void remove(Graphic graphic) {
     synchronized (lock) {
-      graphics.remove(graphic);
+      if (graphics.remove(graphic)) {
+        retire(graphic);
+      }
     }
     postInvalidate();
   }
@@ -314,13 +423,82 @@ public class GraphicOverlay extends View {
   @Override
   protected void onDraw(Canvas canvas) {
     super.onDraw(canvas);
+    FrameTracer tracer = FrameTracer.getInstance();
+    long traceStartNanos = tracer.begin(FrameTracer.STAGE_OVERLAY_DRAW);
+    long drawStartNanos = SystemClock.elapsedRealtimeNanos();
 
     synchronized (lock) {
       updateTransformationIfNeeded();
 
+      drawCount++;
       for (Graphic graphic : graphics) {
         graphic.draw(canvas);
+        graphic.lastDraw = drawCount;
+      }
+      // The render thread is done with the frames recorded before the last draw.
+      releaseRemovedGraphics(drawCount - 2);
+      if (frameCaptureNanos != 0 && captureToDisplayLatency != null) {
+        captureToDisplayLatency.recordNanos(SystemClock.elapsedRealtimeNanos() - frameCaptureNanos);
+        frameCaptureNanos = 0;
+      }
+    }
+
+    LatencyHistogram histogram = drawLatency;
+    if (histogram != null) {
+      histogram.recordNanos(SystemClock.elapsedRealtimeNanos() - drawStartNanos);
+    }
+    tracer.end(FrameTracer.STAGE_OVERLAY_DRAW, traceStartNanos);
+  }
+
+  @Override
+  protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+    synchronized (lock) {
+      attached = true;
+    }
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+    synchronized (lock) {
+      attached = false;
+      releaseRemovedGraphics(Long.MAX_VALUE);
+    }
+  }
+
+  /** Releases a graphic just taken off the overlay, or keeps it until no draw reads it. */
+  @GuardedBy("lock")
+  private void retire(Graphic graphic) {
+    graphic.onOverlay = false;
+    if (graphic.awaitingRelease) {
+      // Removed again after being added back, and still waiting.
+      return;
+    }
+    if (!attached || graphic.lastDraw < drawCount - 1) {
+      graphic.release();
+    } else {
+      graphic.awaitingRelease = true;
+      removedGraphics.add(graphic);
+    }
+  }
+
+  /** Releases the removed graphics last drawn by draw {@code lastDoneDraw} or an earlier one. */
+  @GuardedBy("lock")
+  private void releaseRemovedGraphics(long lastDoneDraw) {
+    int kept = 0;
+    for (int i = 0; i < removedGraphics.size(); i++) {
+      Graphic graphic = removedGraphics.get(i);
+      if (graphic.onOverlay) {
+        // Added back, it is released once it is removed again.
+        graphic.awaitingRelease = false;
+      } else if (graphic.lastDraw <= lastDoneDraw) {
+        graphic.awaitingRelease = false;
+        graphic.release();
+      } else {
+        removedGraphics.set(kept++, graphic);
       }
     }
+    removedGraphics.subList(kept, removedGraphics.size()).clear();
   }
 }
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import androidx.annotation.GuardedBy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A log-linear histogram of latencies over a rolling time window.
+ *
+ * <p>Latencies are kept in microseconds. Values below {@code 2 * SUB_BUCKET_COUNT} get a bucket
+ * each; above that every power of two is split into {@code SUB_BUCKET_COUNT} buckets, so a
+ * percentile is off by at most 1/32 of its value. Values above about two minutes are clamped.
+ *
+ * <p>The window is split into slices, and the oldest slice is cleared and reused when the window
+ * moves, so recording never allocates. Thread safe.
+ */
+public final class LatencyHistogram {
+
+  /** Window covered by {@link #LatencyHistogram(String)}. */
+  public static final long DEFAULT_WINDOW_MS = 60_000;
+
+  /** Slices the window of {@link #LatencyHistogram(String)} moves by. */
+  public static final int DEFAULT_SLICE_COUNT = 6;
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_VALUE_BITS = 27;
+  private static final long MAX_VALUE_MICROS = (1L << MAX_VALUE_BITS) - 1;
+  private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE_MICROS) + 1;
+
+  private final String name;
+  private final long sliceNanos;
+
+  private final Object lock = new Object();
+
+  @GuardedBy("lock")
+  private final int[][] counts;
+
+  @GuardedBy("lock")
+  private final long[] sliceTotals;
+
+  @GuardedBy("lock")
+  private final long[] sliceSums;
+
+  @GuardedBy("lock")
+  private final long[] sliceMaxima;
+
+  @GuardedBy("lock")
+  private int currentSlice;
+
+  @GuardedBy("lock")
+  private long currentSliceStartNanos;
+
+  /** Creates a histogram over the last {@link #DEFAULT_WINDOW_MS}. */
+  public LatencyHistogram(String name) {
+    this(name, DEFAULT_WINDOW_MS, DEFAULT_SLICE_COUNT);
+  }
+
+  /** Creates a histogram over the last {@code windowMs}, moving by a slice at a time. */
+  public LatencyHistogram(String name, long windowMs, int sliceCount) {
+    if (windowMs <= 0 || sliceCount <= 0) {
+      throw new IllegalArgumentException("Invalid window: " + windowMs + " ms, " + sliceCount);
+    }
+    this.name = name;
+    sliceNanos = windowMs * 1_000_000 / sliceCount;
+    counts = new int[sliceCount][BUCKET_COUNT];
+    sliceTotals = new long[sliceCount];
+    sliceSums = new long[sliceCount];
+    sliceMaxima = new long[sliceCount];
+    currentSliceStartNanos = System.nanoTime();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /** Records one latency, negative values counting as zero. */
+  public void recordNanos(long latencyNanos) {
+    long micros = Math.min(Math.max(0, latencyNanos / 1000), MAX_VALUE_MICROS);
+    int index = bucketIndex(micros);
+    synchronized (lock) {
+      advance(System.nanoTime());
+      counts[currentSlice][index]++;
+      sliceTotals[currentSlice]++;
+      sliceSums[currentSlice] += micros;
+      sliceMaxima[currentSlice] = Math.max(sliceMaxima[currentSlice], micros);
+    }
+  }
+
+  /** Drops every recorded latency. */
+  public void reset() {
+    synchronized (lock) {
+      for (int i = 0; i < counts.length; i++) {
+        clearSlice(i);
+      }
+      currentSliceStartNanos = System.nanoTime();
+    }
+  }
+
+  /** Returns a copy of the latencies recorded over the window. */
+  public Snapshot snapshot() {
+    long[] merged = new long[BUCKET_COUNT];
+    long total = 0;
+    long sum = 0;
+    long max = 0;
+    synchronized (lock) {
+      advance(System.nanoTime());
+      for (int slice = 0; slice < counts.length; slice++) {
+        int[] sliceCounts = counts[slice];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+          merged[i] += sliceCounts[i];
+        }
+        total += sliceTotals[slice];
+        sum += sliceSums[slice];
+        max = Math.max(max, sliceMaxima[slice]);
+      }
+    }
+    return new Snapshot(name, merged, total, sum, max);
+  }
+
+  @GuardedBy("lock")
+  private void advance(long nowNanos) {
+    long elapsedSlices = (nowNanos - currentSliceStartNanos) / sliceNanos;
+    if (elapsedSlices <= 0) {
+      return;
+    }
+    int slicesToClear = (int) Math.min(elapsedSlices, counts.length);
+    for (int i = 0; i < slicesToClear; i++) {
+      currentSlice = (currentSlice + 1) % counts.length;
+      clearSlice(currentSlice);
+    }
+    currentSliceStartNanos += elapsedSlices * sliceNanos;
+  }
+
+  @GuardedBy("lock")
+  private void clearSlice(int slice) {
+    Arrays.fill(counts[slice], 0);
+    sliceTotals[slice] = 0;
+    sliceSums[slice] = 0;
+    sliceMaxima[slice] = 0;
+  }
+
+  private static int bucketIndex(long micros) {
+    if (micros < 2 * SUB_BUCKET_COUNT) {
+      return (int) micros;
+    }
+    // Keep the SUB_BUCKET_BITS bits below the highest one.
+    int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+    return SUB_BUCKET_COUNT * shift + (int) (micros >> shift);
+  }
+
+  private static long bucketLowerBound(int index) {
+    if (index < 2 * SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_COUNT - 1;
+    return (long) (index - SUB_BUCKET_COUNT * shift) << shift;
+  }
+
+  /** Returns the first value of the bucket after {@code index}. */
+  private static long bucketUpperBound(int index) {
+    return index + 1 < BUCKET_COUNT ? bucketLowerBound(index + 1) : MAX_VALUE_MICROS + 1;
+  }
+
+  /** Writes the buckets of {@code snapshots} as CSV, one row per non-empty bucket. */
+  public static String toCsv(List<Snapshot> snapshots) {
+    StringBuilder csv = new StringBuilder("histogram,lower_us,upper_us,count\n");
+    for (Snapshot snapshot : snapshots) {
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        if (snapshot.counts[i] != 0) {
+          csv.append(snapshot.name)
+              .append(',')
+              .append(bucketLowerBound(i))
+              .append(',')
+              .append(bucketUpperBound(i))
+              .append(',')
+              .append(snapshot.counts[i])
+              .append('\n');
+        }
+      }
+    }
+    return csv.toString();
+  }
+
+  /**
+   * Writes {@code snapshots} as a JSON array of objects with their count, mean, max and
+   * percentiles in microseconds, and their non-empty buckets as {@code [lower, upper, count]}.
+   */
+  public static String toJson(List<Snapshot> snapshots) {
+    StringBuilder json = new StringBuilder("[");
+    for (int s = 0; s < snapshots.size(); s++) {
+      Snapshot snapshot = snapshots.get(s);
+      if (s > 0) {
+        json.append(',');
+      }
+      json.append("{\"name\":\"")
+          .append(snapshot.name.replace("\\", "\\\\").replace("\"", "\\\""))
+          .append("\",\"count\":")
+          .append(snapshot.totalCount)
+          .append(",\"mean_us\":")
+          .append(snapshot.getMeanMicros())
+          .append(",\"max_us\":")
+          .append(snapshot.maxMicros)
+          .append(",\"p50_us\":")
+          .append(snapshot.getPercentileMicros(50))
+          .append(",\"p90_us\":")
+          .append(snapshot.getPercentileMicros(90))
+          .append(",\"p99_us\":")
+          .append(snapshot.getPercentileMicros(99))
+          .append(",\"p999_us\":")
+          .append(snapshot.getPercentileMicros(99.9))
+          .append(",\"buckets\":[");
+      boolean first = true;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        if (snapshot.counts[i] != 0) {
+          if (!first) {
+            json.append(',');
+          }
+          first = false;
+          json.append('[')
+              .append(bucketLowerBound(i))
+              .append(',')
+              .append(bucketUpperBound(i))
+              .append(',')
+              .append(snapshot.counts[i])
+              .append(']');
+        }
+      }
+      json.append("]}");
+    }
+    return json.append(']').toString();
+  }
+
+  /** Latencies recorded by a {@link LatencyHistogram} over its window. */
+  public static final class Snapshot {
+    private final String name;
+    private final long[] counts;
+    private final long totalCount;
+    private final long sumMicros;
+    private final long maxMicros;
+
+    private Snapshot(String name, long[] counts, long totalCount, long sumMicros, long maxMicros) {
+      this.name = name;
+      this.counts = counts;
+      this.totalCount = totalCount;
+      this.sumMicros = sumMicros;
+      this.maxMicros = maxMicros;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getCount() {
+      return totalCount;
+    }
+
+    public long getMeanMicros() {
+      return totalCount == 0 ? 0 : sumMicros / totalCount;
+    }
+
+    public long getMaxMicros() {
+      return maxMicros;
+    }
+
+    /**
+     * Returns the latency that {@code percentile} percent of the recorded ones do not exceed, as
+     * the middle of its bucket, or 0 if nothing was recorded.
+     */
+    public long getPercentileMicros(double percentile) {
+      if (totalCount == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+      long seen = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          long lower = bucketLowerBound(i);
+          long middle = lower + (bucketUpperBound(i) - 1 - lower) / 2;
+          return Math.min(middle, maxMicros);
+        }
+      }
+      return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%s: n=%d, p50=%.1f, p90=%.1f, p99=%.1f, p99.9=%.1f, max=%.1f ms",
+          name,
+          totalCount,
+          getPercentileMicros(50) / 1000.0,
+          getPercentileMicros(90) / 1000.0,
+          getPercentileMicros(99) / 1000.0,
+          getPercentileMicros(99.9) / 1000.0,
+          maxMicros / 1000.0);
+    }
+  }
+}
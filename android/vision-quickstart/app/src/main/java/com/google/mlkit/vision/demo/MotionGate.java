@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import androidx.annotation.GuardedBy;
+import java.nio.ByteBuffer;
+
+/**
+ * Tells whether a camera frame changed enough since the last detected one to be worth running the
+ * detector on.
+ *
+ * <p>Each frame is reduced to a coarse grid of average luma values, sampled from the Y plane. A
+ * frame is detected if enough cells of its grid differ from the grid of the last detected frame,
+ * or if no frame was detected for the refresh interval. Comparing with the last detected frame
+ * rather than the previous one means slow changes add up until they are detected. Thread safe.
+ */
+public final class MotionGate {
+
+  /** Longest time results are reused for unless another interval is given. */
+  public static final long DEFAULT_REFRESH_INTERVAL_MS = 1000;
+
+  private static final int GRID_COLUMNS = 32;
+  private static final int GRID_ROWS = 24;
+  // Luma samples averaged along each side of a cell.
+  private static final int SAMPLES_PER_CELL_SIDE = 3;
+  // Change of the average luma of a cell, out of 255, above which it counts as changed. It is well
+  // above sensor noise once averaged over the samples of a cell.
+  private static final int CELL_THRESHOLD = 12;
+  // Changed cells that make a frame changed, few enough that a small object moving is noticed.
+  private static final int MIN_CHANGED_CELLS = GRID_COLUMNS * GRID_ROWS / 256;
+
+  private final long refreshIntervalNanos;
+
+  @GuardedBy("this")
+  private final int[] grid = new int[GRID_COLUMNS * GRID_ROWS];
+
+  @GuardedBy("this")
+  private final int[] referenceGrid = new int[GRID_COLUMNS * GRID_ROWS];
+
+  @GuardedBy("this")
+  private boolean hasReference;
+
+  @GuardedBy("this")
+  private long referenceNanos;
+
+  @GuardedBy("this")
+  private long staticFrameCount;
+
+  public MotionGate() {
+    this(DEFAULT_REFRESH_INTERVAL_MS);
+  }
+
+  public MotionGate(long refreshIntervalMs) {
+    if (refreshIntervalMs <= 0) {
+      throw new IllegalArgumentException("Invalid refresh interval: " + refreshIntervalMs);
+    }
+    refreshIntervalNanos = refreshIntervalMs * 1_000_000;
+  }
+
+  /** Returns whether an NV21 frame should be detected, like {@link #shouldDetect}. */
+  public boolean shouldDetectNv21(ByteBuffer nv21, int width, int height, long timestampNanos) {
+    return shouldDetect(
+        nv21, width, height, /* rowStride= */ width, /* pixelStride= */ 1, timestampNanos);
+  }
+
+  /**
+   * Returns whether a frame should be detected, given its Y plane and the time it was captured.
+   * When it returns {@code true}, the frame becomes the one later frames are compared with.
+   */
+  public synchronized boolean shouldDetect(
+      ByteBuffer luma,
+      int width,
+      int height,
+      int rowStride,
+      int pixelStride,
+      long timestampNanos) {
+    sampleGrid(luma, width, height, rowStride, pixelStride);
+    if (hasReference
+        && timestampNanos - referenceNanos < refreshIntervalNanos
+        && countChangedCells() < MIN_CHANGED_CELLS) {
+      staticFrameCount++;
+      return false;
+    }
+    System.arraycopy(grid, 0, referenceGrid, 0, grid.length);
+    hasReference = true;
+    referenceNanos = timestampNanos;
+    return true;
+  }
+
+  @GuardedBy("this")
+  private void sampleGrid(ByteBuffer luma, int width, int height, int rowStride, int pixelStride) {
+    int samplesPerCell = SAMPLES_PER_CELL_SIDE * SAMPLES_PER_CELL_SIDE;
+    for (int row = 0; row < GRID_ROWS; row++) {
+      for (int column = 0; column < GRID_COLUMNS; column++) {
+        int sum = 0;
+        for (int i = 0; i < SAMPLES_PER_CELL_SIDE; i++) {
+          // Samples are spread evenly inside the cell, away from its edges.
+          int y =
+              ((row * SAMPLES_PER_CELL_SIDE + i) * 2 + 1)
+                  * height
+                  / (2 * GRID_ROWS * SAMPLES_PER_CELL_SIDE);
+          int rowStart = y * rowStride;
+          for (int j = 0; j < SAMPLES_PER_CELL_SIDE; j++) {
+            int x =
+                ((column * SAMPLES_PER_CELL_SIDE + j) * 2 + 1)
+                    * width
+                    / (2 * GRID_COLUMNS * SAMPLES_PER_CELL_SIDE);
+            sum += luma.get(rowStart + x * pixelStride) & 0xFF;
+          }
+        }
+        grid[row * GRID_COLUMNS + column] = sum / samplesPerCell;
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private int countChangedCells() {
+    int changedCells = 0;
+    for (int i = 0; i < grid.length; i++) {
+      if (Math.abs(grid[i] - referenceGrid[i]) > CELL_THRESHOLD) {
+        changedCells++;
+      }
+    }
+    return changedCells;
+  }
+
+  /** Makes the next frame be detected, e.g. after its results were lost. */
+  public synchronized void reset() {
+    hasReference = false;
+  }
+
+  /** Returns how many frames were found static, and not detected. */
+  public synchronized long getStaticFrameCount() {
+    return staticFrameCount;
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Shrinks camera frames by an integer factor into NV21, for detectors whose models take images
+ * much smaller than the camera preview.
+ *
+ * <p>Each output pixel is the average of the {@code factor x factor} input pixels it covers, and
+ * each output chroma sample that of the input chroma samples it covers. An integer factor keeps
+ * the aspect ratio, and maps result coordinates back to the frame with a single multiplication.
+ * Output sizes are rounded down to even numbers, as NV21 requires, dropping at most a few pixels
+ * along the right and bottom edges.
+ *
+ * <p>The scratch rows used while averaging are taken from the {@link FrameBufferPool}, so
+ * downscaling frames of a steady size does not allocate.
+ */
+public final class Nv21Downscaler {
+
+  private Nv21Downscaler() {}
+
+  /**
+   * Returns the largest factor that keeps the shorter side of a frame at least {@code targetSize}
+   * pixels long, and 1 if the frame is already that small or {@code targetSize} is not positive.
+   */
+  public static int chooseFactor(int width, int height, int targetSize) {
+    if (targetSize <= 0) {
+      return 1;
+    }
+    return Math.max(1, Math.min(width, height) / targetSize);
+  }
+
+  /** Returns the width of a frame once downscaled by {@code factor}. */
+  public static int getScaledWidth(int width, int factor) {
+    return (width / factor) & ~1;
+  }
+
+  /** Returns the height of a frame once downscaled by {@code factor}. */
+  public static int getScaledHeight(int height, int factor) {
+    return (height / factor) & ~1;
+  }
+
+  /** Returns the length of the NV21 array a frame downscaled by {@code factor} fits in. */
+  public static int getScaledSize(int width, int height, int factor) {
+    return getScaledWidth(width, factor) * getScaledHeight(height, factor) * 3 / 2;
+  }
+
+  /**
+   * Downscales a tightly packed NV21 frame into {@code output}, which must hold at least {@link
+   * #getScaledSize} bytes.
+   */
+  public static void downscaleNv21(
+      ByteBuffer nv21, int width, int height, int factor, byte[] output) {
+    ByteBuffer vu = nv21.duplicate();
+    vu.position(width * height);
+    ByteBuffer v = vu.slice();
+    vu.position(width * height + 1);
+    ByteBuffer u = vu.slice();
+    downscale(
+        nv21,
+        /* yRowStride= */ width,
+        /* yPixelStride= */ 1,
+        u,
+        v,
+        /* uvRowStride= */ width,
+        /* uvPixelStride= */ 2,
+        width,
+        height,
+        factor,
+        output);
+  }
+
+  /**
+   * Downscales a YUV_420_888 frame, given its planes, into NV21 in {@code output}, which must hold
+   * at least {@link #getScaledSize} bytes. Planes are read with absolute indices, whatever their
+   * position.
+   */
+  public static void downscale(
+      ByteBuffer y,
+      int yRowStride,
+      int yPixelStride,
+      ByteBuffer u,
+      ByteBuffer v,
+      int uvRowStride,
+      int uvPixelStride,
+      int width,
+      int height,
+      int factor,
+      byte[] output) {
+    if (factor < 1) {
+      throw new IllegalArgumentException("Invalid factor: " + factor);
+    }
+    int scaledWidth = getScaledWidth(width, factor);
+    int scaledHeight = getScaledHeight(height, factor);
+    // One scratch row and one row of sums, large enough for every plane.
+    FrameBufferPool pool = FrameBufferPool.getInstance();
+    byte[] row =
+        pool.acquireByteArray(
+            Math.max(
+                getRowLength(scaledWidth, factor, yPixelStride),
+                getRowLength(scaledWidth / 2, factor, uvPixelStride)));
+    int[] sums = pool.acquireIntArray(scaledWidth);
+    try {
+      shrinkPlane(
+          y,
+          yRowStride,
+          yPixelStride,
+          scaledWidth,
+          scaledHeight,
+          factor,
+          row,
+          sums,
+          output,
+          0,
+          /* outputPixelStride= */ 1);
+      // Chroma planes have one sample for every 2x2 pixels, so they shrink by the same factor.
+      int chromaStart = scaledWidth * scaledHeight;
+      shrinkPlane(
+          v,
+          uvRowStride,
+          uvPixelStride,
+          scaledWidth / 2,
+          scaledHeight / 2,
+          factor,
+          row,
+          sums,
+          output,
+          chromaStart,
+          /* outputPixelStride= */ 2);
+      shrinkPlane(
+          u,
+          uvRowStride,
+          uvPixelStride,
+          scaledWidth / 2,
+          scaledHeight / 2,
+          factor,
+          row,
+          sums,
+          output,
+          chromaStart + 1,
+          /* outputPixelStride= */ 2);
+    } finally {
+      pool.releaseByteArray(row);
+      pool.releaseIntArray(sums);
+    }
+  }
+
+  /**
+   * Returns how many bytes of a plane row are read for {@code scaledColumns} output samples. The
+   * last row of a plane may end right after its last sample, before the row stride.
+   */
+  private static int getRowLength(int scaledColumns, int factor, int pixelStride) {
+    return Math.max(0, (scaledColumns * factor - 1) * pixelStride + 1);
+  }
+
+  /**
+   * Averages blocks of {@code factor x factor} samples of a plane into {@code output}. Input rows
+   * are read in bulk into {@code row} and summed column by column into {@code sums}, so that the
+   * plane is read sequentially.
+   */
+  private static void shrinkPlane(
+      ByteBuffer plane,
+      int rowStride,
+      int pixelStride,
+      int scaledColumns,
+      int scaledRows,
+      int factor,
+      byte[] row,
+      int[] sums,
+      byte[] output,
+      int outputOffset,
+      int outputPixelStride) {
+    ByteBuffer source = plane.duplicate();
+    int rowLength = getRowLength(scaledColumns, factor, pixelStride);
+    int samples = factor * factor;
+    int out = outputOffset;
+    for (int scaledRow = 0; scaledRow < scaledRows; scaledRow++) {
+      Arrays.fill(sums, 0, scaledColumns, 0);
+      for (int i = 0; i < factor; i++) {
+        source.position((scaledRow * factor + i) * rowStride);
+        source.get(row, 0, rowLength);
+        int index = 0;
+        for (int column = 0; column < scaledColumns; column++) {
+          int sum = 0;
+          for (int j = 0; j < factor; j++) {
+            sum += row[index] & 0xFF;
+            index += pixelStride;
+          }
+          sums[column] += sum;
+        }
+      }
+      for (int column = 0; column < scaledColumns; column++) {
+        output[out] = (byte) (sums[column] / samples);
+        out += outputPixelStride;
+      }
+    }
+  }
+}
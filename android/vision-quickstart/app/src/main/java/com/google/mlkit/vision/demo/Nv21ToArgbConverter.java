@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+/**
+ * Converts NV21 frames to ARGB_8888 pixels, rotating and mirroring them in the same pass.
+ *
+ * <p>Colors are converted with the full-range BT.601 (JFIF) equations, the same ones the JPEG
+ * encoder applies to NV21 input, using lookup tables for the chroma terms.
+ */
+public final class Nv21ToArgbConverter {
+
+  // Chroma contributions, indexed by the unsigned U or V value. Green terms are 16.16 fixed point.
+  private static final int[] V_TO_RED = new int[256];
+  private static final int[] U_TO_GREEN = new int[256];
+  private static final int[] V_TO_GREEN = new int[256];
+  private static final int[] U_TO_BLUE = new int[256];
+
+  // Clamps Y plus a chroma term, which lies in [-227, 482], to [0, 255].
+  private static final int CLAMP_OFFSET = 384;
+  private static final int[] CLAMP = new int[1024];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      int chroma = i - 128;
+      V_TO_RED[i] = Math.round(1.402f * chroma);
+      U_TO_GREEN[i] = Math.round(0.344136f * 65536 * chroma);
+      V_TO_GREEN[i] = Math.round(0.714136f * 65536 * chroma);
+      U_TO_BLUE[i] = Math.round(1.772f * chroma);
+    }
+    for (int i = 0; i < CLAMP.length; i++) {
+      CLAMP[i] = Math.max(0, Math.min(255, i - CLAMP_OFFSET));
+    }
+  }
+
+  private Nv21ToArgbConverter() {}
+
+  /** Returns the width of a {@code width x height} frame rotated by {@code rotationDegrees}. */
+  public static int getOutputWidth(int width, int height, int rotationDegrees) {
+    return isSideways(rotationDegrees) ? height : width;
+  }
+
+  /** Returns the height of a {@code width x height} frame rotated by {@code rotationDegrees}. */
+  public static int getOutputHeight(int width, int height, int rotationDegrees) {
+    return isSideways(rotationDegrees) ? width : height;
+  }
+
+  /**
+   * Converts an NV21 frame into {@code argb}, which must hold at least {@code width * height}
+   * pixels. The output is rotated clockwise by {@code rotationDegrees}, a multiple of 90, and then
+   * mirrored horizontally if {@code mirror} is set; its row stride is {@link #getOutputWidth}.
+   */
+  public static void convert(
+      byte[] nv21, int width, int height, int rotationDegrees, boolean mirror, int[] argb) {
+    int outputWidth = getOutputWidth(width, height, rotationDegrees);
+    // Output column and row of source pixel (x, y), as dx = ax * x + ay * y + a0 and likewise dy.
+    int ax;
+    int ay;
+    int a0;
+    int bx;
+    int by;
+    int b0;
+    switch (normalize(rotationDegrees)) {
+      case 0:
+        ax = 1;
+        ay = 0;
+        a0 = 0;
+        bx = 0;
+        by = 1;
+        b0 = 0;
+        break;
+      case 90:
+        ax = 0;
+        ay = -1;
+        a0 = height - 1;
+        bx = 1;
+        by = 0;
+        b0 = 0;
+        break;
+      case 180:
+        ax = -1;
+        ay = 0;
+        a0 = width - 1;
+        bx = 0;
+        by = -1;
+        b0 = height - 1;
+        break;
+      default:
+        ax = 0;
+        ay = 1;
+        a0 = 0;
+        bx = -1;
+        by = 0;
+        b0 = width - 1;
+        break;
+    }
+    if (mirror) {
+      ax = -ax;
+      ay = -ay;
+      a0 = outputWidth - 1 - a0;
+    }
+    int origin = b0 * outputWidth + a0;
+    int stepX = bx * outputWidth + ax;
+    int stepY = by * outputWidth + ay;
+
+    int frameSize = width * height;
+    int chromaStride = (width + 1) & ~1;
+    for (int y = 0; y < height; y++) {
+      int yIndex = y * width;
+      int uvIndex = frameSize + (y >> 1) * chromaStride;
+      int out = origin + y * stepY;
+      for (int x = 0; x < width; x += 2, uvIndex += 2) {
+        int v = nv21[uvIndex] & 0xff;
+        int u = nv21[uvIndex + 1] & 0xff;
+        int red = V_TO_RED[v] + CLAMP_OFFSET;
+        int green = CLAMP_OFFSET - ((U_TO_GREEN[u] + V_TO_GREEN[v] + 0x8000) >> 16);
+        int blue = U_TO_BLUE[u] + CLAMP_OFFSET;
+
+        int luma = nv21[yIndex++] & 0xff;
+        argb[out] =
+            0xff000000
+                | CLAMP[luma + red] << 16
+                | CLAMP[luma + green] << 8
+                | CLAMP[luma + blue];
+        out += stepX;
+        if (x + 1 < width) {
+          luma = nv21[yIndex++] & 0xff;
+          argb[out] =
+              0xff000000
+                  | CLAMP[luma + red] << 16
+                  | CLAMP[luma + green] << 8
+                  | CLAMP[luma + blue];
+          out += stepX;
+        }
+      }
+    }
+  }
+
+  private static boolean isSideways(int rotationDegrees) {
+    int rotation = normalize(rotationDegrees);
+    return rotation == 90 || rotation == 270;
+  }
+
+  private static int normalize(int rotationDegrees) {
+    int rotation = ((rotationDegrees % 360) + 360) % 360;
+    if (rotation % 90 != 0) {
+      throw new IllegalArgumentException("Rotation must be a multiple of 90: " + rotationDegrees);
+    }
+    return rotation;
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Lowers the cost of the frame pipeline while the device is hot, the detector falls behind or the
+ * battery runs low, so that it can run for days without being throttled by the system.
+ *
+ * <p>The pipeline is run at one of four levels, each cheaper than the previous one: {@link
+ * #LEVEL_NORMAL}, {@link #LEVEL_REDUCED_RATE}, {@link #LEVEL_CHEAP_MODE} and {@link
+ * #LEVEL_REDUCED_RESOLUTION}. The governor moves one level up once any condition has been over its
+ * high threshold for {@link #STEP_UP_DELAY_MS}, and one level down once all of them have been under
+ * their low thresholds for the longer {@link #STEP_DOWN_DELAY_MS}. The gap between the thresholds
+ * and the delays keeps it from going back and forth.
+ *
+ * <p>There is one governor per process, so the level carries over from one processor to the next
+ * and the device is not assumed to be cool every time the user switches detectors. Heat is judged
+ * on absolute signals: the thermal headroom and status the system reports, and on older devices
+ * the battery temperature.
+ */
+public final class PipelineGovernor {
+
+  /** Every frame is detected with the configured detector. */
+  public static final int LEVEL_NORMAL = 0;
+
+  /** Frames are detected at most every {@link #getMinFrameIntervalMs} and the rest are skipped. */
+  public static final int LEVEL_REDUCED_RATE = 1;
+
+  /** As above, and processors switch to a cheaper detector mode where they have one. */
+  public static final int LEVEL_CHEAP_MODE = 2;
+
+  /** As above, and frames are detected at a lower resolution and rate. */
+  public static final int LEVEL_REDUCED_RESOLUTION = 3;
+
+  /** Time a condition must stay over its high threshold before the level goes up. */
+  public static final long STEP_UP_DELAY_MS = 5_000;
+
+  /** Time all conditions must stay under their low thresholds before the level goes down. */
+  public static final long STEP_DOWN_DELAY_MS = 30_000;
+
+  // Shortest time between two detected frames, for each level.
+  private static final long[] MIN_FRAME_INTERVAL_MS = {0, 100, 100, 200};
+
+  // Thermal headroom forecast by the system, where 1 means severe throttling.
+  private static final int THERMAL_HEADROOM_FORECAST_SECONDS = 10;
+  private static final float HIGH_THERMAL_HEADROOM = 0.8f;
+  private static final float LOW_THERMAL_HEADROOM = 0.6f;
+
+  // Battery temperatures, for devices that report neither thermal headroom nor status.
+  private static final float HIGH_BATTERY_TEMPERATURE_CELSIUS = 42;
+  private static final float LOW_BATTERY_TEMPERATURE_CELSIUS = 38;
+
+  private static final long HIGH_DETECTOR_LATENCY_MS = 150;
+  private static final long LOW_DETECTOR_LATENCY_MS = 80;
+
+  // Battery levels, when not charging.
+  private static final float HIGH_PRESSURE_BATTERY_FRACTION = 0.2f;
+  private static final float LOW_PRESSURE_BATTERY_FRACTION = 0.3f;
+
+  // How the conditions compare with their thresholds.
+  static final int PRESSURE_LOW = 0;
+  static final int PRESSURE_MODERATE = 1;
+  static final int PRESSURE_HIGH = 2;
+
+  private static final String TAG = "PipelineGovernor";
+
+  /** Told about level changes, on the thread calling {@link #update}. */
+  public interface Listener {
+    void onLevelChanged(int level);
+  }
+
+  @Nullable private static volatile PipelineGovernor instance;
+
+  private final Context context;
+  @Nullable private final PowerManager powerManager;
+
+  private volatile int level = LEVEL_NORMAL;
+
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  // Since when the conditions were last found high or low without interruption, or -1.
+  @GuardedBy("this")
+  private long highSinceMs = -1;
+
+  @GuardedBy("this")
+  private long lowSinceMs = -1;
+
+  private PipelineGovernor(Context context) {
+    this.context = context;
+    powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+  }
+
+  /** Returns the governor shared by every processor. */
+  public static PipelineGovernor getInstance(Context context) {
+    PipelineGovernor result = instance;
+    if (result == null) {
+      synchronized (PipelineGovernor.class) {
+        result = instance;
+        if (result == null) {
+          result = new PipelineGovernor(context.getApplicationContext());
+          instance = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /** Returns the current level, one of the {@code LEVEL_} constants. */
+  public int getLevel() {
+    return level;
+  }
+
+  /** Returns the shortest time between two frames handed to the detector at the current level. */
+  public long getMinFrameIntervalMs() {
+    return MIN_FRAME_INTERVAL_MS[level];
+  }
+
+  /**
+   * Reads the device conditions and moves to another level if needed. Meant to be called about
+   * once per second by each running processor, with the 90th percentile of its detector latency
+   * over the last few seconds.
+   */
+  public void update(long detectorLatencyP90Ms) {
+    Intent battery =
+        context.registerReceiver(
+            /* receiver= */ null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+    int thermalPressure = getThermalPressure(battery);
+    int pressure =
+        combine(
+            thermalPressure,
+            compare(detectorLatencyP90Ms, LOW_DETECTOR_LATENCY_MS, HIGH_DETECTOR_LATENCY_MS),
+            getBatteryPressure(battery));
+    int previousLevel = level;
+    int newLevel = updateLevel(pressure, SystemClock.elapsedRealtime());
+    if (newLevel != previousLevel) {
+      Log.i(
+          TAG,
+          "Level "
+              + previousLevel
+              + " -> "
+              + newLevel
+              + ", detector p90 "
+              + detectorLatencyP90Ms
+              + " ms, thermal pressure "
+              + thermalPressure);
+      for (Listener listener : listeners) {
+        listener.onLevelChanged(newLevel);
+      }
+    }
+  }
+
+  /** Moves the level by one step once {@code pressure} has lasted long enough. */
+  synchronized int updateLevel(int pressure, long nowMs) {
+    if (pressure == PRESSURE_HIGH) {
+      lowSinceMs = -1;
+      if (highSinceMs < 0) {
+        highSinceMs = nowMs;
+      } else if (nowMs - highSinceMs >= STEP_UP_DELAY_MS && level < LEVEL_REDUCED_RESOLUTION) {
+        level++;
+        // The next step needs the conditions to stay high for the whole delay again.
+        highSinceMs = nowMs;
+      }
+    } else if (pressure == PRESSURE_LOW) {
+      highSinceMs = -1;
+      if (lowSinceMs < 0) {
+        lowSinceMs = nowMs;
+      } else if (nowMs - lowSinceMs >= STEP_DOWN_DELAY_MS && level > LEVEL_NORMAL) {
+        level--;
+        lowSinceMs = nowMs;
+      }
+    } else {
+      highSinceMs = -1;
+      lowSinceMs = -1;
+    }
+    return level;
+  }
+
+  private int getThermalPressure(@Nullable Intent battery) {
+    if (VERSION.SDK_INT >= VERSION_CODES.Q && powerManager != null) {
+      int status = powerManager.getCurrentThermalStatus();
+      int pressure =
+          status >= PowerManager.THERMAL_STATUS_MODERATE
+              ? PRESSURE_HIGH
+              : status == PowerManager.THERMAL_STATUS_NONE ? PRESSURE_LOW : PRESSURE_MODERATE;
+      if (VERSION.SDK_INT >= VERSION_CODES.R) {
+        // NaN when the device does not support it, or when asked more than once per second.
+        float headroom = powerManager.getThermalHeadroom(THERMAL_HEADROOM_FORECAST_SECONDS);
+        if (!Float.isNaN(headroom)) {
+          pressure =
+              combine(
+                  pressure,
+                  compare(headroom, LOW_THERMAL_HEADROOM, HIGH_THERMAL_HEADROOM),
+                  PRESSURE_LOW);
+        }
+      }
+      return pressure;
+    }
+    if (battery == null) {
+      return PRESSURE_LOW;
+    }
+    int temperatureTenths =
+        battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, Integer.MIN_VALUE);
+    if (temperatureTenths == Integer.MIN_VALUE) {
+      return PRESSURE_LOW;
+    }
+    return compare(
+        temperatureTenths / 10f, LOW_BATTERY_TEMPERATURE_CELSIUS, HIGH_BATTERY_TEMPERATURE_CELSIUS);
+  }
+
+  private static int getBatteryPressure(@Nullable Intent battery) {
+    if (battery == null) {
+      return PRESSURE_LOW;
+    }
+    if (battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0) {
+      return PRESSURE_LOW;
+    }
+    int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+    int batteryLevel = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+    if (scale <= 0 || batteryLevel < 0) {
+      return PRESSURE_LOW;
+    }
+    // A battery running out counts as high pressure, hence the inverted thresholds.
+    float drained = 1 - (float) batteryLevel / scale;
+    return compare(drained, 1 - LOW_PRESSURE_BATTERY_FRACTION, 1 - HIGH_PRESSURE_BATTERY_FRACTION);
+  }
+
+  private static int compare(float value, float lowThreshold, float highThreshold) {
+    return value > highThreshold
+        ? PRESSURE_HIGH
+        : value < lowThreshold ? PRESSURE_LOW : PRESSURE_MODERATE;
+  }
+
+  /** Returns high if any pressure is high, low if all are low, and moderate otherwise. */
+  private static int combine(int first, int second, int third) {
+    if (first == PRESSURE_HIGH || second == PRESSURE_HIGH || third == PRESSURE_HIGH) {
+      return PRESSURE_HIGH;
+    }
+    if (first == PRESSURE_LOW && second == PRESSURE_LOW && third == PRESSURE_LOW) {
+      return PRESSURE_LOW;
+    }
+    return PRESSURE_MODERATE;
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.graphics.Rect;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Crops camera frames to the part where objects were last found, so that detectors spend their
+ * time on a small image instead of the full frame.
+ *
+ * <p>The crop is the union of the previous frame's result boxes, each expanded by a margin so that
+ * objects moving between frames stay inside it. Full frames are still detected every rescan
+ * interval to find new objects, as well as when nothing was found or when the crop would cover
+ * most of the frame anyway.
+ *
+ * <p>Boxes are given in upright image coordinates, the ones detectors report results in, while
+ * crops apply to frames as they come from the camera, before rotation. Thread safe.
+ */
+public final class RegionOfInterest {
+
+  /** Longest time between two full frames unless another interval is given. */
+  public static final long DEFAULT_RESCAN_INTERVAL_MS = 1000;
+
+  // Margin added on each side of a box, as a fraction of its larger side, and at least in pixels.
+  private static final float MARGIN_FRACTION = 0.5f;
+  private static final int MIN_MARGIN = 32;
+
+  // Crops larger than this fraction of the frame save too little to be worth it.
+  private static final float MAX_AREA_FRACTION = 0.6f;
+
+  private final long rescanIntervalNanos;
+
+  @GuardedBy("this")
+  private long lastFullFrameNanos;
+
+  @GuardedBy("this")
+  private long croppedFrameCount;
+
+  public RegionOfInterest() {
+    this(DEFAULT_RESCAN_INTERVAL_MS);
+  }
+
+  public RegionOfInterest(long rescanIntervalMs) {
+    if (rescanIntervalMs <= 0) {
+      throw new IllegalArgumentException("Invalid rescan interval: " + rescanIntervalMs);
+    }
+    rescanIntervalNanos = rescanIntervalMs * 1_000_000;
+  }
+
+  /**
+   * Returns the crop of the next frame, in camera coordinates with even edges as NV21 requires, or
+   * {@code null} if the full frame should be detected.
+   *
+   * @param boxes result boxes of the previous frame, in upright full-frame coordinates
+   * @param width width of the frame as it comes from the camera
+   * @param height height of the frame as it comes from the camera
+   * @param rotation rotation of the frame, in degrees
+   */
+  @Nullable
+  public synchronized Rect chooseCrop(
+      List<Rect> boxes, int width, int height, int rotation, long nowNanos) {
+    if (boxes.isEmpty() || nowNanos - lastFullFrameNanos >= rescanIntervalNanos) {
+      return fullFrame(nowNanos);
+    }
+    Rect union = new Rect();
+    for (Rect box : boxes) {
+      int margin =
+          Math.max(MIN_MARGIN, (int) (MARGIN_FRACTION * Math.max(box.width(), box.height())));
+      union.union(box.left - margin, box.top - margin, box.right + margin, box.bottom + margin);
+    }
+    Rect crop = toCamera(union, width, height, rotation);
+    // Rounds outwards to even coordinates, as chroma samples cover 2x2 pixels.
+    crop.set(
+        Math.max(0, crop.left & ~1),
+        Math.max(0, crop.top & ~1),
+        Math.min(width, (crop.right + 1) & ~1),
+        Math.min(height, (crop.bottom + 1) & ~1));
+    if (crop.isEmpty() || crop.width() * crop.height() > MAX_AREA_FRACTION * width * height) {
+      return fullFrame(nowNanos);
+    }
+    croppedFrameCount++;
+    return crop;
+  }
+
+  @GuardedBy("this")
+  @Nullable
+  private Rect fullFrame(long nowNanos) {
+    lastFullFrameNanos = nowNanos;
+    return null;
+  }
+
+  /** Returns how many frames were cropped. */
+  public synchronized long getCroppedFrameCount() {
+    return croppedFrameCount;
+  }
+
+  /**
+   * Moves the {@code crop} of an NV21 frame to the start of its buffer, row by row, leaving it a
+   * tightly packed NV21 image of the crop's size. Rows only ever move towards the start of the
+   * buffer, so this needs no copy of the frame. The buffer must be backed by an array.
+   */
+  public static void cropNv21InPlace(ByteBuffer nv21, int width, int height, Rect crop) {
+    byte[] data = nv21.array();
+    int base = nv21.arrayOffset();
+    int cropWidth = crop.width();
+    int cropHeight = crop.height();
+    for (int row = 0; row < cropHeight; row++) {
+      System.arraycopy(
+          data,
+          base + (crop.top + row) * width + crop.left,
+          data,
+          base + row * cropWidth,
+          cropWidth);
+    }
+    // The interleaved VU plane has one row for every two rows of luma.
+    int chromaStart = base + width * height;
+    int cropChromaStart = base + cropWidth * cropHeight;
+    for (int row = 0; row < cropHeight / 2; row++) {
+      System.arraycopy(
+          data,
+          chromaStart + (crop.top / 2 + row) * width + crop.left,
+          data,
+          cropChromaStart + row * cropWidth,
+          cropWidth);
+    }
+    nv21.clear();
+    nv21.limit(cropWidth * cropHeight * 3 / 2);
+  }
+
+  /**
+   * Maps a rectangle from the coordinates of a frame as it comes from the camera to those of the
+   * upright image, which the frame becomes once rotated clockwise by {@code rotation} degrees.
+   */
+  public static Rect toUpright(Rect rect, int width, int height, int rotation) {
+    switch (rotation) {
+      case 90:
+        return new Rect(height - rect.bottom, rect.left, height - rect.top, rect.right);
+      case 180:
+        return new Rect(
+            width - rect.right, height - rect.bottom, width - rect.left, height - rect.top);
+      case 270:
+        return new Rect(rect.top, width - rect.right, rect.bottom, width - rect.left);
+      default:
+        return new Rect(rect);
+    }
+  }
+
+  /** Maps a rectangle back from upright coordinates, the inverse of {@link #toUpright}. */
+  public static Rect toCamera(Rect rect, int width, int height, int rotation) {
+    switch (rotation) {
+      case 90:
+        return new Rect(rect.top, height - rect.right, rect.bottom, height - rect.left);
+      case 180:
+        return new Rect(
+            width - rect.right, height - rect.bottom, width - rect.left, height - rect.top);
+      case 270:
+        return new Rect(width - rect.bottom, rect.left, width - rect.top, rect.right);
+      default:
+        return new Rect(rect);
+    }
+  }
+}
@@ -32,6 +32,24 @@ public interface VisionImageProcessor {
       ByteBuffer data, FrameMetadata frameMetadata, GraphicOverlay graphicOverlay)
       throws MlKitException;
 
+  /**
+   * Processes ByteBuffer image data like {@link #processByteBuffer(ByteBuffer, FrameMetadata,
+   * GraphicOverlay)}, and runs {@code onReleased} once {@code data} is no longer read, which may be
+   * after this call returns and on any thread. The caller must not reuse {@code data} until then.
+   */
+  default void processByteBuffer(
+      ByteBuffer data,
+      FrameMetadata frameMetadata,
+      GraphicOverlay graphicOverlay,
+      Runnable onReleased)
+      throws MlKitException {
+    try {
+      processByteBuffer(data, frameMetadata, graphicOverlay);
+    } finally {
+      onReleased.run();
+    }
+  }
+
   /** Processes ImageProxy image data, e.g. used for CameraX live preview case. */
   void processImageProxy(ImageProxy image, GraphicOverlay graphicOverlay) throws MlKitException;
 
@@ -55,8 +55,10 @@ import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.R;
 import com.google.mlkit.vision.demo.VisionImageProcessor;
 import com.google.mlkit.vision.demo.java.barcodescanner.BarcodeScannerProcessor;
+import com.google.mlkit.vision.demo.java.custom.FaceSignatureExtractor;
 import com.google.mlkit.vision.demo.java.facedetector.FaceDetectorProcessor;
 import com.google.mlkit.vision.demo.java.facemeshdetector.FaceMeshDetectorProcessor;
+import com.google.mlkit.vision.demo.java.facemeshdetector.FaceMeshLandmarks;
 import com.google.mlkit.vision.demo.java.labeldetector.LabelDetectorProcessor;
 import com.google.mlkit.vision.demo.java.objectdetector.ObjectDetectorProcessor;
 import com.google.mlkit.vision.demo.java.posedetector.PoseDetectorProcessor;
@@ -65,7 +67,6 @@ import com.google.mlkit.vision.demo.java.textdetector.TextRecognitionProcessor;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 import com.google.mlkit.vision.demo.preference.SettingsActivity;
 import com.google.mlkit.vision.facemesh.FaceMesh;
-import com.google.mlkit.vision.facemesh.FaceMeshPoint;
 import com.google.mlkit.vision.label.custom.CustomImageLabelerOptions;
 import com.google.mlkit.vision.label.defaults.ImageLabelerOptions;
 import com.google.mlkit.vision.objects.custom.CustomObjectDetectorOptions;
@@ -139,46 +140,6 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
   private int lensFacing = CameraSelector.LENS_FACING_BACK;
   private CameraSelector cameraSelector;
 
-  private void onClickRecord(View view) {
-    List<FaceMesh> faceMeshes = this.graphicOverlay.getFaceMeshesList();
-    if (faceMeshes != null) {
-      ArrayList<ArrayList<Float>> faceMeshPointList = new ArrayList<>();
-      ArrayList<Double> distanceList = new ArrayList<>();
-
-      for (FaceMesh faceMesh : faceMeshes) {
-        List<FaceMeshPoint> faceMeshPoints = new ArrayList<>();
-        FaceMeshPoint rootPoint = faceMesh.getPoints(12).get(3);
-        for (int i=1;i<=12;i++){
-          int len = faceMesh.getPoints(i).size();
-          faceMeshPoints.add(faceMesh.getPoints(i).get(0));
-          faceMeshPoints.add(faceMesh.getPoints(i).get(len - 1));
-        }
-        int l = faceMeshPoints.size();
-        for(int i=0; i<l;i+=2){
-          distanceList.add(this.distance(faceMeshPoints.get(i), faceMeshPoints.get(i+1)));
-          distanceList.add(this.distance(faceMeshPoints.get(i), rootPoint));
-          distanceList.add(this.distance(faceMeshPoints.get(i+1), rootPoint));
-        }
-      }
-      Log.d("Z", "onClickRecord: " + distanceList.toString());
-      Intent intent = new Intent(CameraXLivePreviewActivity.this, RegisterActivity.class);
-      Bundle bundle = new Bundle();
-      bundle.putString("faceMeshPoints", distanceList.toString());
-      intent.putExtras(bundle);
-      startActivity(intent);
-    }
-  }
-  private double distance(FaceMeshPoint point1, FaceMeshPoint point2){
-    float x1 = point1.getPosition().getX();
-    float y1 = point1.getPosition().getY();
-    float z1 = point1.getPosition().getZ();
-
-    float x2 = point2.getPosition().getX();
-    float y2 = point2.getPosition().getY();
-    float z2 = point2.getPosition().getZ();
-
-    return Math.sqrt(Math.pow((x1-x2), 2) + Math.pow((y1-y2), 2) + Math.pow((z1-z2), 2));
-  }
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
@@ -283,35 +244,23 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
   }
 
   private void onClickFinishRegister(View view) {
-    if (this.getFaceMeshRegisterList().size() >= 1) {
-      Bundle bundle = new Bundle();
-      List<FaceMesh> faceMeshes = this.getFaceMeshRegisterList();
-      ArrayList<String> faceDistanceList = new ArrayList<>();
-        if (faceMeshes != null) {
-          for (FaceMesh faceMesh : faceMeshes) {
-            ArrayList<Double> distanceList = new ArrayList<>();
-            List<FaceMeshPoint> faceMeshPoints = new ArrayList<>();
-            FaceMeshPoint rootPoint = faceMesh.getPoints(12).get(3);
-            for (int i=1;i<=12;i++){
-              int len = faceMesh.getPoints(i).size();
-              faceMeshPoints.add(faceMesh.getPoints(i).get(0));
-              faceMeshPoints.add(faceMesh.getPoints(i).get(len - 1));
-            }
-            int l = faceMeshPoints.size();
-            for(int i=0; i<l;i+=2){
-              distanceList.add(this.distance(faceMeshPoints.get(i), faceMeshPoints.get(i+1)));
-              distanceList.add(this.distance(faceMeshPoints.get(i), rootPoint));
-              distanceList.add(this.distance(faceMeshPoints.get(i+1), rootPoint));
-            }
-            faceDistanceList.add(distanceList.toString());
-          }
-//          Log.d("Z", "onClickRecord: " + distanceList.toString());
-          Intent intent = new Intent(CameraXLivePreviewActivity.this, RegisterActivity.class);
-          bundle.putStringArrayList("faceMeshPoints", faceDistanceList);
-          intent.putExtras(bundle);
-          startActivity(intent);
-        }
+    List<FaceMesh> faceMeshes = this.getFaceMeshRegisterList();
+    if (faceMeshes.size() >= 1) {
+      // Signatures are handed over back to back in a single float array.
+      int signatureSize = FaceSignatureExtractor.SIGNATURE_SIZE;
+      float[] signatures = new float[faceMeshes.size() * signatureSize];
+      float[] landmarks = new float[FaceSignatureExtractor.LANDMARKS_LENGTH];
+      float[] signature = new float[signatureSize];
+      for (int i = 0; i < faceMeshes.size(); i++) {
+        FaceMeshLandmarks.extractSignature(faceMeshes.get(i), landmarks, signature);
+        System.arraycopy(signature, 0, signatures, i * signatureSize, signatureSize);
       }
+      Intent intent = new Intent(CameraXLivePreviewActivity.this, RegisterActivity.class);
+      Bundle bundle = new Bundle();
+      bundle.putFloatArray(RegisterActivity.EXTRA_FACE_SIGNATURES, signatures);
+      intent.putExtras(bundle);
+      startActivity(intent);
+    }
     this.currentState = State.Processing;
     this.onChangeState();
 
@@ -32,7 +32,12 @@ import android.widget.ArrayAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
 import com.google.mlkit.vision.demo.BuildConfig;
+import com.google.mlkit.vision.demo.DetectorRegistry;
 import com.google.mlkit.vision.demo.R;
+import com.google.mlkit.vision.demo.preference.PreferenceUtils;
+import com.google.mlkit.vision.objects.ObjectDetection;
+import com.google.mlkit.vision.objects.ObjectDetector;
+import com.google.mlkit.vision.objects.defaults.ObjectDetectorOptions;
 
 /** Demo app chooser which allows you pick from all available testing Activities. */
 public final class ChooserActivity extends AppCompatActivity
@@ -89,14 +94,38 @@ public final class ChooserActivity extends AppCompatActivity
 
     listView.setAdapter(adapter);
     listView.setOnItemClickListener(this);
+
+    DetectorRegistry.getInstance().registerMemoryCallbacks(this);
   }
 
   @Override
   public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
     Class<?> clicked = CLASSES[position];
+    if (PreferenceUtils.shouldWarmUpDetectors(this)) {
+      warmUpDetector(clicked);
+    }
     startActivity(new Intent(this, clicked));
   }
 
+  /**
+   * Starts loading the detector that {@code activity} opens with, so that its model loads while
+   * the activity and its camera start. Activities that do not take their detector from the {@link
+   * DetectorRegistry} are not warmed up.
+   */
+  private void warmUpDetector(Class<?> activity) {
+    ObjectDetectorOptions options;
+    if (activity == LivePreviewActivity.class || activity == CameraXLivePreviewActivity.class) {
+      options = PreferenceUtils.getObjectDetectorOptionsForLivePreview(this);
+    } else if (activity == StillImageActivity.class) {
+      options = PreferenceUtils.getObjectDetectorOptionsForStillImage(this);
+    } else {
+      return;
+    }
+    // All of them start with the object detector.
+    DetectorRegistry.getInstance()
+        .warmUp(options, () -> ObjectDetection.getClient(options), ObjectDetector::process);
+  }
+
   private static class MyArrayAdapter extends ArrayAdapter<Class<?>> {
 
     private final Context context;
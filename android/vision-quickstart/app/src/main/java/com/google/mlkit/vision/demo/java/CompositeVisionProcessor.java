@@ -0,0 +1,225 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.GraphicOverlay;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs several detectors on the same frames. Each frame is converted once, by {@link
+ * VisionProcessorBase}, and the resulting {@link InputImage} is handed to every child processor's
+ * detector at the same time. The results of all children are then drawn in a single overlay pass.
+ *
+ * <p>Each child runs on every {@code frameInterval}-th frame, and is skipped while its previous
+ * detection is still running. A child whose detection takes longer than its timeout is left out of
+ * the frame, and its late results are dropped, but the frame is only closed or reused once that
+ * detection completes too. Skipped children have their latest results drawn again, so they don't
+ * flicker.
+ *
+ * <p>Children are only used for their detector and their drawing. They are never given frames
+ * themselves, so they don't start an FPS timer, temperature monitor, governor, frame trace or
+ * frame recording of their own; this processor runs the only ones.
+ */
+public class CompositeVisionProcessor extends VisionProcessorBase<List<Object>> {
+
+  /** Time a child may take on a frame unless another timeout is given. */
+  public static final long DEFAULT_TIMEOUT_MS = 500;
+
+  private static final String TAG = "CompositeProcessor";
+
+  private final List<Child<?>> children = new ArrayList<>();
+  private final Handler timeoutHandler = new Handler(Looper.getMainLooper());
+  private final AtomicLong frameCount = new AtomicLong();
+
+  // For the results of each frame, the detections of all the children given the frame, which may
+  // outlive the results. Removed when the frame's release task is requested.
+  private final Map<Task<List<Object>>, Task<?>> imageReaders = new ConcurrentHashMap<>();
+
+  public CompositeVisionProcessor(Context context) {
+    super(context);
+  }
+
+  /** Adds a child run on every frame with {@link #DEFAULT_TIMEOUT_MS}. */
+  public CompositeVisionProcessor addProcessor(VisionProcessorBase<?> processor) {
+    return addProcessor(processor, /* frameInterval= */ 1, DEFAULT_TIMEOUT_MS);
+  }
+
+  /**
+   * Adds a child run on one frame out of {@code frameInterval}. Children must all be added before
+   * the first frame is processed.
+   */
+  public CompositeVisionProcessor addProcessor(
+      VisionProcessorBase<?> processor, int frameInterval, long timeoutMs) {
+    if (frameInterval < 1) {
+      throw new IllegalArgumentException("Invalid frame interval: " + frameInterval);
+    }
+    children.add(new Child<>(processor, frameInterval, timeoutMs));
+    return this;
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    timeoutHandler.removeCallbacksAndMessages(null);
+    for (Child<?> child : children) {
+      child.processor.stop();
+    }
+  }
+
+  @Override
+  protected void onGovernorLevelChanged(int level) {
+    for (Child<?> child : children) {
+      child.processor.onGovernorLevelChanged(level);
+    }
+  }
+
+  @Override
+  protected Task<List<Object>> detectInImage(InputImage image) {
+    long frame = frameCount.getAndIncrement();
+    List<Task<Object>> tasks = new ArrayList<>(children.size());
+    List<Task<Object>> runningTasks = new ArrayList<>(children.size());
+    List<Task<?>> detections = new ArrayList<>(children.size());
+    for (Child<?> child : children) {
+      Task<Object> task = null;
+      if (frame % child.frameInterval == 0 && child.busy.compareAndSet(false, true)) {
+        task = detect(child, image, detections);
+        runningTasks.add(task);
+      }
+      tasks.add(task);
+    }
+    // Completes on the main thread, where the results of the children are kept.
+    Task<List<Object>> results =
+        Tasks.whenAllComplete(runningTasks).continueWith(allTasks -> collectResults(tasks));
+    imageReaders.put(results, Tasks.whenAllComplete(detections));
+    return results;
+  }
+
+  @Override
+  protected Task<?> getImageReleaseTask(Task<List<Object>> detection) {
+    Task<?> readers = imageReaders.remove(detection);
+    return readers != null ? readers : detection;
+  }
+
+  /**
+   * Starts a child's detection, adding it to {@code detections}, and returns its results, which
+   * fail with a {@link TimeoutException} once the child's timeout passes.
+   */
+  private <R> Task<Object> detect(Child<R> child, InputImage image, List<Task<?>> detections) {
+    TaskCompletionSource<Object> result = new TaskCompletionSource<>();
+    Runnable timeout =
+        () ->
+            result.trySetException(
+                new TimeoutException(
+                    child.processor.getClass().getSimpleName()
+                        + " took more than "
+                        + child.timeoutMs
+                        + " ms"));
+    timeoutHandler.postDelayed(timeout, child.timeoutMs);
+    Task<R> detection = child.processor.detectInImage(image);
+    detections.add(detection);
+    detection.addOnCompleteListener(
+            task -> {
+              timeoutHandler.removeCallbacks(timeout);
+              child.busy.set(false);
+              if (task.isSuccessful()) {
+                result.trySetResult(task.getResult());
+              } else {
+                Exception e = task.getException();
+                result.trySetException(e != null ? e : new IllegalStateException("Cancelled"));
+              }
+            });
+    return result.getTask();
+  }
+
+  private List<Object> collectResults(List<Task<Object>> tasks) {
+    List<Object> results = new ArrayList<>(tasks.size());
+    for (int i = 0; i < tasks.size(); i++) {
+      Child<?> child = children.get(i);
+      Task<Object> task = tasks.get(i);
+      if (task != null) {
+        if (task.isSuccessful()) {
+          child.latestResult = task.getResult();
+        } else {
+          child.latestResult = null;
+          Exception e = task.getException();
+          if (e instanceof TimeoutException) {
+            Log.w(TAG, e.getMessage());
+          } else if (e != null) {
+            child.processor.onFailure(e);
+          }
+        }
+      }
+      results.add(child.latestResult);
+    }
+    return Collections.unmodifiableList(results);
+  }
+
+  @Override
+  protected void onSuccess(@NonNull List<Object> results, @NonNull GraphicOverlay graphicOverlay) {
+    for (int i = 0; i < results.size(); i++) {
+      Object result = results.get(i);
+      if (result != null) {
+        draw(children.get(i), result, graphicOverlay);
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <R> void draw(Child<R> child, Object result, GraphicOverlay graphicOverlay) {
+    child.processor.onSuccess((R) result, graphicOverlay);
+  }
+
+  @Override
+  protected void onFailure(@NonNull Exception e) {
+    Log.e(TAG, "Composite detection failed: " + e);
+  }
+
+  private static final class Child<R> {
+    final VisionProcessorBase<R> processor;
+    final int frameInterval;
+    final long timeoutMs;
+
+    // Set while a detection of this child runs, which may outlive its timeout.
+    final AtomicBoolean busy = new AtomicBoolean();
+
+    // Results drawn for this child, only accessed on the main thread.
+    @Nullable Object latestResult;
+
+    Child(VisionProcessorBase<R> processor, int frameInterval, long timeoutMs) {
+      this.processor = processor;
+      this.frameInterval = frameInterval;
+      this.timeoutMs = timeoutMs;
+    }
+  }
+}
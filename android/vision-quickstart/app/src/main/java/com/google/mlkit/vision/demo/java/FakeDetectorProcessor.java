@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.FakeDetector;
+import com.google.mlkit.vision.demo.GraphicOverlay;
+
+/**
+ * Runs a {@link FakeDetector} instead of an ML Kit detector, so that the cost of the rest of the
+ * pipeline can be measured, e.g. on frames played back by {@link
+ * com.google.mlkit.vision.demo.FrameReplaySource}.
+ */
+public class FakeDetectorProcessor extends VisionProcessorBase<Long> {
+
+  private static final String TAG = "FakeDetectorProcessor";
+
+  private final FakeDetector detector;
+
+  public FakeDetectorProcessor(Context context, FakeDetector detector) {
+    super(context);
+    this.detector = detector;
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    detector.close();
+  }
+
+  @Override
+  protected Task<Long> detectInImage(InputImage image) {
+    // The image is not read, the fake detector only takes its time.
+    TaskCompletionSource<Long> result = new TaskCompletionSource<>();
+    detector.detect(
+        new FakeDetector.Callback() {
+          @Override
+          public void onDetected(long latencyNanos) {
+            result.trySetResult(latencyNanos);
+          }
+
+          @Override
+          public void onFailed(Exception e) {
+            result.trySetException(e);
+          }
+        });
+    return result.getTask();
+  }
+
+  @Override
+  protected void onSuccess(@NonNull Long latencyNanos, @NonNull GraphicOverlay graphicOverlay) {
+    Log.v(MANUAL_TESTING_LOG, "Fake detection took " + latencyNanos / 1_000_000 + " ms");
+  }
+
+  @Override
+  protected void onFailure(@NonNull Exception e) {
+    Log.e(TAG, "Fake detection failed: " + e);
+  }
+}
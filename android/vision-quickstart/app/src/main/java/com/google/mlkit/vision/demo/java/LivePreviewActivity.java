@@ -81,6 +81,7 @@ public final class LivePreviewActivity extends AppCompatActivity
   private static final String TEXT_RECOGNITION_JAPANESE = "Text Recognition Japanese";
   private static final String TEXT_RECOGNITION_KOREAN = "Text Recognition Korean";
   private static final String FACE_MESH_DETECTION = "Face Mesh Detection (Beta)";
+  private static final String FACE_POSE_BARCODE = "Face + Pose + Barcode";
 
   private static final String TAG = "LivePreviewActivity";
 
@@ -123,6 +124,7 @@ public final class LivePreviewActivity extends AppCompatActivity
     options.add(TEXT_RECOGNITION_JAPANESE);
     options.add(TEXT_RECOGNITION_KOREAN);
     options.add(FACE_MESH_DETECTION);
+    options.add(FACE_POSE_BARCODE);
 
     // Creating adapter for spinner
     ArrayAdapter<String> dataAdapter = new ArrayAdapter<>(this, R.layout.spinner_style, options);
@@ -182,6 +184,7 @@ public final class LivePreviewActivity extends AppCompatActivity
     if (cameraSource == null) {
       cameraSource = new CameraSource(this, graphicOverlay);
     }
+    cameraSource.setPreviewBufferCount(PreferenceUtils.getPreviewBufferCount(this));
 
     try {
       switch (model) {
@@ -307,6 +310,25 @@ public final class LivePreviewActivity extends AppCompatActivity
         case FACE_MESH_DETECTION:
           cameraSource.setMachineLearningFrameProcessor(new FaceMeshDetectorProcessor(this));
           break;
+        case FACE_POSE_BARCODE:
+          Log.i(TAG, "Using Composite Processor");
+          cameraSource.setMachineLearningFrameProcessor(
+              new CompositeVisionProcessor(this)
+                  .addProcessor(new FaceDetectorProcessor(this))
+                  .addProcessor(
+                      new PoseDetectorProcessor(
+                          this,
+                          PreferenceUtils.getPoseDetectorOptionsForLivePreview(this),
+                          /* showInFrameLikelihood= */ false,
+                          /* visualizeZ= */ false,
+                          /* rescaleZForVisualization= */ false,
+                          /* runClassification= */ false,
+                          /* isStreamMode= */ true))
+                  .addProcessor(
+                      new BarcodeScannerProcessor(this, /* zoomCallback= */ null),
+                      /* frameInterval= */ 3,
+                      CompositeVisionProcessor.DEFAULT_TIMEOUT_MS));
+          break;
         default:
           Log.e(TAG, "Unknown model: " + model);
       }
@@ -3,22 +3,33 @@ package com.google.mlkit.vision.demo.java;
 import androidx.appcompat.app.AppCompatActivity;
 
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.Toast;
 
 import com.google.mlkit.vision.demo.R;
-import com.google.mlkit.vision.demo.java.custom.DatabaseHelper;
-
-import java.util.ArrayList;
-import java.util.List;
+import com.google.mlkit.vision.demo.java.custom.FaceEnrollmentWriter;
+import com.google.mlkit.vision.demo.java.custom.FaceGalleryFile;
 
 public class RegisterActivity extends AppCompatActivity {
 
+    private static final String TAG = "RegisterActivity";
+
+    /** Extra holding the captured face signatures, packed back to back in one float array. */
+    public static final String EXTRA_FACE_SIGNATURES = "faceSignatures";
+
+    private static final int REQUEST_EXPORT_GALLERY = 1;
+    private static final int REQUEST_IMPORT_GALLERY = 2;
+
     private EditText editTextName;
     private Button btnSave;
-    private List<String> registerFaceList;
+    private Button btnExportGallery;
+    private Button btnImportGallery;
+    private float[] registerFaceSignatures;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -27,11 +38,13 @@ public class RegisterActivity extends AppCompatActivity {
 
         editTextName = findViewById(R.id.editTextName);
         btnSave = findViewById(R.id.btnSave);
+        btnExportGallery = findViewById(R.id.btnExportGallery);
+        btnImportGallery = findViewById(R.id.btnImportGallery);
 
         Intent intent = getIntent();
         Bundle bundle = intent.getExtras();
         if (bundle != null) {
-            registerFaceList = bundle.getStringArrayList("faceMeshPoints");
+            registerFaceSignatures = bundle.getFloatArray(EXTRA_FACE_SIGNATURES);
 
         }
         btnSave.setOnClickListener(new View.OnClickListener() {
@@ -41,25 +54,72 @@ public class RegisterActivity extends AppCompatActivity {
 //                getData();
             }
         });
+        // Galleries move the enrolled persons between devices; see FaceGalleryFile.
+        btnExportGallery.setOnClickListener(v -> {
+            Intent exportIntent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            exportIntent.addCategory(Intent.CATEGORY_OPENABLE);
+            exportIntent.setType("application/octet-stream");
+            exportIntent.putExtra(Intent.EXTRA_TITLE, FaceGalleryFile.DEFAULT_FILE_NAME);
+            startActivityForResult(exportIntent, REQUEST_EXPORT_GALLERY);
+        });
+        btnImportGallery.setOnClickListener(v -> {
+            Intent importIntent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            importIntent.addCategory(Intent.CATEGORY_OPENABLE);
+            importIntent.setType("*/*");
+            startActivityForResult(importIntent, REQUEST_IMPORT_GALLERY);
+        });
     }
 
-    private void saveData(String name, String faceMeshPoints) {
-        // Lưu dữ liệu vào SQLite
-        DatabaseHelper dbHelper = new DatabaseHelper(this);
-        dbHelper.saveFaceData(name, faceMeshPoints);
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        Uri uri = resultCode == RESULT_OK && data != null ? data.getData() : null;
+        if (requestCode == REQUEST_EXPORT_GALLERY && uri != null) {
+            btnExportGallery.setEnabled(false);
+            FaceEnrollmentWriter.exportGallery(this, uri)
+                    .addOnCompleteListener(this, task -> {
+                        btnExportGallery.setEnabled(true);
+                        reportGalleryResult(task.getException(), "Face gallery exported",
+                                "Failed to export face gallery");
+                    });
+        } else if (requestCode == REQUEST_IMPORT_GALLERY && uri != null) {
+            btnImportGallery.setEnabled(false);
+            FaceEnrollmentWriter.importGallery(this, uri)
+                    .addOnCompleteListener(this, task -> {
+                        btnImportGallery.setEnabled(true);
+                        reportGalleryResult(task.getException(), "Face gallery imported",
+                                "Failed to import face gallery");
+                    });
+        } else {
+            super.onActivityResult(requestCode, resultCode, data);
+        }
+    }
 
-        finish();
+    private void reportGalleryResult(Exception exception, String success, String failure) {
+        if (exception != null) {
+            Log.e(TAG, failure, exception);
+        }
+        Toast.makeText(this, exception == null ? success : failure, Toast.LENGTH_SHORT).show();
     }
 
     private void saveData() {
         String name = editTextName.getText().toString();
 
-        // Lưu dữ liệu vào SQLite
-        for (String face : this.registerFaceList) {
-            this.saveData(name, face);
+        if (registerFaceSignatures == null) {
+            finish();
+            return;
         }
 
-        finish();
+        // Save the samples to SQLite, off the main thread and in one transaction.
+        btnSave.setEnabled(false);
+        FaceEnrollmentWriter.enroll(this, name, registerFaceSignatures)
+                .addOnCompleteListener(this, task -> {
+                    if (!task.isSuccessful()) {
+                        Log.e(TAG, "Failed to save face data", task.getException());
+                        Toast.makeText(this, "Failed to save face data", Toast.LENGTH_SHORT)
+                                .show();
+                    }
+                    finish();
+                });
     }
 
 }
\ No newline at end of file
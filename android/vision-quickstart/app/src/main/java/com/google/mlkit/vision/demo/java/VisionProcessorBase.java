@@ -23,6 +23,8 @@ import android.app.ActivityManager;
 import android.app.ActivityManager.MemoryInfo;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
 import android.os.Build.VERSION_CODES;
 import android.os.SystemClock;
 import android.util.Log;
@@ -44,16 +46,33 @@ import com.google.mlkit.common.MlKitException;
 import com.google.mlkit.vision.common.InputImage;
 import com.google.mlkit.vision.demo.BitmapUtils;
 import com.google.mlkit.vision.demo.CameraImageGraphic;
+import com.google.mlkit.vision.demo.DetectorRegistry;
+import com.google.mlkit.vision.demo.FrameBufferPool;
 import com.google.mlkit.vision.demo.FrameMetadata;
+import com.google.mlkit.vision.demo.FrameRecorder;
+import com.google.mlkit.vision.demo.FrameTracer;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.InferenceInfoGraphic;
+import com.google.mlkit.vision.demo.LatencyHistogram;
+import com.google.mlkit.vision.demo.MotionGate;
+import com.google.mlkit.vision.demo.Nv21Downscaler;
+import com.google.mlkit.vision.demo.PipelineGovernor;
+import com.google.mlkit.vision.demo.RegionOfInterest;
 import com.google.mlkit.vision.demo.ScopedExecutor;
 import com.google.mlkit.vision.demo.TemperatureMonitor;
 import com.google.mlkit.vision.demo.VisionImageProcessor;
+import com.google.mlkit.vision.demo.Yuv420ToNv21Repacker;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Abstract base class for vision frame processors. Subclasses need to implement {@link
@@ -64,13 +83,80 @@ import java.util.TimerTask;
  */
 public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
 
+  /** Camera1 frames in flight by default: the next frame starts once results are drawn. */
+  public static final int DEFAULT_MAX_FRAMES_IN_FLIGHT = 1;
+
+  /** Upper bound of {@link #setMaxFramesInFlight}. */
+  public static final int MAX_FRAMES_IN_FLIGHT = 3;
+
   protected static final String MANUAL_TESTING_LOG = "LogTagForTest";
+  private static final String FRAME_TRACE_FILE_NAME = "frame_trace.json";
+  private static final String FRAME_RECORDING_FILE_NAME = "frames.nv21";
   private static final String TAG = "VisionProcessorBase";
 
+  private final Context context;
   private final ActivityManager activityManager;
-  private final Timer fpsTimer = new Timer();
   private final ScopedExecutor executor;
-  private final TemperatureMonitor temperatureMonitor;
+
+  // The FPS timer, temperature monitor, frame trace, frame recorder and governor are only started
+  // with the first frame given to the processor. Processors only used for their detector, as the
+  // children of a CompositeVisionProcessor, never run them.
+  @GuardedBy("this")
+  private boolean pipelineStarted;
+
+  @Nullable private volatile Timer fpsTimer;
+  @Nullable private volatile TemperatureMonitor temperatureMonitor;
+
+  // Where the frame trace is written on stop, if it is being recorded.
+  @Nullable private volatile File frameTraceFile;
+
+  // Where Camera1 frames are recorded, if anywhere.
+  @Nullable private volatile FrameRecorder frameRecorder;
+
+  // Decides which camera frames are static and answered with the last results, if enabled.
+  @Nullable private final MotionGate motionGate;
+
+  // Latest results of the detector, whose graphics are drawn again on static frames. Null until
+  // there are results and after a failure.
+  @Nullable private volatile T lastResults;
+
+  // Graphics onSuccess drew for the latest results. Main thread only.
+  private final List<GraphicOverlay.Graphic> lastResultGraphics = new ArrayList<>();
+
+  // Crop the latest results were found in, in upright frame coordinates, or null for a full frame.
+  @Nullable private volatile Rect lastResultsCrop;
+
+  // Factor the image the latest results were found in was downscaled by.
+  private volatile int lastResultsScale = 1;
+
+  // Whether camera frames are shrunk to the input size the detector declares.
+  private final boolean downscaleFrames;
+
+  // Crops camera frames to where objects were last found, if enabled.
+  @Nullable private final RegionOfInterest regionOfInterest;
+
+  // Repacks CameraX frames to be cropped, on the analyzer thread. A repacked frame is only
+  // overwritten once its image is closed, since CameraX waits for that before the next frame.
+  private final Yuv420ToNv21Repacker nv21Repacker = new Yuv420ToNv21Repacker();
+
+  // Regions of the latest results in upright full-frame coordinates, which the next crop covers.
+  private volatile List<Rect> lastRegions = Collections.emptyList();
+
+  // Lowers the cost of the pipeline under thermal, latency or battery pressure, if enabled.
+  @Nullable private volatile PipelineGovernor governor;
+
+  private final PipelineGovernor.Listener governorListener;
+
+  // Detector latency over the last few seconds, which the governor reacts to.
+  private final LatencyHistogram governorDetectorLatency =
+      new LatencyHistogram("governor detector", /* windowMs= */ 5_000, /* sliceCount= */ 5);
+
+  // When the latest camera frame was handed to the detector, to keep to the governor's rate.
+  private volatile long lastDetectionNanos;
+
+  // Latencies of the latest detected frame, shown again on static frames. Main thread only.
+  private long lastFrameLatencyMs;
+  private long lastDetectorLatencyMs;
 
   // Whether this processor is already shut down
   private boolean isShutdown;
@@ -84,43 +170,179 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
   private long maxDetectorMs = 0;
   private long minDetectorMs = Long.MAX_VALUE;
 
+  // Latency of each stage of a frame, over a rolling window: converting the camera image, running
+  // the detector, handling its results and drawing them. Then the latency from the capture of
+  // camera frames until their results are delivered, and until they are displayed.
+  private final LatencyHistogram conversionLatency = new LatencyHistogram("conversion");
+  private final LatencyHistogram detectorLatency = new LatencyHistogram("detector");
+  private final LatencyHistogram callbackLatency = new LatencyHistogram("callback");
+  private final LatencyHistogram drawLatency = new LatencyHistogram("draw");
+  private final LatencyHistogram captureToResultLatency =
+      new LatencyHistogram("capture to result");
+  private final LatencyHistogram captureToDisplayLatency =
+      new LatencyHistogram("capture to display");
+  private final List<LatencyHistogram> latencyHistograms =
+      Arrays.asList(
+          conversionLatency,
+          detectorLatency,
+          callbackLatency,
+          drawLatency,
+          captureToResultLatency,
+          captureToDisplayLatency);
+
   // Frame count that have been processed so far in an one second interval to calculate FPS.
   private int frameProcessedInOneSecondInterval = 0;
   private int framesPerSecond = 0;
 
-  // To keep the latest images and its metadata.
+  // To keep the latest images and its metadata, waiting for a frame in flight to complete.
   @GuardedBy("this")
   private ByteBuffer latestImage;
 
   @GuardedBy("this")
   private FrameMetadata latestImageMetaData;
-  // To keep the images and metadata in process.
+
+  // Hands the waiting frame's buffer back once it is processed or dropped.
+  @GuardedBy("this")
+  private Runnable latestImageReleaser;
+
+  // Camera1 frames handed to the detector whose results are not drawn yet, and the limit.
+  @GuardedBy("this")
+  private int framesInFlight;
+
+  @GuardedBy("this")
+  private int maxFramesInFlight;
+
+  // Pending frames replaced by a newer one before they could be processed.
+  @GuardedBy("this")
+  private long droppedFrames;
+
+  // Sequence id of the last camera frame handed to the detector, and how many frames were skipped
+  // between the ones handed to the detector.
   @GuardedBy("this")
-  private ByteBuffer processingImage;
+  private long lastProcessedSequenceId = FrameMetadata.UNKNOWN_SEQUENCE_ID;
 
   @GuardedBy("this")
-  private FrameMetadata processingMetaData;
+  private long skippedFrames;
+
+  // CameraX does not number its frames, so they are numbered here as they are received.
+  private final AtomicLong cameraXFrameCount = new AtomicLong();
+
+  // Sequence number of the next frame handed to the detector.
+  private final AtomicLong nextFrameSequence = new AtomicLong();
+
+  // Sequence number of the newest frame whose results were drawn, only used on the main thread.
+  private long lastDrawnFrameSequence = -1;
 
   protected VisionProcessorBase(Context context) {
+    this.context = context;
     activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
     executor = new ScopedExecutor(TaskExecutors.MAIN_THREAD);
-    fpsTimer.scheduleAtFixedRate(
+    governorListener = level -> executor.execute(() -> onGovernorLevelChanged(level));
+    setMaxFramesInFlight(PreferenceUtils.getMaxFramesInFlight(context));
+    motionGate = PreferenceUtils.shouldSkipStaticFrames(context) ? new MotionGate() : null;
+    regionOfInterest =
+        PreferenceUtils.shouldCropToRegionsOfInterest(context) ? new RegionOfInterest() : null;
+    downscaleFrames = PreferenceUtils.shouldDownscaleFrames(context);
+  }
+
+  /** Starts the parts of the pipeline that run alongside detection, on the first frame. */
+  private synchronized void startPipeline() {
+    if (pipelineStarted || isShutdown) {
+      return;
+    }
+    pipelineStarted = true;
+    Timer timer = new Timer();
+    timer.scheduleAtFixedRate(
         new TimerTask() {
           @Override
           public void run() {
             framesPerSecond = frameProcessedInOneSecondInterval;
             frameProcessedInOneSecondInterval = 0;
+            PipelineGovernor currentGovernor = governor;
+            if (currentGovernor != null) {
+              currentGovernor.update(
+                  governorDetectorLatency.snapshot().getPercentileMicros(90) / 1000);
+            }
           }
         },
         /* delay= */ 0,
         /* period= */ 1000);
+    fpsTimer = timer;
     temperatureMonitor = new TemperatureMonitor(context);
+    if (PreferenceUtils.shouldRecordFrameTrace(context)) {
+      File directory = context.getExternalFilesDir(/* type= */ null);
+      frameTraceFile =
+          new File(directory != null ? directory : context.getFilesDir(), FRAME_TRACE_FILE_NAME);
+      FrameTracer.getInstance().startRecording();
+    } else {
+      FrameTracer.getInstance().stopRecording();
+    }
+    if (PreferenceUtils.shouldRecordCameraFrames(context)) {
+      File directory = context.getExternalFilesDir(/* type= */ null);
+      frameRecorder =
+          openFrameRecorder(
+              new File(
+                  directory != null ? directory : context.getFilesDir(),
+                  FRAME_RECORDING_FILE_NAME));
+    }
+    if (PreferenceUtils.shouldAdaptToDeviceConditions(context)) {
+      PipelineGovernor sharedGovernor = PipelineGovernor.getInstance(context);
+      sharedGovernor.addListener(governorListener);
+      governor = sharedGovernor;
+      // The governor outlives processors, start where the previous one left off.
+      int level = sharedGovernor.getLevel();
+      if (level != PipelineGovernor.LEVEL_NORMAL) {
+        governorListener.onLevelChanged(level);
+      }
+    }
+  }
+
+  @Nullable
+  private static FrameRecorder openFrameRecorder(File file) {
+    try {
+      return new FrameRecorder(file);
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to start recording frames", e);
+      return null;
+    }
+  }
+
+  /**
+   * Sets how many Camera1 frames may be in flight, from 1 to {@link #MAX_FRAMES_IN_FLIGHT}. A frame
+   * is in flight from the moment it is handed to the detector until its results are drawn, so with
+   * more than one the detector works on the next frame while the main thread draws the previous
+   * results. Results that complete after those of a newer frame are not drawn.
+   */
+  public synchronized void setMaxFramesInFlight(int maxFramesInFlight) {
+    if (maxFramesInFlight < 1 || maxFramesInFlight > MAX_FRAMES_IN_FLIGHT) {
+      throw new IllegalArgumentException("Invalid frames in flight: " + maxFramesInFlight);
+    }
+    this.maxFramesInFlight = maxFramesInFlight;
+    // Each further frame in flight holds one more bitmap and downscaled frame until it is drawn.
+    FrameBufferPool.getInstance()
+        .setCapacity(
+            FrameBufferPool.DEFAULT_MAX_BITMAPS + maxFramesInFlight - 1,
+            FrameBufferPool.DEFAULT_MAX_ARRAYS + maxFramesInFlight - 1);
+  }
+
+  /**
+   * Returns the latencies of the conversion, detector, callback and draw stages, and the latencies
+   * from capture to result and to display, over the last minute, which {@link
+   * LatencyHistogram#toCsv} and {@link LatencyHistogram#toJson} can export.
+   */
+  public List<LatencyHistogram.Snapshot> getLatencySnapshots() {
+    List<LatencyHistogram.Snapshot> snapshots = new ArrayList<>(latencyHistograms.size());
+    for (LatencyHistogram histogram : latencyHistograms) {
+      snapshots.add(histogram.snapshot());
+    }
+    return snapshots;
   }
 
   // -----------------Code for processing single still image----------------------------------------
   @Override
   public void processBitmap(Bitmap bitmap, final GraphicOverlay graphicOverlay) {
-    long frameStartMs = SystemClock.elapsedRealtime();
+    long frameStartNanos = SystemClock.elapsedRealtimeNanos();
+    startPipeline();
 
     if (isMlImageEnabled(graphicOverlay.getContext())) {
       MlImage mlImage = new BitmapMlImageBuilder(bitmap).build();
@@ -128,8 +350,12 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
           mlImage,
           graphicOverlay,
           /* originalCameraImage= */ null,
+          /* crop= */ null,
+          /* scale= */ 1,
           /* shouldShowFps= */ false,
-          frameStartMs);
+          frameStartNanos,
+          /* captureNanos= */ 0,
+          nextFrameSequence.getAndIncrement());
       mlImage.close();
 
       return;
@@ -139,34 +365,92 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
         InputImage.fromBitmap(bitmap, 0),
         graphicOverlay,
         /* originalCameraImage= */ null,
+        /* crop= */ null,
+        /* scale= */ 1,
         /* shouldShowFps= */ false,
-        frameStartMs);
+        frameStartNanos,
+        /* captureNanos= */ 0,
+        nextFrameSequence.getAndIncrement());
   }
 
   // -----------------Code for processing live preview frame from Camera1 API-----------------------
   @Override
-  public synchronized void processByteBuffer(
+  public void processByteBuffer(
       ByteBuffer data, final FrameMetadata frameMetadata, final GraphicOverlay graphicOverlay) {
+    processByteBuffer(data, frameMetadata, graphicOverlay, /* onReleased= */ () -> {});
+  }
+
+  @Override
+  public synchronized void processByteBuffer(
+      ByteBuffer data,
+      final FrameMetadata frameMetadata,
+      final GraphicOverlay graphicOverlay,
+      Runnable onReleased) {
+    startPipeline();
+    if (frameRecorder != null && !isShutdown) {
+      try {
+        frameRecorder.record(data, frameMetadata);
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to record a frame", e);
+      }
+    }
+    if (latestImage != null) {
+      // Only the newest frame waits, so that a frame never starts later than it has to.
+      droppedFrames++;
+      latestImageReleaser.run();
+    }
     latestImage = data;
     latestImageMetaData = frameMetadata;
-    if (processingImage == null && processingMetaData == null) {
+    latestImageReleaser = onReleased;
+    if (framesInFlight < maxFramesInFlight) {
       processLatestImage(graphicOverlay);
     }
   }
 
   private synchronized void processLatestImage(final GraphicOverlay graphicOverlay) {
-    processingImage = latestImage;
-    processingMetaData = latestImageMetaData;
+    ByteBuffer image = latestImage;
+    FrameMetadata metadata = latestImageMetaData;
+    Runnable releaser = latestImageReleaser;
     latestImage = null;
     latestImageMetaData = null;
-    if (processingImage != null && processingMetaData != null && !isShutdown) {
-      processImage(processingImage, processingMetaData, graphicOverlay);
+    latestImageReleaser = null;
+    if (image == null || metadata == null) {
+      return;
+    }
+    if (isShutdown) {
+      releaser.run();
+      return;
+    }
+    framesInFlight++;
+    processImage(image, metadata, graphicOverlay, releaser);
+  }
+
+  private synchronized void onFrameCompleted(final GraphicOverlay graphicOverlay) {
+    framesInFlight--;
+    if (framesInFlight < maxFramesInFlight) {
+      processLatestImage(graphicOverlay);
     }
   }
 
+  /**
+   * Starts processing a Camera1 frame. {@code onReleased} runs as soon as nothing reads {@code
+   * data} any more: once the frame is converted and checked if its results are reused, once it is
+   * downscaled if the detector reads a smaller copy, and otherwise once every detection reading it
+   * completes, see {@link #getImageReleaseTask}. It runs even if this processor was stopped in the
+   * meantime.
+   */
   private void processImage(
-      ByteBuffer data, final FrameMetadata frameMetadata, final GraphicOverlay graphicOverlay) {
-    long frameStartMs = SystemClock.elapsedRealtime();
+      ByteBuffer data,
+      final FrameMetadata frameMetadata,
+      final GraphicOverlay graphicOverlay,
+      Runnable onReleased) {
+    long frameStartNanos = SystemClock.elapsedRealtimeNanos();
+    long captureNanos =
+        frameMetadata.getTimestampNanos() != 0
+            ? toElapsedRealtimeNanos(frameMetadata.getTimestampNanos())
+            : 0;
+    long sequence = nextFrameSequence.getAndIncrement();
+    countSkippedFrames(frameMetadata.getSequenceId());
 
     // If live viewport is on (that is the underneath surface view takes care of the camera preview
     // drawing), skip the unnecessary bitmap creation that used for the manual preview drawing.
@@ -175,36 +459,176 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
             ? null
             : BitmapUtils.getBitmap(data, frameMetadata);
 
+    if (lastResults != null
+        && (!isDetectionDue(frameStartNanos)
+            || (motionGate != null
+                && !motionGate.shouldDetectNv21(
+                    data, frameMetadata.getWidth(), frameMetadata.getHeight(), frameStartNanos)))) {
+      onReleased.run();
+      reuseResults(graphicOverlay, bitmap, sequence)
+          .addOnCompleteListener(executor, task -> onFrameCompleted(graphicOverlay));
+      return;
+    }
+    lastDetectionNanos = frameStartNanos;
+
+    Rect cameraCrop =
+        regionOfInterest != null && data.hasArray()
+            ? regionOfInterest.chooseCrop(
+                lastRegions,
+                frameMetadata.getWidth(),
+                frameMetadata.getHeight(),
+                frameMetadata.getRotation(),
+                frameStartNanos)
+            : null;
+    detectNv21(
+            data,
+            frameMetadata,
+            cameraCrop,
+            graphicOverlay,
+            bitmap,
+            frameStartNanos,
+            captureNanos,
+            sequence,
+            onReleased)
+        .addOnCompleteListener(executor, task -> onFrameCompleted(graphicOverlay));
+  }
+
+  /**
+   * Detects an NV21 frame, cropped in place to {@code cameraCrop} if given and then downscaled into
+   * a pooled copy if the detector needs fewer pixels. {@code onReleased} runs once {@code data} is
+   * no longer read.
+   *
+   * @return a task that completes once nothing reads the frame or its copy any more
+   */
+  private Task<?> detectNv21(
+      ByteBuffer data,
+      FrameMetadata frameMetadata,
+      @Nullable Rect cameraCrop,
+      GraphicOverlay graphicOverlay,
+      @Nullable Bitmap bitmap,
+      long frameStartNanos,
+      long captureNanos,
+      long sequence,
+      Runnable onReleased) {
+    // Once the bitmap is built and the motion checked, the frame can be cropped in place.
+    FrameMetadata detectorFrameMetadata = frameMetadata;
+    Rect crop = null;
+    if (cameraCrop != null) {
+      RegionOfInterest.cropNv21InPlace(
+          data, frameMetadata.getWidth(), frameMetadata.getHeight(), cameraCrop);
+      crop =
+          RegionOfInterest.toUpright(
+              cameraCrop,
+              frameMetadata.getWidth(),
+              frameMetadata.getHeight(),
+              frameMetadata.getRotation());
+      detectorFrameMetadata =
+          new FrameMetadata.Builder()
+              .setWidth(cameraCrop.width())
+              .setHeight(cameraCrop.height())
+              .setRotation(frameMetadata.getRotation())
+              .setTimestampNanos(frameMetadata.getTimestampNanos())
+              .setSequenceId(frameMetadata.getSequenceId())
+              .build();
+    }
+
+    ByteBuffer detectorData = data;
+    int scale =
+        getDownscaleFactor(detectorFrameMetadata.getWidth(), detectorFrameMetadata.getHeight());
+    // Taken from the pool, and given back once the detector is done with it.
+    byte[] scaledFrame = null;
+    if (scale > 1) {
+      int width = detectorFrameMetadata.getWidth();
+      int height = detectorFrameMetadata.getHeight();
+      scaledFrame =
+          FrameBufferPool.getInstance()
+              .acquireByteArray(Nv21Downscaler.getScaledSize(width, height, scale));
+      Nv21Downscaler.downscaleNv21(data, width, height, scale, scaledFrame);
+      onReleased.run();
+      detectorData = ByteBuffer.wrap(scaledFrame);
+      detectorFrameMetadata =
+          new FrameMetadata.Builder()
+              .setWidth(Nv21Downscaler.getScaledWidth(width, scale))
+              .setHeight(Nv21Downscaler.getScaledHeight(height, scale))
+              .setRotation(frameMetadata.getRotation())
+              .setTimestampNanos(frameMetadata.getTimestampNanos())
+              .setSequenceId(frameMetadata.getSequenceId())
+              .build();
+    }
+    final byte[] frameToRelease = scaledFrame;
+    // Unless the detector reads the downscaled copy, the frame is released once detection
+    // completes. That runs on the detector's thread rather than on the executor, which drops its
+    // listeners once this processor is stopped, so the frame is always released.
+    final Runnable releaseOnCompletion = scaledFrame != null ? () -> {} : onReleased;
+
+    Task<?> imageRelease;
     if (isMlImageEnabled(graphicOverlay.getContext())) {
       MlImage mlImage =
           new ByteBufferMlImageBuilder(
-                  data,
-                  frameMetadata.getWidth(),
-                  frameMetadata.getHeight(),
+                  detectorData,
+                  detectorFrameMetadata.getWidth(),
+                  detectorFrameMetadata.getHeight(),
                   MlImage.IMAGE_FORMAT_NV21)
-              .setRotation(frameMetadata.getRotation())
+              .setRotation(detectorFrameMetadata.getRotation())
               .build();
 
-      requestDetectInImage(mlImage, graphicOverlay, bitmap, /* shouldShowFps= */ true, frameStartMs)
-          .addOnSuccessListener(executor, results -> processLatestImage(graphicOverlay));
+      imageRelease =
+          requestDetectInImage(
+              mlImage,
+              graphicOverlay,
+              bitmap,
+              crop,
+              scale,
+              /* shouldShowFps= */ true,
+              frameStartNanos,
+              captureNanos,
+              sequence);
 
       // This is optional. Java Garbage collection can also close it eventually.
       mlImage.close();
-      return;
+    } else {
+      imageRelease =
+          requestDetectInImage(
+              InputImage.fromByteBuffer(
+                  detectorData,
+                  detectorFrameMetadata.getWidth(),
+                  detectorFrameMetadata.getHeight(),
+                  detectorFrameMetadata.getRotation(),
+                  InputImage.IMAGE_FORMAT_NV21),
+              graphicOverlay,
+              bitmap,
+              crop,
+              scale,
+              /* shouldShowFps= */ true,
+              frameStartNanos,
+              captureNanos,
+              sequence);
     }
+    return imageRelease
+        .addOnCompleteListener(Runnable::run, task -> releaseOnCompletion.run())
+        .addOnCompleteListener(executor, task -> releaseScaledFrame(frameToRelease));
+  }
 
-    requestDetectInImage(
-            InputImage.fromByteBuffer(
-                data,
-                frameMetadata.getWidth(),
-                frameMetadata.getHeight(),
-                frameMetadata.getRotation(),
-                InputImage.IMAGE_FORMAT_NV21),
-            graphicOverlay,
-            bitmap,
-            /* shouldShowFps= */ true,
-            frameStartMs)
-        .addOnSuccessListener(executor, results -> processLatestImage(graphicOverlay));
+  /**
+   * Returns the factor camera frames of the given size are downscaled by before detection: the
+   * one the detector's {@link #getTargetInputSize} allows, doubled at the governor's reduced
+   * resolution level.
+   */
+  private int getDownscaleFactor(int width, int height) {
+    int factor =
+        downscaleFrames ? Nv21Downscaler.chooseFactor(width, height, getTargetInputSize()) : 1;
+    PipelineGovernor currentGovernor = governor;
+    if (currentGovernor != null
+        && currentGovernor.getLevel() >= PipelineGovernor.LEVEL_REDUCED_RESOLUTION) {
+      factor *= 2;
+    }
+    return factor;
+  }
+
+  private static void releaseScaledFrame(@Nullable byte[] scaledFrame) {
+    if (scaledFrame != null) {
+      FrameBufferPool.getInstance().releaseByteArray(scaledFrame);
+    }
   }
 
   // -----------------Code for processing live preview frame from CameraX API-----------------------
@@ -212,17 +636,52 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
   @RequiresApi(VERSION_CODES.LOLLIPOP)
   @ExperimentalGetImage
   public void processImageProxy(ImageProxy image, GraphicOverlay graphicOverlay) {
-    long frameStartMs = SystemClock.elapsedRealtime();
+    long frameStartNanos = SystemClock.elapsedRealtimeNanos();
+    long captureNanos = toElapsedRealtimeNanos(image.getImageInfo().getTimestamp());
+    long sequence = nextFrameSequence.getAndIncrement();
     if (isShutdown) {
       image.close();
       return;
     }
+    startPipeline();
+    countSkippedFrames(cameraXFrameCount.getAndIncrement());
 
     Bitmap bitmap = null;
     if (!PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())) {
       bitmap = BitmapUtils.getBitmap(image);
     }
 
+    if (lastResults != null
+        && (!isDetectionDue(frameStartNanos)
+            || (motionGate != null && !shouldDetect(motionGate, image, frameStartNanos)))) {
+      reuseResults(graphicOverlay, bitmap, sequence);
+      image.close();
+      return;
+    }
+    lastDetectionNanos = frameStartNanos;
+
+    Rect cameraCrop =
+        regionOfInterest != null && image.getFormat() == ImageFormat.YUV_420_888
+            ? regionOfInterest.chooseCrop(
+                lastRegions,
+                image.getWidth(),
+                image.getHeight(),
+                image.getImageInfo().getRotationDegrees(),
+                frameStartNanos)
+            : null;
+    if (cameraCrop != null) {
+      processCroppedImageProxy(
+          image, graphicOverlay, bitmap, cameraCrop, frameStartNanos, captureNanos, sequence);
+      return;
+    }
+
+    int scale = getDownscaleFactor(image.getWidth(), image.getHeight());
+    if (scale > 1 && image.getFormat() == ImageFormat.YUV_420_888) {
+      processDownscaledImageProxy(
+          image, graphicOverlay, bitmap, scale, frameStartNanos, captureNanos, sequence);
+      return;
+    }
+
     if (isMlImageEnabled(graphicOverlay.getContext())) {
       MlImage mlImage =
           new MediaMlImageBuilder(image.getImage())
@@ -233,14 +692,18 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
               mlImage,
               graphicOverlay,
               /* originalCameraImage= */ bitmap,
+              /* crop= */ null,
+              /* scale= */ 1,
               /* shouldShowFps= */ true,
-              frameStartMs)
+              frameStartNanos,
+              captureNanos,
+              sequence)
           // When the image is from CameraX analysis use case, must call image.close() on received
           // images when finished using them. Otherwise, new images may not be received or the
           // camera may stall.
           // Currently MlImage doesn't support ImageProxy directly, so we still need to call
           // ImageProxy.close() here.
-          .addOnCompleteListener(results -> image.close());
+          .addOnCompleteListener(task -> image.close());
       return;
     }
 
@@ -248,48 +711,330 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
             InputImage.fromMediaImage(image.getImage(), image.getImageInfo().getRotationDegrees()),
             graphicOverlay,
             /* originalCameraImage= */ bitmap,
+            /* crop= */ null,
+            /* scale= */ 1,
             /* shouldShowFps= */ true,
-            frameStartMs)
+            frameStartNanos,
+            captureNanos,
+            sequence)
         // When the image is from CameraX analysis use case, must call image.close() on received
         // images when finished using them. Otherwise, new images may not be received or the camera
         // may stall.
-        .addOnCompleteListener(results -> image.close());
+        .addOnCompleteListener(task -> image.close());
+  }
+
+  /**
+   * Detects the region of interest of a CameraX frame. The frame is repacked into NV21, to be
+   * cropped and downscaled like a Camera1 frame, and it is only closed once detected.
+   */
+  private void processCroppedImageProxy(
+      ImageProxy image,
+      GraphicOverlay graphicOverlay,
+      @Nullable Bitmap bitmap,
+      Rect cameraCrop,
+      long frameStartNanos,
+      long captureNanos,
+      long sequence) {
+    ImageProxy.PlaneProxy[] planes = image.getPlanes();
+    ByteBuffer data =
+        nv21Repacker.repack(
+            planes[0].getBuffer(),
+            planes[0].getRowStride(),
+            planes[1].getBuffer(),
+            planes[2].getBuffer(),
+            planes[1].getRowStride(),
+            planes[1].getPixelStride(),
+            image.getWidth(),
+            image.getHeight());
+    FrameMetadata frameMetadata =
+        new FrameMetadata.Builder()
+            .setWidth(image.getWidth())
+            .setHeight(image.getHeight())
+            .setRotation(image.getImageInfo().getRotationDegrees())
+            .build();
+    detectNv21(
+            data,
+            frameMetadata,
+            cameraCrop,
+            graphicOverlay,
+            bitmap,
+            frameStartNanos,
+            captureNanos,
+            sequence,
+            /* onReleased= */ () -> {})
+        .addOnCompleteListener(task -> image.close());
+  }
+
+  /**
+   * Detects a CameraX frame downscaled into a pooled NV21 array. The frame itself is still only
+   * closed once detected, so that the analyzer keeps waiting for the detector before the next one.
+   */
+  private void processDownscaledImageProxy(
+      ImageProxy image,
+      GraphicOverlay graphicOverlay,
+      @Nullable Bitmap bitmap,
+      int scale,
+      long frameStartNanos,
+      long captureNanos,
+      long sequence) {
+    int width = Nv21Downscaler.getScaledWidth(image.getWidth(), scale);
+    int height = Nv21Downscaler.getScaledHeight(image.getHeight(), scale);
+    int rotation = image.getImageInfo().getRotationDegrees();
+    byte[] scaledFrame =
+        FrameBufferPool.getInstance()
+            .acquireByteArray(
+                Nv21Downscaler.getScaledSize(image.getWidth(), image.getHeight(), scale));
+    ImageProxy.PlaneProxy[] planes = image.getPlanes();
+    Nv21Downscaler.downscale(
+        planes[0].getBuffer(),
+        planes[0].getRowStride(),
+        planes[0].getPixelStride(),
+        planes[1].getBuffer(),
+        planes[2].getBuffer(),
+        planes[1].getRowStride(),
+        planes[1].getPixelStride(),
+        image.getWidth(),
+        image.getHeight(),
+        scale,
+        scaledFrame);
+
+    ByteBuffer data = ByteBuffer.wrap(scaledFrame);
+    if (isMlImageEnabled(graphicOverlay.getContext())) {
+      MlImage mlImage =
+          new ByteBufferMlImageBuilder(data, width, height, MlImage.IMAGE_FORMAT_NV21)
+              .setRotation(rotation)
+              .build();
+      requestDetectInImage(
+              mlImage,
+              graphicOverlay,
+              /* originalCameraImage= */ bitmap,
+              /* crop= */ null,
+              scale,
+              /* shouldShowFps= */ true,
+              frameStartNanos,
+              captureNanos,
+              sequence)
+          .addOnCompleteListener(
+              results -> {
+                releaseScaledFrame(scaledFrame);
+                image.close();
+              });
+      mlImage.close();
+      return;
+    }
+
+    requestDetectInImage(
+            InputImage.fromByteBuffer(data, width, height, rotation, InputImage.IMAGE_FORMAT_NV21),
+            graphicOverlay,
+            /* originalCameraImage= */ bitmap,
+            /* crop= */ null,
+            scale,
+            /* shouldShowFps= */ true,
+            frameStartNanos,
+            captureNanos,
+            sequence)
+        .addOnCompleteListener(
+            results -> {
+              releaseScaledFrame(scaledFrame);
+              image.close();
+            });
+  }
+
+  /**
+   * Converts a capture timestamp to the {@link SystemClock#elapsedRealtimeNanos()} time base.
+   * Depending on the device, CameraX uses that time base or {@link System#nanoTime()}, which stops
+   * in deep sleep, and replayed frames use the latter; the closest one to the current time is the
+   * one in use.
+   */
+  private static long toElapsedRealtimeNanos(long timestampNanos) {
+    long realtimeNanos = SystemClock.elapsedRealtimeNanos();
+    long uptimeNanos = System.nanoTime();
+    if (Math.abs(realtimeNanos - timestampNanos) <= Math.abs(uptimeNanos - timestampNanos)) {
+      return timestampNanos;
+    }
+    return timestampNanos + (realtimeNanos - uptimeNanos);
+  }
+
+  /** Returns whether the governor lets a camera frame be detected this soon after the last one. */
+  private boolean isDetectionDue(long nowNanos) {
+    PipelineGovernor currentGovernor = governor;
+    return currentGovernor == null
+        || nowNanos - lastDetectionNanos >= currentGovernor.getMinFrameIntervalMs() * 1_000_000;
+  }
+
+  private static boolean shouldDetect(MotionGate motionGate, ImageProxy image, long nowNanos) {
+    ImageProxy.PlaneProxy luma = image.getPlanes()[0];
+    return motionGate.shouldDetect(
+        luma.getBuffer(),
+        image.getWidth(),
+        image.getHeight(),
+        luma.getRowStride(),
+        luma.getPixelStride(),
+        nowNanos);
+  }
+
+  /**
+   * Draws the graphics of the latest results again over a frame found static by the {@link
+   * MotionGate} or skipped by the governor, instead of running the detector on it. The results are
+   * not given to {@link #onSuccess} again, which would count them as a new observation.
+   */
+  private Task<Void> reuseResults(
+      final GraphicOverlay graphicOverlay,
+      @Nullable final Bitmap originalCameraImage,
+      long sequence) {
+    executor.execute(
+        () -> {
+          // Read here, as results and their crop are only updated together on this thread.
+          T results = lastResults;
+          if (results == null || sequence < lastDrawnFrameSequence) {
+            return;
+          }
+          lastDrawnFrameSequence = sequence;
+          Rect crop = lastResultsCrop;
+          graphicOverlay.setImageOffset(crop != null ? crop.left : 0, crop != null ? crop.top : 0);
+          graphicOverlay.setImageScale(lastResultsScale);
+          graphicOverlay.clear();
+          if (originalCameraImage != null) {
+            graphicOverlay.add(new CameraImageGraphic(graphicOverlay, originalCameraImage));
+          }
+          for (int i = 0; i < lastResultGraphics.size(); i++) {
+            graphicOverlay.add(lastResultGraphics.get(i));
+          }
+          if (!PreferenceUtils.shouldHideDetectionInfo(graphicOverlay.getContext())) {
+            graphicOverlay.add(
+                new InferenceInfoGraphic(
+                    graphicOverlay, lastFrameLatencyMs, lastDetectorLatencyMs, framesPerSecond));
+          }
+          graphicOverlay.postInvalidate();
+        });
+    return Tasks.forResult(null);
+  }
+
+  private synchronized void countSkippedFrames(long sequenceId) {
+    if (sequenceId == FrameMetadata.UNKNOWN_SEQUENCE_ID) {
+      return;
+    }
+    if (lastProcessedSequenceId != FrameMetadata.UNKNOWN_SEQUENCE_ID
+        && sequenceId > lastProcessedSequenceId) {
+      skippedFrames += sequenceId - lastProcessedSequenceId - 1;
+    }
+    lastProcessedSequenceId = sequenceId;
   }
 
   // -----------------Common processing logic-------------------------------------------------------
-  private Task<T> requestDetectInImage(
+  /**
+   * Starts detection and drawing on an image, and returns a task that completes once nothing reads
+   * the image any more, see {@link #getImageReleaseTask}.
+   */
+  private Task<?> requestDetectInImage(
       final InputImage image,
       final GraphicOverlay graphicOverlay,
       @Nullable final Bitmap originalCameraImage,
+      @Nullable final Rect crop,
+      int scale,
       boolean shouldShowFps,
-      long frameStartMs) {
-    return setUpListener(
-        detectInImage(image), graphicOverlay, originalCameraImage, shouldShowFps, frameStartMs);
+      long frameStartNanos,
+      long captureNanos,
+      long sequence) {
+    long detectorStartNanos = SystemClock.elapsedRealtimeNanos();
+    conversionLatency.recordNanos(detectorStartNanos - frameStartNanos);
+    FrameTracer tracer = FrameTracer.getInstance();
+    int traceCookie = (int) sequence;
+    long detectionTraceStartNanos = tracer.beginAsync(FrameTracer.STAGE_DETECTOR, traceCookie);
+    long submitTraceStartNanos = tracer.begin(FrameTracer.STAGE_DETECTOR_SUBMIT);
+    Task<T> task = detectInImage(image);
+    tracer.end(FrameTracer.STAGE_DETECTOR_SUBMIT, submitTraceStartNanos);
+    traceDetection(task, traceCookie, detectionTraceStartNanos);
+    setUpListener(
+        task,
+        graphicOverlay,
+        originalCameraImage,
+        crop,
+        scale,
+        shouldShowFps,
+        frameStartNanos,
+        captureNanos,
+        detectorStartNanos,
+        sequence);
+    return getImageReleaseTask(task);
   }
 
-  private Task<T> requestDetectInImage(
+  private Task<?> requestDetectInImage(
       final MlImage image,
       final GraphicOverlay graphicOverlay,
       @Nullable final Bitmap originalCameraImage,
+      @Nullable final Rect crop,
+      int scale,
       boolean shouldShowFps,
-      long frameStartMs) {
-    return setUpListener(
-        detectInImage(image), graphicOverlay, originalCameraImage, shouldShowFps, frameStartMs);
+      long frameStartNanos,
+      long captureNanos,
+      long sequence) {
+    long detectorStartNanos = SystemClock.elapsedRealtimeNanos();
+    conversionLatency.recordNanos(detectorStartNanos - frameStartNanos);
+    FrameTracer tracer = FrameTracer.getInstance();
+    int traceCookie = (int) sequence;
+    long detectionTraceStartNanos = tracer.beginAsync(FrameTracer.STAGE_DETECTOR, traceCookie);
+    long submitTraceStartNanos = tracer.begin(FrameTracer.STAGE_DETECTOR_SUBMIT);
+    Task<T> task = detectInImage(image);
+    tracer.end(FrameTracer.STAGE_DETECTOR_SUBMIT, submitTraceStartNanos);
+    traceDetection(task, traceCookie, detectionTraceStartNanos);
+    setUpListener(
+        task,
+        graphicOverlay,
+        originalCameraImage,
+        crop,
+        scale,
+        shouldShowFps,
+        frameStartNanos,
+        captureNanos,
+        detectorStartNanos,
+        sequence);
+    return getImageReleaseTask(task);
+  }
+
+  /**
+   * Returns a task that completes once nothing reads the image {@code detection} was started on, so
+   * that the frame can be closed or reused. That is {@code detection} itself, unless a subclass
+   * completes its results while other readers of the image still run. Called once for every
+   * {@link #detectInImage} call made by this class, right after it.
+   */
+  protected Task<?> getImageReleaseTask(Task<T> detection) {
+    return detection;
+  }
+
+  private static <R> void traceDetection(Task<R> task, int traceCookie, long traceStartNanos) {
+    // Runs on the thread completing the task, to end the span as soon as the detector is done.
+    task.addOnCompleteListener(
+        Runnable::run,
+        completedTask ->
+            FrameTracer.getInstance()
+                .endAsync(FrameTracer.STAGE_DETECTOR, traceCookie, traceStartNanos));
   }
 
   private Task<T> setUpListener(
       Task<T> task,
       final GraphicOverlay graphicOverlay,
       @Nullable final Bitmap originalCameraImage,
+      @Nullable final Rect crop,
+      int scale,
       boolean shouldShowFps,
-      long frameStartMs) {
-    final long detectorStartMs = SystemClock.elapsedRealtime();
+      long frameStartNanos,
+      long captureNanos,
+      long detectorStartNanos,
+      long sequence) {
     return task.addOnSuccessListener(
             executor,
             results -> {
-              long endMs = SystemClock.elapsedRealtime();
-              long currentFrameLatencyMs = endMs - frameStartMs;
-              long currentDetectorLatencyMs = endMs - detectorStartMs;
+              long endNanos = SystemClock.elapsedRealtimeNanos();
+              long currentFrameLatencyMs = (endNanos - frameStartNanos) / 1_000_000;
+              long currentDetectorLatencyMs = (endNanos - detectorStartNanos) / 1_000_000;
+              detectorLatency.recordNanos(endNanos - detectorStartNanos);
+              if (governor != null) {
+                governorDetectorLatency.recordNanos(endNanos - detectorStartNanos);
+              }
+              if (captureNanos != 0) {
+                captureToResultLatency.recordNanos(endNanos - captureNanos);
+              }
               if (numRuns >= 500) {
                 resetLatencyStats();
               }
@@ -326,14 +1071,73 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
                 activityManager.getMemoryInfo(mi);
                 long availableMegs = mi.availMem / 0x100000L;
                 Log.d(TAG, "Memory available in system: " + availableMegs + " MB");
-                temperatureMonitor.logTemperature();
+                FrameBufferPool pool = FrameBufferPool.getInstance();
+                Log.d(
+                    TAG,
+                    "Frame buffer pool: hits="
+                        + pool.getHitCount()
+                        + ", misses="
+                        + pool.getMissCount()
+                        + ", evictions="
+                        + pool.getEvictionCount());
+                synchronized (VisionProcessorBase.this) {
+                  Log.d(TAG, "Frames dropped before detection: " + droppedFrames);
+                  Log.d(TAG, "Frames skipped between processed frames: " + skippedFrames);
+                }
+                if (motionGate != null) {
+                  Log.d(TAG, "Static frames not detected: " + motionGate.getStaticFrameCount());
+                }
+                if (regionOfInterest != null) {
+                  Log.d(
+                      TAG,
+                      "Frames cropped to regions of interest: "
+                          + regionOfInterest.getCroppedFrameCount());
+                }
+                PipelineGovernor currentGovernor = governor;
+                if (currentGovernor != null) {
+                  Log.d(TAG, "Governor level: " + currentGovernor.getLevel());
+                }
+                for (LatencyHistogram histogram : latencyHistograms) {
+                  Log.d(TAG, histogram.snapshot().toString());
+                }
+                DetectorRegistry registry = DetectorRegistry.getInstance();
+                Log.d(TAG, registry.getColdInitLatency().snapshot().toString());
+                Log.d(TAG, registry.getWarmInitLatency().snapshot().toString());
+                TemperatureMonitor monitor = temperatureMonitor;
+                if (monitor != null) {
+                  monitor.logTemperature();
+                }
               }
 
+              if (sequence < lastDrawnFrameSequence) {
+                // Results of a newer frame are already drawn, drawing these would go back in time.
+                return;
+              }
+              lastDrawnFrameSequence = sequence;
+              lastResults = results;
+              lastResultsCrop = crop;
+              lastResultsScale = scale;
+              lastFrameLatencyMs = currentFrameLatencyMs;
+              lastDetectorLatencyMs = currentDetectorLatencyMs;
+              if (regionOfInterest != null) {
+                lastRegions = toFullFrame(getRegionsOfInterest(results), crop, scale);
+              }
+              // Results of a cropped or downscaled frame are relative to the image the detector
+              // was given, the overlay maps them back.
+              graphicOverlay.setImageOffset(
+                  crop != null ? crop.left : 0, crop != null ? crop.top : 0);
+              graphicOverlay.setImageScale(scale);
+              graphicOverlay.setDrawLatencyHistogram(drawLatency);
               graphicOverlay.clear();
               if (originalCameraImage != null) {
                 graphicOverlay.add(new CameraImageGraphic(graphicOverlay, originalCameraImage));
               }
+              FrameTracer tracer = FrameTracer.getInstance();
+              long onSuccessTraceStartNanos = tracer.begin(FrameTracer.STAGE_ON_SUCCESS);
+              int firstResultGraphic = graphicOverlay.getGraphicCount();
               VisionProcessorBase.this.onSuccess(results, graphicOverlay);
+              tracer.end(FrameTracer.STAGE_ON_SUCCESS, onSuccessTraceStartNanos);
+              graphicOverlay.getGraphics(firstResultGraphic, lastResultGraphics);
               if (!PreferenceUtils.shouldHideDetectionInfo(graphicOverlay.getContext())) {
                 graphicOverlay.add(
                     new InferenceInfoGraphic(
@@ -342,13 +1146,23 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
                         currentDetectorLatencyMs,
                         shouldShowFps ? framesPerSecond : null));
               }
+              callbackLatency.recordNanos(SystemClock.elapsedRealtimeNanos() - endNanos);
+              if (captureNanos != 0) {
+                graphicOverlay.setFrameCaptureTime(captureNanos, captureToDisplayLatency);
+              }
               graphicOverlay.postInvalidate();
             })
         .addOnFailureListener(
             executor,
             e -> {
-              graphicOverlay.clear();
-              graphicOverlay.postInvalidate();
+              lastResults = null;
+              lastResultGraphics.clear();
+              lastRegions = Collections.emptyList();
+              if (sequence >= lastDrawnFrameSequence) {
+                lastDrawnFrameSequence = sequence;
+                graphicOverlay.clear();
+                graphicOverlay.postInvalidate();
+              }
               String error = "Failed to process. Error: " + e.getLocalizedMessage();
               Toast.makeText(
                       graphicOverlay.getContext(),
@@ -361,13 +1175,82 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
             });
   }
 
+  private static List<Rect> toFullFrame(List<Rect> regions, @Nullable Rect crop, int scale) {
+    if ((crop == null && scale == 1) || regions.isEmpty()) {
+      return regions;
+    }
+    List<Rect> fullFrameRegions = new ArrayList<>(regions.size());
+    for (Rect region : regions) {
+      Rect fullFrameRegion =
+          new Rect(
+              region.left * scale, region.top * scale, region.right * scale, region.bottom * scale);
+      if (crop != null) {
+        fullFrameRegion.offset(crop.left, crop.top);
+      }
+      fullFrameRegions.add(fullFrameRegion);
+    }
+    return fullFrameRegions;
+  }
+
+  /**
+   * Stops processing frames. Activities may call this both when paused and when destroyed, only the
+   * first call has an effect; subclasses releasing resources here must also only do so once.
+   */
   @Override
   public void stop() {
+    synchronized (this) {
+      if (isShutdown) {
+        return;
+      }
+      // Set under the lock, so that no frame starts the pipeline once it is stopped.
+      isShutdown = true;
+      // The waiting frame will never be processed.
+      if (latestImage != null) {
+        latestImage = null;
+        latestImageMetaData = null;
+        latestImageReleaser.run();
+        latestImageReleaser = null;
+      }
+    }
     executor.shutdown();
-    isShutdown = true;
+    File traceFile = frameTraceFile;
+    if (traceFile != null) {
+      try {
+        FrameTracer.getInstance().writeChromeTrace(traceFile);
+        Log.i(TAG, "Frame trace written to " + traceFile);
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to write the frame trace", e);
+      }
+    }
+    FrameRecorder recorder = frameRecorder;
+    if (recorder != null) {
+      synchronized (this) {
+        try {
+          recorder.close();
+          Log.i(
+              TAG,
+              recorder.getFrameCount()
+                  + " frames recorded, "
+                  + recorder.getDroppedFrameCount()
+                  + " left out once the recording was full");
+        } catch (IOException e) {
+          Log.e(TAG, "Failed to finish recording frames", e);
+        }
+      }
+    }
     resetLatencyStats();
-    fpsTimer.cancel();
-    temperatureMonitor.stop();
+    Timer timer = fpsTimer;
+    if (timer != null) {
+      timer.cancel();
+    }
+    TemperatureMonitor monitor = temperatureMonitor;
+    if (monitor != null) {
+      monitor.stop();
+    }
+    PipelineGovernor currentGovernor = governor;
+    if (currentGovernor != null) {
+      currentGovernor.removeListener(governorListener);
+    }
   }
 
   private void resetLatencyStats() {
@@ -380,6 +1263,32 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
     minDetectorMs = Long.MAX_VALUE;
   }
 
+  /**
+   * Called on the main thread when the {@link PipelineGovernor} moves to another level. Processors
+   * with a cheaper detector mode switch to it from {@link PipelineGovernor#LEVEL_CHEAP_MODE} on,
+   * and back below it.
+   */
+  protected void onGovernorLevelChanged(int level) {}
+
+  /**
+   * Returns the boxes of the objects in {@code results}, in the coordinates of the image they were
+   * detected in. With regions of interest enabled, the next camera frames are cropped to these
+   * boxes, so processors that return none are always given full frames.
+   */
+  protected List<Rect> getRegionsOfInterest(@NonNull T results) {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Returns the length in pixels of the shorter side of the images the detector works best with,
+   * usually that of its model's input. Camera frames are downscaled by the largest integer factor
+   * that keeps them at least that large, and results are mapped back to the frame. Zero, the
+   * default, means full frames.
+   */
+  protected int getTargetInputSize() {
+    return 0;
+  }
+
   protected abstract Task<T> detectInImage(InputImage image);
 
   protected Task<T> detectInImage(MlImage image) {
@@ -18,6 +18,7 @@ package com.google.mlkit.vision.demo.java.barcodescanner;
 
 import android.content.Context;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -30,8 +31,10 @@ import com.google.mlkit.vision.barcode.ZoomSuggestionOptions;
 import com.google.mlkit.vision.barcode.ZoomSuggestionOptions.ZoomCallback;
 import com.google.mlkit.vision.barcode.common.Barcode;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.DetectorRegistry;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
+import java.util.ArrayList;
 import java.util.List;
 
 /** Barcode Detector Demo. */
@@ -41,6 +44,14 @@ public class BarcodeScannerProcessor extends VisionProcessorBase<List<Barcode>>
 
   private final BarcodeScanner barcodeScanner;
 
+  // Whether the scanner comes from the registry. Scanners with a zoom callback are not shared, as
+  // the callback belongs to the activity.
+  private final boolean isScannerShared;
+
+  // Whether the scanner was released or closed. Activities stop their processor both when paused
+  // and when destroyed, and it must only be released once. Main thread only.
+  private boolean released;
+
   public BarcodeScannerProcessor(Context context, @Nullable ZoomCallback zoomCallback) {
     super(context);
     // Note that if you know which format of barcode your app is dealing with, detection will be
@@ -54,20 +65,32 @@ public class BarcodeScannerProcessor extends VisionProcessorBase<List<Barcode>>
               .setZoomSuggestionOptions(new ZoomSuggestionOptions.Builder(zoomCallback).build())
               .build();
       barcodeScanner = BarcodeScanning.getClient(options);
+      isScannerShared = false;
     } else {
-      barcodeScanner = BarcodeScanning.getClient();
+      barcodeScanner =
+          DetectorRegistry.getInstance().acquire(BarcodeScanning.class, BarcodeScanning::getClient);
+      isScannerShared = true;
     }
   }
 
   @Override
   public void stop() {
     super.stop();
-    barcodeScanner.close();
+    if (released) {
+      return;
+    }
+    released = true;
+    if (isScannerShared) {
+      DetectorRegistry.getInstance().release(barcodeScanner);
+    } else {
+      barcodeScanner.close();
+    }
   }
 
   @Override
   protected Task<List<Barcode>> detectInImage(InputImage image) {
-    return barcodeScanner.process(image);
+    return DetectorRegistry.getInstance()
+        .detect(barcodeScanner, () -> barcodeScanner.process(image));
   }
 
   @Override
@@ -83,6 +106,17 @@ public class BarcodeScannerProcessor extends VisionProcessorBase<List<Barcode>>
     }
   }
 
+  @Override
+  protected List<Rect> getRegionsOfInterest(@NonNull List<Barcode> barcodes) {
+    List<Rect> regions = new ArrayList<>(barcodes.size());
+    for (Barcode barcode : barcodes) {
+      if (barcode.getBoundingBox() != null) {
+        regions.add(barcode.getBoundingBox());
+      }
+    }
+    return regions;
+  }
+
   private static void logExtrasForTesting(Barcode barcode) {
     if (barcode != null) {
       if (barcode.getBoundingBox() != null) {
@@ -4,64 +4,308 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "face_data.db";
-    private static final int DATABASE_VERSION = 1;
+    // Version 2 stores signatures as little-endian float32 blobs instead of "[a, b, c]" text.
+    // Version 3 stores them normalized for face scale by FaceSignatureExtractor.
+    // Version 4 adds the per-person centroid table.
+    private static final int DATABASE_VERSION = 4;
 
     public static final String TABLE_NAME = "face_data";
     public static final String COLUMN_ID = "_id";
+    public static final String COLUMN_PERSON_ID = "person_id";
     public static final String COLUMN_NAME = "name";
+    public static final String COLUMN_DIMENSION = "dimension";
     public static final String COLUMN_FACE_POINTS = "face_points";
 
+    public static final String PERSON_TABLE_NAME = "face_person";
+    public static final String COLUMN_SAMPLE_COUNT = "sample_count";
+    public static final String COLUMN_CENTROID = "centroid";
+    public static final String COLUMN_VARIANCE = "variance";
+
     private static final String TABLE_CREATE =
             "CREATE TABLE " + TABLE_NAME + " (" +
                     COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    COLUMN_PERSON_ID + " INTEGER NOT NULL, " +
+                    COLUMN_NAME + " TEXT, " +
+                    COLUMN_DIMENSION + " INTEGER NOT NULL, " +
+                    COLUMN_FACE_POINTS + " BLOB NOT NULL);";
+
+    private static final String INDEX_CREATE =
+            "CREATE INDEX " + TABLE_NAME + "_" + COLUMN_PERSON_ID + " ON " + TABLE_NAME +
+                    " (" + COLUMN_PERSON_ID + ");";
+
+    // One row per person with the running mean and variance of its samples, both stored as
+    // float32 blobs like the samples themselves.
+    private static final String PERSON_TABLE_CREATE =
+            "CREATE TABLE " + PERSON_TABLE_NAME + " (" +
+                    COLUMN_PERSON_ID + " INTEGER PRIMARY KEY, " +
                     COLUMN_NAME + " TEXT, " +
-                    COLUMN_FACE_POINTS + " TEXT);";
+                    COLUMN_SAMPLE_COUNT + " INTEGER NOT NULL, " +
+                    COLUMN_DIMENSION + " INTEGER NOT NULL, " +
+                    COLUMN_CENTROID + " BLOB NOT NULL, " +
+                    COLUMN_VARIANCE + " BLOB NOT NULL);";
 
     public DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Readers (the recognition index) never block enrollment writes, and a committed
+        // transaction costs one fsync of the log instead of a rollback journal round trip.
+        db.enableWriteAheadLogging();
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(TABLE_CREATE);
+        db.execSQL(INDEX_CREATE);
+        db.execSQL(PERSON_TABLE_CREATE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+        if (oldVersion < 2) {
+            // Creates the person table too, which stays empty until the version 4 step fills it.
+            migrateTextSignaturesToBlobs(db);
+        } else if (oldVersion < 4) {
+            db.execSQL(PERSON_TABLE_CREATE);
+        }
+        if (oldVersion < 3) {
+            normalizeStoredSignatures(db);
+        }
+        if (oldVersion < 4) {
+            rebuildPersonStats(db);
+        }
+    }
+
+    /**
+     * Converts the version 1 table, where signatures are "[a, b, c]" strings, into the version 2
+     * layout. Rows that cannot be parsed are dropped. Every distinct name becomes one person.
+     */
+    private void migrateTextSignaturesToBlobs(SQLiteDatabase db) {
+        String legacyTable = TABLE_NAME + "_v1";
+        db.execSQL("ALTER TABLE " + TABLE_NAME + " RENAME TO " + legacyTable);
         onCreate(db);
+
+        Map<String, Long> personIds = new HashMap<>();
+        float[] signature = new float[FaceSignatureIndex.SIGNATURE_SIZE];
+        Cursor cursor = db.query(legacyTable, new String[] {COLUMN_NAME, COLUMN_FACE_POINTS},
+                null, null, null, null, COLUMN_ID);
+        try {
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(0);
+                if (!SignatureCodec.decodeText(
+                        cursor.getString(1), signature, FaceSignatureIndex.SIGNATURE_SIZE)) {
+                    continue;
+                }
+                Long personId = personIds.get(name);
+                if (personId == null) {
+                    personId = (long) personIds.size() + 1;
+                    personIds.put(name, personId);
+                }
+                db.insert(TABLE_NAME, null, toContentValues(personId, name, signature));
+            }
+        } finally {
+            cursor.close();
+        }
+        db.execSQL("DROP TABLE " + legacyTable);
     }
 
-    public void saveFaceData(String name, String faceMeshPoints) {
-        SQLiteDatabase db = this.getWritableDatabase();
+    /** Rescales signatures saved before version 3, which hold raw landmark distances. */
+    private void normalizeStoredSignatures(SQLiteDatabase db) {
+        float[] signature = new float[FaceSignatureIndex.SIGNATURE_SIZE];
+        ContentValues values = new ContentValues();
+        String[] whereArgs = new String[1];
+        Cursor cursor = db.query(TABLE_NAME, new String[] {COLUMN_ID, COLUMN_FACE_POINTS},
+                COLUMN_DIMENSION + " = " + FaceSignatureIndex.SIGNATURE_SIZE,
+                null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                SignatureCodec.decode(cursor.getBlob(1), signature, 0);
+                FaceSignatureExtractor.normalize(signature);
+                values.put(COLUMN_FACE_POINTS,
+                        SignatureCodec.encode(signature, signature.length));
+                whereArgs[0] = Long.toString(cursor.getLong(0));
+                db.update(TABLE_NAME, values, COLUMN_ID + " = ?", whereArgs);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Recomputes every row of the person table from the stored samples. */
+    private void rebuildPersonStats(SQLiteDatabase db) {
+        db.delete(PERSON_TABLE_NAME, null, null);
+        Cursor cursor = db.query(TABLE_NAME,
+                new String[] {COLUMN_PERSON_ID, COLUMN_NAME, COLUMN_FACE_POINTS},
+                COLUMN_DIMENSION + " = " + FaceSignatureIndex.SIGNATURE_SIZE,
+                null, null, null, COLUMN_ID);
+        float[] signature = new float[FaceSignatureIndex.SIGNATURE_SIZE];
+        try {
+            while (cursor.moveToNext()) {
+                SignatureCodec.decode(cursor.getBlob(2), signature, 0);
+                accumulatePersonStats(db, cursor.getLong(0), cursor.getString(1),
+                        signature, signature.length, 1);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Folds {@code count} signatures, packed back to back in {@code signatures}, into the centroid
+     * and variance stored for {@code personId}.
+     */
+    private static void accumulatePersonStats(SQLiteDatabase db, long personId, String name,
+            float[] signatures, int dimension, int count) {
+        float[] centroid = new float[dimension];
+        float[] variance = new float[dimension];
+        int sampleCount = 0;
+        Cursor cursor = db.query(PERSON_TABLE_NAME,
+                new String[] {COLUMN_SAMPLE_COUNT, COLUMN_CENTROID, COLUMN_VARIANCE},
+                COLUMN_PERSON_ID + " = ?", new String[] {Long.toString(personId)},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                sampleCount = cursor.getInt(0);
+                SignatureCodec.decode(cursor.getBlob(1), centroid, 0);
+                SignatureCodec.decode(cursor.getBlob(2), variance, 0);
+            }
+        } finally {
+            cursor.close();
+        }
+        for (int i = 0; i < count; i++) {
+            RunningCentroid.accumulate(
+                    centroid, variance, 0, dimension, sampleCount + i, signatures, i * dimension);
+        }
+
         ContentValues values = new ContentValues();
+        values.put(COLUMN_PERSON_ID, personId);
         values.put(COLUMN_NAME, name);
-        values.put(COLUMN_FACE_POINTS, faceMeshPoints);
+        values.put(COLUMN_SAMPLE_COUNT, sampleCount + count);
+        values.put(COLUMN_DIMENSION, dimension);
+        values.put(COLUMN_CENTROID, SignatureCodec.encode(centroid, dimension));
+        values.put(COLUMN_VARIANCE, SignatureCodec.encode(variance, dimension));
+        db.insertWithOnConflict(
+                PERSON_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static ContentValues toContentValues(long personId, String name, float[] signature) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_PERSON_ID, personId);
+        values.put(COLUMN_NAME, name);
+        values.put(COLUMN_DIMENSION, signature.length);
+        values.put(COLUMN_FACE_POINTS, SignatureCodec.encode(signature, signature.length));
+        return values;
+    }
 
-        db.insert(TABLE_NAME, null, values);
+    /** Returns the person id already used for {@code name}, or a new one if there is none. */
+    private static long findOrAllocatePersonId(SQLiteDatabase db, String name) {
+        Cursor cursor = db.rawQuery(
+                "SELECT " + COLUMN_PERSON_ID + " FROM " + TABLE_NAME + " WHERE " + COLUMN_NAME
+                        + " = ? LIMIT 1", new String[] {name});
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        cursor = db.rawQuery(
+                "SELECT IFNULL(MAX(" + COLUMN_PERSON_ID + "), 0) + 1 FROM " + TABLE_NAME, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void saveFaceData(String name, float[] signature) {
+        saveFaceDataBatch(name, signature);
+    }
+
+    /**
+     * Saves every signature packed back to back in {@code signatures} as samples of the person
+     * called {@code name}, in a single transaction. Returns the number of samples written.
+     *
+     * <p>This performs disk I/O; call it off the main thread, e.g. through {@link
+     * FaceEnrollmentWriter}.
+     */
+    public int saveFaceDataBatch(String name, float[] signatures) {
+        int dimension = FaceSignatureIndex.SIGNATURE_SIZE;
+        int count = signatures.length / dimension;
+        if (count == 0) {
+            return 0;
+        }
+        SQLiteDatabase db = this.getWritableDatabase();
+        long personId = 0;
+        SQLiteStatement insert = db.compileStatement(
+                "INSERT INTO " + TABLE_NAME + " (" + COLUMN_PERSON_ID + ", " + COLUMN_NAME + ", "
+                        + COLUMN_DIMENSION + ", " + COLUMN_FACE_POINTS + ") VALUES (?, ?, ?, ?)");
+        float[] signature = new float[dimension];
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            personId = findOrAllocatePersonId(db, name);
+            insert.bindLong(1, personId);
+            insert.bindString(2, name);
+            insert.bindLong(3, dimension);
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(signatures, i * dimension, signature, 0, dimension);
+                insert.bindBlob(4, SignatureCodec.encode(signature, dimension));
+                insert.executeInsert();
+            }
+            accumulatePersonStats(db, personId, name, signatures, dimension, count);
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            // Commit and update the in-memory index as one step with respect to the index load:
+            // a load that read the table before the commit has already published the index.
+            synchronized (FaceSignatureIndex.loadLock) {
+                db.endTransaction();
+                // Keep the in-memory index in sync so recognition never has to reload the table.
+                FaceSignatureIndex index = FaceSignatureIndex.peekInstance();
+                if (successful && index != null) {
+                    for (int i = 0; i < count; i++) {
+                        System.arraycopy(signatures, i * dimension, signature, 0, dimension);
+                        index.add(personId, name, signature);
+                    }
+                }
+            }
+            insert.close();
+        }
         db.close();
+        return count;
     }
+
     public ArrayList<FaceData> getAllFaceData() {
         ArrayList<FaceData> faceDataList = new ArrayList<>();
         SQLiteDatabase db = this.getReadableDatabase();
 
-        String[] columns = {COLUMN_ID, COLUMN_NAME, COLUMN_FACE_POINTS};
-        Cursor cursor = db.query(TABLE_NAME, columns, null, null, null, null, null);
+        String[] columns = {COLUMN_PERSON_ID, COLUMN_NAME, COLUMN_FACE_POINTS};
+        Cursor cursor = db.query(TABLE_NAME, columns, null, null, null, null, COLUMN_ID);
 
         if (cursor != null && cursor.moveToFirst()) {
+            int personIdIndex = cursor.getColumnIndex(COLUMN_PERSON_ID);
+            int nameIndex = cursor.getColumnIndex(COLUMN_NAME);
+            int facePointsIndex = cursor.getColumnIndex(COLUMN_FACE_POINTS);
             do {
+                byte[] blob = cursor.getBlob(facePointsIndex);
+                float[] signature = new float[SignatureCodec.dimensionOf(blob)];
+                SignatureCodec.decode(blob, signature, 0);
 
-                int id = cursor.getInt(cursor.getColumnIndex(COLUMN_ID));
-                String name = cursor.getString(cursor.getColumnIndex(COLUMN_NAME));
-                String faceMeshPoints = cursor.getString(cursor.getColumnIndex(COLUMN_FACE_POINTS));
-
-                FaceData faceData = new FaceData(name, faceMeshPoints);
+                FaceData faceData = new FaceData(
+                        cursor.getLong(personIdIndex), cursor.getString(nameIndex), signature);
                 faceDataList.add(faceData);
             } while (cursor.moveToNext());
 
@@ -72,4 +316,39 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
         return faceDataList;
     }
+
+    /**
+     * Streams every stored signature into {@code index}, decoding each blob straight into the
+     * index storage, then seeds the person centroids and variances from the person table.
+     */
+    void loadInto(FaceSignatureIndex index) {
+        SQLiteDatabase db = this.getReadableDatabase();
+
+        String[] columns = {COLUMN_PERSON_ID, COLUMN_NAME, COLUMN_DIMENSION, COLUMN_FACE_POINTS};
+        Cursor cursor = db.query(TABLE_NAME, columns, null, null, null, null, COLUMN_ID);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                if (cursor.getInt(2) == FaceSignatureIndex.SIGNATURE_SIZE) {
+                    index.addEncoded(cursor.getLong(0), cursor.getString(1), cursor.getBlob(3));
+                }
+            }
+            cursor.close();
+        }
+
+        String[] personColumns = {COLUMN_PERSON_ID, COLUMN_SAMPLE_COUNT, COLUMN_CENTROID,
+                COLUMN_VARIANCE};
+        cursor = db.query(PERSON_TABLE_NAME, personColumns,
+                COLUMN_DIMENSION + " = " + FaceSignatureIndex.SIGNATURE_SIZE,
+                null, null, null, null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                index.setEncodedPersonStats(cursor.getLong(0), cursor.getInt(1),
+                        cursor.getBlob(2), cursor.getBlob(3));
+            }
+            cursor.close();
+        }
+        index.completePersonStats();
+
+        db.close();
+    }
 }
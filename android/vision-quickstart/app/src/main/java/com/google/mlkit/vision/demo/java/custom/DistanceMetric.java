@@ -0,0 +1,87 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+/** Distance functions that {@link FaceMatcher} can rank face signatures with. */
+public enum DistanceMetric {
+
+  /** Euclidean distance. */
+  L2(/* isTrueMetric= */ true) {
+    @Override
+    public float distance(
+        float[] a, int aOffset, float[] b, int bOffset, int dimension, float bound) {
+      float boundSquared = bound * bound;
+      float sum = 0;
+      for (int i = 0; i < dimension; i++) {
+        float d = a[aOffset + i] - b[bOffset + i];
+        sum += d * d;
+        if (sum > boundSquared) {
+          break;
+        }
+      }
+      return (float) Math.sqrt(sum);
+    }
+  },
+
+  /** One minus the cosine similarity, in [0, 2]. */
+  COSINE(/* isTrueMetric= */ false) {
+    @Override
+    public float distance(
+        float[] a, int aOffset, float[] b, int bOffset, int dimension, float bound) {
+      float dot = 0;
+      float normA = 0;
+      float normB = 0;
+      for (int i = 0; i < dimension; i++) {
+        float x = a[aOffset + i];
+        float y = b[bOffset + i];
+        dot += x * y;
+        normA += x * x;
+        normB += y * y;
+      }
+      if (normA == 0 || normB == 0) {
+        return 1f;
+      }
+      return 1f - dot / (float) Math.sqrt(normA * normB);
+    }
+  },
+
+  /**
+   * Number of components further apart than {@link #THRESHOLD_COUNT_DELTA}. This is how the app
+   * originally compared faces.
+   */
+  THRESHOLD_COUNT(/* isTrueMetric= */ false) {
+    @Override
+    public float distance(
+        float[] a, int aOffset, float[] b, int bOffset, int dimension, float bound) {
+      int count = 0;
+      for (int i = 0; i < dimension && count <= bound; i++) {
+        if (Math.abs(a[aOffset + i] - b[bOffset + i]) > THRESHOLD_COUNT_DELTA) {
+          count++;
+        }
+      }
+      return count;
+    }
+  };
+
+  /** Two components are counted as different by {@link #THRESHOLD_COUNT} past this gap. */
+  public static final float THRESHOLD_COUNT_DELTA = 2f;
+
+  private final boolean isTrueMetric;
+
+  DistanceMetric(boolean isTrueMetric) {
+    this.isTrueMetric = isTrueMetric;
+  }
+
+  /**
+   * Whether the triangle inequality holds, which is required to prune a {@link VpTree} search.
+   */
+  public boolean isTrueMetric() {
+    return isTrueMetric;
+  }
+
+  /**
+   * Returns the distance between the {@code dimension} components of {@code a} and {@code b}
+   * starting at the given offsets. Once the distance is known to exceed {@code bound} the
+   * computation may stop early and return any value greater than {@code bound}.
+   */
+  public abstract float distance(
+      float[] a, int aOffset, float[] b, int bOffset, int dimension, float bound);
+}
@@ -1,19 +1,25 @@
 package com.google.mlkit.vision.demo.java.custom;// FaceData.java
 
 public class FaceData {
+    private long personId;
     private String name;
-    private String faceMeshPoints;
+    private float[] signature;
 
-    public FaceData(String name, String faceMeshPoints) {
+    public FaceData(long personId, String name, float[] signature) {
+        this.personId = personId;
         this.name = name;
-        this.faceMeshPoints = faceMeshPoints;
+        this.signature = signature;
+    }
+
+    public long getPersonId() {
+        return personId;
     }
 
     public String getName() {
         return name;
     }
 
-    public String getFaceMeshPoints() {
-        return faceMeshPoints;
+    public float[] getSignature() {
+        return signature;
     }
 }
@@ -0,0 +1,82 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+import android.content.Context;
+import android.net.Uri;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes enrollment samples to the face database, and exports or imports face galleries, on a
+ * background thread.
+ *
+ * <p>All writes go through one single-threaded executor, so enrollments never run concurrently
+ * with each other and the UI thread never waits on SQLite. Each enrollment is one transaction; the
+ * in-memory {@link FaceSignatureIndex} is updated once it has been committed.
+ */
+public final class FaceEnrollmentWriter {
+
+  private static final Executor executor = Executors.newSingleThreadExecutor();
+
+  private FaceEnrollmentWriter() {}
+
+  /**
+   * Saves the signatures packed back to back in {@code signatures} as samples of {@code name}.
+   * The returned task completes with the number of samples written.
+   */
+  public static Task<Integer> enroll(Context context, String name, float[] signatures) {
+    Context applicationContext = context.getApplicationContext();
+    return Tasks.call(
+        executor,
+        () -> new DatabaseHelper(applicationContext).saveFaceDataBatch(name, signatures));
+  }
+
+  /**
+   * Exports every enrolled sample as a {@link FaceGalleryFile} to {@code uri}, typically a document
+   * created through {@code Intent.ACTION_CREATE_DOCUMENT}. The gallery is int8 if the index is
+   * quantized and float32 otherwise.
+   */
+  public static Task<Void> exportGallery(Context context, Uri uri) {
+    Context applicationContext = context.getApplicationContext();
+    return Tasks.call(
+        executor,
+        () -> {
+          FaceSignatureIndex index = FaceSignatureIndex.getInstance(applicationContext);
+          int encoding =
+              index.isQuantized()
+                  ? FaceGalleryFile.ENCODING_INT8
+                  : FaceGalleryFile.ENCODING_FLOAT32;
+          try (OutputStream out = applicationContext.getContentResolver().openOutputStream(uri)) {
+            if (out == null) {
+              throw new FileNotFoundException("Cannot write " + uri);
+            }
+            index.exportGallery(out, encoding);
+          }
+          return null;
+        });
+  }
+
+  /**
+   * Imports the {@link FaceGalleryFile} at {@code uri}, typically a document picked through {@code
+   * Intent.ACTION_OPEN_DOCUMENT}, replacing any previously imported gallery.
+   */
+  public static Task<Void> importGallery(Context context, Uri uri) {
+    Context applicationContext = context.getApplicationContext();
+    return Tasks.call(
+        executor,
+        () -> {
+          try (InputStream in = applicationContext.getContentResolver().openInputStream(uri)) {
+            if (in == null) {
+              throw new FileNotFoundException("Cannot read " + uri);
+            }
+            FaceSignatureIndex index = FaceSignatureIndex.getInstance(applicationContext);
+            index.importGallery(applicationContext, in);
+          }
+          return null;
+        });
+  }
+}
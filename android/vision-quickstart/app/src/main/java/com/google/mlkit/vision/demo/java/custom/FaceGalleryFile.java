@@ -0,0 +1,193 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Binary face gallery used to provision many devices with the same enrolled persons.
+ *
+ * <p>All values are little-endian. The file starts with a 36-byte header:
+ *
+ * <pre>
+ *   int magic           "FGAL"
+ *   int version         {@link #VERSION}
+ *   int encoding        {@link #ENCODING_FLOAT32} or {@link #ENCODING_INT8}
+ *   int dimension       components per signature
+ *   int personCount
+ *   int sampleCount
+ *   int namesOffset     start of the UTF-8 string table
+ *   int centroidsOffset start of the centroid matrix, 8-byte aligned
+ *   int matrixOffset    start of the signature matrix, 8-byte aligned
+ * </pre>
+ *
+ * <p>It is followed by {@code personCount} person records ({@code long id, int nameOffset, int
+ * nameLength, int firstSample, int sampleCount}, with name offsets relative to {@code
+ * namesOffset}), the string table, the centroids and the matrix. The samples of a person are
+ * stored next to each other, in the rows {@code [firstSample, firstSample + sampleCount)}, and
+ * persons follow each other in record order. The centroids are {@code personCount * dimension}
+ * floats, the mean of the samples of each person as written. A float32 matrix holds {@code
+ * sampleCount * dimension} floats. An int8 matrix holds {@code sampleCount} scales, {@code
+ * sampleCount} offsets, then {@code sampleCount * dimension} bytes as produced by {@link
+ * SignatureQuantizer}.
+ */
+public final class FaceGalleryFile {
+
+  /** Name of the gallery file the app maps at startup, in its files directory. */
+  public static final String DEFAULT_FILE_NAME = "face_gallery.bin";
+
+  // Version 2 groups the samples by person and stores the person centroids.
+  public static final int VERSION = 2;
+  public static final int ENCODING_FLOAT32 = 0;
+  public static final int ENCODING_INT8 = 1;
+
+  static final int MAGIC = 'F' | 'G' << 8 | 'A' << 16 | 'L' << 24;
+  static final int HEADER_SIZE = 36;
+  static final int PERSON_RECORD_SIZE = 24;
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private FaceGalleryFile() {}
+
+  /**
+   * Encodes a gallery file, grouping the samples by person and computing the centroid of every
+   * person. Costs one pass over the signatures, so that mapping the gallery later does not.
+   *
+   * @param samplePersons index into {@code personIds} and {@code personNames} of each sample
+   * @param signatures {@code sampleCount} signatures packed back to back
+   * @return the file content, rewound
+   */
+  public static ByteBuffer encode(
+      int encoding,
+      int dimension,
+      long[] personIds,
+      String[] personNames,
+      int personCount,
+      int[] samplePersons,
+      float[] signatures,
+      int sampleCount) {
+    if (encoding != ENCODING_FLOAT32 && encoding != ENCODING_INT8) {
+      throw new IllegalArgumentException("Unknown gallery encoding: " + encoding);
+    }
+    byte[][] names = new byte[personCount][];
+    int namesSize = 0;
+    for (int p = 0; p < personCount; p++) {
+      names[p] = (personNames[p] == null ? "" : personNames[p]).getBytes(UTF_8);
+      namesSize += names[p].length;
+    }
+
+    // Group the samples by person, keeping their order within a person.
+    int[] firstSamples = new int[personCount + 1];
+    for (int s = 0; s < sampleCount; s++) {
+      firstSamples[samplePersons[s] + 1]++;
+    }
+    for (int p = 0; p < personCount; p++) {
+      firstSamples[p + 1] += firstSamples[p];
+    }
+    int[] order = new int[sampleCount];
+    int[] next = new int[personCount];
+    System.arraycopy(firstSamples, 0, next, 0, personCount);
+    for (int s = 0; s < sampleCount; s++) {
+      order[next[samplePersons[s]]++] = s;
+    }
+
+    float[] centroids = new float[personCount * dimension];
+    for (int p = 0; p < personCount; p++) {
+      int count = firstSamples[p + 1] - firstSamples[p];
+      int offset = p * dimension;
+      for (int row = firstSamples[p]; row < firstSamples[p + 1]; row++) {
+        int sampleOffset = order[row] * dimension;
+        for (int j = 0; j < dimension; j++) {
+          centroids[offset + j] += signatures[sampleOffset + j];
+        }
+      }
+      for (int j = 0; count > 0 && j < dimension; j++) {
+        centroids[offset + j] /= count;
+      }
+    }
+
+    int namesOffset = HEADER_SIZE + personCount * PERSON_RECORD_SIZE;
+    int centroidsOffset = align8(namesOffset + namesSize);
+    int matrixOffset = align8(centroidsOffset + personCount * dimension * 4);
+    int matrixSize =
+        encoding == ENCODING_FLOAT32
+            ? sampleCount * dimension * 4
+            : sampleCount * (8 + dimension);
+
+    ByteBuffer buffer =
+        ByteBuffer.allocate(matrixOffset + matrixSize).order(ByteOrder.LITTLE_ENDIAN);
+    buffer
+        .putInt(MAGIC)
+        .putInt(VERSION)
+        .putInt(encoding)
+        .putInt(dimension)
+        .putInt(personCount)
+        .putInt(sampleCount)
+        .putInt(namesOffset)
+        .putInt(centroidsOffset)
+        .putInt(matrixOffset);
+    int nameOffset = 0;
+    for (int p = 0; p < personCount; p++) {
+      buffer
+          .putLong(personIds[p])
+          .putInt(nameOffset)
+          .putInt(names[p].length)
+          .putInt(firstSamples[p])
+          .putInt(firstSamples[p + 1] - firstSamples[p]);
+      nameOffset += names[p].length;
+    }
+    for (int p = 0; p < personCount; p++) {
+      buffer.put(names[p]);
+    }
+    buffer.position(centroidsOffset);
+    buffer.asFloatBuffer().put(centroids);
+    buffer.position(matrixOffset);
+    if (encoding == ENCODING_FLOAT32) {
+      FloatBuffer matrix = buffer.asFloatBuffer();
+      for (int row = 0; row < sampleCount; row++) {
+        matrix.put(signatures, order[row] * dimension, dimension);
+      }
+    } else {
+      byte[] quantized = new byte[sampleCount * dimension];
+      float[] scales = new float[sampleCount];
+      float[] offsets = new float[sampleCount];
+      for (int row = 0; row < sampleCount; row++) {
+        SignatureQuantizer.quantize(
+            signatures,
+            order[row] * dimension,
+            dimension,
+            quantized,
+            row * dimension,
+            scales,
+            offsets,
+            row);
+      }
+      buffer.asFloatBuffer().put(scales).put(offsets);
+      buffer.position(matrixOffset + sampleCount * 8);
+      buffer.put(quantized);
+    }
+    buffer.rewind();
+    return buffer;
+  }
+
+  /** Maps a gallery file read-only. The signatures are not copied into the Java heap. */
+  public static MappedFaceGallery map(File file) throws IOException {
+    MappedByteBuffer buffer;
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      FileChannel channel = randomAccessFile.getChannel();
+      // The mapping stays valid after the channel is closed.
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    return new MappedFaceGallery(buffer);
+  }
+
+  private static int align8(int value) {
+    return (value + 7) & ~7;
+  }
+}
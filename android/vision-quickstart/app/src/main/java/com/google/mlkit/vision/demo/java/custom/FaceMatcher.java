@@ -0,0 +1,79 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Finds the enrolled signatures nearest to a query signature.
+ *
+ * <p>Signatures are rows of a contiguous {@code float[]} matrix owned by the caller. Small
+ * galleries are scanned linearly. Once a gallery reaches {@code treeThreshold} rows and the metric
+ * allows it, a {@link VpTree} is built over it; rows appended after the tree was built are scanned
+ * linearly until there are enough of them to justify a rebuild.
+ *
+ * <p>Not thread safe: callers must serialize access, as {@link FaceSignatureIndex} does.
+ */
+public final class FaceMatcher {
+
+  /** Galleries at least this large get a {@link VpTree} unless configured otherwise. */
+  public static final int DEFAULT_TREE_THRESHOLD = 2048;
+
+  // The tree is rebuilt once rows appended after it exceed this fraction of its size.
+  private static final int REBUILD_DIVISOR = 4;
+
+  private final int dimension;
+  private final DistanceMetric metric;
+  private final int treeThreshold;
+
+  @Nullable private VpTree tree;
+
+  public FaceMatcher(int dimension, DistanceMetric metric) {
+    this(dimension, metric, DEFAULT_TREE_THRESHOLD);
+  }
+
+  /**
+   * @param treeThreshold number of rows from which a {@link VpTree} is used, or {@link
+   *     Integer#MAX_VALUE} to always scan linearly
+   */
+  public FaceMatcher(int dimension, DistanceMetric metric, int treeThreshold) {
+    this.dimension = dimension;
+    this.metric = metric;
+    this.treeThreshold = treeThreshold;
+  }
+
+  public DistanceMetric getMetric() {
+    return metric;
+  }
+
+  /** Drops the tree; must be called whenever existing rows are modified, removed or reordered. */
+  public void invalidate() {
+    tree = null;
+  }
+
+  /**
+   * Replaces the content of {@code results} with the {@code k} rows of {@code rows[0, rowCount)}
+   * nearest to {@code query}.
+   */
+  public void search(float[] rows, int rowCount, float[] query, int k, MatchResults results) {
+    results.reset(k);
+    int scanFrom = 0;
+    if (metric.isTrueMetric() && rowCount >= treeThreshold) {
+      if (tree == null
+          || tree.size() > rowCount
+          || rowCount - tree.size() > tree.size() / REBUILD_DIVISOR) {
+        tree = new VpTree(rows, rowCount, dimension, metric);
+      }
+      tree.search(rows, query, results);
+      scanFrom = tree.size();
+    }
+    scan(rows, scanFrom, rowCount, query, results);
+  }
+
+  /** Offers every row in {@code [from, to)} to {@code results}. */
+  public void scan(float[] rows, int from, int to, float[] query, MatchResults results) {
+    for (int row = from, offset = from * dimension; row < to; row++, offset += dimension) {
+      float distance =
+          metric.distance(query, 0, rows, offset, dimension, results.worstDistance());
+      results.offer(row, distance);
+    }
+  }
+}
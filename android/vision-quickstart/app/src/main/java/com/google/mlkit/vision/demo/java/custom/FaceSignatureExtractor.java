@@ -0,0 +1,86 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+/**
+ * Turns face landmarks into the 36-component signature used for enrollment and recognition.
+ *
+ * <p>The input is 25 landmarks packed as {@code x, y, z} triples: the first and last point of each
+ * of the 12 face mesh contours, in contour order, followed by the root point (the fourth point of
+ * the nose bridge). For every contour the signature holds the distance between its two endpoints
+ * and the distance from each endpoint to the root.
+ *
+ * <p>Distances are rescaled so that their mean is {@link #REFERENCE_MEAN_DISTANCE}. This keeps
+ * signatures of the same face comparable whether it is close to or far from the camera.
+ *
+ * <p>This class has no Android dependencies and does not allocate.
+ */
+public final class FaceSignatureExtractor {
+
+  /** Number of contours contributing to a signature. */
+  public static final int CONTOUR_COUNT = 12;
+
+  /** Number of landmarks expected by {@link #extract}. */
+  public static final int LANDMARK_COUNT = 2 * CONTOUR_COUNT + 1;
+
+  /** Length of the packed landmark array expected by {@link #extract}. */
+  public static final int LANDMARKS_LENGTH = 3 * LANDMARK_COUNT;
+
+  /** Number of components in a signature. */
+  public static final int SIGNATURE_SIZE = 3 * CONTOUR_COUNT;
+
+  /** Mean component value of every normalized signature. */
+  public static final float REFERENCE_MEAN_DISTANCE = 64f;
+
+  private static final int ROOT_OFFSET = 3 * 2 * CONTOUR_COUNT;
+
+  private FaceSignatureExtractor() {}
+
+  /**
+   * Writes the signature of {@code landmarks} into the first {@link #SIGNATURE_SIZE} entries of
+   * {@code out}.
+   */
+  public static void extract(float[] landmarks, float[] out) {
+    float rootX = landmarks[ROOT_OFFSET];
+    float rootY = landmarks[ROOT_OFFSET + 1];
+    float rootZ = landmarks[ROOT_OFFSET + 2];
+    int k = 0;
+    for (int contour = 0; contour < CONTOUR_COUNT; contour++) {
+      int first = 6 * contour;
+      int last = first + 3;
+      out[k++] =
+          distance(
+              landmarks[first], landmarks[first + 1], landmarks[first + 2],
+              landmarks[last], landmarks[last + 1], landmarks[last + 2]);
+      out[k++] =
+          distance(
+              landmarks[first], landmarks[first + 1], landmarks[first + 2], rootX, rootY, rootZ);
+      out[k++] =
+          distance(landmarks[last], landmarks[last + 1], landmarks[last + 2], rootX, rootY, rootZ);
+    }
+    normalize(out);
+  }
+
+  /**
+   * Rescales a raw signature in place so that its mean component is {@link
+   * #REFERENCE_MEAN_DISTANCE}. A signature of all zeros is left untouched.
+   */
+  public static void normalize(float[] signature) {
+    float sum = 0;
+    for (int i = 0; i < SIGNATURE_SIZE; i++) {
+      sum += signature[i];
+    }
+    if (sum <= 0) {
+      return;
+    }
+    float scale = REFERENCE_MEAN_DISTANCE * SIGNATURE_SIZE / sum;
+    for (int i = 0; i < SIGNATURE_SIZE; i++) {
+      signature[i] *= scale;
+    }
+  }
+
+  private static float distance(float x1, float y1, float z1, float x2, float y2, float z2) {
+    float dx = x1 - x2;
+    float dy = y1 - y2;
+    float dz = z1 - z2;
+    return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+  }
+}
@@ -0,0 +1,653 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide, in-memory copy of every enrolled face signature.
+ *
+ * <p>The table is read from {@link DatabaseHelper} once, the first time {@link #getInstance} is
+ * called, and is kept in sync afterwards by {@link DatabaseHelper#saveFaceData}. Signatures are
+ * stored back to back in a single {@code float[]} so that matching a frame never touches the disk
+ * and never allocates.
+ *
+ * <p>Next to the raw samples the index keeps a running centroid and per-dimension variance for
+ * every person, loaded from the person table of the database. {@link #findNearest} first ranks
+ * the person centroids and then only compares the query against the samples of the best {@link
+ * #DEFAULT_CANDIDATE_PERSONS} persons. Centroids are always ranked by {@link #CENTROID_METRIC}, a
+ * true metric, so that a {@link VpTree} takes over the ranking once there are {@link
+ * FaceMatcher#DEFAULT_TREE_THRESHOLD} persons; only the samples are compared with the metric set by
+ * {@link #setMetric}.
+ *
+ * <p>A gallery exported with {@link #exportGallery} and imported with {@link #importGallery}, or
+ * placed in the app's files directory as {@link FaceGalleryFile#DEFAULT_FILE_NAME}, is
+ * memory-mapped at startup and searched next to the enrolled samples, with the same centroid
+ * prefilter. Its rows are reported from {@link #GALLERY_ROW_BASE} upwards and its persons from
+ * {@link #GALLERY_PERSON_ID_BASE} upwards.
+ *
+ * <p>Galleries of at least {@link #DEFAULT_QUANTIZE_THRESHOLD} samples are kept in a {@link
+ * QuantizedSignatureStore} instead of float rows; see {@link #setQuantized}.
+ */
+public final class FaceSignatureIndex {
+
+  /** Number of components in a face signature. */
+  public static final int SIGNATURE_SIZE = FaceSignatureExtractor.SIGNATURE_SIZE;
+
+  /** Returned by {@link #findNearest} when no enrolled signature is close enough. */
+  public static final int NO_MATCH = -1;
+
+  /** Number of persons whose raw samples are re-ranked by {@link #findNearest}. */
+  public static final int DEFAULT_CANDIDATE_PERSONS = 3;
+
+  /** Rows at or above this value returned by {@link #findNearest} refer to the mapped gallery. */
+  public static final int GALLERY_ROW_BASE = 1 << 30;
+
+  /**
+   * Person ids at or above this value returned by {@link #getPersonId} refer to a person of the
+   * mapped gallery. Enrolled persons have SQLite row ids, which stay far below it.
+   */
+  public static final long GALLERY_PERSON_ID_BASE = 1L << 48;
+
+  /** Galleries loaded with at least this many samples are stored quantized. */
+  public static final int DEFAULT_QUANTIZE_THRESHOLD = 20_000;
+
+  /**
+   * Metric the person centroids are ranked with. A centroid is the point with the least squared
+   * Euclidean distance to the samples it averages, which makes L2 the natural prefilter.
+   */
+  public static final DistanceMetric CENTROID_METRIC = DistanceMetric.L2;
+
+  private static final String TAG = "FaceSignatureIndex";
+
+  // With the default metric a signature matches when less than 40% of its components differ.
+  private static final float DEFAULT_MAX_MATCH_DISTANCE =
+      (float) Math.ceil(0.4f * SIGNATURE_SIZE) - 1;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  @Nullable private static volatile FaceSignatureIndex instance;
+
+  // Held while the shared index is loaded, and by DatabaseHelper while it commits new samples and
+  // adds them to the index, so that each sample is either read by the load or added afterwards.
+  static final Object loadLock = new Object();
+
+  private final Object lock = new Object();
+
+  // ------------------------------- Raw samples ------------------------------------------------
+  // Float rows of the samples, unused while quantizedSamples is set.
+  @GuardedBy("lock")
+  private float[] signatures = new float[INITIAL_CAPACITY * SIGNATURE_SIZE];
+
+  @GuardedBy("lock")
+  @Nullable
+  private QuantizedSignatureStore quantizedSamples;
+
+  // The sample being added, before it is stored in either form.
+  @GuardedBy("lock")
+  private final float[] incoming = new float[SIGNATURE_SIZE];
+
+  // Person slot of each sample.
+  @GuardedBy("lock")
+  private int[] samplePersons = new int[INITIAL_CAPACITY];
+
+  // Next sample of the same person, or -1. Links the samples of a person in insertion order.
+  @GuardedBy("lock")
+  private int[] nextSamples = new int[INITIAL_CAPACITY];
+
+  @GuardedBy("lock")
+  private int size;
+
+  // ------------------------------- Persons ----------------------------------------------------
+  @GuardedBy("lock")
+  private final Map<Long, Integer> personSlots = new HashMap<>();
+
+  @GuardedBy("lock")
+  private long[] personIds = new long[INITIAL_CAPACITY];
+
+  @GuardedBy("lock")
+  private String[] personNames = new String[INITIAL_CAPACITY];
+
+  @GuardedBy("lock")
+  private int[] sampleCounts = new int[INITIAL_CAPACITY];
+
+  @GuardedBy("lock")
+  private int[] firstSamples = new int[INITIAL_CAPACITY];
+
+  @GuardedBy("lock")
+  private int[] lastSamples = new int[INITIAL_CAPACITY];
+
+  @GuardedBy("lock")
+  private float[] centroids = new float[INITIAL_CAPACITY * SIGNATURE_SIZE];
+
+  @GuardedBy("lock")
+  private float[] variances = new float[INITIAL_CAPACITY * SIGNATURE_SIZE];
+
+  @GuardedBy("lock")
+  private int personCount;
+
+  // ------------------------------- Matching ---------------------------------------------------
+  @GuardedBy("lock")
+  private FaceMatcher matcher = new FaceMatcher(SIGNATURE_SIZE, DistanceMetric.THRESHOLD_COUNT);
+
+  @GuardedBy("lock")
+  private final FaceMatcher centroidMatcher = new FaceMatcher(SIGNATURE_SIZE, CENTROID_METRIC);
+
+  @GuardedBy("lock")
+  private float maxMatchDistance = DEFAULT_MAX_MATCH_DISTANCE;
+
+  @GuardedBy("lock")
+  private int candidatePersons = DEFAULT_CANDIDATE_PERSONS;
+
+  @GuardedBy("lock")
+  private final MatchResults candidates = new MatchResults(DEFAULT_CANDIDATE_PERSONS);
+
+  @GuardedBy("lock")
+  private final MatchResults nearest = new MatchResults(1);
+
+  // ------------------------------- Mapped gallery ---------------------------------------------
+  @GuardedBy("lock")
+  @Nullable
+  private MappedFaceGallery gallery;
+
+  @GuardedBy("lock")
+  private final FaceMatcher galleryCentroidMatcher =
+      new FaceMatcher(SIGNATURE_SIZE, CENTROID_METRIC);
+
+  @GuardedBy("lock")
+  private final MatchResults galleryCandidates = new MatchResults(DEFAULT_CANDIDATE_PERSONS);
+
+  @GuardedBy("lock")
+  private final MatchResults galleryNearest = new MatchResults(1);
+
+  private FaceSignatureIndex() {}
+
+  /** Returns the shared index, loading it from the face database on first use. */
+  public static FaceSignatureIndex getInstance(Context context) {
+    FaceSignatureIndex result = instance;
+    if (result == null) {
+      synchronized (loadLock) {
+        result = instance;
+        if (result == null) {
+          Context applicationContext = context.getApplicationContext();
+          result = new FaceSignatureIndex();
+          new DatabaseHelper(applicationContext).loadInto(result);
+          if (result.size() >= DEFAULT_QUANTIZE_THRESHOLD) {
+            result.setQuantized(true);
+          }
+          result.mapGallery(galleryFile(applicationContext));
+          instance = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  private static File galleryFile(Context context) {
+    return new File(context.getFilesDir(), FaceGalleryFile.DEFAULT_FILE_NAME);
+  }
+
+  /** Returns the shared index if it has already been loaded, or null otherwise. */
+  @Nullable
+  static FaceSignatureIndex peekInstance() {
+    return instance;
+  }
+
+  /** Appends a signature to the index. The array is copied, so callers may reuse it. */
+  public void add(long personId, String name, float[] signature) {
+    synchronized (lock) {
+      System.arraycopy(signature, 0, incoming, 0, SIGNATURE_SIZE);
+      addIncoming(personId, name, /* accumulateStats= */ true);
+    }
+  }
+
+  /**
+   * Appends a signature encoded by {@link SignatureCodec} while the index is loaded, leaving the
+   * stats of its person to {@link #setEncodedPersonStats} or {@link #completePersonStats}.
+   */
+  void addEncoded(long personId, String name, byte[] blob) {
+    synchronized (lock) {
+      SignatureCodec.decode(blob, incoming, 0);
+      addIncoming(personId, name, /* accumulateStats= */ false);
+    }
+  }
+
+  /**
+   * Sets the centroid and variance of {@code personId} to the {@link SignatureCodec} blobs stored
+   * for it, which summarize {@code sampleCount} samples. Ignored for persons without samples.
+   */
+  void setEncodedPersonStats(long personId, int sampleCount, byte[] centroid, byte[] variance) {
+    synchronized (lock) {
+      Integer slot = personSlots.get(personId);
+      if (slot == null) {
+        return;
+      }
+      SignatureCodec.decode(centroid, centroids, slot * SIGNATURE_SIZE);
+      SignatureCodec.decode(variance, variances, slot * SIGNATURE_SIZE);
+      sampleCounts[slot] = sampleCount;
+      centroidMatcher.invalidate();
+    }
+  }
+
+  /**
+   * Computes the stats of the persons that {@link #setEncodedPersonStats} did not cover from their
+   * samples, which only happens if the stored stats are missing.
+   */
+  void completePersonStats() {
+    synchronized (lock) {
+      for (int slot = 0; slot < personCount; slot++) {
+        if (sampleCounts[slot] > 0) {
+          continue;
+        }
+        for (int row = firstSamples[slot]; row != -1; row = nextSamples[row]) {
+          if (quantizedSamples == null) {
+            System.arraycopy(signatures, row * SIGNATURE_SIZE, incoming, 0, SIGNATURE_SIZE);
+          } else {
+            quantizedSamples.getSignature(row, incoming, 0);
+          }
+          accumulateIncoming(slot);
+        }
+        centroidMatcher.invalidate();
+      }
+    }
+  }
+
+  /**
+   * Stores {@link #incoming} as row {@code size} and attaches it to its person, folding it into the
+   * person's stats if {@code accumulateStats} is set.
+   */
+  @GuardedBy("lock")
+  private void addIncoming(long personId, String name, boolean accumulateStats) {
+    ensureSampleCapacityForOneMore();
+    int row = size;
+    if (quantizedSamples == null) {
+      System.arraycopy(incoming, 0, signatures, row * SIGNATURE_SIZE, SIGNATURE_SIZE);
+    } else {
+      quantizedSamples.add(incoming, 0);
+    }
+    Integer existingSlot = personSlots.get(personId);
+    int slot;
+    if (existingSlot == null) {
+      ensurePersonCapacityForOneMore();
+      slot = personCount++;
+      personSlots.put(personId, slot);
+      personIds[slot] = personId;
+      personNames[slot] = name;
+      sampleCounts[slot] = 0;
+      firstSamples[slot] = row;
+    } else {
+      slot = existingSlot;
+      nextSamples[lastSamples[slot]] = row;
+      // An existing centroid moves, so a tree built over the centroids is no longer valid.
+      centroidMatcher.invalidate();
+    }
+    lastSamples[slot] = row;
+    samplePersons[row] = slot;
+    nextSamples[row] = -1;
+    if (accumulateStats) {
+      accumulateIncoming(slot);
+    }
+    size++;
+  }
+
+  @GuardedBy("lock")
+  private void accumulateIncoming(int slot) {
+    RunningCentroid.accumulate(
+        centroids,
+        variances,
+        slot * SIGNATURE_SIZE,
+        SIGNATURE_SIZE,
+        sampleCounts[slot],
+        incoming,
+        0);
+    sampleCounts[slot]++;
+  }
+
+  @GuardedBy("lock")
+  private void ensureSampleCapacityForOneMore() {
+    if (size < samplePersons.length) {
+      return;
+    }
+    int newCapacity = samplePersons.length * 2;
+    if (quantizedSamples == null) {
+      float[] newSignatures = new float[newCapacity * SIGNATURE_SIZE];
+      System.arraycopy(signatures, 0, newSignatures, 0, size * SIGNATURE_SIZE);
+      signatures = newSignatures;
+    }
+    int[] newSamplePersons = new int[newCapacity];
+    System.arraycopy(samplePersons, 0, newSamplePersons, 0, size);
+    samplePersons = newSamplePersons;
+    int[] newNextSamples = new int[newCapacity];
+    System.arraycopy(nextSamples, 0, newNextSamples, 0, size);
+    nextSamples = newNextSamples;
+  }
+
+  @GuardedBy("lock")
+  private void ensurePersonCapacityForOneMore() {
+    if (personCount < personIds.length) {
+      return;
+    }
+    int newCapacity = personIds.length * 2;
+    long[] newPersonIds = new long[newCapacity];
+    System.arraycopy(personIds, 0, newPersonIds, 0, personCount);
+    personIds = newPersonIds;
+    String[] newPersonNames = new String[newCapacity];
+    System.arraycopy(personNames, 0, newPersonNames, 0, personCount);
+    personNames = newPersonNames;
+    int[] newSampleCounts = new int[newCapacity];
+    System.arraycopy(sampleCounts, 0, newSampleCounts, 0, personCount);
+    sampleCounts = newSampleCounts;
+    int[] newFirstSamples = new int[newCapacity];
+    System.arraycopy(firstSamples, 0, newFirstSamples, 0, personCount);
+    firstSamples = newFirstSamples;
+    int[] newLastSamples = new int[newCapacity];
+    System.arraycopy(lastSamples, 0, newLastSamples, 0, personCount);
+    lastSamples = newLastSamples;
+    float[] newCentroids = new float[newCapacity * SIGNATURE_SIZE];
+    System.arraycopy(centroids, 0, newCentroids, 0, personCount * SIGNATURE_SIZE);
+    centroids = newCentroids;
+    float[] newVariances = new float[newCapacity * SIGNATURE_SIZE];
+    System.arraycopy(variances, 0, newVariances, 0, personCount * SIGNATURE_SIZE);
+    variances = newVariances;
+  }
+
+  /** Returns the number of enrolled signatures. */
+  public int size() {
+    synchronized (lock) {
+      return size;
+    }
+  }
+
+  /** Returns the number of enrolled persons. */
+  public int getPersonCount() {
+    synchronized (lock) {
+      return personCount;
+    }
+  }
+
+  /** Returns the number of signatures in the mapped gallery, or 0 if none is mapped. */
+  public int getGallerySize() {
+    synchronized (lock) {
+      return gallery == null ? 0 : gallery.size();
+    }
+  }
+
+  /** Returns the person name of the signature stored at {@code index}. */
+  public String getName(int index) {
+    synchronized (lock) {
+      if (index >= GALLERY_ROW_BASE) {
+        return gallery.getName(index - GALLERY_ROW_BASE);
+      }
+      return personNames[samplePersons[index]];
+    }
+  }
+
+  /**
+   * Returns the person id of the signature stored at {@code index}. Gallery persons are numbered
+   * by their position in the gallery from {@link #GALLERY_PERSON_ID_BASE}, as the ids they had on
+   * the exporting device may collide with the ones enrolled here.
+   */
+  public long getPersonId(int index) {
+    synchronized (lock) {
+      if (index >= GALLERY_ROW_BASE) {
+        return GALLERY_PERSON_ID_BASE + gallery.getPerson(index - GALLERY_ROW_BASE);
+      }
+      return personIds[samplePersons[index]];
+    }
+  }
+
+  /**
+   * Copies the centroid and per-dimension variance of {@code personId} into the given arrays.
+   * Returns the number of samples they summarize, or 0 if the person is unknown.
+   */
+  public int getPersonStats(long personId, float[] centroid, float[] variance) {
+    synchronized (lock) {
+      Integer slot = personSlots.get(personId);
+      if (slot == null) {
+        return 0;
+      }
+      System.arraycopy(centroids, slot * SIGNATURE_SIZE, centroid, 0, SIGNATURE_SIZE);
+      System.arraycopy(variances, slot * SIGNATURE_SIZE, variance, 0, SIGNATURE_SIZE);
+      return sampleCounts[slot];
+    }
+  }
+
+  /**
+   * Changes how samples are compared. {@code maxMatchDistance} is the largest distance, in units of
+   * {@code metric}, at which {@link #findNearest} still reports a match. Centroids keep being
+   * ranked by {@link #CENTROID_METRIC}.
+   */
+  public void setMetric(DistanceMetric metric, float maxMatchDistance) {
+    synchronized (lock) {
+      matcher = new FaceMatcher(SIGNATURE_SIZE, metric);
+      this.maxMatchDistance = maxMatchDistance;
+    }
+  }
+
+  /** Sets how many persons, ranked by centroid, have their samples compared by findNearest. */
+  public void setCandidatePersons(int candidatePersons) {
+    synchronized (lock) {
+      this.candidatePersons = candidatePersons;
+    }
+  }
+
+  /**
+   * Returns the index of the enrolled signature nearest to {@code query}, or {@link #NO_MATCH} if
+   * even that one is further than the maximum match distance.
+   *
+   * <p>Only the samples of the persons whose centroids are nearest to {@code query} are compared,
+   * which costs about one comparison per person instead of one per sample, and a logarithmic number
+   * of them once the centroids are searched through a tree. A mapped gallery is prefiltered the
+   * same way by the centroids of its own persons.
+   */
+  public int findNearest(float[] query) {
+    synchronized (lock) {
+      centroidMatcher.search(centroids, personCount, query, candidatePersons, candidates);
+      DistanceMetric metric = matcher.getMetric();
+      if (quantizedSamples == null) {
+        nearest.reset(1);
+        for (int c = 0; c < candidates.size(); c++) {
+          int slot = candidates.getRow(c);
+          for (int row = firstSamples[slot]; row != -1; row = nextSamples[row]) {
+            float distance =
+                metric.distance(
+                    query,
+                    0,
+                    signatures,
+                    row * SIGNATURE_SIZE,
+                    SIGNATURE_SIZE,
+                    nearest.worstDistance());
+            nearest.offer(row, distance);
+          }
+        }
+      } else {
+        quantizedSamples.prepareQuery(query);
+        DistanceMetric shortlistMetric = QuantizedSignatureStore.getShortlistMetric(metric);
+        MatchResults shortlist = quantizedSamples.getShortlist();
+        shortlist.reset(QuantizedSignatureStore.DEFAULT_RERANK_FACTOR);
+        for (int c = 0; c < candidates.size(); c++) {
+          int slot = candidates.getRow(c);
+          for (int row = firstSamples[slot]; row != -1; row = nextSamples[row]) {
+            shortlist.offer(row, quantizedSamples.approximateDistance(shortlistMetric, row));
+          }
+        }
+        quantizedSamples.rerank(metric, query, 1, nearest);
+      }
+      int best = nearest.size() == 0 ? NO_MATCH : nearest.getRow(0);
+      float bestDistance = nearest.size() == 0 ? Float.MAX_VALUE : nearest.getDistance(0);
+      if (gallery != null) {
+        galleryCentroidMatcher.search(
+            gallery.getCentroids(),
+            gallery.getPersonCount(),
+            query,
+            candidatePersons,
+            galleryCandidates);
+        galleryNearest.reset(1);
+        for (int c = 0; c < galleryCandidates.size(); c++) {
+          gallery.scanPerson(galleryCandidates.getRow(c), query, metric, galleryNearest);
+        }
+        if (galleryNearest.size() > 0 && galleryNearest.getDistance(0) < bestDistance) {
+          best = GALLERY_ROW_BASE + galleryNearest.getRow(0);
+          bestDistance = galleryNearest.getDistance(0);
+        }
+      }
+      return bestDistance > maxMatchDistance ? NO_MATCH : best;
+    }
+  }
+
+  /**
+   * Replaces the content of {@code results} with the {@code k} signatures nearest to a query,
+   * comparing against every sample.
+   */
+  public void search(float[] query, int k, MatchResults results) {
+    synchronized (lock) {
+      if (quantizedSamples == null) {
+        matcher.search(signatures, size, query, k, results);
+      } else {
+        quantizedSamples.search(
+            matcher.getMetric(),
+            query,
+            k,
+            QuantizedSignatureStore.DEFAULT_RERANK_FACTOR,
+            results);
+      }
+    }
+  }
+
+  /**
+   * Switches between storing samples as float rows and as int8 rows in a {@link
+   * QuantizedSignatureStore}, converting the samples already held. Quantized samples take 56
+   * instead of 144 bytes each; matches are shortlisted on the int8 rows, by L2 unless the metric
+   * is cosine, and re-ranked against the float query with the configured metric. Switching back
+   * to float keeps the quantization error of the converted samples.
+   */
+  public void setQuantized(boolean quantized) {
+    synchronized (lock) {
+      if (quantized == (quantizedSamples != null)) {
+        return;
+      }
+      if (quantized) {
+        QuantizedSignatureStore store = new QuantizedSignatureStore(SIGNATURE_SIZE);
+        for (int row = 0; row < size; row++) {
+          store.add(signatures, row * SIGNATURE_SIZE);
+        }
+        quantizedSamples = store;
+        signatures = new float[0];
+      } else {
+        signatures = new float[samplePersons.length * SIGNATURE_SIZE];
+        for (int row = 0; row < size; row++) {
+          quantizedSamples.getSignature(row, signatures, row * SIGNATURE_SIZE);
+        }
+        quantizedSamples = null;
+      }
+      matcher.invalidate();
+    }
+  }
+
+  /** Whether samples are currently stored quantized. */
+  public boolean isQuantized() {
+    synchronized (lock) {
+      return quantizedSamples != null;
+    }
+  }
+
+  /**
+   * Writes every enrolled sample as a gallery file that other devices can import with {@link
+   * #importGallery}. The gallery is encoded under the lock and written to {@code out} after it is
+   * released, so a slow destination never stalls recognition. Does file I/O; call off the main
+   * thread.
+   *
+   * @param encoding {@link FaceGalleryFile#ENCODING_FLOAT32} or {@link
+   *     FaceGalleryFile#ENCODING_INT8}
+   */
+  public void exportGallery(OutputStream out, int encoding) throws IOException {
+    ByteBuffer encoded;
+    synchronized (lock) {
+      float[] rows = signatures;
+      if (quantizedSamples != null) {
+        rows = new float[size * SIGNATURE_SIZE];
+        for (int row = 0; row < size; row++) {
+          quantizedSamples.getSignature(row, rows, row * SIGNATURE_SIZE);
+        }
+      }
+      encoded =
+          FaceGalleryFile.encode(
+              encoding,
+              SIGNATURE_SIZE,
+              personIds,
+              personNames,
+              personCount,
+              samplePersons,
+              rows,
+              size);
+    }
+    out.write(encoded.array(), 0, encoded.limit());
+    out.flush();
+  }
+
+  /**
+   * Copies a gallery file into the app's files directory and starts matching against it. The
+   * gallery replaces any previously imported one and is mapped again on the next start. Does file
+   * I/O; call off the main thread.
+   */
+  public void importGallery(Context context, InputStream source) throws IOException {
+    File target = galleryFile(context);
+    File tmpFile = new File(target.getPath() + ".import");
+    try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+      byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = source.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      out.getFD().sync();
+    }
+    // Validate before replacing the current gallery.
+    MappedFaceGallery imported;
+    try {
+      imported = FaceGalleryFile.map(tmpFile);
+    } catch (IOException e) {
+      tmpFile.delete();
+      throw e;
+    }
+    if (imported.getDimension() != SIGNATURE_SIZE) {
+      tmpFile.delete();
+      throw new IOException("Gallery signatures have " + imported.getDimension() + " components");
+    }
+    synchronized (lock) {
+      if (!tmpFile.renameTo(target)) {
+        tmpFile.delete();
+        throw new IOException("Failed to move gallery into place: " + target);
+      }
+      gallery = imported;
+      galleryCentroidMatcher.invalidate();
+    }
+  }
+
+  private void mapGallery(File file) {
+    if (!file.exists()) {
+      return;
+    }
+    try {
+      MappedFaceGallery mapped = FaceGalleryFile.map(file);
+      if (mapped.getDimension() != SIGNATURE_SIZE) {
+        Log.w(TAG, "Ignoring face gallery with dimension " + mapped.getDimension());
+        return;
+      }
+      synchronized (lock) {
+        gallery = mapped;
+        galleryCentroidMatcher.invalidate();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to map face gallery " + file, e);
+    }
+  }
+}
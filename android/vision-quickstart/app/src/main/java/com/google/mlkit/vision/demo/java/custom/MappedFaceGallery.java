@@ -0,0 +1,192 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * A read-only face gallery backed by a memory-mapped {@link FaceGalleryFile}.
+ *
+ * <p>Signatures stay in the mapping and are read one row at a time while searching. Person names
+ * are decoded the first time they are asked for. The per-person centroids used to prefilter a
+ * search are read from the file, so mapping a gallery costs time in the number of persons, not of
+ * samples. Not thread safe; {@link FaceSignatureIndex} serializes access.
+ */
+public final class MappedFaceGallery {
+
+  private final ByteBuffer buffer;
+  private final int encoding;
+  private final int dimension;
+  private final int personCount;
+  private final int sampleCount;
+  private final int namesOffset;
+  private final FloatBuffer floatMatrix;
+  private final FloatBuffer scales;
+  private final FloatBuffer offsets;
+  private final ByteBuffer quantizedMatrix;
+  private final String[] names;
+  private final float[] row;
+  private final byte[] quantizedRow;
+
+  // Mean signature of each person, and the rows [firstRows[p], firstRows[p + 1]) of person p.
+  private final float[] centroids;
+  private final int[] firstRows;
+
+  MappedFaceGallery(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.capacity() < FaceGalleryFile.HEADER_SIZE
+        || buffer.getInt(0) != FaceGalleryFile.MAGIC) {
+      throw new IOException("Not a face gallery file");
+    }
+    int version = buffer.getInt(4);
+    if (version != FaceGalleryFile.VERSION) {
+      throw new IOException("Unsupported face gallery version: " + version);
+    }
+    encoding = buffer.getInt(8);
+    dimension = buffer.getInt(12);
+    personCount = buffer.getInt(16);
+    sampleCount = buffer.getInt(20);
+    namesOffset = buffer.getInt(24);
+    int centroidsOffset = buffer.getInt(28);
+    int matrixOffset = buffer.getInt(32);
+
+    int matrixSize;
+    if (encoding == FaceGalleryFile.ENCODING_FLOAT32) {
+      matrixSize = sampleCount * dimension * 4;
+    } else if (encoding == FaceGalleryFile.ENCODING_INT8) {
+      matrixSize = sampleCount * (8 + dimension);
+    } else {
+      throw new IOException("Unknown face gallery encoding: " + encoding);
+    }
+    if ((long) matrixOffset + matrixSize > buffer.capacity()
+        || (long) centroidsOffset + (long) personCount * dimension * 4 > matrixOffset) {
+      throw new IOException("Truncated face gallery file");
+    }
+
+    if (encoding == FaceGalleryFile.ENCODING_FLOAT32) {
+      floatMatrix = slice(matrixOffset, matrixSize).asFloatBuffer();
+      scales = null;
+      offsets = null;
+      quantizedMatrix = null;
+    } else {
+      floatMatrix = null;
+      scales = slice(matrixOffset, sampleCount * 4).asFloatBuffer();
+      offsets = slice(matrixOffset + sampleCount * 4, sampleCount * 4).asFloatBuffer();
+      quantizedMatrix = slice(matrixOffset + sampleCount * 8, sampleCount * dimension);
+    }
+    names = new String[personCount];
+    row = new float[dimension];
+    quantizedRow = new byte[dimension];
+
+    centroids = new float[personCount * dimension];
+    slice(centroidsOffset, centroids.length * 4).asFloatBuffer().get(centroids);
+    firstRows = new int[personCount + 1];
+    for (int person = 0; person < personCount; person++) {
+      int recordOffset = personRecordOffset(person);
+      int count = buffer.getInt(recordOffset + 20);
+      if (buffer.getInt(recordOffset + 16) != firstRows[person] || count < 0) {
+        throw new IOException("Corrupt face gallery file");
+      }
+      firstRows[person + 1] = firstRows[person] + count;
+    }
+    if (firstRows[personCount] != sampleCount) {
+      throw new IOException("Corrupt face gallery file");
+    }
+  }
+
+  private ByteBuffer slice(int offset, int length) {
+    ByteBuffer duplicate = buffer.duplicate();
+    duplicate.position(offset);
+    duplicate.limit(offset + length);
+    return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public int getDimension() {
+    return dimension;
+  }
+
+  public int getEncoding() {
+    return encoding;
+  }
+
+  /** Returns the number of signatures in the gallery. */
+  public int size() {
+    return sampleCount;
+  }
+
+  public int getPersonCount() {
+    return personCount;
+  }
+
+  /** Returns the id the person of the signature at {@code row} had on the exporting device. */
+  public long getPersonId(int row) {
+    return buffer.getLong(personRecordOffset(getPerson(row)));
+  }
+
+  /** Returns the position in the gallery of the person the signature at {@code row} belongs to. */
+  public int getPerson(int row) {
+    // The last person whose rows start at or before row; persons without samples share the first
+    // row of the next person and are skipped.
+    int lo = 0;
+    int hi = personCount - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (firstRows[mid] <= row) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Returns the mean signature of every person, {@link #getPersonCount} rows of {@link
+   * #getDimension} components. Must not be modified.
+   */
+  public float[] getCentroids() {
+    return centroids;
+  }
+
+  /** Returns the name of the person the signature at {@code row} belongs to. */
+  public String getName(int row) {
+    int person = getPerson(row);
+    String name = names[person];
+    if (name == null) {
+      int recordOffset = personRecordOffset(person);
+      byte[] bytes = new byte[buffer.getInt(recordOffset + 12)];
+      ByteBuffer duplicate = buffer.duplicate();
+      duplicate.position(namesOffset + buffer.getInt(recordOffset + 8));
+      duplicate.get(bytes);
+      name = new String(bytes, FaceGalleryFile.UTF_8);
+      names[person] = name;
+    }
+    return name;
+  }
+
+  private static int personRecordOffset(int person) {
+    return FaceGalleryFile.HEADER_SIZE + person * FaceGalleryFile.PERSON_RECORD_SIZE;
+  }
+
+  /** Copies the signature at {@code index}, dequantized if needed, into {@code out}. */
+  public void getSignature(int index, float[] out) {
+    if (floatMatrix != null) {
+      floatMatrix.position(index * dimension);
+      floatMatrix.get(out, 0, dimension);
+    } else {
+      quantizedMatrix.position(index * dimension);
+      quantizedMatrix.get(quantizedRow, 0, dimension);
+      SignatureQuantizer.dequantize(
+          quantizedRow, 0, dimension, scales.get(index), offsets.get(index), out);
+    }
+  }
+
+  /** Offers every signature of the person at position {@code person} to {@code results}. */
+  public void scanPerson(int person, float[] query, DistanceMetric metric, MatchResults results) {
+    for (int i = firstRows[person]; i < firstRows[person + 1]; i++) {
+      getSignature(i, row);
+      results.offer(i, metric.distance(query, 0, row, 0, dimension, results.worstDistance()));
+    }
+  }
+}
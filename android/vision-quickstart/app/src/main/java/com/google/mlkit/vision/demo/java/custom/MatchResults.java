@@ -0,0 +1,69 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+/**
+ * The best {@code k} (row, distance) pairs of a search, sorted from nearest to furthest.
+ *
+ * <p>Instances are meant to be reused across frames; {@link #reset} never allocates unless a
+ * larger {@code k} than ever before is requested.
+ */
+public final class MatchResults {
+
+  private int[] rows;
+  private float[] distances;
+  private int capacity;
+  private int size;
+
+  public MatchResults(int k) {
+    rows = new int[k];
+    distances = new float[k];
+    capacity = k;
+  }
+
+  /** Empties the results and sets how many entries they keep. */
+  public void reset(int k) {
+    if (k > rows.length) {
+      rows = new int[k];
+      distances = new float[k];
+    }
+    capacity = k;
+    size = 0;
+  }
+
+  /** Returns the number of entries held, at most the {@code k} passed to {@link #reset}. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the row of the {@code i}-th nearest entry. */
+  public int getRow(int i) {
+    return rows[i];
+  }
+
+  /** Returns the distance of the {@code i}-th nearest entry. */
+  public float getDistance(int i) {
+    return distances[i];
+  }
+
+  /**
+   * Returns the distance a new entry has to beat to be kept, which is infinite until the results
+   * are full.
+   */
+  public float worstDistance() {
+    return size < capacity ? Float.POSITIVE_INFINITY : distances[size - 1];
+  }
+
+  /** Keeps {@code row} if it is nearer than the current worst entry. */
+  public void offer(int row, float distance) {
+    if (capacity == 0 || distance >= worstDistance()) {
+      return;
+    }
+    int i = size < capacity ? size++ : size - 1;
+    while (i > 0 && distances[i - 1] > distance) {
+      rows[i] = rows[i - 1];
+      distances[i] = distances[i - 1];
+      i--;
+    }
+    rows[i] = row;
+    distances[i] = distance;
+  }
+}
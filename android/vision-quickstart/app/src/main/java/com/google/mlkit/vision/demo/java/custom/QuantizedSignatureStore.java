@@ -0,0 +1,228 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+/**
+ * Face signatures stored as int8 components with one scale and offset per signature, 56 bytes per
+ * signature instead of the 144 of the float rows {@link FaceSignatureIndex} keeps by default.
+ *
+ * <p>Searching is done in two passes. Every row is first scored with {@link #approximateDistance},
+ * which reads the codes without dequantizing the row: the query is quantized the same way and the
+ * only per-component work is an integer dot product, combined with norms precomputed when the row
+ * was added. The best few rows are then re-ranked with {@link #distance}, which compares the float
+ * query against the row. Only {@link DistanceMetric#L2} and {@link DistanceMetric#COSINE} can be
+ * scored on the codes; rows searched by any other metric are shortlisted by L2, see {@link
+ * #getShortlistMetric}.
+ *
+ * <p>Not thread safe: callers must serialize access, as {@link FaceSignatureIndex} does.
+ */
+public final class QuantizedSignatureStore {
+
+  /** Number of rows per requested result that are re-ranked in float by {@link #search}. */
+  public static final int DEFAULT_RERANK_FACTOR = 8;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final int dimension;
+
+  private byte[] codes;
+  private float[] scales;
+  private float[] offsets;
+  // Sum of the codes of each row, and squared norm of the dequantized row.
+  private int[] codeSums;
+  private double[] squaredNorms;
+  private int size;
+
+  // Scratch state for the query being searched, set by prepareQuery.
+  private final byte[] queryCodes;
+  private final float[] queryScale = new float[1];
+  private final float[] queryOffset = new float[1];
+  private int queryCodeSum;
+  private double querySquaredNorm;
+
+  private final float[] row;
+  private final MatchResults shortlist = new MatchResults(DEFAULT_RERANK_FACTOR);
+
+  public QuantizedSignatureStore(int dimension) {
+    this.dimension = dimension;
+    codes = new byte[INITIAL_CAPACITY * dimension];
+    scales = new float[INITIAL_CAPACITY];
+    offsets = new float[INITIAL_CAPACITY];
+    codeSums = new int[INITIAL_CAPACITY];
+    squaredNorms = new double[INITIAL_CAPACITY];
+    queryCodes = new byte[dimension];
+    row = new float[dimension];
+  }
+
+  public int getDimension() {
+    return dimension;
+  }
+
+  /** Returns the number of stored signatures. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the approximate number of bytes used per stored signature. */
+  public int bytesPerRow() {
+    return dimension + 20;
+  }
+
+  /** Quantizes {@code dimension} components of {@code signature} from {@code offset} as a row. */
+  public void add(float[] signature, int offset) {
+    if (size == scales.length) {
+      grow();
+    }
+    int base = size * dimension;
+    SignatureQuantizer.quantize(signature, offset, dimension, codes, base, scales, offsets, size);
+    codeSums[size] = codeSum(codes, base, dimension);
+    squaredNorms[size] = squaredNorm(codes, base, dimension, scales[size], offsets[size]);
+    size++;
+  }
+
+  private void grow() {
+    int newCapacity = scales.length * 2;
+    byte[] newCodes = new byte[newCapacity * dimension];
+    System.arraycopy(codes, 0, newCodes, 0, size * dimension);
+    codes = newCodes;
+    float[] newScales = new float[newCapacity];
+    System.arraycopy(scales, 0, newScales, 0, size);
+    scales = newScales;
+    float[] newOffsets = new float[newCapacity];
+    System.arraycopy(offsets, 0, newOffsets, 0, size);
+    offsets = newOffsets;
+    int[] newCodeSums = new int[newCapacity];
+    System.arraycopy(codeSums, 0, newCodeSums, 0, size);
+    codeSums = newCodeSums;
+    double[] newSquaredNorms = new double[newCapacity];
+    System.arraycopy(squaredNorms, 0, newSquaredNorms, 0, size);
+    squaredNorms = newSquaredNorms;
+  }
+
+  /** Copies the dequantized signature at {@code index} into {@code out} at {@code outOffset}. */
+  public void getSignature(int index, float[] out, int outOffset) {
+    int base = index * dimension;
+    float scale = scales[index];
+    float offset = offsets[index];
+    for (int i = 0; i < dimension; i++) {
+      out[outOffset + i] = offset + scale * codes[base + i];
+    }
+  }
+
+  /** Quantizes {@code query} for the following {@link #approximateDistance} calls. */
+  public void prepareQuery(float[] query) {
+    SignatureQuantizer.quantize(query, 0, dimension, queryCodes, 0, queryScale, queryOffset, 0);
+    queryCodeSum = codeSum(queryCodes, 0, dimension);
+    querySquaredNorm = squaredNorm(queryCodes, 0, dimension, queryScale[0], queryOffset[0]);
+  }
+
+  /**
+   * Returns the metric rows are shortlisted by when they are searched by {@code metric}: the metric
+   * itself if {@link #approximateDistance} supports it, and {@link DistanceMetric#L2} otherwise.
+   * {@link DistanceMetric#THRESHOLD_COUNT} counts components against a fixed gap, which cannot be
+   * evaluated without dequantizing every component.
+   */
+  public static DistanceMetric getShortlistMetric(DistanceMetric metric) {
+    return metric == DistanceMetric.COSINE ? DistanceMetric.COSINE : DistanceMetric.L2;
+  }
+
+  /**
+   * Returns the distance under {@code metric} between the query passed to {@link #prepareQuery}
+   * and row {@code index}, computed on the quantized components.
+   *
+   * @param metric {@link DistanceMetric#L2} or {@link DistanceMetric#COSINE}
+   */
+  public float approximateDistance(DistanceMetric metric, int index) {
+    switch (metric) {
+      case L2:
+        return (float) Math.sqrt(Math.max(0, approximateSquaredL2(index)));
+      case COSINE:
+        double norms = querySquaredNorm * squaredNorms[index];
+        return norms == 0 ? 1f : (float) (1 - approximateDot(index) / Math.sqrt(norms));
+      default:
+        throw new IllegalArgumentException("Unsupported metric: " + metric);
+    }
+  }
+
+  private double approximateSquaredL2(int index) {
+    return querySquaredNorm + squaredNorms[index] - 2 * approximateDot(index);
+  }
+
+  // (qo + qs * qc) . (o + s * c), expanded so that the only per-component work is the integer dot
+  // product of the codes.
+  private double approximateDot(int index) {
+    int base = index * dimension;
+    int codeDot = 0;
+    for (int i = 0; i < dimension; i++) {
+      codeDot += queryCodes[i] * codes[base + i];
+    }
+    double queryScale = this.queryScale[0];
+    double queryOffset = this.queryOffset[0];
+    double scale = scales[index];
+    double offset = offsets[index];
+    return dimension * queryOffset * offset
+        + queryOffset * scale * codeSums[index]
+        + offset * queryScale * queryCodeSum
+        + queryScale * scale * codeDot;
+  }
+
+  /**
+   * Returns the distance under {@code metric} between the float {@code query} and row {@code
+   * index}, with the same early-abandon contract as {@link DistanceMetric#distance}.
+   */
+  public float distance(DistanceMetric metric, float[] query, int index, float bound) {
+    getSignature(index, row, 0);
+    return metric.distance(query, 0, row, 0, dimension, bound);
+  }
+
+  /**
+   * Replaces the content of {@code results} with the {@code k} rows nearest to {@code query}: the
+   * best {@code k * rerankFactor} rows by {@link #approximateDistance}, under the {@link
+   * #getShortlistMetric} of {@code metric}, are re-ranked by {@link #distance}.
+   */
+  public void search(
+      DistanceMetric metric, float[] query, int k, int rerankFactor, MatchResults results) {
+    prepareQuery(query);
+    DistanceMetric shortlistMetric = getShortlistMetric(metric);
+    shortlist.reset(k * rerankFactor);
+    for (int i = 0; i < size; i++) {
+      shortlist.offer(i, approximateDistance(shortlistMetric, i));
+    }
+    rerank(metric, query, k, results);
+  }
+
+  /**
+   * Re-ranks the rows of {@link #getShortlist} in float into {@code results}, keeping {@code k}.
+   */
+  public void rerank(DistanceMetric metric, float[] query, int k, MatchResults results) {
+    results.reset(k);
+    for (int i = 0; i < shortlist.size(); i++) {
+      int index = shortlist.getRow(i);
+      results.offer(index, distance(metric, query, index, results.worstDistance()));
+    }
+  }
+
+  /**
+   * Returns the candidate list {@link #rerank} reads, for callers that choose the rows to score
+   * themselves.
+   */
+  public MatchResults getShortlist() {
+    return shortlist;
+  }
+
+  private static int codeSum(byte[] codes, int offset, int dimension) {
+    int sum = 0;
+    for (int i = 0; i < dimension; i++) {
+      sum += codes[offset + i];
+    }
+    return sum;
+  }
+
+  private static double squaredNorm(
+      byte[] codes, int offset, int dimension, float scale, float vectorOffset) {
+    double sum = 0;
+    for (int i = 0; i < dimension; i++) {
+      double x = vectorOffset + scale * codes[offset + i];
+      sum += x * x;
+    }
+    return sum;
+  }
+}
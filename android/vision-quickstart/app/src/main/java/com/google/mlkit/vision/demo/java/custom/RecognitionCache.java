@@ -0,0 +1,310 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Remembers who each tracked face is, so that a face seen on consecutive frames is not matched
+ * against the gallery every frame and its displayed name does not flicker.
+ *
+ * <p>Faces are associated with tracks by the tracking id reported by the face detector or, for
+ * faces without one such as those of face mesh, by bounding-box overlap with the tracks of the
+ * previous frames. Each track keeps the results of its last few matches; the displayed identity
+ * is the majority of that window, once it has at least the configured number of votes. A confirmed
+ * identity is reused without matching until it is older than the configured TTL or until the face
+ * signature drifts too far from the one last matched.
+ *
+ * <p>All state lives in preallocated arrays. Not thread safe; call from the thread that handles
+ * detection results.
+ */
+public final class RecognitionCache {
+
+  /** Person id recorded for a match that found nobody. */
+  public static final long UNKNOWN_PERSON = -1;
+
+  /** Returned by the associate methods when every track slot is in use this frame. */
+  public static final int NO_TRACK = -1;
+
+  /** Tracking id of a face the detector does not track, associated by bounding-box overlap. */
+  public static final int NO_TRACKING_ID = Integer.MIN_VALUE;
+
+  public static final int DEFAULT_MAX_TRACKS = 8;
+  public static final long DEFAULT_IDENTITY_TTL_MS = 1000;
+  public static final long DEFAULT_TRACK_EXPIRY_MS = 500;
+  public static final int DEFAULT_VOTE_WINDOW = 5;
+  public static final int DEFAULT_MIN_VOTES = 2;
+  public static final float DEFAULT_MIN_IOU = 0.3f;
+  public static final float DEFAULT_MAX_SIGNATURE_DRIFT = 8f;
+
+  private final int maxTracks;
+  private final int signatureSize;
+  private final long identityTtlMs;
+  private final long trackExpiryMs;
+  private final int voteWindow;
+  private final int minVotes;
+  private final float minIou;
+  private final float maxSignatureDrift;
+
+  private final boolean[] active;
+  private final boolean[] seenThisFrame;
+  private final int[] trackingIds;
+  private final long[] lastSeenMs;
+  private final float[] boxes;
+  private final float[] matchedSignatures;
+  private final long[] lastMatchMs;
+  private final long[] votePersonIds;
+  private final String[] voteNames;
+  private final int[] voteCounts;
+  private final int[] voteHeads;
+  private final long[] confirmedPersonIds;
+  private final String[] confirmedNames;
+
+  private int hits;
+  private int misses;
+
+  public RecognitionCache(int signatureSize) {
+    this(
+        signatureSize,
+        DEFAULT_MAX_TRACKS,
+        DEFAULT_IDENTITY_TTL_MS,
+        DEFAULT_TRACK_EXPIRY_MS,
+        DEFAULT_VOTE_WINDOW,
+        DEFAULT_MIN_VOTES,
+        DEFAULT_MIN_IOU,
+        DEFAULT_MAX_SIGNATURE_DRIFT);
+  }
+
+  /**
+   * @param identityTtlMs how long a confirmed identity is reused before the face is matched again
+   * @param trackExpiryMs how long a track survives without being seen
+   * @param voteWindow number of recent matches the identity is voted from
+   * @param minVotes number of matches an identity needs before it is confirmed
+   * @param minIou minimum bounding-box intersection over union to continue a track
+   * @param maxSignatureDrift L2 distance from the last matched signature that forces a new match
+   */
+  public RecognitionCache(
+      int signatureSize,
+      int maxTracks,
+      long identityTtlMs,
+      long trackExpiryMs,
+      int voteWindow,
+      int minVotes,
+      float minIou,
+      float maxSignatureDrift) {
+    this.signatureSize = signatureSize;
+    this.maxTracks = maxTracks;
+    this.identityTtlMs = identityTtlMs;
+    this.trackExpiryMs = trackExpiryMs;
+    this.voteWindow = voteWindow;
+    this.minVotes = minVotes;
+    this.minIou = minIou;
+    this.maxSignatureDrift = maxSignatureDrift;
+    active = new boolean[maxTracks];
+    seenThisFrame = new boolean[maxTracks];
+    trackingIds = new int[maxTracks];
+    lastSeenMs = new long[maxTracks];
+    boxes = new float[4 * maxTracks];
+    matchedSignatures = new float[signatureSize * maxTracks];
+    lastMatchMs = new long[maxTracks];
+    votePersonIds = new long[voteWindow * maxTracks];
+    voteNames = new String[voteWindow * maxTracks];
+    voteCounts = new int[maxTracks];
+    voteHeads = new int[maxTracks];
+    confirmedPersonIds = new long[maxTracks];
+    confirmedNames = new String[maxTracks];
+  }
+
+  /** Starts a new frame: expires tracks that have not been seen for a while. */
+  public void beginFrame(long nowMs) {
+    for (int t = 0; t < maxTracks; t++) {
+      seenThisFrame[t] = false;
+      if (active[t] && nowMs - lastSeenMs[t] > trackExpiryMs) {
+        active[t] = false;
+      }
+    }
+  }
+
+  /**
+   * Returns the track of the face with the given detector tracking id, creating it if needed. Faces
+   * with {@link #NO_TRACKING_ID} fall back to {@link #associate(float, float, float, float, long)}.
+   */
+  public int associate(
+      int trackingId, float left, float top, float right, float bottom, long nowMs) {
+    if (trackingId == NO_TRACKING_ID) {
+      return associate(left, top, right, bottom, nowMs);
+    }
+    int track = NO_TRACK;
+    for (int t = 0; t < maxTracks; t++) {
+      if (active[t] && trackingIds[t] == trackingId) {
+        track = t;
+        break;
+      }
+    }
+    if (track == NO_TRACK) {
+      track = startTrack(trackingId, nowMs);
+      if (track == NO_TRACK) {
+        return NO_TRACK;
+      }
+    }
+    see(track, left, top, right, bottom, nowMs);
+    return track;
+  }
+
+  /**
+   * Returns the untracked face's track whose last bounding box overlaps this one the most, or a new
+   * track if none overlaps by at least the minimum IoU. Each track is given to at most one face per
+   * frame, and tracks of faces with a tracking id are never continued by overlap.
+   */
+  public int associate(float left, float top, float right, float bottom, long nowMs) {
+    int best = NO_TRACK;
+    float bestIou = minIou;
+    for (int t = 0; t < maxTracks; t++) {
+      if (!active[t] || seenThisFrame[t] || trackingIds[t] != NO_TRACKING_ID) {
+        continue;
+      }
+      float iou = iou(t, left, top, right, bottom);
+      if (iou >= bestIou) {
+        bestIou = iou;
+        best = t;
+      }
+    }
+    if (best == NO_TRACK) {
+      best = startTrack(NO_TRACKING_ID, nowMs);
+      if (best == NO_TRACK) {
+        return NO_TRACK;
+      }
+    }
+    see(best, left, top, right, bottom, nowMs);
+    return best;
+  }
+
+  private void see(int track, float left, float top, float right, float bottom, long nowMs) {
+    seenThisFrame[track] = true;
+    lastSeenMs[track] = nowMs;
+    boxes[4 * track] = left;
+    boxes[4 * track + 1] = top;
+    boxes[4 * track + 2] = right;
+    boxes[4 * track + 3] = bottom;
+  }
+
+  /**
+   * Whether the face on {@code track} has to be matched against the gallery this frame, because
+   * its identity is not confirmed, has expired, or its signature has drifted.
+   */
+  public boolean needsMatch(int track, float[] signature, long nowMs) {
+    boolean needsMatch =
+        confirmedNames[track] == null
+            || nowMs - lastMatchMs[track] > identityTtlMs
+            || DistanceMetric.L2.distance(
+                    signature,
+                    0,
+                    matchedSignatures,
+                    track * signatureSize,
+                    signatureSize,
+                    maxSignatureDrift)
+                > maxSignatureDrift;
+    if (needsMatch) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return needsMatch;
+  }
+
+  /**
+   * Records the result of matching the face on {@code track}, and re-votes its identity.
+   *
+   * @param personId the matched person, or {@link #UNKNOWN_PERSON}
+   * @param name the name of the matched person, ignored for {@link #UNKNOWN_PERSON}
+   */
+  public void recordMatch(
+      int track, float[] signature, long personId, @Nullable String name, long nowMs) {
+    System.arraycopy(signature, 0, matchedSignatures, track * signatureSize, signatureSize);
+    lastMatchMs[track] = nowMs;
+
+    int base = track * voteWindow;
+    votePersonIds[base + voteHeads[track]] = personId;
+    voteNames[base + voteHeads[track]] = name;
+    voteHeads[track] = (voteHeads[track] + 1) % voteWindow;
+    if (voteCounts[track] < voteWindow) {
+      voteCounts[track]++;
+    }
+
+    // Majority vote over the window; ties keep the current identity. A single match is not enough
+    // to confirm an identity, one bad frame would otherwise show the wrong name.
+    int bestVotes = 0;
+    int bestIndex = -1;
+    for (int i = 0; i < voteCounts[track]; i++) {
+      int votes = 0;
+      for (int j = 0; j < voteCounts[track]; j++) {
+        if (votePersonIds[base + j] == votePersonIds[base + i]) {
+          votes++;
+        }
+      }
+      boolean isCurrent = votePersonIds[base + i] == confirmedPersonIds[track];
+      if (votes > bestVotes || (votes == bestVotes && isCurrent)) {
+        bestVotes = votes;
+        bestIndex = i;
+      }
+    }
+    if (bestVotes >= minVotes && 2 * bestVotes > voteCounts[track]) {
+      confirmedPersonIds[track] = votePersonIds[base + bestIndex];
+      confirmedNames[track] =
+          confirmedPersonIds[track] == UNKNOWN_PERSON ? "" : voteNames[base + bestIndex];
+    }
+  }
+
+  /**
+   * Returns the voted name of the face on {@code track}, an empty string if it was voted unknown,
+   * or null while no identity has enough votes yet.
+   */
+  @Nullable
+  public String getName(int track) {
+    return confirmedNames[track];
+  }
+
+  /** Returns how many {@link #needsMatch} calls could reuse the cached identity. */
+  public int getHitCount() {
+    return hits;
+  }
+
+  /** Returns how many {@link #needsMatch} calls required a gallery match. */
+  public int getMissCount() {
+    return misses;
+  }
+
+  private int startTrack(int trackingId, long nowMs) {
+    for (int t = 0; t < maxTracks; t++) {
+      if (!active[t]) {
+        active[t] = true;
+        trackingIds[t] = trackingId;
+        seenThisFrame[t] = true;
+        lastSeenMs[t] = nowMs;
+        lastMatchMs[t] = 0;
+        voteCounts[t] = 0;
+        voteHeads[t] = 0;
+        confirmedPersonIds[t] = UNKNOWN_PERSON;
+        confirmedNames[t] = null;
+        return t;
+      }
+    }
+    return NO_TRACK;
+  }
+
+  private float iou(int track, float left, float top, float right, float bottom) {
+    float trackLeft = boxes[4 * track];
+    float trackTop = boxes[4 * track + 1];
+    float trackRight = boxes[4 * track + 2];
+    float trackBottom = boxes[4 * track + 3];
+    float intersectionWidth = Math.min(right, trackRight) - Math.max(left, trackLeft);
+    float intersectionHeight = Math.min(bottom, trackBottom) - Math.max(top, trackTop);
+    if (intersectionWidth <= 0 || intersectionHeight <= 0) {
+      return 0;
+    }
+    float intersection = intersectionWidth * intersectionHeight;
+    float union =
+        (right - left) * (bottom - top)
+            + (trackRight - trackLeft) * (trackBottom - trackTop)
+            - intersection;
+    return union <= 0 ? 0 : intersection / union;
+  }
+}
@@ -0,0 +1,34 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+/**
+ * Incremental per-dimension mean and population variance of the signatures enrolled for one
+ * person, updated one sample at a time with Welford's algorithm.
+ */
+public final class RunningCentroid {
+
+  private RunningCentroid() {}
+
+  /**
+   * Folds {@code sample} into the centroid and variance stored at {@code offset} of {@code
+   * centroids} and {@code variances}, which currently summarize {@code previousCount} samples.
+   */
+  public static void accumulate(
+      float[] centroids,
+      float[] variances,
+      int offset,
+      int dimension,
+      int previousCount,
+      float[] sample,
+      int sampleOffset) {
+    int count = previousCount + 1;
+    for (int i = 0; i < dimension; i++) {
+      float x = sample[sampleOffset + i];
+      float mean = centroids[offset + i];
+      float delta = x - mean;
+      float newMean = mean + delta / count;
+      centroids[offset + i] = newMean;
+      variances[offset + i] =
+          (variances[offset + i] * previousCount + delta * (x - newMean)) / count;
+    }
+  }
+}
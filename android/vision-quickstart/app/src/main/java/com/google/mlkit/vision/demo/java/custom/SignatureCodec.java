@@ -0,0 +1,72 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Packs face signatures into little-endian float32 blobs and back, and reads the text form used by
+ * the first version of the face database.
+ */
+public final class SignatureCodec {
+
+  /** Number of bytes used by one signature component. */
+  public static final int BYTES_PER_COMPONENT = 4;
+
+  private SignatureCodec() {}
+
+  /** Encodes the first {@code dimension} components of {@code signature}. */
+  public static byte[] encode(float[] signature, int dimension) {
+    byte[] blob = new byte[dimension * BYTES_PER_COMPONENT];
+    ByteBuffer.wrap(blob)
+        .order(ByteOrder.LITTLE_ENDIAN)
+        .asFloatBuffer()
+        .put(signature, 0, dimension);
+    return blob;
+  }
+
+  /** Returns the number of components held by {@code blob}. */
+  public static int dimensionOf(byte[] blob) {
+    return blob.length / BYTES_PER_COMPONENT;
+  }
+
+  /** Decodes every component of {@code blob} into {@code out}, starting at {@code offset}. */
+  public static void decode(byte[] blob, float[] out, int offset) {
+    ByteBuffer.wrap(blob)
+        .order(ByteOrder.LITTLE_ENDIAN)
+        .asFloatBuffer()
+        .get(out, offset, dimensionOf(blob));
+  }
+
+  /**
+   * Parses a signature in the legacy {@code "[a, b, c, ...]"} text form into {@code out}. Returns
+   * false if the string does not hold exactly {@code dimension} numbers.
+   */
+  public static boolean decodeText(@Nullable String text, float[] out, int dimension) {
+    if (text == null) {
+      return false;
+    }
+    int count = 0;
+    int start = text.indexOf('[') + 1;
+    int end = text.lastIndexOf(']');
+    if (end < 0) {
+      end = text.length();
+    }
+    try {
+      while (start < end) {
+        int comma = text.indexOf(',', start);
+        if (comma < 0 || comma > end) {
+          comma = end;
+        }
+        if (count == dimension) {
+          return false;
+        }
+        out[count++] = Float.parseFloat(text.substring(start, comma).trim());
+        start = comma + 1;
+      }
+    } catch (NumberFormatException e) {
+      return false;
+    }
+    return count == dimension;
+  }
+}
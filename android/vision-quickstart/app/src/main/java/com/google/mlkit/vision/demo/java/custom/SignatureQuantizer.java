@@ -0,0 +1,51 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+/**
+ * Affine int8 quantization of face signatures with one scale and offset per vector.
+ *
+ * <p>Component {@code x} of a vector with minimum {@code min} and maximum {@code max} is stored as
+ * {@code q = round((x - min) / scale) - 128}, where {@code scale = (max - min) / 255}, and read
+ * back as {@code offset + scale * q} with {@code offset = min + 128 * scale}.
+ */
+public final class SignatureQuantizer {
+
+  private SignatureQuantizer() {}
+
+  /**
+   * Quantizes {@code dimension} components of {@code signature} starting at {@code offset} into
+   * {@code out} at {@code outOffset}, and stores the vector's scale and offset at {@code row} of
+   * {@code scales} and {@code offsets}.
+   */
+  public static void quantize(
+      float[] signature,
+      int offset,
+      int dimension,
+      byte[] out,
+      int outOffset,
+      float[] scales,
+      float[] offsets,
+      int row) {
+    float min = Float.POSITIVE_INFINITY;
+    float max = Float.NEGATIVE_INFINITY;
+    for (int i = 0; i < dimension; i++) {
+      float x = signature[offset + i];
+      min = Math.min(min, x);
+      max = Math.max(max, x);
+    }
+    float scale = max > min ? (max - min) / 255f : 1f;
+    for (int i = 0; i < dimension; i++) {
+      int q = Math.round((signature[offset + i] - min) / scale) - 128;
+      out[outOffset + i] = (byte) Math.max(-128, Math.min(127, q));
+    }
+    scales[row] = scale;
+    offsets[row] = min + 128 * scale;
+  }
+
+  /** Reverses {@link #quantize} for one vector. */
+  public static void dequantize(
+      byte[] quantized, int offset, int dimension, float scale, float vectorOffset, float[] out) {
+    for (int i = 0; i < dimension; i++) {
+      out[i] = vectorOffset + scale * quantized[offset + i];
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+/**
+ * Vantage-point tree over the rows of a signature matrix, used by {@link FaceMatcher} for large
+ * galleries.
+ *
+ * <p>The tree is stored implicitly in a permutation of row numbers: the node for range {@code [lo,
+ * hi)} keeps its vantage point at {@code lo}, the points closer than its radius in {@code [lo + 1,
+ * mid)} and the remaining ones in {@code [mid, hi)}. Small ranges are left as buckets that are
+ * scanned linearly. Only valid for metrics where {@link DistanceMetric#isTrueMetric()} is true.
+ */
+final class VpTree {
+
+  private static final int BUCKET_SIZE = 16;
+
+  private final DistanceMetric metric;
+  private final int dimension;
+  private final int[] items;
+  private final float[] radii;
+  private final int size;
+
+  /** Builds a tree over rows {@code [0, rowCount)} of {@code rows}. */
+  VpTree(float[] rows, int rowCount, int dimension, DistanceMetric metric) {
+    this.metric = metric;
+    this.dimension = dimension;
+    this.size = rowCount;
+    this.items = new int[rowCount];
+    this.radii = new float[rowCount];
+    for (int i = 0; i < rowCount; i++) {
+      items[i] = i;
+    }
+    build(rows, 0, rowCount, new float[rowCount]);
+  }
+
+  /** Returns the number of rows covered by the tree. */
+  int size() {
+    return size;
+  }
+
+  private void build(float[] rows, int lo, int hi, float[] scratch) {
+    while (hi - lo > BUCKET_SIZE) {
+      // Use the middle item as vantage point; rows are in insertion order, so this avoids always
+      // picking the oldest enrollment without needing a random source.
+      swap(items, lo, (lo + hi) >>> 1);
+      int vantageOffset = items[lo] * dimension;
+      for (int i = lo + 1; i < hi; i++) {
+        scratch[i] =
+            metric.distance(
+                rows, vantageOffset, rows, items[i] * dimension, dimension, Float.MAX_VALUE);
+      }
+      int mid = (lo + 1 + hi) >>> 1;
+      select(scratch, lo + 1, hi - 1, mid);
+      radii[lo] = scratch[mid];
+      build(rows, lo + 1, mid, scratch);
+      lo = mid;
+    }
+  }
+
+  /** Adds the nearest rows to {@code query} to {@code results}. */
+  void search(float[] rows, float[] query, MatchResults results) {
+    search(rows, query, 0, size, results);
+  }
+
+  private void search(float[] rows, float[] query, int lo, int hi, MatchResults results) {
+    if (hi - lo <= BUCKET_SIZE) {
+      for (int i = lo; i < hi; i++) {
+        int row = items[i];
+        float bound = results.worstDistance();
+        results.offer(row, metric.distance(query, 0, rows, row * dimension, dimension, bound));
+      }
+      return;
+    }
+    int vantage = items[lo];
+    float d =
+        metric.distance(query, 0, rows, vantage * dimension, dimension, Float.POSITIVE_INFINITY);
+    results.offer(vantage, d);
+    float radius = radii[lo];
+    int mid = (lo + 1 + hi) >>> 1;
+    if (d < radius) {
+      search(rows, query, lo + 1, mid, results);
+      if (d + results.worstDistance() >= radius) {
+        search(rows, query, mid, hi, results);
+      }
+    } else {
+      search(rows, query, mid, hi, results);
+      if (d - results.worstDistance() <= radius) {
+        search(rows, query, lo + 1, mid, results);
+      }
+    }
+  }
+
+  /**
+   * Partially sorts {@code items} and {@code distances} in {@code [left, right]} so that position
+   * {@code k} holds the element it would hold if the range were fully sorted by distance.
+   */
+  private void select(float[] distances, int left, int right, int k) {
+    while (right > left) {
+      float pivot = distances[(left + right) >>> 1];
+      int i = left;
+      int j = right;
+      while (i <= j) {
+        while (distances[i] < pivot) {
+          i++;
+        }
+        while (distances[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swap(distances, i, j);
+          swap(items, i, j);
+          i++;
+          j--;
+        }
+      }
+      if (k <= j) {
+        right = j;
+      } else if (k >= i) {
+        left = i;
+      } else {
+        return;
+      }
+    }
+  }
+
+  private static void swap(int[] array, int i, int j) {
+    int tmp = array[i];
+    array[i] = array[j];
+    array[j] = tmp;
+  }
+
+  private static void swap(float[] array, int i, int j) {
+    float tmp = array[i];
+    array[i] = array[j];
+    array[j] = tmp;
+  }
+}
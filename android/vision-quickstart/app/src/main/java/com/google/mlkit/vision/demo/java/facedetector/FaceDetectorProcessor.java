@@ -18,10 +18,12 @@ package com.google.mlkit.vision.demo.java.facedetector;
 
 import android.content.Context;
 import android.graphics.PointF;
+import android.graphics.Rect;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import com.google.android.gms.tasks.Task;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.DetectorRegistry;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
@@ -30,6 +32,7 @@ import com.google.mlkit.vision.face.FaceDetection;
 import com.google.mlkit.vision.face.FaceDetector;
 import com.google.mlkit.vision.face.FaceDetectorOptions;
 import com.google.mlkit.vision.face.FaceLandmark;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
@@ -40,22 +43,31 @@ public class FaceDetectorProcessor extends VisionProcessorBase<List<Face>> {
 
   private final FaceDetector detector;
 
+  // Whether the detector was given back to the registry. Activities stop their processor both
+  // when paused and when destroyed, and it must only be released once. Main thread only.
+  private boolean released;
+
   public FaceDetectorProcessor(Context context) {
     super(context);
     FaceDetectorOptions faceDetectorOptions = PreferenceUtils.getFaceDetectorOptions(context);
     Log.v(MANUAL_TESTING_LOG, "Face detector options: " + faceDetectorOptions);
-    detector = FaceDetection.getClient(faceDetectorOptions);
+    detector =
+        DetectorRegistry.getInstance()
+            .acquire(faceDetectorOptions, () -> FaceDetection.getClient(faceDetectorOptions));
   }
 
   @Override
   public void stop() {
     super.stop();
-    detector.close();
+    if (!released) {
+      released = true;
+      DetectorRegistry.getInstance().release(detector);
+    }
   }
 
   @Override
   protected Task<List<Face>> detectInImage(InputImage image) {
-    return detector.process(image);
+    return DetectorRegistry.getInstance().detect(detector, () -> detector.process(image));
   }
 
   @Override
@@ -129,6 +141,15 @@ public class FaceDetectorProcessor extends VisionProcessorBase<List<Face>> {
     }
   }
 
+  @Override
+  protected List<Rect> getRegionsOfInterest(@NonNull List<Face> faces) {
+    List<Rect> regions = new ArrayList<>(faces.size());
+    for (Face face : faces) {
+      regions.add(face.getBoundingBox());
+    }
+    return regions;
+  }
+
   @Override
   protected void onFailure(@NonNull Exception e) {
     Log.e(TAG, "Face detection failed " + e);
@@ -17,6 +17,8 @@
 package com.google.mlkit.vision.demo.java.facemeshdetector;
 
 import android.content.Context;
+import android.graphics.Rect;
+import android.os.SystemClock;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import com.google.android.gms.tasks.Task;
@@ -24,27 +26,30 @@ import com.google.android.odml.image.MlImage;
 import com.google.mlkit.vision.common.InputImage;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
-import com.google.mlkit.vision.demo.java.custom.DatabaseHelper;
-import com.google.mlkit.vision.demo.java.custom.FaceData;
+import com.google.mlkit.vision.demo.java.custom.FaceSignatureExtractor;
+import com.google.mlkit.vision.demo.java.custom.FaceSignatureIndex;
+import com.google.mlkit.vision.demo.java.custom.RecognitionCache;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 import com.google.mlkit.vision.facemesh.FaceMesh;
 import com.google.mlkit.vision.facemesh.FaceMeshDetection;
 import com.google.mlkit.vision.facemesh.FaceMeshDetector;
 import com.google.mlkit.vision.facemesh.FaceMeshDetectorOptions;
-import com.google.mlkit.vision.facemesh.FaceMeshPoint;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /** Selfie Face Detector Demo. */
 public class FaceMeshDetectorProcessor extends VisionProcessorBase<List<FaceMesh>> {
 
   private static final String TAG = "SelfieFaceProcessor";
-
-  private ArrayList<FaceData> faceData;
-
+  private static final String UNKNOWN_NAME = "Ai zậy ta";
 
   private final FaceMeshDetector detector;
+  private final FaceSignatureIndex faceSignatureIndex;
+  private final RecognitionCache recognitionCache =
+      new RecognitionCache(FaceSignatureIndex.SIGNATURE_SIZE);
+  // Reused for every face of every frame; only touched on the main thread.
+  private final float[] landmarks = new float[FaceSignatureExtractor.LANDMARKS_LENGTH];
+  private final float[] signature = new float[FaceSignatureIndex.SIGNATURE_SIZE];
 
   public FaceMeshDetectorProcessor(Context context) {
     super(context);
@@ -54,46 +59,9 @@ public class FaceMeshDetectorProcessor extends VisionProcessorBase<List<FaceMesh
     }
 
     detector = FaceMeshDetection.getClient(optionsBuilder.build());
+    faceSignatureIndex = FaceSignatureIndex.getInstance(context);
   }
 
-  private boolean compareVectors(ArrayList<Double> v1, ArrayList<Double> v2, double delta) {
-    double count = 0;
-//                                    Log.d("TAG", "compareVectors: "+ v1.size() +" "+ v2.size());
-    for (int i = 0; i < v1.size(); i++) {
-      if (Math.abs(v1.get(i) - v2.get(i)) > delta) {
-        count +=1;
-      }
-    }
-    if(count/36 < 0.4){
-      return true;
-    }
-//    Log.d("TAG", "compareVectorss: "+ count);
-
-    return false;
-  }
-  private ArrayList<Double> stringToArrayList(String inputString) {
-    ArrayList<Double> doubleArrayList = new ArrayList<>();
-    // Convert the array to an ArrayList
-    String[] stringNumbersArray = inputString.substring(1, inputString.length() - 1).split(",");
-
-    for (String stringNumber : stringNumbersArray) {
-      double doubleNumber = Double.parseDouble(stringNumber.trim());
-      doubleArrayList.add(doubleNumber);
-    }
-
-    return doubleArrayList;
-  }
-  private double distance(FaceMeshPoint point1, FaceMeshPoint point2){
-    float x1 = point1.getPosition().getX();
-    float y1 = point1.getPosition().getY();
-    float z1 = point1.getPosition().getZ();
-
-    float x2 = point2.getPosition().getX();
-    float y2 = point2.getPosition().getY();
-    float z2 = point2.getPosition().getZ();
-
-    return Math.sqrt(Math.pow((x1-x2), 2) + Math.pow((y1-y2), 2) + Math.pow((z1-z2), 2));
-  }
   @Override
   public void stop() {
     super.stop();
@@ -109,43 +77,46 @@ public class FaceMeshDetectorProcessor extends VisionProcessorBase<List<FaceMesh
   protected void onSuccess(
       @NonNull List<FaceMesh> faces, @NonNull GraphicOverlay graphicOverlay) {
     graphicOverlay.setFaceMeshesList(faces);
-    String name = "Ai zậy ta";
-    double delta = 2;
-
-    DatabaseHelper dbHelper = new DatabaseHelper(graphicOverlay.getContext());
-    faceData = dbHelper.getAllFaceData();
+    long nowMs = SystemClock.elapsedRealtime();
+    recognitionCache.beginFrame(nowMs);
     for (FaceMesh faceMesh : faces) {
-      ArrayList<Double> distanceList = new ArrayList<>();
-      List<FaceMeshPoint> faceMeshPoints = new ArrayList<>();
-      FaceMeshPoint rootPoint = faceMesh.getPoints(12).get(3);
-      for (int i=1;i<=12;i++){
-        int len = faceMesh.getPoints(i).size();
-        faceMeshPoints.add(faceMesh.getPoints(i).get(0));
-        faceMeshPoints.add(faceMesh.getPoints(i).get(len - 1));
-      }
-      int l = faceMeshPoints.size();
-      for(int i=0; i<l;i+=2){
-        distanceList.add(this.distance(faceMeshPoints.get(i), faceMeshPoints.get(i+1)));
-        distanceList.add(this.distance(faceMeshPoints.get(i), rootPoint));
-        distanceList.add(this.distance(faceMeshPoints.get(i+1), rootPoint));
-      }
-//      Log.d("D", "onSuccess: " + distanceList.toString());
-      for(FaceData face : faceData){
-        String distanceString = face.getFaceMeshPoints();
-        ArrayList<Double>distance = this.stringToArrayList(distanceString);
-        if(this.compareVectors(distanceList, distance, delta)){
-//          Log.d("Z", "tenjsid" + face.getName());
-          name = face.getName();
+      FaceMeshLandmarks.extractSignature(faceMesh, landmarks, signature);
+      Rect box = faceMesh.getBoundingBox();
+      int track = recognitionCache.associate(box.left, box.top, box.right, box.bottom, nowMs);
+      String name;
+      if (track == RecognitionCache.NO_TRACK) {
+        name = recognize();
+      } else {
+        if (recognitionCache.needsMatch(track, signature, nowMs)) {
+          int match = faceSignatureIndex.findNearest(signature);
+          if (match == FaceSignatureIndex.NO_MATCH) {
+            recognitionCache.recordMatch(
+                track, signature, RecognitionCache.UNKNOWN_PERSON, null, nowMs);
+          } else {
+            recognitionCache.recordMatch(
+                track,
+                signature,
+                faceSignatureIndex.getPersonId(match),
+                faceSignatureIndex.getName(match),
+                nowMs);
+          }
+        }
+        name = recognitionCache.getName(track);
+        if (name == null || name.isEmpty()) {
+          name = UNKNOWN_NAME;
         }
-//        else {
-//          Log.d("Z", "Khong biet ai ca");
-//        }
       }
       graphicOverlay.add(new FaceMeshGraphic(graphicOverlay, faceMesh, name));
     }
 
   }
 
+  /** Matches {@link #signature} directly, for faces that could not be given a track. */
+  private String recognize() {
+    int match = faceSignatureIndex.findNearest(signature);
+    return match == FaceSignatureIndex.NO_MATCH ? UNKNOWN_NAME : faceSignatureIndex.getName(match);
+  }
+
   @Override
   protected void onFailure(@NonNull Exception e) {
     Log.e(TAG, "Face detection failed " + e);
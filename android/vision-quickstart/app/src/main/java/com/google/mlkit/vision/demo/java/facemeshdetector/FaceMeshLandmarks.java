@@ -0,0 +1,60 @@
+/*
+ * Copyright 2022 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.facemeshdetector;
+
+import com.google.mlkit.vision.common.PointF3D;
+import com.google.mlkit.vision.demo.java.custom.FaceSignatureExtractor;
+import com.google.mlkit.vision.facemesh.FaceMesh;
+import com.google.mlkit.vision.facemesh.FaceMeshPoint;
+import java.util.List;
+
+/** Copies the landmarks used by {@link FaceSignatureExtractor} out of a {@link FaceMesh}. */
+public final class FaceMeshLandmarks {
+
+  // Index of the root point within the NOSE_BRIDGE contour.
+  private static final int ROOT_POINT_INDEX = 3;
+
+  private FaceMeshLandmarks() {}
+
+  /**
+   * Packs the first and last point of every contour, followed by the root point, into {@code out},
+   * which must hold at least {@link FaceSignatureExtractor#LANDMARKS_LENGTH} floats.
+   */
+  public static void copy(FaceMesh faceMesh, float[] out) {
+    int k = 0;
+    // Contour types are numbered from FACE_OVAL (1) to NOSE_BRIDGE (12).
+    for (int contour = 1; contour <= FaceSignatureExtractor.CONTOUR_COUNT; contour++) {
+      List<FaceMeshPoint> points = faceMesh.getPoints(contour);
+      k = put(points.get(0).getPosition(), out, k);
+      k = put(points.get(points.size() - 1).getPosition(), out, k);
+    }
+    put(faceMesh.getPoints(FaceMesh.NOSE_BRIDGE).get(ROOT_POINT_INDEX).getPosition(), out, k);
+  }
+
+  /** Copies the landmarks of {@code faceMesh} and writes its signature into {@code signature}. */
+  public static void extractSignature(FaceMesh faceMesh, float[] landmarks, float[] signature) {
+    copy(faceMesh, landmarks);
+    FaceSignatureExtractor.extract(landmarks, signature);
+  }
+
+  private static int put(PointF3D position, float[] out, int k) {
+    out[k] = position.getX();
+    out[k + 1] = position.getY();
+    out[k + 2] = position.getZ();
+    return k + 3;
+  }
+}
@@ -21,6 +21,7 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import com.google.android.gms.tasks.Task;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.DetectorRegistry;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
 import com.google.mlkit.vision.label.ImageLabel;
@@ -34,22 +35,33 @@ public class LabelDetectorProcessor extends VisionProcessorBase<List<ImageLabel>
 
   private static final String TAG = "LabelDetectorProcessor";
 
+  // Image labeling models take images of about 224x224 pixels.
+  private static final int TARGET_INPUT_SIZE = 224;
+
   private final ImageLabeler imageLabeler;
 
+  // Whether the detector was given back to the registry. Activities stop their processor both
+  // when paused and when destroyed, and it must only be released once. Main thread only.
+  private boolean released;
+
   public LabelDetectorProcessor(Context context, ImageLabelerOptionsBase options) {
     super(context);
-    imageLabeler = ImageLabeling.getClient(options);
+    imageLabeler =
+        DetectorRegistry.getInstance().acquire(options, () -> ImageLabeling.getClient(options));
   }
 
   @Override
   public void stop() {
     super.stop();
-    imageLabeler.close();
+    if (!released) {
+      released = true;
+      DetectorRegistry.getInstance().release(imageLabeler);
+    }
   }
 
   @Override
   protected Task<List<ImageLabel>> detectInImage(InputImage image) {
-    return imageLabeler.process(image);
+    return DetectorRegistry.getInstance().detect(imageLabeler, () -> imageLabeler.process(image));
   }
 
   @Override
@@ -71,6 +83,11 @@ public class LabelDetectorProcessor extends VisionProcessorBase<List<ImageLabel>
     }
   }
 
+  @Override
+  protected int getTargetInputSize() {
+    return TARGET_INPUT_SIZE;
+  }
+
   @Override
   protected void onFailure(@NonNull Exception e) {
     Log.w(TAG, "Label detection failed." + e);
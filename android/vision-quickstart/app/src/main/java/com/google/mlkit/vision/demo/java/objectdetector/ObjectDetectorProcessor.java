@@ -21,6 +21,7 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import com.google.android.gms.tasks.Task;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.DetectorRegistry;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
 import com.google.mlkit.vision.objects.DetectedObject;
@@ -34,22 +35,33 @@ public class ObjectDetectorProcessor extends VisionProcessorBase<List<DetectedOb
 
   private static final String TAG = "ObjectDetectorProcessor";
 
+  // A little larger than the detection model's input, so that small objects are still found.
+  private static final int TARGET_INPUT_SIZE = 320;
+
   private final ObjectDetector detector;
 
+  // Whether the detector was given back to the registry. Activities stop their processor both
+  // when paused and when destroyed, and it must only be released once. Main thread only.
+  private boolean released;
+
   public ObjectDetectorProcessor(Context context, ObjectDetectorOptionsBase options) {
     super(context);
-    detector = ObjectDetection.getClient(options);
+    detector =
+        DetectorRegistry.getInstance().acquire(options, () -> ObjectDetection.getClient(options));
   }
 
   @Override
   public void stop() {
     super.stop();
-    detector.close();
+    if (!released) {
+      released = true;
+      DetectorRegistry.getInstance().release(detector);
+    }
   }
 
   @Override
   protected Task<List<DetectedObject>> detectInImage(InputImage image) {
-    return detector.process(image);
+    return DetectorRegistry.getInstance().detect(detector, () -> detector.process(image));
   }
 
   @Override
@@ -60,6 +72,11 @@ public class ObjectDetectorProcessor extends VisionProcessorBase<List<DetectedOb
     }
   }
 
+  @Override
+  protected int getTargetInputSize() {
+    return TARGET_INPUT_SIZE;
+  }
+
   @Override
   protected void onFailure(@NonNull Exception e) {
     Log.e(TAG, "Object detection failed!", e);
@@ -18,17 +18,23 @@ package com.google.mlkit.vision.demo.java.posedetector;
 
 import android.content.Context;
 import android.util.Log;
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import com.google.android.gms.tasks.Task;
 import com.google.android.odml.image.MlImage;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.DetectorRegistry;
 import com.google.mlkit.vision.demo.GraphicOverlay;
+import com.google.mlkit.vision.demo.PipelineGovernor;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
 import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierProcessor;
 import com.google.mlkit.vision.pose.Pose;
 import com.google.mlkit.vision.pose.PoseDetection;
 import com.google.mlkit.vision.pose.PoseDetector;
 import com.google.mlkit.vision.pose.PoseDetectorOptionsBase;
+import com.google.mlkit.vision.pose.accurate.AccuratePoseDetectorOptions;
+import com.google.mlkit.vision.pose.defaults.PoseDetectorOptions;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
@@ -39,7 +45,28 @@ public class PoseDetectorProcessor
     extends VisionProcessorBase<PoseDetectorProcessor.PoseWithClassification> {
   private static final String TAG = "PoseDetectorProcessor";
 
-  private final PoseDetector detector;
+  // The pose landmark models take images of 256x256 pixels.
+  private static final int TARGET_INPUT_SIZE = 256;
+
+  private final PoseDetectorOptionsBase options;
+  private final Object detectorLock = new Object();
+
+  // Replaced by a cheaper detector while the pipeline governor asks for it.
+  @GuardedBy("detectorLock")
+  private PoseDetector detector;
+
+  // Whether the detector was given back to the registry. Activities stop their processor both
+  // when paused and when destroyed, and it must only be released once.
+  @GuardedBy("detectorLock")
+  private boolean released;
+
+  // Latest detection of the current detector, which must finish before the detector is closed.
+  @GuardedBy("detectorLock")
+  @Nullable
+  private Task<Pose> lastDetectorTask;
+
+  // Only touched on the main thread.
+  private boolean cheapMode;
 
   private final boolean showInFrameLikelihood;
   private final boolean visualizeZ;
@@ -81,7 +108,8 @@ public class PoseDetectorProcessor
     this.showInFrameLikelihood = showInFrameLikelihood;
     this.visualizeZ = visualizeZ;
     this.rescaleZForVisualization = rescaleZForVisualization;
-    detector = PoseDetection.getClient(options);
+    this.options = options;
+    detector = acquireDetector(options);
     this.runClassification = runClassification;
     this.isStreamMode = isStreamMode;
     this.context = context;
@@ -91,13 +119,71 @@ public class PoseDetectorProcessor
   @Override
   public void stop() {
     super.stop();
-    detector.close();
+    synchronized (detectorLock) {
+      if (!released) {
+        released = true;
+        DetectorRegistry.getInstance().release(detector);
+      }
+    }
+  }
+
+  @Override
+  protected void onGovernorLevelChanged(int level) {
+    boolean newCheapMode =
+        level >= PipelineGovernor.LEVEL_CHEAP_MODE
+            && options instanceof AccuratePoseDetectorOptions;
+    if (newCheapMode == cheapMode) {
+      return;
+    }
+    cheapMode = newCheapMode;
+    PoseDetectorOptionsBase newOptions = cheapMode ? getCheapOptions() : options;
+    PoseDetector oldDetector;
+    Task<Pose> pendingTask;
+    synchronized (detectorLock) {
+      oldDetector = detector;
+      pendingTask = lastDetectorTask;
+      detector = acquireDetector(newOptions);
+      lastDetectorTask = null;
+    }
+    if (pendingTask == null) {
+      DetectorRegistry.getInstance().release(oldDetector);
+    } else {
+      pendingTask.addOnCompleteListener(
+          task -> DetectorRegistry.getInstance().release(oldDetector));
+    }
+  }
+
+  private static PoseDetector acquireDetector(PoseDetectorOptionsBase options) {
+    return DetectorRegistry.getInstance().acquire(options, () -> PoseDetection.getClient(options));
+  }
+
+  /** Returns options of the base model, which finds the same landmarks several times faster. */
+  private PoseDetectorOptionsBase getCheapOptions() {
+    return new PoseDetectorOptions.Builder()
+        .setDetectorMode(
+            isStreamMode ? PoseDetectorOptions.STREAM_MODE : PoseDetectorOptions.SINGLE_IMAGE_MODE)
+        .build();
+  }
+
+  private Task<Pose> process(InputImage image) {
+    synchronized (detectorLock) {
+      lastDetectorTask =
+          DetectorRegistry.getInstance().detect(detector, () -> detector.process(image));
+      return lastDetectorTask;
+    }
+  }
+
+  private Task<Pose> process(MlImage image) {
+    synchronized (detectorLock) {
+      lastDetectorTask =
+          DetectorRegistry.getInstance().detect(detector, () -> detector.process(image));
+      return lastDetectorTask;
+    }
   }
 
   @Override
   protected Task<PoseWithClassification> detectInImage(InputImage image) {
-    return detector
-        .process(image)
+    return process(image)
         .continueWith(
             classificationExecutor,
             task -> {
@@ -115,8 +201,7 @@ public class PoseDetectorProcessor
 
   @Override
   protected Task<PoseWithClassification> detectInImage(MlImage image) {
-    return detector
-        .process(image)
+    return process(image)
         .continueWith(
             classificationExecutor,
             task -> {
@@ -146,6 +231,11 @@ public class PoseDetectorProcessor
             poseWithClassification.classificationResult));
   }
 
+  @Override
+  protected int getTargetInputSize() {
+    return TARGET_INPUT_SIZE;
+  }
+
   @Override
   protected void onFailure(@NonNull Exception e) {
     Log.e(TAG, "Pose detection failed!", e);
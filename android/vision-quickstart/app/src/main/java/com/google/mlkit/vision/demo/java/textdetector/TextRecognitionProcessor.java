@@ -18,10 +18,12 @@ package com.google.mlkit.vision.demo.java.textdetector;
 
 import android.content.Context;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import com.google.android.gms.tasks.Task;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.DetectorRegistry;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
@@ -31,6 +33,7 @@ import com.google.mlkit.vision.text.Text.Line;
 import com.google.mlkit.vision.text.TextRecognition;
 import com.google.mlkit.vision.text.TextRecognizer;
 import com.google.mlkit.vision.text.TextRecognizerOptionsInterface;
+import java.util.ArrayList;
 import java.util.List;
 
 /** Processor for the text detector demo. */
@@ -43,24 +46,34 @@ public class TextRecognitionProcessor extends VisionProcessorBase<Text> {
   private final Boolean showLanguageTag;
   private final boolean showConfidence;
 
+  // Whether the detector was given back to the registry. Activities stop their processor both
+  // when paused and when destroyed, and it must only be released once. Main thread only.
+  private boolean released;
+
   public TextRecognitionProcessor(
       Context context, TextRecognizerOptionsInterface textRecognizerOptions) {
     super(context);
     shouldGroupRecognizedTextInBlocks = PreferenceUtils.shouldGroupRecognizedTextInBlocks(context);
     showLanguageTag = PreferenceUtils.showLanguageTag(context);
     showConfidence = PreferenceUtils.shouldShowTextConfidence(context);
-    textRecognizer = TextRecognition.getClient(textRecognizerOptions);
+    textRecognizer =
+        DetectorRegistry.getInstance()
+            .acquire(textRecognizerOptions, () -> TextRecognition.getClient(textRecognizerOptions));
   }
 
   @Override
   public void stop() {
     super.stop();
-    textRecognizer.close();
+    if (!released) {
+      released = true;
+      DetectorRegistry.getInstance().release(textRecognizer);
+    }
   }
 
   @Override
   protected Task<Text> detectInImage(InputImage image) {
-    return textRecognizer.process(image);
+    return DetectorRegistry.getInstance()
+        .detect(textRecognizer, () -> textRecognizer.process(image));
   }
 
   @Override
@@ -116,6 +129,17 @@ public class TextRecognitionProcessor extends VisionProcessorBase<Text> {
     }
   }
 
+  @Override
+  protected List<Rect> getRegionsOfInterest(@NonNull Text text) {
+    List<Rect> regions = new ArrayList<>();
+    for (Text.TextBlock textBlock : text.getTextBlocks()) {
+      if (textBlock.getBoundingBox() != null) {
+        regions.add(textBlock.getBoundingBox());
+      }
+    }
+    return regions;
+  }
+
   @Override
   protected void onFailure(@NonNull Exception e) {
     Log.w(TAG, "Text detection failed." + e);
@@ -155,6 +155,7 @@ class LivePreviewActivity :
     if (cameraSource == null) {
       cameraSource = CameraSource(this, graphicOverlay)
     }
+    cameraSource!!.setPreviewBufferCount(PreferenceUtils.getPreviewBufferCount(this))
     try {
       when (model) {
         OBJECT_DETECTION -> {
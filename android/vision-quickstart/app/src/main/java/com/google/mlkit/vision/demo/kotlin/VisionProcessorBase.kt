@@ -90,6 +90,8 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
   // To keep the latest images and its metadata.
   @GuardedBy("this") private var latestImage: ByteBuffer? = null
   @GuardedBy("this") private var latestImageMetaData: FrameMetadata? = null
+  // Hands the latest image's buffer back once it is processed or dropped.
+  @GuardedBy("this") private var latestImageReleaser: Runnable? = null
   // To keep the images and metadata in process.
   @GuardedBy("this") private var processingImage: ByteBuffer? = null
   @GuardedBy("this") private var processingMetaData: FrameMetadata? = null
@@ -134,14 +136,25 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
   }
 
   // -----------------Code for processing live preview frame from Camera1 API-----------------------
-  @Synchronized
   override fun processByteBuffer(
     data: ByteBuffer?,
     frameMetadata: FrameMetadata?,
     graphicOverlay: GraphicOverlay
   ) {
+    processByteBuffer(data, frameMetadata, graphicOverlay, Runnable {})
+  }
+
+  @Synchronized
+  override fun processByteBuffer(
+    data: ByteBuffer?,
+    frameMetadata: FrameMetadata?,
+    graphicOverlay: GraphicOverlay,
+    onReleased: Runnable
+  ) {
+    latestImageReleaser?.run()
     latestImage = data
     latestImageMetaData = frameMetadata
+    latestImageReleaser = onReleased
     if (processingImage == null && processingMetaData == null) {
       processLatestImage(graphicOverlay)
     }
@@ -151,17 +164,22 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
   private fun processLatestImage(graphicOverlay: GraphicOverlay) {
     processingImage = latestImage
     processingMetaData = latestImageMetaData
+    val releaser = latestImageReleaser
     latestImage = null
     latestImageMetaData = null
+    latestImageReleaser = null
     if (processingImage != null && processingMetaData != null && !isShutdown) {
-      processImage(processingImage!!, processingMetaData!!, graphicOverlay)
+      processImage(processingImage!!, processingMetaData!!, graphicOverlay, releaser!!)
+    } else {
+      releaser?.run()
     }
   }
 
   private fun processImage(
     data: ByteBuffer,
     frameMetadata: FrameMetadata,
-    graphicOverlay: GraphicOverlay
+    graphicOverlay: GraphicOverlay,
+    onReleased: Runnable
   ) {
     val frameStartMs = SystemClock.elapsedRealtime()
     // If live viewport is on (that is the underneath surface view takes care of the camera preview
@@ -181,6 +199,7 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
           .setRotation(frameMetadata.rotation)
           .build()
       requestDetectInImage(mlImage, graphicOverlay, bitmap, /* shouldShowFps= */ true, frameStartMs)
+        .addOnCompleteListener { onReleased.run() }
         .addOnSuccessListener(executor) { processLatestImage(graphicOverlay) }
 
       // This is optional. Java Garbage collection can also close it eventually.
@@ -201,6 +220,7 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
       /* shouldShowFps= */ true,
       frameStartMs
     )
+      .addOnCompleteListener { onReleased.run() }
       .addOnSuccessListener(executor) { processLatestImage(graphicOverlay) }
   }
 
@@ -30,6 +30,7 @@ import com.google.mlkit.common.model.LocalModel;
 import com.google.mlkit.vision.demo.CameraSource;
 import com.google.mlkit.vision.demo.CameraSource.SizePair;
 import com.google.mlkit.vision.demo.R;
+import com.google.mlkit.vision.demo.java.VisionProcessorBase;
 import com.google.mlkit.vision.face.FaceDetectorOptions;
 import com.google.mlkit.vision.facemesh.FaceMeshDetectorOptions;
 import com.google.mlkit.vision.objects.ObjectDetectorOptionsBase.DetectorMode;
@@ -100,6 +101,48 @@ public class PreferenceUtils {
     return sharedPreferences.getBoolean(prefKey, false);
   }
 
+  public static boolean shouldRecordFrameTrace(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_record_frame_trace);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
+  public static boolean shouldRecordCameraFrames(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_record_camera_frames);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
+  public static boolean shouldSkipStaticFrames(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_skip_static_frames);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
+  public static boolean shouldAdaptToDeviceConditions(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_adapt_to_device_conditions);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
+  public static boolean shouldCropToRegionsOfInterest(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_crop_to_regions_of_interest);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
+  public static boolean shouldDownscaleFrames(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_downscale_frames);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
+  public static boolean shouldWarmUpDetectors(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_warm_up_detectors);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
   public static ObjectDetectorOptions getObjectDetectorOptionsForStillImage(Context context) {
     return getObjectDetectorOptions(
         context,
@@ -366,6 +409,26 @@ public class PreferenceUtils {
     return sharedPreferences.getBoolean(prefKey, false);
   }
 
+  public static int getMaxFramesInFlight(Context context) {
+    return getModeTypePreferenceValue(
+        context,
+        R.string.pref_key_frames_in_flight,
+        VisionProcessorBase.DEFAULT_MAX_FRAMES_IN_FLIGHT);
+  }
+
+  /**
+   * Returns the preview buffer count, raised to the minimum needed for the frames in flight in case
+   * both preferences were set independently.
+   */
+  public static int getPreviewBufferCount(Context context) {
+    int count =
+        getModeTypePreferenceValue(
+            context,
+            R.string.pref_key_preview_buffer_count,
+            CameraSource.DEFAULT_PREVIEW_BUFFER_COUNT);
+    return Math.max(count, CameraSource.getMinPreviewBufferCount(getMaxFramesInFlight(context)));
+  }
+
   public static int getFaceMeshUseCase(Context context) {
     SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
     String prefKey = context.getString(R.string.pref_key_face_mesh_use_case);
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FakeDetectorTest {
+
+  @Test
+  public void fixed_takesItsLatency() throws Exception {
+    FakeDetector detector = FakeDetector.fixed(/* latencyMs= */ 20);
+    CountDownLatch done = new CountDownLatch(1);
+    long[] latencyNanos = new long[1];
+    long startNanos = System.nanoTime();
+
+    detector.detect(
+        new FakeDetector.Callback() {
+          @Override
+          public void onDetected(long nanos) {
+            latencyNanos[0] = nanos;
+            done.countDown();
+          }
+
+          @Override
+          public void onFailed(Exception e) {}
+        });
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(20_000_000, latencyNanos[0]);
+    assertTrue(System.nanoTime() - startNanos >= 20_000_000);
+    detector.close();
+  }
+
+  @Test
+  public void logNormal_staysWithinBoundsAroundMedian() {
+    FakeDetector detector =
+        FakeDetector.logNormal(
+            /* medianMs= */ 30, /* sigma= */ 0.5, /* minMs= */ 10, /* maxMs= */ 90, /* seed= */ 1);
+    long[] latencies = new long[1001];
+    for (int i = 0; i < latencies.length; i++) {
+      latencies[i] = detector.nextLatencyNanos();
+      assertTrue(latencies[i] >= 10_000_000 && latencies[i] <= 90_000_000);
+    }
+    Arrays.sort(latencies);
+
+    long median = latencies[latencies.length / 2];
+    assertTrue("Median " + median, median > 27_000_000 && median < 33_000_000);
+    detector.close();
+  }
+
+  @Test
+  public void logNormal_isReproducibleFromSeed() {
+    FakeDetector first = FakeDetector.logNormal(30, 0.5, 0, 1000, /* seed= */ 7);
+    FakeDetector second = FakeDetector.logNormal(30, 0.5, 0, 1000, /* seed= */ 7);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(first.nextLatencyNanos(), second.nextLatencyNanos());
+    }
+    first.close();
+    second.close();
+  }
+
+  @Test
+  public void close_failsQueuedDetections() throws Exception {
+    FakeDetector detector = FakeDetector.fixed(/* latencyMs= */ 200);
+    AtomicInteger detected = new AtomicInteger();
+    List<Exception> failures = new ArrayList<>();
+    CountDownLatch done = new CountDownLatch(3);
+    FakeDetector.Callback callback =
+        new FakeDetector.Callback() {
+          @Override
+          public void onDetected(long latencyNanos) {
+            detected.incrementAndGet();
+            done.countDown();
+          }
+
+          @Override
+          public void onFailed(Exception e) {
+            synchronized (failures) {
+              failures.add(e);
+            }
+            done.countDown();
+          }
+        };
+    for (int i = 0; i < 3; i++) {
+      detector.detect(callback);
+    }
+
+    detector.close();
+
+    // The running detection is interrupted, and the queued ones never start.
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(0, detected.get());
+    assertEquals(3, failures.size());
+  }
+}
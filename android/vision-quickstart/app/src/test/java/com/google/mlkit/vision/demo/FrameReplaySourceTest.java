@@ -0,0 +1,168 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Records frames with {@link FrameRecorder} and plays them back with {@link FrameReplaySource}. */
+@RunWith(JUnit4.class)
+public class FrameReplaySourceTest {
+
+  private static final int WIDTH = 8;
+  private static final int HEIGHT = 6;
+  private static final int FRAME_SIZE = WIDTH * HEIGHT * 3 / 2;
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void replay_returnsRecordedFramesInOrder() throws Exception {
+    File file = folder.newFile();
+    try (FrameRecorder recorder = new FrameRecorder(file)) {
+      for (int i = 0; i < 3; i++) {
+        assertTrue(recorder.record(frame(i), metadata(/* rotation= */ 90, 40 + i)));
+      }
+      assertEquals(3, recorder.getFrameCount());
+    }
+
+    FrameReplaySource source = new FrameReplaySource(file, /* bufferCount= */ 2);
+    List<byte[]> frames = new ArrayList<>();
+    List<FrameMetadata> metadata = new ArrayList<>();
+    long startNanos = System.nanoTime();
+    long frameCount =
+        source.replay(
+            (frame, frameMetadata) -> {
+              byte[] bytes = new byte[frame.remaining()];
+              frame.get(bytes);
+              frames.add(bytes);
+              metadata.add(frameMetadata);
+            },
+            /* framesPerSecond= */ 0,
+            /* loops= */ 2);
+
+    assertEquals(3, source.getFrameCount());
+    assertEquals(6, frameCount);
+    for (int i = 0; i < 6; i++) {
+      assertArrayEquals(frame(i % 3).array(), frames.get(i));
+      assertEquals(WIDTH, metadata.get(i).getWidth());
+      assertEquals(HEIGHT, metadata.get(i).getHeight());
+      assertEquals(90, metadata.get(i).getRotation());
+      // Replayed frames are numbered and stamped by the replay, not the recording.
+      assertEquals(i, metadata.get(i).getSequenceId());
+      assertTrue(metadata.get(i).getTimestampNanos() >= startNanos);
+    }
+  }
+
+  @Test
+  public void replay_keepsToFrameRate() throws Exception {
+    File file = folder.newFile();
+    try (FrameRecorder recorder = new FrameRecorder(file)) {
+      recorder.record(frame(0), metadata(/* rotation= */ 0, /* sequenceId= */ 0));
+    }
+
+    long startNanos = System.nanoTime();
+    new FrameReplaySource(file).replay((frame, metadata) -> {}, /* framesPerSecond= */ 50, 5);
+
+    // The fifth frame is due four intervals of 20 ms after the first.
+    assertTrue(System.nanoTime() - startNanos >= 80_000_000);
+  }
+
+  @Test
+  public void replay_stopsWhenStopped() throws Exception {
+    File file = folder.newFile();
+    try (FrameRecorder recorder = new FrameRecorder(file)) {
+      recorder.record(frame(0), metadata(/* rotation= */ 0, /* sequenceId= */ 0));
+    }
+
+    FrameReplaySource source = new FrameReplaySource(file);
+    long frameCount = source.replay((frame, metadata) -> source.stop(), 0, /* loops= */ 10);
+
+    assertEquals(1, frameCount);
+  }
+
+  @Test
+  public void record_leavesOutFramesPastSizeLimit() throws Exception {
+    File file = folder.newFile();
+    int recordSize = FrameRecorder.RECORD_HEADER_SIZE + FRAME_SIZE;
+    long maxSizeBytes = FrameRecorder.FILE_HEADER_SIZE + 2 * recordSize + recordSize / 2;
+    try (FrameRecorder recorder = new FrameRecorder(file, maxSizeBytes)) {
+      assertTrue(recorder.record(frame(0), metadata(0, 0)));
+      assertTrue(recorder.record(frame(1), metadata(0, 1)));
+      assertFalse(recorder.record(frame(2), metadata(0, 2)));
+      assertEquals(2, recorder.getFrameCount());
+      assertEquals(1, recorder.getDroppedFrameCount());
+    }
+
+    assertEquals(FrameRecorder.FILE_HEADER_SIZE + 2 * recordSize, file.length());
+    assertEquals(2, new FrameReplaySource(file).getFrameCount());
+  }
+
+  @Test
+  public void open_readsRecordingThatWasNotClosed() throws Exception {
+    File file = folder.newFile();
+    FrameRecorder recorder = new FrameRecorder(file);
+    recorder.record(frame(0), metadata(0, 0));
+    recorder.record(frame(1), metadata(0, 1));
+
+    // The rest of the mapped region is still zeros, where the reader stops.
+    assertEquals(2, new FrameReplaySource(file).getFrameCount());
+    recorder.close();
+  }
+
+  @Test(expected = IOException.class)
+  public void open_rejectsOtherFiles() throws Exception {
+    File file = folder.newFile();
+    try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+      output.writeInt(0x12345678);
+      output.writeInt(FrameRecorder.VERSION);
+    }
+
+    new FrameReplaySource(file);
+  }
+
+  private static ByteBuffer frame(int seed) {
+    byte[] bytes = new byte[FRAME_SIZE];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) (seed * 31 + i);
+    }
+    return ByteBuffer.wrap(bytes);
+  }
+
+  private static FrameMetadata metadata(int rotation, long sequenceId) {
+    return new FrameMetadata.Builder()
+        .setWidth(WIDTH)
+        .setHeight(HEIGHT)
+        .setRotation(rotation)
+        .setTimestampNanos(1_000)
+        .setSequenceId(sequenceId)
+        .build();
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FrameRingBufferTest {
+
+  @Test
+  public void take_returnsPublishedFrame() {
+    FrameRingBuffer ring = new FrameRingBuffer(3, 4);
+    byte[] data = ring.getArray(0);
+    data[0] = 42;
+
+    assertNull(ring.publish(data, 1000));
+    assertEquals(FrameRingBuffer.STATE_PENDING, ring.getState(0));
+    int slot = ring.take();
+
+    assertEquals(0, slot);
+    assertEquals(FrameRingBuffer.STATE_PROCESSING, ring.getState(slot));
+    assertEquals(42, ring.getFrame(slot).get(0));
+    assertEquals(1000, ring.getTimestampNanos(slot));
+    assertEquals(0, ring.getSequenceId(slot));
+    assertEquals(FrameRingBuffer.NO_SLOT, ring.take());
+
+    assertSame(data, ring.release(slot));
+    assertEquals(FrameRingBuffer.STATE_CAMERA, ring.getState(slot));
+  }
+
+  @Test
+  public void release_onlyReturnsAProcessingSlotOnce() {
+    FrameRingBuffer ring = new FrameRingBuffer(2, 4);
+    assertNull(ring.release(0));
+
+    ring.publish(ring.getArray(0), 1);
+    // A pending frame has not been claimed by the consumer, so it is not released either.
+    assertNull(ring.release(0));
+    int slot = ring.take();
+
+    assertSame(ring.getArray(slot), ring.release(slot));
+    assertNull(ring.release(slot));
+    assertEquals(FrameRingBuffer.STATE_CAMERA, ring.getState(slot));
+  }
+
+  @Test
+  public void release_leavesOtherProcessingSlotsClaimed() {
+    FrameRingBuffer ring = new FrameRingBuffer(3, 4);
+    ring.publish(ring.getArray(0), 1);
+    int first = ring.take();
+    ring.publish(ring.getArray(1), 2);
+    int second = ring.take();
+
+    assertSame(ring.getArray(second), ring.release(second));
+    assertEquals(FrameRingBuffer.STATE_PROCESSING, ring.getState(first));
+    // The camera may not fill a slot whose frame is still read.
+    assertSame(ring.getArray(first), ring.publish(ring.getArray(first), 3));
+    assertSame(ring.getArray(first), ring.release(first));
+  }
+
+  @Test
+  public void publish_overwritesPendingFrame() {
+    FrameRingBuffer ring = new FrameRingBuffer(3, 4);
+
+    assertNull(ring.publish(ring.getArray(0), 1));
+    // The older pending frame goes straight back to the camera.
+    assertSame(ring.getArray(0), ring.publish(ring.getArray(1), 2));
+    assertEquals(FrameRingBuffer.STATE_CAMERA, ring.getState(0));
+
+    int slot = ring.take();
+    assertEquals(1, slot);
+    assertEquals(1, ring.getSequenceId(slot));
+    assertEquals(2, ring.getPublishedCount());
+    assertEquals(1, ring.getOverwrittenCount());
+    assertEquals(0, ring.getDroppedCount());
+  }
+
+  @Test
+  public void publish_dropsBuffersItDoesNotOwnOrDidNotHandOut() {
+    FrameRingBuffer ring = new FrameRingBuffer(2, 4);
+    byte[] foreign = new byte[4];
+    assertSame(foreign, ring.publish(foreign, 1));
+
+    // A slot that is being processed is not the camera's to fill.
+    ring.publish(ring.getArray(0), 2);
+    int slot = ring.take();
+    assertSame(ring.getArray(0), ring.publish(ring.getArray(0), 3));
+    assertEquals(FrameRingBuffer.STATE_PROCESSING, ring.getState(slot));
+
+    assertEquals(2, ring.getDroppedCount());
+    assertEquals(1, ring.getPublishedCount());
+  }
+
+  @Test
+  public void discardPending_returnsPendingBufferAndCountsItDropped() {
+    FrameRingBuffer ring = new FrameRingBuffer(2, 4);
+    assertNull(ring.discardPending());
+
+    ring.publish(ring.getArray(1), 1);
+    assertSame(ring.getArray(1), ring.discardPending());
+    assertEquals(FrameRingBuffer.STATE_CAMERA, ring.getState(1));
+    assertEquals(FrameRingBuffer.NO_SLOT, ring.take());
+    assertEquals(1, ring.getDroppedCount());
+  }
+
+  @Test
+  public void constructor_rejectsEmptyRing() {
+    try {
+      new FrameRingBuffer(0, 4);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void producerAndConsumer_neverShareABuffer() throws Exception {
+    int capacity = 3;
+    int frameCount = 20000;
+    FrameRingBuffer ring = new FrameRingBuffer(capacity, 8);
+    // Stands in for the camera: the buffers it may fill, in the order it was given them.
+    BlockingQueue<byte[]> camera = new ArrayBlockingQueue<>(capacity);
+    for (int i = 0; i < capacity; i++) {
+      camera.add(ring.getArray(i));
+    }
+    AtomicBoolean producing = new AtomicBoolean(true);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    Thread producer =
+        new Thread(
+            () -> {
+              try {
+                for (int i = 0; i < frameCount; i++) {
+                  byte[] data = camera.take();
+                  // A buffer handed back while still read would show the consumer mixed frames.
+                  for (int j = 0; j < data.length; j++) {
+                    data[j] = (byte) i;
+                  }
+                  byte[] returned = ring.publish(data, i);
+                  if (returned != null) {
+                    camera.add(returned);
+                  }
+                }
+              } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+              } finally {
+                producing.set(false);
+              }
+            });
+    producer.start();
+
+    long lastSequenceId = -1;
+    long processed = 0;
+    while (producing.get()) {
+      int slot = ring.take();
+      if (slot == FrameRingBuffer.NO_SLOT) {
+        Thread.yield();
+        continue;
+      }
+      byte[] frame = ring.getFrame(slot).array();
+      long sequenceId = ring.getSequenceId(slot);
+      assertTrue(sequenceId > lastSequenceId);
+      lastSequenceId = sequenceId;
+      for (byte b : frame) {
+        assertEquals((byte) sequenceId, b);
+      }
+      processed++;
+      camera.add(ring.release(slot));
+    }
+    producer.join(TimeUnit.SECONDS.toMillis(10));
+    ring.discardPending();
+
+    assertNull(failure.get());
+    assertFalse(producer.isAlive());
+    assertTrue(processed > 0);
+    assertEquals(frameCount, ring.getPublishedCount());
+    assertEquals(frameCount, processed + ring.getOverwrittenCount() + ring.getDroppedCount());
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LatencyHistogramTest {
+
+  @Test
+  public void percentiles_areWithinBucketPrecision() {
+    Random random = new Random(1);
+    LatencyHistogram histogram = new LatencyHistogram("detector");
+    long[] micros = new long[10000];
+    for (int i = 0; i < micros.length; i++) {
+      // Log-uniform from 1 us to about 1 s, so that every bucket size is exercised.
+      micros[i] = (long) Math.exp(random.nextDouble() * Math.log(1_000_000));
+      histogram.recordNanos(micros[i] * 1000);
+    }
+    Arrays.sort(micros);
+
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(micros.length, snapshot.getCount());
+    assertEquals(micros[micros.length - 1], snapshot.getMaxMicros());
+    for (double percentile : new double[] {1, 10, 50, 90, 99, 99.9, 100}) {
+      long expected = micros[(int) Math.ceil(percentile / 100 * micros.length) - 1];
+      long actual = snapshot.getPercentileMicros(percentile);
+      assertEquals("p" + percentile, expected, actual, Math.max(1, expected / 32.0));
+    }
+  }
+
+  @Test
+  public void smallValues_areExact() {
+    LatencyHistogram histogram = new LatencyHistogram("small");
+    for (int micros = 0; micros < 64; micros++) {
+      histogram.recordNanos(micros * 1000L);
+    }
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(0, snapshot.getPercentileMicros(0));
+    assertEquals(31, snapshot.getPercentileMicros(50));
+    assertEquals(63, snapshot.getPercentileMicros(100));
+    assertEquals(31, snapshot.getMeanMicros());
+  }
+
+  @Test
+  public void recordNanos_clampsOutOfRangeValues() {
+    LatencyHistogram histogram = new LatencyHistogram("clamped");
+    histogram.recordNanos(-5_000);
+    histogram.recordNanos(Long.MAX_VALUE);
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(0, snapshot.getPercentileMicros(50));
+    assertEquals((1L << 27) - 1, snapshot.getMaxMicros());
+    assertEquals(
+        snapshot.getMaxMicros(), snapshot.getPercentileMicros(100), snapshot.getMaxMicros() / 32.0);
+  }
+
+  @Test
+  public void snapshot_isEmptyWithoutRecords() {
+    LatencyHistogram.Snapshot snapshot = new LatencyHistogram("empty").snapshot();
+    assertEquals(0, snapshot.getCount());
+    assertEquals(0, snapshot.getMeanMicros());
+    assertEquals(0, snapshot.getPercentileMicros(99));
+  }
+
+  @Test
+  public void snapshot_forgetsLatenciesOlderThanWindow() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram("window", /* windowMs= */ 200, 2);
+    histogram.recordNanos(5_000_000);
+    assertEquals(1, histogram.snapshot().getCount());
+
+    Thread.sleep(300);
+    histogram.recordNanos(1_000_000);
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(1, snapshot.getCount());
+    assertEquals(1000, snapshot.getMaxMicros());
+  }
+
+  @Test
+  public void reset_dropsEverything() {
+    LatencyHistogram histogram = new LatencyHistogram("reset");
+    histogram.recordNanos(1_000_000);
+    histogram.reset();
+    assertEquals(0, histogram.snapshot().getCount());
+  }
+
+  @Test
+  public void export_listsNonEmptyBuckets() {
+    LatencyHistogram histogram = new LatencyHistogram("a\"b");
+    histogram.recordNanos(10_000);
+    histogram.recordNanos(10_000);
+    histogram.recordNanos(1_000_000);
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+    assertEquals(
+        "histogram,lower_us,upper_us,count\na\"b,10,11,2\na\"b,992,1008,1\n",
+        LatencyHistogram.toCsv(Collections.singletonList(snapshot)));
+    String json = LatencyHistogram.toJson(Collections.singletonList(snapshot));
+    assertTrue(json, json.startsWith("[{\"name\":\"a\\\"b\",\"count\":3,"));
+    assertTrue(json, json.endsWith(",\"buckets\":[[10,11,2],[992,1008,1]]}]"));
+  }
+
+  @Test
+  public void constructor_rejectsInvalidWindow() {
+    try {
+      new LatencyHistogram("invalid", 0, 1);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+}
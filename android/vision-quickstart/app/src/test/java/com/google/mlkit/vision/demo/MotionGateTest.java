@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MotionGateTest {
+
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+  private static final long FRAME_NANOS = 33_000_000;
+
+  private final MotionGate gate = new MotionGate();
+
+  @Test
+  public void shouldDetect_skipsStaticFrames() {
+    byte[] frame = frame(/* luma= */ 100);
+    assertTrue(detect(frame, 0));
+    assertFalse(detect(frame, 1));
+    assertFalse(detect(frame, 2));
+    assertEquals(2, gate.getStaticFrameCount());
+  }
+
+  @Test
+  public void shouldDetect_ignoresSensorNoise() {
+    Random random = new Random(1);
+    assertTrue(detect(frame(100), 0));
+    for (int i = 1; i < 10; i++) {
+      byte[] noisy = frame(100);
+      for (int p = 0; p < WIDTH * HEIGHT; p++) {
+        noisy[p] = (byte) (100 + random.nextInt(11) - 5);
+      }
+      assertFalse(detect(noisy, i));
+    }
+  }
+
+  @Test
+  public void shouldDetect_noticesSmallMovingObject() {
+    assertTrue(detect(frame(100), 0));
+    byte[] frame = frame(100);
+    // A bright square covering a few cells of the grid.
+    fillSquare(frame, 200, 200, 80, (byte) 250);
+    assertTrue(detect(frame, 1));
+    // The square is now the reference: it has to move again to be detected.
+    assertFalse(detect(frame, 2));
+  }
+
+  @Test
+  public void shouldDetect_addsUpSlowChanges() {
+    assertTrue(detect(frame(100), 0));
+    assertFalse(detect(frame(105), 1));
+    assertFalse(detect(frame(110), 2));
+    // Compared with the last detected frame, not the previous one.
+    assertTrue(detect(frame(115), 3));
+  }
+
+  @Test
+  public void shouldDetect_afterRefreshInterval() {
+    byte[] frame = frame(100);
+    long refreshNanos = MotionGate.DEFAULT_REFRESH_INTERVAL_MS * 1_000_000;
+    assertTrue(gate.shouldDetectNv21(ByteBuffer.wrap(frame), WIDTH, HEIGHT, 0));
+    assertFalse(gate.shouldDetectNv21(ByteBuffer.wrap(frame), WIDTH, HEIGHT, refreshNanos - 1));
+    assertTrue(gate.shouldDetectNv21(ByteBuffer.wrap(frame), WIDTH, HEIGHT, refreshNanos));
+  }
+
+  @Test
+  public void reset_makesNextFrameDetected() {
+    byte[] frame = frame(100);
+    assertTrue(detect(frame, 0));
+    gate.reset();
+    assertTrue(detect(frame, 1));
+  }
+
+  @Test
+  public void shouldDetect_honorsStrides() {
+    int rowStride = 2 * WIDTH + 16;
+    byte[] padded = new byte[rowStride * HEIGHT];
+    // Pixels at even offsets hold the image, the bytes in between and the row padding are noise.
+    Random random = new Random(2);
+    random.nextBytes(padded);
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        padded[y * rowStride + 2 * x] = 100;
+      }
+    }
+    ByteBuffer luma = ByteBuffer.wrap(padded);
+    assertTrue(gate.shouldDetect(luma, WIDTH, HEIGHT, rowStride, 2, 0));
+    random.nextBytes(padded);
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        padded[y * rowStride + 2 * x] = 100;
+      }
+    }
+    assertFalse(gate.shouldDetect(luma, WIDTH, HEIGHT, rowStride, 2, FRAME_NANOS));
+  }
+
+  @Test
+  public void constructor_rejectsInvalidRefreshInterval() {
+    try {
+      new MotionGate(0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  private boolean detect(byte[] frame, int frameIndex) {
+    return gate.shouldDetectNv21(ByteBuffer.wrap(frame), WIDTH, HEIGHT, frameIndex * FRAME_NANOS);
+  }
+
+  private static byte[] frame(int luma) {
+    byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+    for (int i = 0; i < WIDTH * HEIGHT; i++) {
+      nv21[i] = (byte) luma;
+    }
+    return nv21;
+  }
+
+  private static void fillSquare(byte[] frame, int left, int top, int side, byte luma) {
+    for (int y = top; y < top + side; y++) {
+      for (int x = left; x < left + side; x++) {
+        frame[y * WIDTH + x] = luma;
+      }
+    }
+  }
+}
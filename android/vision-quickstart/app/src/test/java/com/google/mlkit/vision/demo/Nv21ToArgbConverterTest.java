@@ -0,0 +1,179 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Compares {@link Nv21ToArgbConverter} with the path it replaced: a per-pixel conversion with the
+ * floating-point full-range BT.601 equations the JPEG encoder applies to NV21, followed by a
+ * separate rotation and mirroring of the whole image.
+ */
+@RunWith(JUnit4.class)
+public class Nv21ToArgbConverterTest {
+
+  // Frame sizes, including odd widths and heights whose last chroma sample covers one pixel.
+  private static final int[][] SIZES = {{1, 1}, {2, 2}, {3, 5}, {17, 9}, {64, 48}, {33, 34}};
+
+  private static final int[] ROTATIONS = {0, 90, 180, 270};
+
+  @Test
+  public void convert_matchesReference_forEveryRotationAndMirroring() {
+    Random random = new Random(1);
+    for (int[] size : SIZES) {
+      byte[] nv21 = randomFrame(random, size[0], size[1]);
+      for (int rotation : ROTATIONS) {
+        for (boolean mirror : new boolean[] {false, true}) {
+          assertConversion(nv21, size[0], size[1], rotation, mirror);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void convert_clampsExtremeColors() {
+    // Every combination of black and white luma with the most extreme chroma values.
+    byte[] nv21 = new byte[4 * 2 + 4 * 1];
+    nv21[0] = 0;
+    nv21[1] = (byte) 255;
+    nv21[2] = 0;
+    nv21[3] = (byte) 255;
+    nv21[4] = (byte) 255;
+    nv21[5] = 0;
+    nv21[6] = (byte) 255;
+    nv21[7] = 0;
+    nv21[8] = 0;
+    nv21[9] = (byte) 255;
+    nv21[10] = (byte) 255;
+    nv21[11] = 0;
+
+    assertConversion(nv21, /* width= */ 4, /* height= */ 2, 0, false);
+  }
+
+  @Test
+  public void convert_normalizesRotation() {
+    byte[] nv21 = randomFrame(new Random(2), 6, 4);
+    int[] expected = new int[24];
+    int[] actual = new int[24];
+
+    Nv21ToArgbConverter.convert(nv21, 6, 4, 270, false, expected);
+    Nv21ToArgbConverter.convert(nv21, 6, 4, -90, false, actual);
+    assertArrayEquals(expected, actual);
+    Nv21ToArgbConverter.convert(nv21, 6, 4, 630, false, actual);
+    assertArrayEquals(expected, actual);
+  }
+
+  @Test
+  public void convert_rejectsRotationThatIsNotARightAngle() {
+    try {
+      Nv21ToArgbConverter.convert(new byte[6], 2, 2, 45, false, new int[4]);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void getOutputSize_swapsSidesWhenSideways() {
+    assertEquals(640, Nv21ToArgbConverter.getOutputWidth(640, 480, 0));
+    assertEquals(480, Nv21ToArgbConverter.getOutputHeight(640, 480, 180));
+    assertEquals(480, Nv21ToArgbConverter.getOutputWidth(640, 480, 90));
+    assertEquals(640, Nv21ToArgbConverter.getOutputHeight(640, 480, 270));
+  }
+
+  private static void assertConversion(
+      byte[] nv21, int width, int height, int rotation, boolean mirror) {
+    int[] expected = referenceConvert(nv21, width, height, rotation, mirror);
+    int[] actual = new int[width * height];
+    Nv21ToArgbConverter.convert(nv21, width, height, rotation, mirror, actual);
+    for (int i = 0; i < expected.length; i++) {
+      String pixel =
+          width + "x" + height + " rotated " + rotation + (mirror ? " mirrored" : "") + " at " + i;
+      assertEquals(pixel, 0xff, actual[i] >>> 24);
+      for (int shift = 0; shift < 24; shift += 8) {
+        int difference = ((expected[i] >> shift) & 0xff) - ((actual[i] >> shift) & 0xff);
+        // The lookup tables round the chroma terms before adding luma.
+        assertTrue(pixel + ": " + difference, Math.abs(difference) <= 1);
+      }
+    }
+  }
+
+  /** Converts every pixel on its own, then rotates clockwise and mirrors the upright image. */
+  private static int[] referenceConvert(
+      byte[] nv21, int width, int height, int rotation, boolean mirror) {
+    int[] upright = new int[width * height];
+    int chromaStride = 2 * ((width + 1) / 2);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int luma = nv21[y * width + x] & 0xff;
+        int chromaIndex = width * height + (y / 2) * chromaStride + (x / 2) * 2;
+        int v = (nv21[chromaIndex] & 0xff) - 128;
+        int u = (nv21[chromaIndex + 1] & 0xff) - 128;
+        int red = clamp(luma + 1.402f * v);
+        int green = clamp(luma - 0.344136f * u - 0.714136f * v);
+        int blue = clamp(luma + 1.772f * u);
+        upright[y * width + x] = 0xff000000 | red << 16 | green << 8 | blue;
+      }
+    }
+
+    boolean sideways = rotation == 90 || rotation == 270;
+    int outputWidth = sideways ? height : width;
+    int[] output = new int[width * height];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int outputX;
+        int outputY;
+        if (rotation == 0) {
+          outputX = x;
+          outputY = y;
+        } else if (rotation == 90) {
+          outputX = height - 1 - y;
+          outputY = x;
+        } else if (rotation == 180) {
+          outputX = width - 1 - x;
+          outputY = height - 1 - y;
+        } else {
+          outputX = y;
+          outputY = width - 1 - x;
+        }
+        if (mirror) {
+          outputX = outputWidth - 1 - outputX;
+        }
+        output[outputY * outputWidth + outputX] = upright[y * width + x];
+      }
+    }
+    return output;
+  }
+
+  private static int clamp(float value) {
+    return Math.max(0, Math.min(255, Math.round(value)));
+  }
+
+  private static byte[] randomFrame(Random random, int width, int height) {
+    byte[] nv21 = new byte[width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2)];
+    random.nextBytes(nv21);
+    return nv21;
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Compares {@link Yuv420ToNv21Repacker} with the per-pixel copy it replaced, over the plane
+ * layouts camera HALs produce: padded rows, planar and semi-planar chroma, and planes whose last
+ * row stops at the last sample instead of the row stride.
+ */
+@RunWith(JUnit4.class)
+public class Yuv420ToNv21RepackerTest {
+
+  // Frame sizes, including odd widths and heights whose last chroma sample covers one pixel.
+  private static final int[][] SIZES = {{1, 1}, {2, 2}, {3, 5}, {17, 9}, {64, 48}, {33, 34}};
+
+  // Bytes of padding added to every row of each plane.
+  private static final int[] ROW_PADDINGS = {0, 3, 16};
+
+  @Test
+  public void repack_planarChroma_matchesReference() {
+    Random random = new Random(1);
+    for (int[] size : SIZES) {
+      for (int padding : ROW_PADDINGS) {
+        assertRepack(random, size[0], size[1], padding, /* uvPixelStride= */ 1, false);
+      }
+    }
+  }
+
+  @Test
+  public void repack_semiPlanarChroma_matchesReference() {
+    Random random = new Random(2);
+    for (int[] size : SIZES) {
+      for (int padding : ROW_PADDINGS) {
+        assertRepack(random, size[0], size[1], padding, /* uvPixelStride= */ 2, false);
+      }
+    }
+  }
+
+  @Test
+  public void repack_semiPlanarChromaSharingMemory_matchesReference() {
+    Random random = new Random(3);
+    for (int[] size : SIZES) {
+      for (int padding : ROW_PADDINGS) {
+        assertRepack(random, size[0], size[1], padding, /* uvPixelStride= */ 2, true);
+      }
+    }
+  }
+
+  @Test
+  public void repack_otherPixelStride_matchesReference() {
+    Random random = new Random(4);
+    for (int[] size : SIZES) {
+      for (int padding : ROW_PADDINGS) {
+        assertRepack(random, size[0], size[1], padding, /* uvPixelStride= */ 3, false);
+      }
+    }
+  }
+
+  @Test
+  public void repack_rewindsPlanes() {
+    Planes planes = Planes.create(new Random(5), 6, 4, /* padding= */ 2, 2, false);
+    planes.y.position(5);
+    planes.u.position(3);
+    planes.v.position(1);
+
+    ByteBuffer nv21 =
+        new Yuv420ToNv21Repacker()
+            .repack(planes.y, planes.yRowStride, planes.u, planes.v, planes.uvRowStride, 2, 6, 4);
+
+    assertEquals(0, nv21.position());
+    assertEquals(Yuv420ToNv21Repacker.getNv21Size(6, 4), nv21.remaining());
+    assertEquals(0, planes.y.position());
+    assertEquals(0, planes.u.position());
+    assertEquals(0, planes.v.position());
+  }
+
+  @Test
+  public void acquireBuffer_reusesBufferPerSizeAndEvictsLeastRecentlyUsed() {
+    Yuv420ToNv21Repacker repacker = new Yuv420ToNv21Repacker();
+    ByteBuffer small = repacker.acquireBuffer(4, 4);
+    ByteBuffer large = repacker.acquireBuffer(8, 8);
+    small.position(3);
+
+    assertSame(small, repacker.acquireBuffer(4, 4));
+    assertEquals(0, small.position());
+    assertSame(large, repacker.acquireBuffer(8, 8));
+
+    // Two more sizes fill the pool; a fifth evicts 4x4, which was used before 8x8.
+    repacker.acquireBuffer(2, 2);
+    repacker.acquireBuffer(6, 6);
+    repacker.acquireBuffer(10, 10);
+    assertSame(large, repacker.acquireBuffer(8, 8));
+    assertNotSame(small, repacker.acquireBuffer(4, 4));
+  }
+
+  @Test
+  public void getNv21Size_roundsChromaUp() {
+    assertEquals(6, Yuv420ToNv21Repacker.getNv21Size(2, 2));
+    assertEquals(3, Yuv420ToNv21Repacker.getNv21Size(1, 1));
+    assertEquals(15 + 2 * 2 * 3, Yuv420ToNv21Repacker.getNv21Size(3, 5));
+  }
+
+  private static void assertRepack(
+      Random random, int width, int height, int padding, int uvPixelStride, boolean sharedVu) {
+    Planes planes = Planes.create(random, width, height, padding, uvPixelStride, sharedVu);
+    byte[] expected = referenceRepack(planes, width, height);
+
+    Yuv420ToNv21Repacker repacker = new Yuv420ToNv21Repacker();
+    // Dirty the pooled buffer first, so that a byte the repacker fails to write shows up.
+    Arrays.fill(repacker.acquireBuffer(width, height).array(), (byte) 0x5a);
+    ByteBuffer nv21 =
+        repacker.repack(
+            planes.y,
+            planes.yRowStride,
+            planes.u,
+            planes.v,
+            planes.uvRowStride,
+            uvPixelStride,
+            width,
+            height);
+
+    String layout =
+        width + "x" + height + " padded by " + padding + " with pixel stride " + uvPixelStride
+            + (sharedVu ? " sharing memory" : "");
+    assertEquals(layout, expected.length, nv21.remaining());
+    assertArrayEquals(layout, expected, Arrays.copyOf(nv21.array(), expected.length));
+  }
+
+  /** Copies every sample on its own with absolute reads, like the path the repacker replaced. */
+  private static byte[] referenceRepack(Planes planes, int width, int height) {
+    byte[] out = new byte[Yuv420ToNv21Repacker.getNv21Size(width, height)];
+    for (int row = 0; row < height; row++) {
+      for (int col = 0; col < width; col++) {
+        out[row * width + col] = planes.y.get(row * planes.yRowStride + col);
+      }
+    }
+    int chromaWidth = (width + 1) / 2;
+    int chromaHeight = (height + 1) / 2;
+    int offset = width * height;
+    for (int row = 0; row < chromaHeight; row++) {
+      for (int col = 0; col < chromaWidth; col++) {
+        int index = row * planes.uvRowStride + col * planes.uvPixelStride;
+        out[offset++] = planes.v.get(index);
+        out[offset++] = planes.u.get(index);
+      }
+    }
+    return out;
+  }
+
+  /** The planes of a random YUV_420_888 image, laid out the way a camera HAL would. */
+  private static final class Planes {
+    final ByteBuffer y;
+    final ByteBuffer u;
+    final ByteBuffer v;
+    final int yRowStride;
+    final int uvRowStride;
+    final int uvPixelStride;
+
+    private Planes(
+        ByteBuffer y,
+        ByteBuffer u,
+        ByteBuffer v,
+        int yRowStride,
+        int uvRowStride,
+        int uvPixelStride) {
+      this.y = y;
+      this.u = u;
+      this.v = v;
+      this.yRowStride = yRowStride;
+      this.uvRowStride = uvRowStride;
+      this.uvPixelStride = uvPixelStride;
+    }
+
+    /**
+     * Creates planes whose rows are padded by {@code padding} bytes and whose last row ends at its
+     * last sample. With {@code sharedVu} the U plane starts one byte into the V plane's memory, as
+     * on devices that produce NV21 natively.
+     */
+    static Planes create(
+        Random random,
+        int width,
+        int height,
+        int padding,
+        int uvPixelStride,
+        boolean sharedVu) {
+      int yRowStride = width + padding;
+      ByteBuffer y = randomPlane(random, yRowStride, width, height);
+
+      int chromaWidth = (width + 1) / 2;
+      int chromaHeight = (height + 1) / 2;
+      int rowLength = (chromaWidth - 1) * uvPixelStride + 1;
+      int uvRowStride = rowLength + padding;
+      ByteBuffer u;
+      ByteBuffer v;
+      if (sharedVu) {
+        byte[] vu = new byte[(chromaHeight - 1) * uvRowStride + rowLength + 1];
+        random.nextBytes(vu);
+        v = ByteBuffer.wrap(vu, 0, vu.length - 1).slice();
+        u = ByteBuffer.wrap(vu, 1, vu.length - 1).slice();
+      } else {
+        u = randomPlane(random, uvRowStride, rowLength, chromaHeight);
+        v = randomPlane(random, uvRowStride, rowLength, chromaHeight);
+      }
+      return new Planes(y, u, v, yRowStride, uvRowStride, uvPixelStride);
+    }
+
+    private static ByteBuffer randomPlane(Random random, int rowStride, int rowLength, int rows) {
+      byte[] plane = new byte[(rows - 1) * rowStride + rowLength];
+      random.nextBytes(plane);
+      return ByteBuffer.wrap(plane);
+    }
+  }
+}
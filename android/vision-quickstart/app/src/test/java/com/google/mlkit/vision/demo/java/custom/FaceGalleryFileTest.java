@@ -0,0 +1,126 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FaceGalleryFileTest {
+
+  private static final int DIMENSION = 4;
+  private static final long[] PERSON_IDS = {11, 12, 13};
+  private static final String[] PERSON_NAMES = {"Ann", "Bob", "Chloé"};
+  // Samples of Ann and Chloé interleaved; Bob has none.
+  private static final int[] SAMPLE_PERSONS = {2, 0, 2, 0, 2};
+  private static final float[] SIGNATURES = {
+    1, 2, 3, 4, //
+    10, 20, 30, 40, //
+    3, 4, 5, 6, //
+    30, 40, 50, 60, //
+    5, 6, 7, 8,
+  };
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void map_float32_groupsSamplesByPerson() throws IOException {
+    MappedFaceGallery gallery = writeAndMap(FaceGalleryFile.ENCODING_FLOAT32);
+
+    assertEquals(DIMENSION, gallery.getDimension());
+    assertEquals(3, gallery.getPersonCount());
+    assertEquals(5, gallery.size());
+    // Ann's samples come first, then Chloé's, each in the order they were given.
+    int[] expectedSamples = {1, 3, 0, 2, 4};
+    float[] signature = new float[DIMENSION];
+    for (int row = 0; row < expectedSamples.length; row++) {
+      int sample = expectedSamples[row];
+      int person = SAMPLE_PERSONS[sample];
+      assertEquals(person, gallery.getPerson(row));
+      assertEquals(PERSON_IDS[person], gallery.getPersonId(row));
+      assertEquals(PERSON_NAMES[person], gallery.getName(row));
+      gallery.getSignature(row, signature);
+      for (int j = 0; j < DIMENSION; j++) {
+        assertEquals(SIGNATURES[sample * DIMENSION + j], signature[j], 0f);
+      }
+    }
+  }
+
+  @Test
+  public void map_readsCentroidsWrittenAtExport() throws IOException {
+    MappedFaceGallery gallery = writeAndMap(FaceGalleryFile.ENCODING_INT8);
+
+    float[] expected = {
+      20, 30, 40, 50, //
+      0, 0, 0, 0, //
+      3, 4, 5, 6,
+    };
+    assertArrayEquals(expected, gallery.getCentroids(), 0f);
+  }
+
+  @Test
+  public void scanPerson_offersOnlyThatPersonsRows() throws IOException {
+    MappedFaceGallery gallery = writeAndMap(FaceGalleryFile.ENCODING_FLOAT32);
+    float[] query = new float[DIMENSION];
+
+    MatchResults results = new MatchResults(5);
+    gallery.scanPerson(2, query, DistanceMetric.L2, results);
+    assertEquals(3, results.size());
+    for (int i = 0; i < results.size(); i++) {
+      assertEquals(2, gallery.getPerson(results.getRow(i)));
+    }
+
+    results.reset(5);
+    gallery.scanPerson(1, query, DistanceMetric.L2, results);
+    assertEquals(0, results.size());
+  }
+
+  @Test
+  public void map_rejectsInconsistentPersonRecords() throws IOException {
+    ByteBuffer encoded = encode(FaceGalleryFile.ENCODING_FLOAT32);
+    // Claim one more sample for the first person than the file holds.
+    int firstCountOffset = FaceGalleryFile.HEADER_SIZE + 20;
+    encoded.putInt(firstCountOffset, encoded.getInt(firstCountOffset) + 1);
+    File file = write(encoded);
+
+    try {
+      FaceGalleryFile.map(file);
+      fail();
+    } catch (IOException expected) {
+      // Expected.
+    }
+  }
+
+  private MappedFaceGallery writeAndMap(int encoding) throws IOException {
+    return FaceGalleryFile.map(write(encode(encoding)));
+  }
+
+  private static ByteBuffer encode(int encoding) {
+    return FaceGalleryFile.encode(
+        encoding,
+        DIMENSION,
+        PERSON_IDS,
+        PERSON_NAMES,
+        PERSON_IDS.length,
+        SAMPLE_PERSONS,
+        SIGNATURES,
+        SAMPLE_PERSONS.length);
+  }
+
+  private File write(ByteBuffer encoded) throws IOException {
+    File file = folder.newFile();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(encoded.array(), 0, encoded.limit());
+    }
+    return file;
+  }
+}
@@ -0,0 +1,49 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that {@link FaceMatcher} finds the same neighbors with and without its tree. */
+@RunWith(JUnit4.class)
+public class FaceMatcherTest {
+
+  private static final int DIMENSION = 12;
+  private static final int TREE_THRESHOLD = 64;
+
+  @Test
+  public void search_withTree_matchesLinearScanAsRowsAreAppended() {
+    Random random = new Random(4);
+    float[] rows = new float[400 * DIMENSION];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = (float) random.nextGaussian() * 10;
+    }
+    FaceMatcher treeMatcher = new FaceMatcher(DIMENSION, DistanceMetric.L2, TREE_THRESHOLD);
+    FaceMatcher linearMatcher = new FaceMatcher(DIMENSION, DistanceMetric.L2, Integer.MAX_VALUE);
+    float[] query = new float[DIMENSION];
+
+    // Below the threshold, right at it, and with appended rows both below and above the point
+    // where the tree is rebuilt.
+    for (int rowCount : new int[] {10, 64, 70, 90, 400}) {
+      for (int q = 0; q < 20; q++) {
+        for (int i = 0; i < DIMENSION; i++) {
+          query[i] = (float) random.nextGaussian() * 10;
+        }
+        MatchResults expected = new MatchResults(5);
+        linearMatcher.search(rows, rowCount, query, 5, expected);
+        MatchResults actual = new MatchResults(5);
+        treeMatcher.search(rows, rowCount, query, 5, actual);
+
+        String search = rowCount + " rows, query " + q;
+        assertEquals(search, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+          assertEquals(search, expected.getRow(i), actual.getRow(i));
+          assertEquals(search, expected.getDistance(i), actual.getDistance(i), 0f);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MatchResultsTest {
+
+  @Test
+  public void offer_keepsNearestInOrder() {
+    MatchResults results = new MatchResults(3);
+    results.offer(0, 5f);
+    results.offer(1, 2f);
+    results.offer(2, 9f);
+    results.offer(3, 1f);
+    results.offer(4, 7f);
+
+    assertEquals(3, results.size());
+    assertEquals(3, results.getRow(0));
+    assertEquals(1f, results.getDistance(0), 0f);
+    assertEquals(1, results.getRow(1));
+    assertEquals(0, results.getRow(2));
+    assertEquals(5f, results.getDistance(2), 0f);
+  }
+
+  @Test
+  public void worstDistance_isInfiniteUntilFull() {
+    MatchResults results = new MatchResults(2);
+    results.offer(0, 4f);
+    assertEquals(Float.POSITIVE_INFINITY, results.worstDistance(), 0f);
+    results.offer(1, 3f);
+    assertEquals(4f, results.worstDistance(), 0f);
+  }
+
+  @Test
+  public void offer_keepsFirstOfEqualDistances() {
+    MatchResults results = new MatchResults(1);
+    results.offer(0, 3f);
+    results.offer(1, 3f);
+    assertEquals(0, results.getRow(0));
+  }
+
+  @Test
+  public void reset_emptiesAndResizes() {
+    MatchResults results = new MatchResults(1);
+    results.offer(0, 1f);
+    results.reset(3);
+    assertEquals(0, results.size());
+    for (int row = 0; row < 4; row++) {
+      results.offer(row, 10f - row);
+    }
+    assertEquals(3, results.size());
+    assertEquals(3, results.getRow(0));
+
+    results.reset(0);
+    results.offer(0, 0f);
+    assertEquals(0, results.size());
+  }
+}
@@ -0,0 +1,146 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class QuantizedSignatureStoreTest {
+
+  private static final int DIMENSION = 36;
+  // More rows than the initial capacity, so that the store grows.
+  private static final int ROW_COUNT = 300;
+  // Metrics scored on the quantized query rather than the float one.
+  private static final DistanceMetric[] APPROXIMATED_METRICS = {
+    DistanceMetric.L2, DistanceMetric.COSINE
+  };
+
+  private final Random random = new Random(1);
+
+  @Test
+  public void add_roundTripsWithinHalfAStep() {
+    QuantizedSignatureStore store = new QuantizedSignatureStore(DIMENSION);
+    float[] rows = randomRows(ROW_COUNT);
+    for (int i = 0; i < ROW_COUNT; i++) {
+      store.add(rows, i * DIMENSION);
+    }
+    assertEquals(ROW_COUNT, store.size());
+    assertEquals(56, store.bytesPerRow());
+
+    float[] signature = new float[DIMENSION];
+    for (int i = 0; i < ROW_COUNT; i++) {
+      store.getSignature(i, signature, 0);
+      float min = Float.POSITIVE_INFINITY;
+      float max = Float.NEGATIVE_INFINITY;
+      for (int j = 0; j < DIMENSION; j++) {
+        min = Math.min(min, rows[i * DIMENSION + j]);
+        max = Math.max(max, rows[i * DIMENSION + j]);
+      }
+      float halfStep = (max - min) / 255f / 2f;
+      for (int j = 0; j < DIMENSION; j++) {
+        assertEquals(rows[i * DIMENSION + j], signature[j], halfStep * 1.01f);
+      }
+    }
+  }
+
+  @Test
+  public void approximateDistance_matchesDistanceOfDequantizedVectors() {
+    QuantizedSignatureStore store = storeOf(randomRows(ROW_COUNT));
+    float[] query = randomRows(1);
+    float[] dequantizedQuery = new float[DIMENSION];
+    storeOf(query).getSignature(0, dequantizedQuery, 0);
+    float[] row = new float[DIMENSION];
+
+    store.prepareQuery(query);
+    for (int i = 0; i < ROW_COUNT; i++) {
+      store.getSignature(i, row, 0);
+      for (DistanceMetric metric : APPROXIMATED_METRICS) {
+        float expected =
+            metric.distance(dequantizedQuery, 0, row, 0, DIMENSION, Float.POSITIVE_INFINITY);
+        float actual = store.approximateDistance(metric, i);
+        assertEquals(metric + " row " + i, expected, actual, 1e-3f * Math.max(1f, expected));
+      }
+    }
+  }
+
+  @Test
+  public void approximateDistance_thresholdCount_throws() {
+    QuantizedSignatureStore store = storeOf(randomRows(1));
+    store.prepareQuery(randomRows(1));
+    try {
+      store.approximateDistance(DistanceMetric.THRESHOLD_COUNT, 0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void getShortlistMetric_usesL2UnlessCodesSupportTheMetric() {
+    assertEquals(DistanceMetric.L2, QuantizedSignatureStore.getShortlistMetric(DistanceMetric.L2));
+    assertEquals(
+        DistanceMetric.COSINE, QuantizedSignatureStore.getShortlistMetric(DistanceMetric.COSINE));
+    assertEquals(
+        DistanceMetric.L2,
+        QuantizedSignatureStore.getShortlistMetric(DistanceMetric.THRESHOLD_COUNT));
+  }
+
+  @Test
+  public void search_matchesLinearScanOfDequantizedRows() {
+    QuantizedSignatureStore store = storeOf(randomRows(ROW_COUNT));
+    float[] row = new float[DIMENSION];
+    MatchResults actual = new MatchResults(3);
+    for (int q = 0; q < 20; q++) {
+      float[] query = randomRows(1);
+      MatchResults expected = new MatchResults(3);
+      for (int i = 0; i < ROW_COUNT; i++) {
+        store.getSignature(i, row, 0);
+        expected.offer(
+            i, DistanceMetric.L2.distance(query, 0, row, 0, DIMENSION, Float.POSITIVE_INFINITY));
+      }
+
+      store.search(
+          DistanceMetric.L2, query, 3, QuantizedSignatureStore.DEFAULT_RERANK_FACTOR, actual);
+      assertEquals(3, actual.size());
+      for (int i = 0; i < 3; i++) {
+        assertEquals("query " + q, expected.getRow(i), actual.getRow(i));
+        assertEquals("query " + q, expected.getDistance(i), actual.getDistance(i), 0f);
+      }
+    }
+  }
+
+  @Test
+  public void search_findsEnrolledSignature() {
+    float[] rows = randomRows(ROW_COUNT);
+    QuantizedSignatureStore store = storeOf(rows);
+    float[] query = new float[DIMENSION];
+    MatchResults results = new MatchResults(1);
+    for (int i = 0; i < ROW_COUNT; i += 13) {
+      System.arraycopy(rows, i * DIMENSION, query, 0, DIMENSION);
+      for (DistanceMetric metric : DistanceMetric.values()) {
+        store.search(metric, query, 1, QuantizedSignatureStore.DEFAULT_RERANK_FACTOR, results);
+        assertEquals(metric + " row " + i, i, results.getRow(0));
+      }
+    }
+  }
+
+  private static QuantizedSignatureStore storeOf(float[] rows) {
+    QuantizedSignatureStore store = new QuantizedSignatureStore(DIMENSION);
+    for (int i = 0; i < rows.length / DIMENSION; i++) {
+      store.add(rows, i * DIMENSION);
+    }
+    return store;
+  }
+
+  private float[] randomRows(int rowCount) {
+    float[] rows = new float[rowCount * DIMENSION];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = (float) random.nextGaussian() * 20;
+    }
+    return rows;
+  }
+}
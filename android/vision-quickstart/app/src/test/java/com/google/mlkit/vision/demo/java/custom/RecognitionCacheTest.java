@@ -0,0 +1,168 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RecognitionCacheTest {
+
+  private static final float[] SIGNATURE = {1f, 2f, 3f};
+
+  private final RecognitionCache cache = new RecognitionCache(SIGNATURE.length);
+
+  @Test
+  public void recordMatch_needsTwoVotesToConfirm() {
+    int track = associate(0, 0, 0);
+    cache.recordMatch(track, SIGNATURE, 7, "Ada", 0);
+    assertNull(cache.getName(track));
+    assertTrue(cache.needsMatch(track, SIGNATURE, 10));
+
+    cache.recordMatch(track, SIGNATURE, 7, "Ada", 10);
+    assertEquals("Ada", cache.getName(track));
+    assertFalse(cache.needsMatch(track, SIGNATURE, 20));
+  }
+
+  @Test
+  public void recordMatch_votesMajorityOverWindow() {
+    int track = associate(0, 0, 0);
+    cache.recordMatch(track, SIGNATURE, 7, "Ada", 0);
+    cache.recordMatch(track, SIGNATURE, 7, "Ada", 0);
+    // One bad frame does not change the identity.
+    cache.recordMatch(track, SIGNATURE, 8, "Bob", 0);
+    assertEquals("Ada", cache.getName(track));
+
+    // Bob takes over once he has the majority of the last five matches.
+    cache.recordMatch(track, SIGNATURE, 8, "Bob", 0);
+    assertEquals("Ada", cache.getName(track));
+    cache.recordMatch(track, SIGNATURE, 8, "Bob", 0);
+    assertEquals("Bob", cache.getName(track));
+  }
+
+  @Test
+  public void recordMatch_unknownPersonHasEmptyName() {
+    int track = associate(0, 0, 0);
+    cache.recordMatch(track, SIGNATURE, RecognitionCache.UNKNOWN_PERSON, null, 0);
+    cache.recordMatch(track, SIGNATURE, RecognitionCache.UNKNOWN_PERSON, null, 0);
+    assertEquals("", cache.getName(track));
+  }
+
+  @Test
+  public void needsMatch_afterIdentityTtl() {
+    int track = confirmedTrack();
+    long ttl = RecognitionCache.DEFAULT_IDENTITY_TTL_MS;
+    assertFalse(cache.needsMatch(track, SIGNATURE, ttl));
+    assertTrue(cache.needsMatch(track, SIGNATURE, ttl + 1));
+  }
+
+  @Test
+  public void needsMatch_whenSignatureDrifts() {
+    int track = confirmedTrack();
+    float drift = RecognitionCache.DEFAULT_MAX_SIGNATURE_DRIFT;
+    assertFalse(cache.needsMatch(track, new float[] {1f, 2f, 3f + drift}, 0));
+    assertTrue(cache.needsMatch(track, new float[] {1f, 2f, 3f + drift + 1}, 0));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void associate_continuesOverlappingTrack() {
+    int track = confirmedTrack();
+    cache.beginFrame(100);
+    assertEquals(track, cache.associate(5, 5, 105, 105, 100));
+    assertEquals("Ada", cache.getName(track));
+  }
+
+  @Test
+  public void associate_startsNewTrackWithoutOverlap() {
+    int track = confirmedTrack();
+    cache.beginFrame(100);
+    int other = cache.associate(500, 500, 600, 600, 100);
+    assertNotEquals(track, other);
+    assertNull(cache.getName(other));
+  }
+
+  @Test
+  public void associate_givesEachTrackToOneFacePerFrame() {
+    int track = confirmedTrack();
+    cache.beginFrame(100);
+    assertEquals(track, cache.associate(0, 0, 100, 100, 100));
+    assertNotEquals(track, cache.associate(0, 0, 100, 100, 100));
+  }
+
+  @Test
+  public void associate_returnsNoTrackWhenFull() {
+    RecognitionCache small =
+        new RecognitionCache(SIGNATURE.length, /* maxTracks= */ 2, 1000, 500, 5, 2, 0.3f, 8f);
+    small.beginFrame(0);
+    assertEquals(0, small.associate(0, 0, 10, 10, 0));
+    assertEquals(1, small.associate(100, 0, 110, 10, 0));
+    assertEquals(RecognitionCache.NO_TRACK, small.associate(200, 0, 210, 10, 0));
+  }
+
+  @Test
+  public void beginFrame_expiresUnseenTracks() {
+    int track = confirmedTrack();
+    long expiry = RecognitionCache.DEFAULT_TRACK_EXPIRY_MS;
+    cache.beginFrame(expiry);
+    assertEquals(track, cache.associate(0, 0, 100, 100, expiry));
+
+    // Unseen for longer than the expiry, so the slot is reused by a fresh track.
+    cache.beginFrame(2 * expiry + 1);
+    assertEquals(track, cache.associate(0, 0, 100, 100, 2 * expiry + 1));
+    assertNull(cache.getName(track));
+  }
+
+  @Test
+  public void associateTrackingId_followsIdWithoutOverlap() {
+    cache.beginFrame(0);
+    int track = cache.associate(/* trackingId= */ 3, 0, 0, 100, 100, 0);
+    cache.recordMatch(track, SIGNATURE, 7, "Ada", 0);
+    cache.recordMatch(track, SIGNATURE, 7, "Ada", 0);
+
+    // The face jumped across the frame, which overlap alone could not follow.
+    cache.beginFrame(100);
+    assertEquals(track, cache.associate(3, 500, 500, 600, 600, 100));
+    assertEquals("Ada", cache.getName(track));
+  }
+
+  @Test
+  public void associateTrackingId_keepsDifferentIdsApartDespiteOverlap() {
+    cache.beginFrame(0);
+    int track = cache.associate(/* trackingId= */ 3, 0, 0, 100, 100, 0);
+    assertNotEquals(track, cache.associate(4, 0, 0, 100, 100, 0));
+  }
+
+  @Test
+  public void associateTrackingId_fallsBackToOverlapWithoutId() {
+    int track = confirmedTrack();
+    cache.beginFrame(100);
+    assertEquals(track, cache.associate(RecognitionCache.NO_TRACKING_ID, 5, 5, 105, 105, 100));
+  }
+
+  @Test
+  public void associate_doesNotContinueTracksWithId() {
+    cache.beginFrame(0);
+    int track = cache.associate(/* trackingId= */ 3, 0, 0, 100, 100, 0);
+    cache.beginFrame(100);
+    assertNotEquals(track, cache.associate(0, 0, 100, 100, 100));
+  }
+
+  private int associate(float left, float top, long nowMs) {
+    cache.beginFrame(nowMs);
+    return cache.associate(left, top, left + 100, top + 100, nowMs);
+  }
+
+  private int confirmedTrack() {
+    int track = associate(0, 0, 0);
+    cache.recordMatch(track, SIGNATURE, 7, "Ada", 0);
+    cache.recordMatch(track, SIGNATURE, 7, "Ada", 0);
+    return track;
+  }
+}
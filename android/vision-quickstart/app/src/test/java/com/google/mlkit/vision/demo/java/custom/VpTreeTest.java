@@ -0,0 +1,94 @@
+package com.google.mlkit.vision.demo.java.custom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that a {@link VpTree} search finds the same neighbors as a linear scan. */
+@RunWith(JUnit4.class)
+public class VpTreeTest {
+
+  private static final int DIMENSION = 12;
+
+  @Test
+  public void search_matchesLinearScan() {
+    Random random = new Random(1);
+    // Sizes below, at and well above one leaf bucket.
+    for (int rowCount : new int[] {1, 5, 16, 17, 100, 1000}) {
+      float[] rows = randomRows(random, rowCount);
+      VpTree tree = new VpTree(rows, rowCount, DIMENSION, DistanceMetric.L2);
+      assertEquals(rowCount, tree.size());
+
+      for (int k : new int[] {1, 3, 10}) {
+        for (int q = 0; q < 20; q++) {
+          float[] query = randomRows(random, 1);
+          MatchResults expected = linearScan(rows, rowCount, query, k);
+          MatchResults actual = new MatchResults(k);
+          tree.search(rows, query, actual);
+
+          String search = rowCount + " rows, k=" + k + ", query " + q;
+          assertEquals(search, expected.size(), actual.size());
+          for (int i = 0; i < expected.size(); i++) {
+            assertEquals(search, expected.getRow(i), actual.getRow(i));
+            assertEquals(search, expected.getDistance(i), actual.getDistance(i), 0f);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void search_findsEnrolledRowAtDistanceZero() {
+    Random random = new Random(2);
+    float[] rows = randomRows(random, 200);
+    VpTree tree = new VpTree(rows, 200, DIMENSION, DistanceMetric.L2);
+    float[] query = new float[DIMENSION];
+
+    for (int row = 0; row < 200; row += 7) {
+      System.arraycopy(rows, row * DIMENSION, query, 0, DIMENSION);
+      MatchResults results = new MatchResults(1);
+      tree.search(rows, query, results);
+      assertEquals(row, results.getRow(0));
+      assertEquals(0f, results.getDistance(0), 0f);
+    }
+  }
+
+  @Test
+  public void search_coversOnlyTheFirstRowCountRows() {
+    Random random = new Random(3);
+    float[] rows = randomRows(random, 50);
+    VpTree tree = new VpTree(rows, 30, DIMENSION, DistanceMetric.L2);
+    float[] query = new float[DIMENSION];
+    System.arraycopy(rows, 40 * DIMENSION, query, 0, DIMENSION);
+
+    MatchResults results = new MatchResults(30);
+    tree.search(rows, query, results);
+    assertEquals(30, results.size());
+    for (int i = 0; i < results.size(); i++) {
+      assertTrue(results.getRow(i) < 30);
+    }
+  }
+
+  private static MatchResults linearScan(float[] rows, int rowCount, float[] query, int k) {
+    MatchResults results = new MatchResults(k);
+    for (int row = 0; row < rowCount; row++) {
+      results.offer(
+          row,
+          DistanceMetric.L2.distance(
+              query, 0, rows, row * DIMENSION, DIMENSION, Float.POSITIVE_INFINITY));
+    }
+    return results;
+  }
+
+  private static float[] randomRows(Random random, int rowCount) {
+    float[] rows = new float[rowCount * DIMENSION];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = (float) random.nextGaussian() * 10;
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,78 @@
+package com.google.mlkit.vision.demo.java.custom.benchmark;
+
+import com.google.mlkit.vision.demo.java.custom.DistanceMetric;
+import com.google.mlkit.vision.demo.java.custom.FaceMatcher;
+import com.google.mlkit.vision.demo.java.custom.MatchResults;
+import com.google.mlkit.vision.demo.java.custom.QuantizedSignatureStore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Cost of finding the enrolled signature nearest to one query, by gallery size and metric. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GalleryMatchBenchmark {
+
+  private static final int QUERY_COUNT = 256;
+
+  @Param({"100", "1000", "10000", "100000"})
+  public int gallerySize;
+
+  @Param({"THRESHOLD_COUNT", "L2"})
+  public DistanceMetric metric;
+
+  private float[] gallery;
+  private float[][] queries;
+  private FaceMatcher linearMatcher;
+  private FaceMatcher matcher;
+  private QuantizedSignatureStore quantized;
+  private final MatchResults results = new MatchResults(1);
+  private int next;
+
+  @Setup
+  public void setUp() {
+    gallery = SyntheticFaces.gallery(gallerySize, /* seed= */ 3);
+    queries = SyntheticFaces.queries(gallery, QUERY_COUNT, /* seed= */ 4);
+    linearMatcher = new FaceMatcher(SyntheticFaces.SIGNATURE_SIZE, metric, Integer.MAX_VALUE);
+    matcher = new FaceMatcher(SyntheticFaces.SIGNATURE_SIZE, metric);
+    quantized = new QuantizedSignatureStore(SyntheticFaces.SIGNATURE_SIZE);
+    for (int row = 0; row < gallerySize; row++) {
+      quantized.add(gallery, row * SyntheticFaces.SIGNATURE_SIZE);
+    }
+    // Build the vantage-point tree, if the metric allows one, outside of the measurement.
+    matcher.search(gallery, gallerySize, queries[0], 1, results);
+  }
+
+  /** Compares the query against every row. */
+  @Benchmark
+  public MatchResults linearScan() {
+    linearMatcher.search(gallery, gallerySize, nextQuery(), 1, results);
+    return results;
+  }
+
+  /** Searches the way FaceSignatureIndex does, through a vantage-point tree when it applies. */
+  @Benchmark
+  public MatchResults faceMatcher() {
+    matcher.search(gallery, gallerySize, nextQuery(), 1, results);
+    return results;
+  }
+
+  /** Scans int8 rows and re-ranks the shortlist in float. */
+  @Benchmark
+  public MatchResults quantizedScan() {
+    quantized.search(
+        metric, nextQuery(), 1, QuantizedSignatureStore.DEFAULT_RERANK_FACTOR, results);
+    return results;
+  }
+
+  private float[] nextQuery() {
+    return queries[next++ & (QUERY_COUNT - 1)];
+  }
+}
@@ -0,0 +1,70 @@
+package com.google.mlkit.vision.demo.java.custom.benchmark;
+
+import com.google.mlkit.vision.demo.java.custom.SignatureCodec;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of reading one stored signature: the boxed text parse the face database started with, the
+ * allocation-free text parse still used to migrate it, and the float32 blob decode used today.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SignatureDecodeBenchmark {
+
+  private static final int SIGNATURE_COUNT = 256;
+
+  private String[] texts;
+  private byte[][] blobs;
+  private final float[] signature = new float[SyntheticFaces.SIGNATURE_SIZE];
+  private int next;
+
+  @Setup
+  public void setUp() {
+    float[] gallery = SyntheticFaces.gallery(SIGNATURE_COUNT, /* seed= */ 2);
+    texts = new String[SIGNATURE_COUNT];
+    blobs = new byte[SIGNATURE_COUNT][];
+    float[] row = new float[SyntheticFaces.SIGNATURE_SIZE];
+    for (int i = 0; i < SIGNATURE_COUNT; i++) {
+      System.arraycopy(gallery, i * row.length, row, 0, row.length);
+      texts[i] = SyntheticFaces.toLegacyText(row);
+      blobs[i] = SignatureCodec.encode(row, row.length);
+    }
+  }
+
+  @Benchmark
+  public ArrayList<Double> legacyStringToArrayList() {
+    return stringToArrayList(texts[next++ & (SIGNATURE_COUNT - 1)]);
+  }
+
+  @Benchmark
+  public boolean decodeText() {
+    return SignatureCodec.decodeText(
+        texts[next++ & (SIGNATURE_COUNT - 1)], signature, SyntheticFaces.SIGNATURE_SIZE);
+  }
+
+  @Benchmark
+  public float[] decodeBlob() {
+    SignatureCodec.decode(blobs[next++ & (SIGNATURE_COUNT - 1)], signature, 0);
+    return signature;
+  }
+
+  // The parser FaceMeshDetectorProcessor ran for every stored face on every frame, kept as the
+  // baseline.
+  private static ArrayList<Double> stringToArrayList(String inputString) {
+    ArrayList<Double> doubleArrayList = new ArrayList<>();
+    String[] stringNumbersArray = inputString.substring(1, inputString.length() - 1).split(",");
+    for (String stringNumber : stringNumbersArray) {
+      doubleArrayList.add(Double.parseDouble(stringNumber.trim()));
+    }
+    return doubleArrayList;
+  }
+}
@@ -0,0 +1,35 @@
+package com.google.mlkit.vision.demo.java.custom.benchmark;
+
+import com.google.mlkit.vision.demo.java.custom.FaceSignatureExtractor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Cost of turning the landmarks of one face into its signature. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SignatureExtractionBenchmark {
+
+  private static final int FACE_COUNT = 256;
+
+  private float[][] faces;
+  private final float[] signature = new float[FaceSignatureExtractor.SIGNATURE_SIZE];
+  private int next;
+
+  @Setup
+  public void setUp() {
+    faces = SyntheticFaces.landmarks(FACE_COUNT, /* seed= */ 1);
+  }
+
+  @Benchmark
+  public float[] extract() {
+    FaceSignatureExtractor.extract(faces[next++ & (FACE_COUNT - 1)], signature);
+    return signature;
+  }
+}
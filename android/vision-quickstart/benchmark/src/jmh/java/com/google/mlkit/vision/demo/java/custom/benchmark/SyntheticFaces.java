@@ -0,0 +1,92 @@
+package com.google.mlkit.vision.demo.java.custom.benchmark;
+
+import com.google.mlkit.vision.demo.java.custom.FaceSignatureExtractor;
+import java.util.Random;
+
+/** Deterministic synthetic landmarks and signatures for the benchmarks. */
+final class SyntheticFaces {
+
+  static final int SIGNATURE_SIZE = FaceSignatureExtractor.SIGNATURE_SIZE;
+
+  // Enrolled samples per synthetic person.
+  static final int SAMPLES_PER_PERSON = 10;
+
+  private SyntheticFaces() {}
+
+  /** Returns {@code count} packed landmark arrays of faces roughly 300 pixels wide. */
+  static float[][] landmarks(int count, long seed) {
+    Random random = new Random(seed);
+    float[][] faces = new float[count][FaceSignatureExtractor.LANDMARKS_LENGTH];
+    for (float[] face : faces) {
+      float centerX = 200 + random.nextFloat() * 400;
+      float centerY = 200 + random.nextFloat() * 400;
+      for (int i = 0; i < face.length; i += 3) {
+        face[i] = centerX + (random.nextFloat() - 0.5f) * 300;
+        face[i + 1] = centerY + (random.nextFloat() - 0.5f) * 300;
+        face[i + 2] = (random.nextFloat() - 0.5f) * 50;
+      }
+    }
+    return faces;
+  }
+
+  /**
+   * Returns {@code count} signatures packed back to back, {@link #SAMPLES_PER_PERSON} consecutive
+   * ones per person, scattered around per-person centers the way repeated captures of one face
+   * are.
+   */
+  static float[] gallery(int count, long seed) {
+    Random random = new Random(seed);
+    float[] rows = new float[count * SIGNATURE_SIZE];
+    float[] center = new float[SIGNATURE_SIZE];
+    for (int row = 0; row < count; row++) {
+      if (row % SAMPLES_PER_PERSON == 0) {
+        randomCenter(random, center);
+      }
+      jitter(random, center, rows, row * SIGNATURE_SIZE);
+    }
+    return rows;
+  }
+
+  /** Returns {@code count} queries, each a fresh capture of a random person of {@code gallery}. */
+  static float[][] queries(float[] gallery, int count, long seed) {
+    Random random = new Random(seed);
+    int rowCount = gallery.length / SIGNATURE_SIZE;
+    float[][] queries = new float[count][SIGNATURE_SIZE];
+    for (float[] query : queries) {
+      int row = random.nextInt(rowCount);
+      jitter(random, copyOf(gallery, row), query, 0);
+    }
+    return queries;
+  }
+
+  /** Formats a signature the way the first version of the face database stored it. */
+  static String toLegacyText(float[] signature) {
+    StringBuilder text = new StringBuilder("[");
+    for (int i = 0; i < SIGNATURE_SIZE; i++) {
+      if (i > 0) {
+        text.append(", ");
+      }
+      text.append((double) signature[i]);
+    }
+    return text.append(']').toString();
+  }
+
+  private static float[] copyOf(float[] rows, int row) {
+    float[] signature = new float[SIGNATURE_SIZE];
+    System.arraycopy(rows, row * SIGNATURE_SIZE, signature, 0, SIGNATURE_SIZE);
+    return signature;
+  }
+
+  private static void randomCenter(Random random, float[] center) {
+    float mean = FaceSignatureExtractor.REFERENCE_MEAN_DISTANCE;
+    for (int i = 0; i < SIGNATURE_SIZE; i++) {
+      center[i] = mean + (float) random.nextGaussian() * 12;
+    }
+  }
+
+  private static void jitter(Random random, float[] center, float[] out, int offset) {
+    for (int i = 0; i < SIGNATURE_SIZE; i++) {
+      out[offset + i] = center[i] + (float) random.nextGaussian() * 1.5f;
+    }
+  }
+}